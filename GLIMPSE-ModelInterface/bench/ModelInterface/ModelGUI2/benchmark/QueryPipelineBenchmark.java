@@ -0,0 +1,375 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.basex.core.Context;
+import org.basex.core.cmd.CreateDB;
+import org.basex.query.iter.Iter;
+import org.basex.query.value.item.Item;
+import org.basex.query.value.node.ANode;
+
+import ModelInterface.ModelGUI2.DbViewer;
+import ModelInterface.ModelGUI2.ScenarioDiffEngine;
+import ModelInterface.ModelGUI2.ScenarioListItem;
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+import ModelInterface.ModelGUI2.tables.ComboTableModel;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
+import ModelInterface.ModelGUI2.xmldb.QueryResultCache;
+import ModelInterface.ModelGUI2.xmldb.XMLDB;
+import ModelInterface.ModelGUI2.xmldb.XMLDBIndexProfile;
+import ModelInterface.common.DataPair;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Measures the cost of each stage of running a query and building its results
+ * table.  A temporary database is loaded with scenarios from a
+ * SyntheticScenarioGenerator and then each stage is timed:
+ * <ul>
+ * <li>createQuery: running the XQuery and reading every result</li>
+ * <li>addToDataTree: categorizing the results which were already read</li>
+ * <li>buildTable: building a ComboTableModel from scratch</li>
+ * <li>diff: diffing the scenarios in the table</li>
+ * <li>exportToText: exporting the table as CSV</li>
+ * </ul>
+ * Each stage is run repeatedly for a number of warmup and then measured
+ * iterations of fixed length and the average time per operation is reported.
+ * The result cache is disabled so that every table is built from the query.
+ * <p>
+ * This is run headless from the command line, use -help for the options.
+ */
+public class QueryPipelineBenchmark {
+	/**
+	 * The query which is benchmarked, from the standard query file.
+	 */
+	private static final String QUERY = "<supplyDemandQuery title=\"outputs by tech\">"
+		+"<axis1 name=\"technology\">technology[@name]</axis1>"
+		+"<axis2 name=\"Year\">physical-output[@vintage]</axis2>"
+		+"<xPath buildList=\"true\" dataName=\"output\" group=\"false\" sumAll=\"false\">"
+		+"*[@type='sector']/*[@type='subsector']/*[@type='technology']/*[@type='output']/physical-output/node()"
+		+"</xPath><comments/></supplyDemandQuery>";
+
+	/**
+	 * A stage of the pipeline to measure.
+	 */
+	private static abstract class Benchmark {
+		final String name;
+		Benchmark(String name) {
+			this.name = name;
+		}
+		/**
+		 * Prepare anything the operation needs which should not be measured.
+		 */
+		void setUp() throws Exception {
+		}
+		/**
+		 * The operation to measure.
+		 * @return The result which is consumed so that it is not optimized away.
+		 */
+		abstract Object run() throws Exception;
+		void tearDown() throws Exception {
+		}
+	}
+
+	private final QueryGenerator qg;
+	private final Object[] scenarios;
+	private final Object[] regions;
+	private final int warmupIterations;
+	private final int iterations;
+	private final long iterationNanos;
+
+	/**
+	 * Keeps the results of each operation reachable.
+	 */
+	private int sink;
+
+	private ComboTableModel table;
+	private QueryLease query;
+	private List<ANode> results;
+
+	private QueryPipelineBenchmark(Object[] scenarios, Object[] regions, int warmupIterations,
+			int iterations, long iterationMillis) throws Exception {
+		this.qg = new QueryGenerator(DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(QUERY.getBytes(StandardCharsets.UTF_8))).getDocumentElement());
+		this.scenarios = scenarios;
+		this.regions = regions;
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+	}
+
+	private List<Benchmark> getBenchmarks() {
+		final List<Benchmark> ret = new ArrayList<Benchmark>();
+		ret.add(new Benchmark("createQuery") {
+			Object run() throws Exception {
+				try(QueryLease query = XMLDB.getInstance().createQuery(qg, scenarios, regions)) {
+					final Iter res = query.getQuery().iter();
+					int count = 0;
+					while(res.next() != null) {
+						++count;
+					}
+					return count;
+				}
+			}
+		});
+		ret.add(new Benchmark("addToDataTree") {
+			void setUp() throws Exception {
+				query = XMLDB.getInstance().createQuery(qg, scenarios, regions);
+				results = new ArrayList<ANode>();
+				final Iter res = query.getQuery().iter();
+				for(Item item; (item = res.next()) != null; ) {
+					results.add((ANode)item);
+				}
+			}
+			Object run() throws Exception {
+				final Map<String, Object> dataTree = new TreeMap<String, Object>();
+				final DataPair<String, String> axisValues = new DataPair<String, String>();
+				try {
+					for(ANode node : results) {
+						qg.addToDataTree(node.parent(), dataTree, axisValues, false);
+					}
+				} finally {
+					qg.clearDataTreePathCache();
+				}
+				return dataTree;
+			}
+			void tearDown() throws Exception {
+				results = null;
+				query.close();
+			}
+		});
+		ret.add(new Benchmark("buildTable") {
+			Object run() throws Exception {
+				return new ComboTableModel(qg, scenarios, regions, null, null);
+			}
+		});
+		ret.add(new Benchmark("diff") {
+			void setUp() throws Exception {
+				table = new ComboTableModel(qg, scenarios, regions, null, null);
+			}
+			Object run() throws Exception {
+				return new ScenarioDiffEngine(((ScenarioListItem)scenarios[0]).getScnName(), false).diff(table);
+			}
+		});
+		ret.add(new Benchmark("exportToText") {
+			void setUp() throws Exception {
+				table = new ComboTableModel(qg, scenarios, regions, null, null);
+			}
+			Object run() throws Exception {
+				return table.exportToText(',');
+			}
+			void tearDown() throws Exception {
+				table = null;
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * Run a benchmark and collect the time per operation of each measured iteration.
+	 * @param benchmark The benchmark to run.
+	 * @return The milliseconds per operation for each iteration.
+	 * @throws Exception If the operation failed.
+	 */
+	private double[] measure(Benchmark benchmark) throws Exception {
+		final double[] ret = new double[iterations];
+		benchmark.setUp();
+		try {
+			for(int i = 0; i < warmupIterations + iterations; ++i) {
+				final long start = System.nanoTime();
+				long elapsed;
+				int ops = 0;
+				do {
+					sink += System.identityHashCode(benchmark.run());
+					++ops;
+				} while((elapsed = System.nanoTime() - start) < iterationNanos);
+				if(i >= warmupIterations) {
+					ret[i - warmupIterations] = elapsed / 1e6 / ops;
+				}
+			}
+		} finally {
+			benchmark.tearDown();
+		}
+		return ret;
+	}
+
+	/**
+	 * Create a database with the generated scenarios.
+	 * @param dbLocation The path of the database to create.
+	 * @param generator The generator of the scenarios.
+	 * @param numScenarios The number of scenarios to add.
+	 * @throws Exception If the database could not be created.
+	 */
+	private static void createDatabase(File dbLocation, SyntheticScenarioGenerator generator,
+			int numScenarios) throws Exception {
+		// XMLDB only creates databases after asking the user so create it directly
+		System.setProperty("org.basex.DBPATH", dbLocation.getParentFile().getCanonicalPath());
+		final Context context = new Context();
+		try {
+			XMLDBIndexProfile.getDefault().applyTo(context.options);
+			new CreateDB(dbLocation.getName()).execute(context);
+		} finally {
+			context.close();
+		}
+		final File scenarioDir = new File(dbLocation.getParentFile(), "scenarios");
+		scenarioDir.mkdirs();
+		XMLDB.openDatabase(dbLocation.getPath());
+		final File[] files = generator.generate(scenarioDir, numScenarios);
+		if(!XMLDB.getInstance().addFiles(files).getFailedFiles().isEmpty()) {
+			throw new Exception("Could not add the generated scenarios");
+		}
+	}
+
+	private static void deleteRecursively(File dir) throws IOException {
+		try(Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		OptionParser parser = new OptionParser();
+		parser.accepts("help", "print usage information").forHelp();
+		OptionSpec<Integer> regionsOpt = parser.accepts("regions", "number of regions").withRequiredArg().ofType(Integer.class).defaultsTo(32);
+		OptionSpec<Integer> sectorsOpt = parser.accepts("sectors", "number of sectors per region").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+		OptionSpec<Integer> subsectorsOpt = parser.accepts("subsectors", "number of subsectors per sector").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		OptionSpec<Integer> techsOpt = parser.accepts("technologies", "number of technologies per subsector").withRequiredArg().ofType(Integer.class).defaultsTo(4);
+		OptionSpec<Integer> yearsOpt = parser.accepts("years", "number of model years from "+SyntheticScenarioGenerator.START_YEAR).withRequiredArg().ofType(Integer.class).defaultsTo(18);
+		OptionSpec<Integer> scenariosOpt = parser.accepts("scenarios", "number of scenarios").withRequiredArg().ofType(Integer.class).defaultsTo(2);
+		OptionSpec<Long> seedOpt = parser.accepts("seed", "seed for the generated values").withRequiredArg().ofType(Long.class).defaultsTo(42L);
+		OptionSpec<Integer> warmupOpt = parser.accepts("wi", "number of warmup iterations").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		OptionSpec<Integer> iterationsOpt = parser.accepts("i", "number of measured iterations").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+		OptionSpec<Integer> timeOpt = parser.accepts("time", "length of each iteration in milliseconds").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+		OptionSpec<String> benchOpt = parser.accepts("b", "only run the named benchmarks").withRequiredArg().withValuesSeparatedBy(',');
+		OptionSpec<File> csvOpt = parser.accepts("csv", "also write the results to a CSV file").withRequiredArg().ofType(File.class);
+		parser.accepts("verbose", "do not suppress the Model Interface output");
+		OptionSet opts = parser.parse(args);
+		if(opts.has("help")) {
+			System.out.println("Usage: java -cp <class path> "+QueryPipelineBenchmark.class.getName()+" [options]");
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		final PrintStream report = System.out;
+		if(!opts.has("verbose")) {
+			System.setOut(new PrintStream(new OutputStream() {
+				public void write(int b) {
+				}
+				public void write(byte[] b, int off, int len) {
+				}
+			}));
+		}
+		System.setProperty(QueryResultCache.ENABLED_PROPERTY, "false");
+
+		final SyntheticScenarioGenerator generator = new SyntheticScenarioGenerator(opts.valueOf(regionsOpt),
+				opts.valueOf(sectorsOpt), opts.valueOf(subsectorsOpt), opts.valueOf(techsOpt),
+				opts.valueOf(yearsOpt), opts.valueOf(seedOpt));
+		final int numScenarios = opts.valueOf(scenariosOpt);
+		final File workDir = Files.createTempDirectory("mi-benchmark").toFile();
+		final List<String> names = new ArrayList<String>();
+		final List<double[]> times = new ArrayList<double[]>();
+		try {
+			report.println("Loading "+numScenarios+" scenarios with "+generator.getValuesPerScenario()+" values each");
+			long start = System.currentTimeMillis();
+			createDatabase(new File(workDir, "benchdb"), generator, numScenarios);
+			report.println("Loaded in "+(System.currentTimeMillis() - start)+" ms");
+
+			final Vector<ScenarioListItem> scenarios = DbViewer.getScenarios(XMLDB.getInstance());
+			final QueryPipelineBenchmark runner = new QueryPipelineBenchmark(scenarios.toArray(),
+					generator.getRegionNames(), opts.valueOf(warmupOpt), opts.valueOf(iterationsOpt),
+					opts.valueOf(timeOpt));
+			final List<String> selected = opts.valuesOf(benchOpt);
+			for(Benchmark benchmark : runner.getBenchmarks()) {
+				if(!selected.isEmpty() && !selected.contains(benchmark.name)) {
+					continue;
+				}
+				report.println("Running "+benchmark.name);
+				names.add(benchmark.name);
+				times.add(runner.measure(benchmark));
+			}
+		} finally {
+			XMLDB.closeDatabase();
+			deleteRecursively(workDir);
+		}
+
+		report.println();
+		report.println(String.format("%-16s %12s %12s %12s %12s", "Benchmark", "ms/op", "error", "min", "max"));
+		PrintStream csv = null;
+		if(opts.has(csvOpt)) {
+			csv = new PrintStream(new FileOutputStream(opts.valueOf(csvOpt)), true, "UTF-8");
+			csv.println("benchmark,regions,sectors,subsectors,technologies,years,scenarios,mean,stddev,min,max");
+		}
+		try {
+			for(int b = 0; b < names.size(); ++b) {
+				final double[] t = times.get(b);
+				double sum = 0, min = Double.MAX_VALUE, max = 0;
+				for(double v : t) {
+					sum += v;
+					min = Math.min(min, v);
+					max = Math.max(max, v);
+				}
+				final double mean = sum / t.length;
+				double var = 0;
+				for(double v : t) {
+					var += (v - mean) * (v - mean);
+				}
+				final double stddev = t.length > 1 ? Math.sqrt(var / (t.length - 1)) : 0;
+				report.println(String.format("%-16s %12.3f %12.3f %12.3f %12.3f", names.get(b), mean, stddev, min, max));
+				if(csv != null) {
+					csv.println(names.get(b)+","+opts.valueOf(regionsOpt)+","+opts.valueOf(sectorsOpt)+","
+							+opts.valueOf(subsectorsOpt)+","+opts.valueOf(techsOpt)+","+opts.valueOf(yearsOpt)+","
+							+numScenarios+","+mean+","+stddev+","+min+","+max);
+				}
+			}
+		} finally {
+			if(csv != null) {
+				csv.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates scenario files shaped like GCAM output so that the query and table
+ * pipeline can be exercised without a real model run.  Each region contains the
+ * configured number of sectors, subsectors and technologies and each technology
+ * reports a physical output for every model year.
+ * <p>
+ * The values only depend on the seed and the position in the tree so the same
+ * settings always generate the same files.  Each scenario scales the reference
+ * values slightly so that scenarios may be meaningfully diffed.
+ */
+public class SyntheticScenarioGenerator {
+	/**
+	 * The first model year.
+	 */
+	public static final int START_YEAR = 2015;
+
+	/**
+	 * The number of years between model periods.
+	 */
+	public static final int YEAR_STEP = 5;
+
+	private final int numRegions;
+	private final int numSectors;
+	private final int numSubsectors;
+	private final int numTechnologies;
+	private final int numYears;
+	private final long seed;
+
+	/**
+	 * @param numRegions The number of regions in each scenario.
+	 * @param numSectors The number of sectors in each region.
+	 * @param numSubsectors The number of subsectors in each sector.
+	 * @param numTechnologies The number of technologies in each subsector.
+	 * @param numYears The number of model years starting from START_YEAR.
+	 * @param seed The seed for the generated values.
+	 */
+	public SyntheticScenarioGenerator(int numRegions, int numSectors, int numSubsectors,
+			int numTechnologies, int numYears, long seed) {
+		this.numRegions = numRegions;
+		this.numSectors = numSectors;
+		this.numSubsectors = numSubsectors;
+		this.numTechnologies = numTechnologies;
+		this.numYears = numYears;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return The names of the generated regions.
+	 */
+	public String[] getRegionNames() {
+		final String[] ret = new String[numRegions];
+		for(int i = 0; i < numRegions; ++i) {
+			ret[i] = getRegionName(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * @param index The scenario index.
+	 * @return The name of the scenario.
+	 */
+	public String getScenarioName(int index) {
+		return "Scenario"+index;
+	}
+
+	/**
+	 * @return The number of values written for each scenario.
+	 */
+	public long getValuesPerScenario() {
+		return (long)numRegions * numSectors * numSubsectors * numTechnologies * numYears;
+	}
+
+	/**
+	 * Write scenario files into the given directory.
+	 * @param dir The directory to write to.
+	 * @param numScenarios The number of scenarios to write.
+	 * @return The files written.
+	 * @throws IOException If a file could not be written.
+	 */
+	public File[] generate(File dir, int numScenarios) throws IOException {
+		final File[] ret = new File[numScenarios];
+		for(int i = 0; i < numScenarios; ++i) {
+			ret[i] = new File(dir, getScenarioName(i)+".xml");
+			writeScenario(i, ret[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Write a single scenario.
+	 * @param index The scenario index.
+	 * @param file The file to write to.
+	 * @throws IOException If the file could not be written.
+	 */
+	public void writeScenario(int index, File file) throws IOException {
+		// the reference values are drawn in the same order for every scenario
+		final Random rand = new Random(seed);
+		final Random noise = new Random(seed * 31 + index);
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<scenario name=\""+getScenarioName(index)+"\" date=\"2000-1-1T00:00:00-00:00\">\n");
+			out.write("<world>\n");
+			for(int r = 0; r < numRegions; ++r) {
+				out.write("<region name=\""+getRegionName(r)+"\" type=\"region\">\n");
+				for(int s = 0; s < numSectors; ++s) {
+					final String sector = "sector"+s;
+					out.write("<supplysector name=\""+sector+"\" type=\"sector\">\n");
+					for(int ss = 0; ss < numSubsectors; ++ss) {
+						out.write("<subsector name=\""+sector+"-sub"+ss+"\" type=\"subsector\">\n");
+						for(int t = 0; t < numTechnologies; ++t) {
+							final String tech = sector+"-sub"+ss+"-tech"+t;
+							double value = 1 + rand.nextDouble() * 100;
+							final double growth = rand.nextDouble() * 0.04 - 0.01;
+							for(int y = 0; y < numYears; ++y) {
+								final int year = START_YEAR + y * YEAR_STEP;
+								final double scaled = value * (1 + index * 0.02 * noise.nextDouble());
+								out.write("<technology name=\""+tech+"\" year=\""+year+"\" type=\"technology\">");
+								out.write("<output-primary name=\""+sector+"\" type=\"output\">");
+								out.write("<physical-output unit=\"EJ\" vintage=\""+year+"\">"+scaled+"</physical-output>");
+								out.write("</output-primary></technology>\n");
+								value *= 1 + growth;
+							}
+						}
+						out.write("</subsector>\n");
+					}
+					out.write("</supplysector>\n");
+				}
+				out.write("</region>\n");
+			}
+			out.write("</world>\n");
+			out.write("</scenario>\n");
+		}
+	}
+
+	private static String getRegionName(int index) {
+		return "Region"+index;
+	}
+}
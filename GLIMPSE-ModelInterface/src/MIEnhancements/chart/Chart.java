@@ -34,12 +34,8 @@ package chart;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.TexturePaint;
-import java.io.DataInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -196,53 +192,21 @@ public class Chart {
 	protected void getlegendInfo(String[] legends) {
 		if (path == null)
 			return;
-		Object[] temp = legendInfoFromProperties(path);
-		if (temp.length == 0)
+		LegendStyleRegistry registry = LegendStyleRegistry.get(path);
+		if (registry.getLines().length == 0)
 			return;
-		String[] tempStr = readLegendItemsFromProperties();
-		String[] queryStr = readQueryInfoFromProperties();
 		String queryNameForChart = "\"" + (chart.getTitle().getText() != null && !chart.getTitle().getText().isEmpty() ? chart.getTitle().getText() : this.graphName) + "\"";
 		for (int i = 0; i < legends.length; i++) {
-			int idx = Arrays.asList(tempStr).indexOf(legends[i].trim());
-			int idx_last = Arrays.asList(tempStr).lastIndexOf(legends[i].trim());
-			String[] o = new String[4];
-			if (idx > -1 && idx == idx_last) {
-				String queryNameInLine = Arrays.asList(queryStr).get(idx);
-				if (queryNameInLine.equals(queryNameForChart)) {
-					o = ((String) temp[idx]).split("=")[1].split(",");
-					color[i] = Integer.valueOf(o[0].trim());
-					pColor[i] = Integer.valueOf(o[1].trim());
-					pattern[i] = Integer.valueOf(o[2].trim());
-					lineStrokes[i] = Integer.valueOf(o[3].trim());
-					if (debug)
-						System.out.println("Chart::getlegendInfo:legend: " + legends[i] + " color: " + color[i]
-							+ " pattern: " + pattern[i] + " lineStrokes: " + lineStrokes[i]);
-				} else if (queryNameInLine.equals("*")) {
-					o = ((String) temp[idx]).split("=")[1].split(",");
-					color[i] = Integer.valueOf(o[0].trim());
-					pColor[i] = Integer.valueOf(o[1].trim());
-					pattern[i] = Integer.valueOf(o[2].trim());
-					lineStrokes[i] = Integer.valueOf(o[3].trim());
-				}
-			} else if (idx > -1 && idx != idx_last) {
-				for (int idxN = idx; idxN <= idx_last; idxN++) {
-					String queryNameAtIdx = Arrays.asList(queryStr).get(idxN);
-					String legendInFile = Arrays.asList(tempStr).get(idxN);
-					if (queryNameAtIdx.equals(queryNameForChart) && legendInFile.equals(legends[i].trim())) {
-						o = ((String) temp[idxN]).split("=")[1].split(",");
-						color[i] = Integer.valueOf(o[0].trim());
-						pColor[i] = Integer.valueOf(o[1].trim());
-						pattern[i] = Integer.valueOf(o[2].trim());
-						lineStrokes[i] = Integer.valueOf(o[3].trim());
-					} else if (queryNameAtIdx.equals("*") && legendInFile.equals(legends[i].trim())) {
-						o = ((String) temp[idxN]).split("=")[1].split(",");
-						color[i] = Integer.valueOf(o[0].trim());
-						pColor[i] = Integer.valueOf(o[1].trim());
-						pattern[i] = Integer.valueOf(o[2].trim());
-						lineStrokes[i] = Integer.valueOf(o[3].trim());
-					}
-				}
-			}
+			int[] o = registry.getStyle(queryNameForChart, legends[i].trim());
+			if (o == null || o.length < 4)
+				continue;
+			color[i] = o[0];
+			pColor[i] = o[1];
+			pattern[i] = o[2];
+			lineStrokes[i] = o[3];
+			if (debug)
+				System.out.println("Chart::getlegendInfo:legend: " + legends[i] + " color: " + color[i]
+					+ " pattern: " + pattern[i] + " lineStrokes: " + lineStrokes[i]);
 		}
 	}
 
@@ -260,6 +224,7 @@ public class Chart {
 		String[] writestr = tempstr.toArray(new String[0]);
 		FileOutputStream fos = FileUtil.initOutFile(path);
 		FileUtil.writetofile(fos, writestr);
+		LegendStyleRegistry.invalidate(path);
 	}
 
 	/**
@@ -314,6 +279,7 @@ public class Chart {
 		String[] writestr = lines.toArray(new String[0]);
 		FileOutputStream fos = FileUtil.initOutFile(path, false);
 		FileUtil.writetofile(fos, writestr);
+		LegendStyleRegistry.invalidate(path);
 	}
 
 	/**
@@ -366,6 +332,7 @@ public class Chart {
 		String[] writestr = lines.toArray(new String[0]);
 		FileOutputStream fos = FileUtil.initOutFile(path, false);
 		FileUtil.writetofile(fos, writestr);
+		LegendStyleRegistry.invalidate(path);
 	}
 
 	/**
@@ -376,7 +343,8 @@ public class Chart {
 	 */
 	public ArrayList<String> legendInfoFromProperties(String[] legends, String[] color) {
 		ArrayList<String> tempstrAl = new ArrayList<>();
-		Object[] temp = legendInfoFromProperties(path);
+		LegendStyleRegistry registry = LegendStyleRegistry.get(path);
+		Object[] temp = registry.getLines();
 		String queryNameForChart = "\"" + chart.getTitle().getText() + "\"";
 		if (temp.length == 0) {
 			for (int i = 0; i < legends.length; i++)
@@ -405,85 +373,22 @@ public class Chart {
 					}
 				}
 			}
-			String[] tempStr = readLegendItemsFromProperties();
 			for (int i = 0; i < legends.length; i++) {
 				String key = legends[i].trim();
-				if (!Arrays.asList(tempStr).contains(key))
+				if (!registry.containsItem(key))
 					tempstrAl.add(key + "=" + color[i]);
 			}
 		}
 		return tempstrAl;
 	}
 
-	/**
-	 * Read legend items from properties file.
-	 * @return Array of legend item strings
-	 */
-	private String[] readLegendItemsFromProperties() {
-		Object[] temp = legendInfoFromProperties(path);
-		String[] tempStr = new String[temp.length];
-		for (int i = 0; i < temp.length; i++) {
-			String myLine = (String) temp[i];
-			if (myLine.contains(":") && !myLine.contains("*")) {
-				String secondPart = ((String) temp[i]).split(":")[1].trim();
-				tempStr[i] = secondPart.split("=")[0].trim();
-				if (debug)
-					System.out.println("Chart::readLegendItemsFromProperties:read a local line.");
-			} else {
-				String firstPart = ((String) temp[i]).split("=")[0].trim();
-				if (firstPart.startsWith("*:")) {
-					tempStr[i] = firstPart.replace("*:", "");
-				} else {
-					tempStr[i] = firstPart;
-				}
-			}
-		}
-		return tempStr;
-	}
-
-	/**
-	 * Read query info from properties file.
-	 * @return Array of query info strings
-	 */
-	private String[] readQueryInfoFromProperties() {
-		Object[] temp = legendInfoFromProperties(path);
-		String[] queryStr = new String[temp.length];
-		for (int i = 0; i < temp.length; i++) {
-			String myLine = (String) temp[i];
-			if (myLine.contains(":") && !myLine.contains("*")) {
-				String queryNameInFile = ((String) temp[i]).split(":")[0].trim();
-				queryStr[i] = queryNameInFile;
-			} else {
-				String firstPart = ((String) temp[i]).split("=")[0].trim();
-				if (firstPart.startsWith("*:")) {
-					queryStr[i] = "*";
-				} else {
-					queryStr[i] = "*";
-				}
-			}
-		}
-		return queryStr;
-	}
-
 	/**
 	 * Get legend information from a property file.
 	 * @param path legend data property file location (not null)
 	 * @return Array of legend data
 	 */
 	public Object[] legendInfoFromProperties(String path) {
-		LineNumberReader lineReader = null;
-		Object[] temp = null;
-		try {
-			DataInputStream dis = FileUtil.initInFile(path);
-			lineReader = new LineNumberReader(new InputStreamReader(dis));
-			temp = lineReader.lines().toArray();
-			lineReader.close();
-		} catch (FileNotFoundException e) {
-			System.out.println("Legend info not read (FNF): " + e.toString());
-		} catch (IOException e) {
-			System.out.println("Legend info not read (e): " + e.toString());
-		}
-		return temp;
+		return LegendStyleRegistry.get(path).getLines().clone();
 	}
 
 	/**
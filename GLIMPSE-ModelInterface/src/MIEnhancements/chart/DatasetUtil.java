@@ -49,6 +49,8 @@ import org.jfree.data.general.AbstractDataset;
 import org.jfree.data.statistics.DefaultBoxAndWhiskerCategoryDataset;
 import org.jfree.data.xy.DefaultXYDataset;
 import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
 
 import conversionUtil.ArrayConversion;
 import graphDisplay.GraphDisplayUtil;
@@ -276,17 +278,12 @@ public class DatasetUtil {
 	 */
 	public static CategoryDataset getSubsetColumnDataset1(int[] col, JFreeChart chart) {
 		CategoryDataset ds = chart.getCategoryPlot().getDataset(0);
-		String[][] data = new String[ds.getRowCount()][col.length];
-		String[] column = new String[col.length];
-		String[] row = new String[ds.getRowCount()];
+		DefaultCategoryDataset subds = new DefaultCategoryDataset();
 		for (int i = 0; i < ds.getRowCount(); i++) {
-			row[i] = (String) ds.getRowKey(i);
-			for (int j = 0; j < col.length; j++) {
-				column[j] = (String) ds.getColumnKey(col[j]);
-				data[i][j] = String.valueOf(ds.getValue(i, col[j]));
-			}
+			String row = ((String) ds.getRowKey(i)).trim();
+			for (int j = 0; j < col.length; j++)
+				subds.addValue(ds.getValue(i, col[j]), row, ((String) ds.getColumnKey(col[j])).trim());
 		}
-		CategoryDataset subds = new MyDataset().createCategoryDataset(data, row, column);
 		return subds;
 	}
 
@@ -298,17 +295,13 @@ public class DatasetUtil {
 	 * @return Subset AbstractDataset
 	 */
 	public static AbstractDataset getSubsetColumnXYDataset(int[] col, XYDataset ds) {
-		String[][] data = new String[ds.getSeriesCount()][col.length];
-		String[] column = new String[col.length];
-		String[] row = new String[ds.getSeriesCount()];
+		XYSeriesCollection subds = new XYSeriesCollection();
 		for (int i = 0; i < ds.getSeriesCount(); i++) {
-			row[i] = (String) ds.getSeriesKey(i);
-			for (int j = 0; j < col.length; j++) {
-				column[j] = String.valueOf(ds.getXValue(i, col[j]));
-				data[i][j] = String.valueOf(ds.getYValue(i, col[j]));
-			}
+			XYSeries s1 = new XYSeries((String) ds.getSeriesKey(i), true, true);
+			for (int j = 0; j < col.length; j++)
+				s1.add(ds.getXValue(i, col[j]), ds.getYValue(i, col[j]));
+			subds.addSeries(s1);
 		}
-		AbstractDataset subds = (AbstractDataset) new MyDataset().createXYDataset(data, row, column);
 		return subds;
 	}
 
@@ -339,17 +332,12 @@ public class DatasetUtil {
 	 * @return Subset AbstractDataset
 	 */
 	public static AbstractDataset getSubsetRowDataset(int[] r, CategoryDataset ds) {
-		String[][] data = new String[r.length][ds.getColumnCount()];
-		String[] column = new String[ds.getColumnCount()];
-		String[] row = new String[r.length];
+		DefaultCategoryDataset subds = new DefaultCategoryDataset();
 		for (int i = 0; i < r.length; i++) {
-			row[i] = (String) ds.getRowKey(r[i]);
-			for (int j = 0; j < ds.getColumnCount(); j++) {
-				column[j] = (String) ds.getColumnKey(j);
-				data[i][j] = String.valueOf(ds.getValue(r[i], j));
-			}
+			String row = ((String) ds.getRowKey(r[i])).trim();
+			for (int j = 0; j < ds.getColumnCount(); j++)
+				subds.addValue(ds.getValue(r[i], j), row, ((String) ds.getColumnKey(j)).trim());
 		}
-		AbstractDataset subds = new MyDataset().createCategoryDataset(data, row, column);
 		return subds;
 	}
 
@@ -361,17 +349,12 @@ public class DatasetUtil {
 	 * @return Subset AbstractDataset
 	 */
 	public static AbstractDataset getSubsetRowDataset(int[] r, XYDataset ds) {
-		String[][] data = new String[r.length][ds.getItemCount(0)];
-		String[] column = new String[ds.getItemCount(0)];
-		String[] row = new String[r.length];
+		DefaultCategoryDataset subds = new DefaultCategoryDataset();
 		for (int i = 0; i < r.length; i++) {
-			row[i] = (String) ds.getSeriesKey(r[i]);
-			for (int j = 0; j < ds.getItemCount(i); j++) {
-				column[j] = String.valueOf(ds.getX(r[i], j));
-				data[i][j] = String.valueOf(ds.getYValue(r[i], j));
-			}
+			String row = ((String) ds.getSeriesKey(r[i])).trim();
+			for (int j = 0; j < ds.getItemCount(r[i]); j++)
+				subds.addValue(ds.getYValue(r[i], j), row, String.valueOf(ds.getX(r[i], j)).trim());
 		}
-		AbstractDataset subds = new MyDataset().createCategoryDataset(data, row, column);
 		return subds;
 	}
 
@@ -402,13 +385,24 @@ public class DatasetUtil {
 	 * @return 2D String array of differences
 	 */
 	public static String[][] getDiffData(CategoryDataset ds1, CategoryDataset ds2, List<String> rowKeys) {
-		String[][] data = new String[rowKeys.size()][ds1.getColumnCount()];
+		return conversionUtil.DataConversion.Double2String(getDiffDataD(ds1, ds2, rowKeys));
+	}
+
+	/**
+	 * Returns the difference between two CategoryDatasets for specified row keys.
+	 * 
+	 * @param ds1     First CategoryDataset
+	 * @param ds2     Second CategoryDataset
+	 * @param rowKeys List of row keys
+	 * @return 2D double array of differences
+	 */
+	public static double[][] getDiffDataD(CategoryDataset ds1, CategoryDataset ds2, List<String> rowKeys) {
+		double[][] data = new double[rowKeys.size()][ds1.getColumnCount()];
 		double[][] ds1D = getCategoryData(ds1, rowKeys);
 		double[][] ds2D = getCategoryData(ds2, rowKeys);
 		for (int i = 0; i < ds1D.length; i++) {
 			for (int n = 0; n < ds2.getColumnCount(); n++) {
-				double d = ds1D[i][n] - ds2D[i][n];
-				data[i][n] = String.valueOf(d);
+				data[i][n] = ds1D[i][n] - ds2D[i][n];
 			}
 		}
 		return data;
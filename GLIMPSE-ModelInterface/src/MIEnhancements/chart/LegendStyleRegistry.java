@@ -0,0 +1,192 @@
+/*
+ * LEGAL NOTICE
+ * This computer software was prepared by US EPA.
+ * THE GOVERNMENT MAKES NO WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+ * LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+ * sentence must appear on any copies of this computer software.
+ * 
+ * EXPORT CONTROL
+ * User agrees that the Software will not be shipped, transferred or
+ * exported into any country or used in any manner prohibited by the
+ * United States Export Administration Act or any other applicable
+ * export laws, restrictions or regulations (collectively the "Export Laws").
+ * Export of the Software may require some form of license or other
+ * authority from the U.S. Government, and failure to obtain such
+ * export control license may result in criminal liability under
+ * U.S. laws. In addition, if the Software is identified as export controlled
+ * items under the Export Laws, User represents and warrants that User
+ * is not a citizen, or otherwise located within, an embargoed nation
+ * (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+ *     and that User is not otherwise prohibited
+ * under the Export Laws from receiving the Software.
+ *
+ * SUPPORT
+ * For the GLIMPSE project, GCAM development, data processing, and support for 
+ * policy implementations has been led by Dr. Steven J. Smith of PNNL, via Interagency 
+ * Agreements 89-92423101 and 89-92549601. Contributors * from PNNL include 
+ * Maridee Weber, Catherine Ledna, Gokul Iyer, Page Kyle, Marshall Wise, Matthew 
+ * Binsted, and Pralit Patel. Coding contributions have also been made by Aaron 
+ * Parks and Yadong Xu of ARA through the EPA’s Environmental Modeling and 
+ * Visualization Laboratory contract. 
+ */
+package chart;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import chartOptions.FileUtil;
+
+/**
+ * Parsed contents of a legend bundle file such as LegendBundle.properties.
+ * Each line of the file is either global ("item=..." or "*:item=...") or
+ * local to one query ("\"Query Name\":item=..."), and its value holds the
+ * color, pattern color, pattern and line stroke of the legend item. A bundle
+ * is parsed once and shared by all charts until the file changes on disk or
+ * is rewritten through {@link #invalidate(String)}.
+ */
+public class LegendStyleRegistry {
+	/**
+	 * Query name used by global lines.
+	 */
+	public static final String GLOBAL_QUERY = "*";
+
+	private static final HashMap<String, LegendStyleRegistry> registries = new HashMap<>();
+
+	private final long lastModified;
+	private final long length;
+	private final String[] lines;
+	private final int[][] styles;
+	// query + '\n' + item -> index of the last line defining that item for the query
+	private final HashMap<String, Integer> lastLineIndex = new HashMap<>();
+	private final HashSet<String> items = new HashSet<>();
+
+	private LegendStyleRegistry(File file) {
+		lastModified = file.lastModified();
+		length = file.length();
+		lines = readLines(file.getPath());
+		styles = new int[lines.length][];
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i];
+			String query = GLOBAL_QUERY;
+			String item;
+			int colon = line.indexOf(':');
+			if (colon > -1 && !line.contains("*")) {
+				query = line.substring(0, colon).trim();
+				String[] rest = line.substring(colon + 1).split(":");
+				item = rest.length == 0 ? "" : rest[0].split("=")[0].trim();
+			} else {
+				item = line.split("=")[0].trim();
+				if (item.startsWith("*:")) {
+					item = item.replace("*:", "");
+				}
+			}
+			items.add(item);
+			styles[i] = parseStyle(line);
+			if (styles[i] != null) {
+				lastLineIndex.put(query + '\n' + item, i);
+			}
+		}
+	}
+
+	private static String[] readLines(String path) {
+		DataInputStream dis = FileUtil.initInFile(path);
+		if (dis == null) {
+			return new String[0];
+		}
+		try (LineNumberReader lineReader = new LineNumberReader(new InputStreamReader(dis))) {
+			List<String> read = new ArrayList<>();
+			String line;
+			while ((line = lineReader.readLine()) != null) {
+				read.add(line);
+			}
+			return read.toArray(new String[0]);
+		} catch (IOException e) {
+			System.out.println("Legend info not read (e): " + e.toString());
+			return new String[0];
+		}
+	}
+
+	private static int[] parseStyle(String line) {
+		String[] parts = line.split("=");
+		if (parts.length < 2) {
+			return null;
+		}
+		String[] o = parts[1].split(",");
+		int[] style = new int[o.length];
+		try {
+			for (int i = 0; i < o.length; i++) {
+				style[i] = Integer.parseInt(o[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return style;
+	}
+
+	/**
+	 * Gets the registry for a legend bundle file, reading the file if it has not
+	 * been read yet or has changed since it was read.
+	 * @param path legend bundle file location (not null)
+	 * @return the registry of the file
+	 */
+	public static synchronized LegendStyleRegistry get(String path) {
+		File file = new File(path).getAbsoluteFile();
+		String key = file.getPath();
+		LegendStyleRegistry registry = registries.get(key);
+		if (registry == null || registry.lastModified != file.lastModified() || registry.length != file.length()) {
+			registry = new LegendStyleRegistry(file);
+			registries.put(key, registry);
+		}
+		return registry;
+	}
+
+	/**
+	 * Drops the registry of a legend bundle file so it is read again on next use.
+	 * Called after the file has been rewritten.
+	 * @param path legend bundle file location (not null)
+	 */
+	public static synchronized void invalidate(String path) {
+		registries.remove(new File(path).getAbsoluteFile().getPath());
+	}
+
+	/**
+	 * Gets the style of a legend item for a query. As in the file, a line for the
+	 * query or a global line further down overrides the lines above it.
+	 * @param queryName query name in quotes as it appears in the file
+	 * @param item legend item
+	 * @return color, pattern color, pattern and line stroke, or null if the item has no style
+	 */
+	public int[] getStyle(String queryName, String item) {
+		Integer local = lastLineIndex.get(queryName + '\n' + item);
+		Integer global = lastLineIndex.get(GLOBAL_QUERY + '\n' + item);
+		if (local == null && global == null) {
+			return null;
+		}
+		if (local == null || (global != null && global > local)) {
+			return styles[global];
+		}
+		return styles[local];
+	}
+
+	/**
+	 * @param item legend item
+	 * @return whether any line of the file is for the item
+	 */
+	public boolean containsItem(String item) {
+		return items.contains(item);
+	}
+
+	/**
+	 * @return the lines of the file, which must not be modified
+	 */
+	public String[] getLines() {
+		return lines;
+	}
+}
@@ -32,8 +32,11 @@
 */
 package chart;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.data.xy.DefaultXYDataset;
@@ -49,6 +52,8 @@ public class MyChartFactory {
 	 * Debug flag for logging chart creation details.
 	 */
 	private static boolean debug = false;
+	// chart constructors by class name and number of arguments, so each is only looked up once
+	private static final ConcurrentHashMap<String, Constructor<?>> constructors = new ConcurrentHashMap<>();
 
 	/**
 	 * Creates a Chart using a DefaultCategoryDataset and various chart properties.
@@ -84,11 +89,9 @@ public class MyChartFactory {
 		// Prepare constructor arguments
 		Object[] o = { path, graphName, meta, titles, axis_name_unit, legend, color, pColor, pattern, lineStrokes,
 				annotationText, dataset, relativeColIndex, ShowLineAndShape, graphType };
-		Class<?> t = Class.forName(className);
 		if (debug)
-			System.out.println("ChartFactory::createChart1:className: " + t.getName());
-		Chart chart = (Chart) ChartUtil.creatNewInstance(t, o);
-		System.runFinalization();
+			System.out.println("ChartFactory::createChart1:className: " + className);
+		Chart chart = newChart(className, o);
 		return chart;
 	}
 
@@ -120,10 +123,9 @@ public class MyChartFactory {
 		// Prepare constructor arguments
 		Object[] o = { path, graphName, meta, titles, axis_name_unit, legend, color, pColor, pattern, lineStrokes,
 				annotationText, dataset, relativeColIndex, ShowLineAndShape };
-		Class<?> t = Class.forName(className);
 		if (debug)
-			System.out.println("ChartFactory::createChart2:className: " + t.getName());
-		Chart chart = (Chart) ChartUtil.creatNewInstance(t, o);
+			System.out.println("ChartFactory::createChart2:className: " + className);
+		Chart chart = newChart(className, o);
 		return chart;
 	}
 
@@ -151,10 +153,9 @@ public class MyChartFactory {
 		// Prepare constructor arguments
 		Object[] o = { path, graphName, id.trim(), titles, axisName_unit, legend, column, annotationText, data,
 				Integer.valueOf(relativeColIndex) };
-		Class<?> t = Class.forName(className);
 		if (debug)
-			System.out.println("ChartFactory::createChart3:className: " + t.getName());
-		return (Chart) ChartUtil.creatNewInstance(t, o);
+			System.out.println("ChartFactory::createChart3:className: " + className);
+		return newChart(className, o);
 	}
 
 	/**
@@ -177,10 +178,9 @@ public class MyChartFactory {
 			throws ClassNotFoundException {
 		// Prepare constructor arguments
 		Object[] o = { path, graphName, id, titles, axisName_unit, column, annotation, data };
-		Class<?> t = Class.forName(className);
 		if (debug)
-			System.out.println("ChartFactory::createChart4:className: " + t.getName());
-		return (Chart) ChartUtil.creatNewInstance(t, o);
+			System.out.println("ChartFactory::createChart4:className: " + className);
+		return newChart(className, o);
 	}
 
 	/**
@@ -225,4 +225,40 @@ public class MyChartFactory {
 				-1); // relativeColIndex not used in transpose chart
 		return chart;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Creates a chart through the first public constructor of the class which takes
+	 * the given number of arguments. The constructor is cached after the first call.
+	 * 
+	 * @param className Fully qualified chart class name
+	 * @param o         Constructor arguments
+	 * @return The new chart, or null if it could not be created
+	 * @throws ClassNotFoundException if the chart class does not exist
+	 */
+	private static Chart newChart(String className, Object[] o) throws ClassNotFoundException {
+		String key = className + "/" + o.length;
+		Constructor<?> constructor = constructors.get(key);
+		if (constructor == null) {
+			Class<?> t = Class.forName(className);
+			for (Constructor<?> c : t.getConstructors()) {
+				if (c.getParameterTypes().length == o.length) {
+					constructor = c;
+					break;
+				}
+			}
+			if (constructor == null) {
+				// no matching constructor, keep the old behaviour
+				return (Chart) ChartUtil.creatNewInstance(t, o);
+			}
+			constructors.put(key, constructor);
+		}
+		try {
+			return (Chart) constructor.newInstance(o);
+		} catch (InstantiationException | IllegalAccessException e) {
+			System.out.println("MyChartFactory::newChart:" + e.getClass().getSimpleName() + ":" + e.getMessage());
+		} catch (InvocationTargetException e) {
+			System.out.println("MyChartFactory::newChart:InvocationTargetException:" + e.getTargetException().getMessage());
+		}
+		return null;
+	}
+}
@@ -105,6 +105,26 @@ public class MyDataset {
         return dataset;
     }
 
+    /**
+     * Creates a DefaultCategoryDataset from a 2D double array without going through strings.
+     * @param data 2D array of data values
+     * @param category Array of row keys
+     * @param items Array of column keys
+     * @return DefaultCategoryDataset
+     */
+    public DefaultCategoryDataset createCategoryDataset(double[][] data, String[] category, String[] items) {
+        if (data == null) return null;
+        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        for (int i = 0; i < category.length; i++) {
+            for (int j = 0; j < items.length; j++) {
+                // Aggregate function
+                double value = data[i].length == 1 ? data[i][0] : data[i][j];
+                dataset.addValue(value, category[i].trim(), items[j].trim());
+            }
+        }
+        return dataset;
+    }
+
     /**
      * Creates a DefaultCategoryDataset from a 2D String array (legacy version).
      */
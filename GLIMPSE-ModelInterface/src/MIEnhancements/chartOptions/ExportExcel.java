@@ -33,24 +33,19 @@
 package chartOptions;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.Date;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import ModelInterface.ModelGUI2.tables.StreamingExcelWriter;
 
 /**
  * Handles exporting tabular data to an Excel file (.xlsx) using Apache POI.
+ * Rows are streamed into the workbook as they are packed so large tables are
+ * not held in memory.
  * <p>
  * Usage examples:
  * <ul>
@@ -65,12 +60,7 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
  */
 public class ExportExcel {
 
-    private FileInputStream fis;
-    private FileOutputStream fos;
-    private XSSFWorkbook book;
-    private XSSFSheet sheet;
-    private Map<String, Object[]> newData;
-    private int key;
+    private StreamingExcelWriter writer;
     private String path;
     private boolean debug = true;
 
@@ -89,11 +79,13 @@ public class ExportExcel {
 
     /**
      * Constructor for exporting chart data with chart name, rows, and columns.
+     * The user is asked where to save the file.
      * @param chartName Name of the chart.
      * @param rs Data rows.
      * @param col Column headers.
      */
     public ExportExcel(String chartName, String rs[][], Object col[]) {
+        init("");
         packSingleRow(new String[] {chartName});
         packSingleRow(col);
         packContent(rs);
@@ -138,18 +130,32 @@ public class ExportExcel {
     }
 
     /**
-     * Packs a single row of data into the newData map.
+     * Writes a single row of data after the rows already in the sheet.
      * @param obj Array of objects representing a row.
      */
     private void packSingleRow(Object[] obj) {
+        if (writer == null)
+            return;
+        Row row = writer.createRow();
         if (debug)
-            System.out.println("ExportExcel::packSingleRow:key: " + key + " obj: " + Arrays.toString(obj));
-        newData.put(String.valueOf(key), obj);
-        key++;
+            System.out.println("ExportExcel::packSingleRow:row: " + row.getRowNum() + " obj: " + Arrays.toString(obj));
+        int cellnum = 0;
+        for (Object o : obj) {
+            Cell cell = row.createCell(cellnum++);
+            if (o instanceof String) {
+                cell.setCellValue((String) o);
+            } else if (o instanceof Boolean) {
+                cell.setCellValue((Boolean) o);
+            } else if (o instanceof Date) {
+                cell.setCellValue((Date) o);
+            } else if (o instanceof Double) {
+                cell.setCellValue((Double) o);
+            }
+        }
     }
 
     /**
-     * Packs multiple rows of data into the newData map.
+     * Packs multiple rows of data into the sheet.
      * @param rs 2D array of data rows.
      */
     private void packContent(String[][] rs) {
@@ -160,6 +166,7 @@ public class ExportExcel {
 
     /**
      * Initializes the Excel workbook and sheet, creating or opening the file as needed.
+     * Rows are added to the end of the first sheet of an existing file.
      * @param fileName Path to the Excel file.
      */
     private void init(String fileName) {
@@ -172,103 +179,37 @@ public class ExportExcel {
         File excel = new File(fileName);
         try {
             if (excel.length() > 0) {
-                fis = new FileInputStream(excel);
-                book = new XSSFWorkbook(fis);
-                sheet = book.getSheetAt(0);
+                writer = new StreamingExcelWriter(excel);
+                writer.continueSheet(0);
             } else {
-                fos = new FileOutputStream(excel);
-                book = new XSSFWorkbook();
-                sheet = book.createSheet();
+                writer = new StreamingExcelWriter();
+                writer.createSheet();
             }
-        } catch (FileNotFoundException fe) {
-            fe.printStackTrace();
         } catch (IOException ie) {
             ie.printStackTrace();
         }
         path = fileName;
-        newData = new HashMap<String, Object[]>();
-        key = sheet.getLastRowNum();
-        if (debug)
-            System.out.print("ExportExcel::init:key: " + key);
     }
 
     /**
-     * Reads data from the Excel file into a map.
-     * @return Map of row numbers to row data arrays.
-     */
-    protected Map<String, Object[]> readFromfile() {
-        Iterator<Row> itr = sheet.iterator();
-        while (itr.hasNext()) {
-            Row row = itr.next();
-            Object[] obj = new Object[row.getLastCellNum()];
-            Iterator<Cell> cellIterator = row.cellIterator();
-            while (cellIterator.hasNext()) {
-                Cell cell = cellIterator.next();
-                switch (cell.getCellType()) {
-                    case STRING:
-                        if (debug)
-                            System.out.print(cell.getStringCellValue() + "\t");
-                        obj[cell.getColumnIndex()] = cell.getStringCellValue();
-                        break;
-                    case NUMERIC:
-                        if (debug)
-                            System.out.print(cell.getNumericCellValue() + "\t");
-                        obj[cell.getColumnIndex()] = cell.getNumericCellValue();
-                        break;
-                    case BOOLEAN:
-                        if (debug)
-                            System.out.print(cell.getBooleanCellValue() + "\t");
-                        obj[cell.getColumnIndex()] = cell.getBooleanCellValue();
-                        break;
-                    default:
-                        // Other cell types are ignored
-                }
-            }
-            newData.put(String.valueOf(row.getRowNum()), obj);
-            if (debug)
-                System.out.println("");
-        }
-        return newData;
-    }
-
-    /**
-     * Writes the packed data to the Excel file and opens it.
+     * Writes the workbook to the Excel file and opens it.
      */
     private void writetofile() {
+        if (writer == null)
+            return;
         try {
-            sheet = book.getSheetAt(0);
-            int rownum = sheet.getLastRowNum();
-            Set<String> newRows = newData.keySet();
-            Iterator<String> itr = newRows.iterator();
-            while (itr.hasNext()) {
-                String dataRow = itr.next();
-                Row row = sheet.createRow(rownum + Integer.valueOf(dataRow.trim()).intValue());
-                Object[] objArr = newData.get(dataRow);
-                int cellnum = 0;
-                for (Object obj : objArr) {
-                    Cell cell = row.createCell(cellnum++);
-                    if (obj instanceof String) {
-                        cell.setCellValue((String) obj);
-                    } else if (obj instanceof Boolean) {
-                        cell.setCellValue((Boolean) obj);
-                    } else if (obj instanceof Date) {
-                        cell.setCellValue((Date) obj);
-                    } else if (obj instanceof Double) {
-                        cell.setCellValue((Double) obj);
-                    }
-                }
-                if (debug)
-                    System.out.println("ExportExcel::writetofile:key: " + dataRow + " obj: " + Arrays.toString(objArr));
-            }
-            book.write(fos);
+            writer.write(new File(path));
             if (debug)
                 System.out.println("Writing on Excel file Finished ...");
-            fos.close();
             ShowDocument.openURL((new StringBuilder("file:///")).append(path).toString());
-        } catch (FileNotFoundException fe) {
-            fe.printStackTrace();
         } catch (IOException ie) {
             ie.printStackTrace();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException ie) {
+                ie.printStackTrace();
+            }
         }
     }
 
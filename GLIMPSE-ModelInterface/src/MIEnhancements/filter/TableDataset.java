@@ -0,0 +1,262 @@
+/*
+ * LEGAL NOTICE
+ * This computer software was prepared by US EPA.
+ * THE GOVERNMENT MAKES NO WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+ * LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+ * sentence must appear on any copies of this computer software.
+ * 
+ * EXPORT CONTROL
+ * User agrees that the Software will not be shipped, transferred or
+ * exported into any country or used in any manner prohibited by the
+ * United States Export Administration Act or any other applicable
+ * export laws, restrictions or regulations (collectively the "Export Laws").
+ * Export of the Software may require some form of license or other
+ * authority from the U.S. Government, and failure to obtain such
+ * export control license may result in criminal liability under
+ * U.S. laws. In addition, if the Software is identified as export controlled
+ * items under the Export Laws, User represents and warrants that User
+ * is not a citizen, or otherwise located within, an embargoed nation
+ * (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+ *     and that User is not otherwise prohibited
+ * under the Export Laws from receiving the Software.
+ *
+ * SUPPORT
+ * For the GLIMPSE project, GCAM development, data processing, and support for 
+ * policy implementations has been led by Dr. Steven J. Smith of PNNL, via Interagency 
+ * Agreements 89-92423101 and 89-92549601. Contributors * from PNNL include 
+ * Maridee Weber, Catherine Ledna, Gokul Iyer, Page Kyle, Marshall Wise, Matthew 
+ * Binsted, and Pralit Patel. Coding contributions have also been made by Aaron 
+ * Parks and Yadong Xu of ARA through the EPA’s Environmental Modeling and 
+ * Visualization Laboratory contract. 
+ */
+package filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.JTable;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+
+/**
+ * Column oriented, typed copy of a query result table. The year columns are
+ * parsed into double arrays once and the other columns are kept as labels, so
+ * the map and Sankey views can switch between years without re-reading or
+ * re-parsing the table cells. Selections of rows and the values they give for
+ * a year are cached by their grouping. Rows are in the order of the table
+ * model, not of a sorted view.
+ */
+public class TableDataset {
+    private static final Map<TableModel, TableDataset> datasets = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final String[] columnNames;
+    private final HashMap<String, Integer> columnIndex = new HashMap<>();
+    private final int rowCount;
+    // [column][row], null for the year columns
+    private final String[][] labels;
+    // [column][row], null for the other columns; NaN where a cell is not a number
+    private final double[][] values;
+    private final ArrayList<String> yearList = new ArrayList<>();
+    private final HashMap<Integer, List<String>> distinctCache = new HashMap<>();
+    private final HashMap<List<String>, int[]> rowCache = new HashMap<>();
+    private final HashMap<List<String>, HashMap<String, Double>> valueCache = new HashMap<>();
+
+    private TableDataset(TableModel model) {
+        int columnCount = model.getColumnCount();
+        rowCount = model.getRowCount();
+        columnNames = new String[columnCount];
+        labels = new String[columnCount][];
+        values = new double[columnCount][];
+        for (int j = 0; j < columnCount; j++) {
+            columnNames[j] = model.getColumnName(j);
+            columnIndex.putIfAbsent(columnNames[j], j);
+            boolean isYear;
+            try {
+                yearList.add(String.valueOf(Double.valueOf(columnNames[j]).intValue()));
+                isYear = true;
+            } catch (NumberFormatException e) {
+                isYear = false;
+            }
+            if (isYear) {
+                values[j] = new double[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    values[j][i] = parse(model.getValueAt(i, j));
+                }
+            } else {
+                labels[j] = new String[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    Object cell = model.getValueAt(i, j);
+                    labels[j][i] = cell == null ? null : cell.toString();
+                }
+            }
+        }
+    }
+
+    private static double parse(Object cell) {
+        if (cell instanceof Number) {
+            return ((Number) cell).doubleValue();
+        }
+        try {
+            return Double.parseDouble(cell.toString());
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Gets the dataset of a table's model, building it on first use. The
+     * dataset is rebuilt if the model reports a change.
+     * @param table the result table
+     * @return the dataset of the table's model
+     */
+    public static TableDataset forTable(JTable table) {
+        TableModel model = table.getModel();
+        synchronized (datasets) {
+            TableDataset dataset = datasets.get(model);
+            if (dataset == null) {
+                dataset = new TableDataset(model);
+                if (!datasets.containsKey(model)) {
+                    // the entry is kept with no dataset so the listener is only added once
+                    TableModelListener listener = e -> datasets.put(model, null);
+                    model.addTableModelListener(listener);
+                }
+                datasets.put(model, dataset);
+            }
+            return dataset;
+        }
+    }
+
+    /**
+     * @return number of rows in the table
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param column column index
+     * @return name of the column
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * @param name column name
+     * @return index of the first column with the name, or -1 if there is none
+     */
+    public int getColumnIndex(String name) {
+        Integer idx = columnIndex.get(name);
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * @return the year column names as whole years, in column order
+     */
+    public List<String> getYearList() {
+        return Collections.unmodifiableList(yearList);
+    }
+
+    /**
+     * @param column index of a non-year column
+     * @return the labels of the column by row, which must not be modified
+     */
+    public String[] getLabels(int column) {
+        return labels[column];
+    }
+
+    /**
+     * @param column index of a year column
+     * @return the values of the column by row, which must not be modified
+     */
+    public double[] getValues(int column) {
+        return values[column];
+    }
+
+    /**
+     * @param column index of a non-year column
+     * @return the distinct labels of the column in the order they first appear
+     */
+    public synchronized List<String> getDistinctLabels(int column) {
+        List<String> distinct = distinctCache.get(column);
+        if (distinct == null) {
+            distinct = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(Arrays.asList(labels[column]))));
+            distinctCache.put(column, distinct);
+        }
+        return distinct;
+    }
+
+    /**
+     * Finds the rows whose labels equal the given ones.
+     * @param columns indexes of non-year columns to match
+     * @param match label to match in each of the columns
+     * @return row indexes in ascending order, which must not be modified
+     */
+    public synchronized int[] getRows(int[] columns, String[] match) {
+        List<String> key = groupingKey(columns, match);
+        int[] rows = rowCache.get(key);
+        if (rows == null) {
+            int[] found = new int[rowCount];
+            int n = 0;
+            for (int i = 0; i < rowCount; i++) {
+                boolean keep = true;
+                for (int c = 0; c < columns.length && keep; c++) {
+                    keep = match[c].equals(labels[columns[c]][i]);
+                }
+                if (keep) {
+                    found[n++] = i;
+                }
+            }
+            rows = Arrays.copyOf(found, n);
+            rowCache.put(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the value of a year for each label of a column over the rows matching
+     * the given labels. Where several rows have the same label the last one wins.
+     * @param yearColumn index of the year column
+     * @param labelColumn index of the column whose labels are the keys
+     * @param columns indexes of non-year columns to match
+     * @param match label to match in each of the columns
+     * @param missing value used for cells which are not numbers, or NaN to leave them out
+     * @return a new map of label to value
+     */
+    public synchronized HashMap<String, Double> getValuesByLabel(int yearColumn, int labelColumn, int[] columns,
+            String[] match, double missing) {
+        List<String> key = new ArrayList<>(groupingKey(columns, match));
+        key.add(String.valueOf(yearColumn));
+        key.add(String.valueOf(labelColumn));
+        key.add(String.valueOf(missing));
+        HashMap<String, Double> byLabel = valueCache.get(key);
+        if (byLabel == null) {
+            byLabel = new HashMap<>();
+            double[] yearValues = values[yearColumn];
+            String[] keys = labels[labelColumn];
+            for (int row : getRows(columns, match)) {
+                double value = Double.isNaN(yearValues[row]) ? missing : yearValues[row];
+                if (!Double.isNaN(value)) {
+                    byLabel.put(keys[row], value);
+                }
+            }
+            valueCache.put(key, byLabel);
+        }
+        return new HashMap<>(byLabel);
+    }
+
+    private static List<String> groupingKey(int[] columns, String[] match) {
+        ArrayList<String> key = new ArrayList<>(columns.length * 2);
+        for (int c = 0; c < columns.length; c++) {
+            key.add(String.valueOf(columns[c]));
+            key.add(match[c]);
+        }
+        return key;
+    }
+}
@@ -158,7 +158,6 @@ public class DifferenceChartPane extends JPanel {
      * Creates the difference chart based on selected charts.
      */
     private void createDifferenceChart() {
-        String[][] data = null;
         // Error if selections are not made
         if (shouldStop || selected[0] == -1 || selected[1] == -1) {
             JOptionPane.showMessageDialog(null, "Both dialog windows must have a selection for comparison tool to work", "Additional Selections Required", JOptionPane.ERROR_MESSAGE);
@@ -190,10 +189,10 @@ public class DifferenceChartPane extends JPanel {
                     fillLegends(ks, l1.toArray(new String[0]), l2.toArray(new String[0]));
 
                     // Get difference data
-                    data = DatasetUtil.getDiffData(charts[selected[0]].getChart().getCategoryPlot().getDataset(),
+                    double[][] diffData = DatasetUtil.getDiffDataD(charts[selected[0]].getChart().getCategoryPlot().getDataset(),
                             charts[selected[1]].getChart().getCategoryPlot().getDataset(), rowList);
 
-                    DefaultCategoryDataset dataset = new MyDataset().createCategoryDataset(data, ks,
+                    DefaultCategoryDataset dataset = new MyDataset().createCategoryDataset(diffData, ks,
                             charts[selected[0]].getChartColumn().split(","));
 
                     String title = id;
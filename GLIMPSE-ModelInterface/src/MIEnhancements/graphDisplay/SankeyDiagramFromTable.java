@@ -11,13 +11,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.io.DataInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -65,10 +59,11 @@ import ModelInterface.InterfaceMain;
 import ModelInterface.ModelGUI2.DbViewer;
 
 import chart.Chart;
+import chart.LegendStyleRegistry;
 import chart.LegendUtil;
-import chartOptions.FileUtil;
 
 import filter.FilteredTable;
+import filter.TableDataset;
 import mapOptions.MapOptionsUtil;
 
 /**
@@ -368,53 +363,17 @@ public class SankeyDiagramFromTable extends JFrame implements ComponentListener
      * Sets legend colors for bar chart from bundle file
      */
     private void setLegendColorFromBundle() {
-        Object[] temp = getLegendInfoFromProperties(bundlePath);
-        if (temp.length == 0) return;
+        LegendStyleRegistry registry = LegendStyleRegistry.get(bundlePath);
+        if (registry.getLines().length == 0) return;
         String queryNameForChart = '"' + chartName + '"';
         barLegendItems = barPlot.getLegendItems();
-        String[] legends = new String[barLegendItems.getItemCount()];
-        if (barLegendItems != null) {
-            for (int i = 0; i < barLegendItems.getItemCount(); i++) {
-                LegendItem item = barLegendItems.get(i);
-                legends[i] = item.getLabel();
-            }
-        }
-        String[] tempStr = readLegendItemsFromProperties();
-        String[] queryStr = readQueryInfoFromProperties();
-        for (int i = 0; i < legends.length; i++) {
-            int idx = Arrays.asList(tempStr).indexOf(legends[i].trim());
-            int idx_last = Arrays.asList(tempStr).lastIndexOf(legends[i].trim());
-            String[] o = new String[4];
-            if (idx > -1 & idx == idx_last) {
-                String queryNameInLine = Arrays.asList(queryStr).get(idx);
-                if (queryNameInLine.equals(queryNameForChart)) {
-                    o = ((String) temp[idx]).split("=")[1].split(",");
-                    int barFillColor = Integer.valueOf(o[0].trim());
-                    Color myColor = LegendUtil.getRGB(barFillColor);
-                    barRenderer.setSeriesPaint(i, myColor);
-                    if (debug) System.out.println("setLegendColorFromBundle: use color: " + myColor);
-                } else if (queryNameInLine.equals("*")) {
-                    o = ((String) temp[idx]).split("=")[1].split(",");
-                    int barFillColor = Integer.valueOf(o[0].trim());
-                    Color myColor = LegendUtil.getRGB(barFillColor);
-                    barRenderer.setSeriesPaint(i, myColor);
-                }
-            } else if (idx > -1 & idx != idx_last) {
-                for (int idxN = idx; idxN <= idx_last; idxN++) {
-                    String queryNameAtIdx = Arrays.asList(queryStr).get(idxN);
-                    String legendInFile = Arrays.asList(tempStr).get(idxN);
-                    if (queryNameAtIdx.equals(queryNameForChart) & legendInFile.equals(legends[i].trim())) {
-                        o = ((String) temp[idxN]).split("=")[1].split(",");
-                        int barFillColor = Integer.valueOf(o[0].trim());
-                        Color myColor = LegendUtil.getRGB(barFillColor);
-                        barRenderer.setSeriesPaint(i, myColor);
-                    } else if (queryNameAtIdx.equals("*") & legendInFile.equals(legends[i].trim())) {
-                        o = ((String) temp[idxN]).split("=")[1].split(",");
-                        int barFillColor = Integer.valueOf(o[0].trim());
-                        Color myColor = LegendUtil.getRGB(barFillColor);
-                        barRenderer.setSeriesPaint(i, myColor);
-                    }
-                }
+        for (int i = 0; i < barLegendItems.getItemCount(); i++) {
+            LegendItem item = barLegendItems.get(i);
+            int[] o = registry.getStyle(queryNameForChart, item.getLabel().trim());
+            if (o != null && o.length > 0) {
+                Color myColor = LegendUtil.getRGB(o[0]);
+                barRenderer.setSeriesPaint(i, myColor);
+                if (debug) System.out.println("setLegendColorFromBundle: use color: " + myColor);
             }
         }
         barPlot.setRenderer(0, barRenderer);
@@ -424,119 +383,19 @@ public class SankeyDiagramFromTable extends JFrame implements ComponentListener
      * Sets node colors for Sankey plot from bundle file
      */
     private void setFlowPlotColorFromBundle() {
-        Object[] temp = getLegendInfoFromProperties(bundlePath);
-        if (temp.length == 0) return;
+        LegendStyleRegistry registry = LegendStyleRegistry.get(bundlePath);
+        if (registry.getLines().length == 0) return;
         String queryNameForChart = '"' + chartName + '"';
-        String[] tempStr = readLegendItemsFromProperties();
-        String[] queryStr = readQueryInfoFromProperties();
         Iterator<NodeKey> nodeIterator = mySet.iterator();
         while (nodeIterator.hasNext()) {
             NodeKey myKey = nodeIterator.next();
-            int idx = Arrays.asList(tempStr).indexOf(myKey.getNode().toString());
-            int idx_last = Arrays.asList(tempStr).lastIndexOf(myKey.getNode().toString());
-            String[] o = new String[4];
-            if (idx > -1 & idx == idx_last) {
-                if (queryStr == null) return;
-                String queryNameInLine = Arrays.asList(queryStr).get(idx);
-                if (queryNameInLine == null) return;
-                if (queryNameInLine.equals(queryNameForChart)) {
-                    o = ((String) temp[idx]).split("=")[1].split(",");
-                    Color useThisColor = LegendUtil.getRGB(Integer.valueOf(o[0].trim()));
-                    myPlot.setNodeFillColor(myKey, useThisColor);
-                    if (debug) System.out.println("setFlowPlotColorFromBundle: use color: " + useThisColor);
-                } else if (queryNameInLine.equals("*")) {
-                    o = ((String) temp[idx]).split("=")[1].split(",");
-                    Color useThisColor = LegendUtil.getRGB(Integer.valueOf(o[0].trim()));
-                    myPlot.setNodeFillColor(myKey, useThisColor);
-                }
-            } else if (idx > -1 & idx != idx_last) {
-                for (int idxN = idx; idxN <= idx_last; idxN++) {
-                    if (queryStr == null) return;
-                    String queryNameAtIdx = Arrays.asList(queryStr).get(idxN);
-                    if (tempStr == null) return;
-                    String legendInFile = Arrays.asList(tempStr).get(idxN);
-                    if (legendInFile == null || queryNameAtIdx == null) return;
-                    if (queryNameAtIdx.equals(queryNameForChart) & legendInFile.equals(myKey.getNode().toString())) {
-                        o = ((String) temp[idxN]).split("=")[1].split(",");
-                        Color useThisColor = LegendUtil.getRGB(Integer.valueOf(o[0].trim()));
-                        myPlot.setNodeFillColor(myKey, useThisColor);
-                    } else if (queryNameAtIdx.equals("*") & legendInFile.equals(myKey.getNode().toString())) {
-                        o = ((String) temp[idxN]).split("=")[1].split(",");
-                        Color useThisColor = LegendUtil.getRGB(Integer.valueOf(o[0].trim()));
-                        myPlot.setNodeFillColor(myKey, useThisColor);
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Reads legend item names from bundle file
-     * @return String[] legend item names
-     */
-    private String[] readLegendItemsFromProperties() {
-        Object[] temp = getLegendInfoFromProperties(bundlePath);
-        String[] tempStr = new String[temp.length];
-        for (int i = 0; i < temp.length; i++) {
-            String myLine = (String) temp[i];
-            if (myLine.contains(":") & !myLine.contains("*")) {
-                String secondPart = ((String) temp[i]).split(":")[1].trim();
-                tempStr[i] = secondPart.split("=")[0].trim();
-                if (debug) System.out.println("readLegendItemsFromProperties: local line and queryName matched");
-            } else {
-                tempStr[i] = ((String) temp[i]).split("=")[0].trim();
-                String firstPart = tempStr[i];
-                if (firstPart.startsWith("*:")) {
-                    tempStr[i] = firstPart.replace("*:", "");
-                }
-            }
-        }
-        return tempStr;
-    }
-
-    /**
-     * Reads query names from bundle file
-     * @return String[] query names
-     */
-    private String[] readQueryInfoFromProperties() {
-        Object[] temp = getLegendInfoFromProperties(bundlePath);
-        String[] queryStr = new String[temp.length];
-        for (int i = 0; i < temp.length; i++) {
-            String myLine = (String) temp[i];
-            if (myLine.contains(":") & !myLine.contains("*")) {
-                String queryNameInFile = ((String) temp[i]).split(":")[0].trim();
-                queryStr[i] = queryNameInFile;
-            } else {
-                String firstPart = ((String) temp[i]).split("=")[0].trim();
-                if (firstPart.startsWith("*:")) {
-                    queryStr[i] = "*";
-                } else {
-                    queryStr[i] = "*";
-                }
+            int[] o = registry.getStyle(queryNameForChart, myKey.getNode().toString());
+            if (o != null && o.length > 0) {
+                Color useThisColor = LegendUtil.getRGB(o[0]);
+                myPlot.setNodeFillColor(myKey, useThisColor);
+                if (debug) System.out.println("setFlowPlotColorFromBundle: use color: " + useThisColor);
             }
         }
-        return queryStr;
-    }
-
-    /**
-     * Reads legend info lines from bundle file
-     * @param path Path to bundle file
-     * @return Object[] legend info lines
-     */
-    private Object[] getLegendInfoFromProperties(String path) {
-        LineNumberReader lineReader = null;
-        Object[] temp = null;
-        try {
-            DataInputStream dis = FileUtil.initInFile(path);
-            lineReader = new LineNumberReader(new InputStreamReader(dis));
-            temp = lineReader.lines().toArray();
-            lineReader.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("Could not read legend info (FNF): " + e.toString());
-        } catch (IOException e) {
-            System.out.println("Could not read legend info (IO): " + e.toString());
-        }
-        return temp;
     }
 
     /**
@@ -600,27 +459,24 @@ public class SankeyDiagramFromTable extends JFrame implements ComponentListener
      * @return DefaultFlowDataset
      */
     private DefaultFlowDataset createFlowDatasetFromTable(JTable jtable, String scenarioStr, String regionStr, String yearStr) {
-        int regionIdx = FilteredTable.getColumnByName(jtable, "region");
-        int scenarioIdx = FilteredTable.getColumnByName(jtable, "scenario");
-        ArrayList<String> yearList = FilteredTable.getYearListFromTableData(jtable);
-        int firstYearIdx = FilteredTable.getColumnByName(jtable, yearList.get(0));
-        int yearIdx = FilteredTable.getColumnByName(jtable, yearStr);
+        TableDataset tableData = TableDataset.forTable(jtable);
+        int regionIdx = tableData.getColumnIndex("region");
+        int scenarioIdx = tableData.getColumnIndex("scenario");
+        int firstYearIdx = tableData.getColumnIndex(tableData.getYearList().get(0));
+        double[] flowRates = tableData.getValues(tableData.getColumnIndex(yearStr));
         DefaultFlowDataset dataset = new DefaultFlowDataset();
-        int curStage = 0;
-        for (int row = 0; row < jtable.getRowCount(); row++) {
-            curStage = 0;
-            boolean scenario2Keep = ((String) jtable.getValueAt(row, scenarioIdx)).equals(scenarioStr);
-            boolean region2Keep = ((String) jtable.getValueAt(row, regionIdx)).equals(regionStr);
-            if (scenario2Keep && region2Keep) {
-                for (int j = firstYearIdx - 1; j > regionIdx + 1; j--) {
-                    String fromSource = (String) jtable.getValueAt(row, j);
-                    String toDes = (String) jtable.getValueAt(row, j - 1);
-                    double flowRate = Double.parseDouble((String) jtable.getValueAt(row, yearIdx));
-                    if (flowRate != 0) {
-                        dataset.setFlow(curStage, fromSource, toDes, flowRate);
-                    }
-                    curStage = curStage + 1;
-                }
+        int[] rows = tableData.getRows(new int[] {scenarioIdx, regionIdx}, new String[] {scenarioStr, regionStr});
+        for (int row : rows) {
+            double flowRate = flowRates[row];
+            if (flowRate == 0 || Double.isNaN(flowRate)) {
+                continue;
+            }
+            int curStage = 0;
+            for (int j = firstYearIdx - 1; j > regionIdx + 1; j--) {
+                String fromSource = tableData.getLabels(j)[row];
+                String toDes = tableData.getLabels(j - 1)[row];
+                dataset.setFlow(curStage, fromSource, toDes, flowRate);
+                curStage = curStage + 1;
             }
         }
         return dataset;
@@ -635,18 +491,17 @@ public class SankeyDiagramFromTable extends JFrame implements ComponentListener
      * @return DefaultCategoryDataset
      */
     private DefaultCategoryDataset createCategoryDatasetFromTable(JTable jtable, String scenarioStr, String regionStr, String yearStr) {
-        int yearIdx = FilteredTable.getColumnByName(jtable, yearStr);
-        int scenarioIdx = FilteredTable.getColumnByName(jtable, "scenario");
-        int regionIdx = FilteredTable.getColumnByName(jtable, "region");
-        String colName = jtable.getColumnName(regionIdx + 1);
+        TableDataset tableData = TableDataset.forTable(jtable);
+        int scenarioIdx = tableData.getColumnIndex("scenario");
+        int regionIdx = tableData.getColumnIndex("region");
+        double[] values = tableData.getValues(tableData.getColumnIndex(yearStr));
+        String[] series = tableData.getLabels(regionIdx + 1);
+        String colName = tableData.getColumnName(regionIdx + 1);
         DefaultCategoryDataset myDataset = new DefaultCategoryDataset();
-        for (int row = 0; row < jtable.getRowCount(); row++) {
-            boolean scenario2Keep = ((String) jtable.getValueAt(row, scenarioIdx)).equals(scenarioStr);
-            boolean region2Keep = ((String) jtable.getValueAt(row, regionIdx)).equals(regionStr);
-            if (scenario2Keep && region2Keep) {
-                String myStr = (String) jtable.getValueAt(row, regionIdx + 1);
-                double myNum = Double.parseDouble((String) jtable.getValueAt(row, yearIdx));
-                myDataset.addValue(myNum, myStr, colName);
+        int[] rows = tableData.getRows(new int[] {scenarioIdx, regionIdx}, new String[] {scenarioStr, regionStr});
+        for (int row : rows) {
+            if (!Double.isNaN(values[row])) {
+                myDataset.addValue(values[row], series[row], colName);
             }
         }
         return myDataset;
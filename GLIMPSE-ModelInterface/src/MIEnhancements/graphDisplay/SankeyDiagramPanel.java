@@ -43,6 +43,7 @@ import ModelInterface.ModelGUI2.queries.QueryGenerator;
 import ModelInterface.ModelGUI2.queries.SingleQueryExtension;
 import ModelInterface.ModelGUI2.xmldb.QueryBinding;
 import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
+import ModelInterface.ModelGUI2.xmldb.QueryMetricsLog;
 
 import filter.FilteredTable;
 
@@ -391,6 +392,7 @@ public class SankeyDiagramPanel extends JFrame implements ComponentListener {
 				// BaseTableModel
 				int stageNForTable = -1;
 				bt = new ComboTableModel(qg, scnList.getSelectedValues(), regionList.getSelectedValues(), singleBinding, context);
+				QueryMetricsLog.recordMetrics(bt.getQueryMetrics());
 				if (bt != null) {
 				//gather all flowDatasets into a HashMap first
 				JTable jTable = null;
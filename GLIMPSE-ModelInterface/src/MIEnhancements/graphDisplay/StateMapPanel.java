@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -56,21 +55,11 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-import org.geotools.data.Query;
-import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.MapContent;
-import org.geotools.styling.SLD;
 
 import org.geotools.swing.JMapPane;
 import org.geotools.swing.tool.PanTool;
-import org.opengis.feature.Property;
-import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.FilterFactory;
-import org.opengis.filter.Filter;
 import ModelInterface.InterfaceMain;
 import ModelInterface.ModelGUI2.DbViewer;
 import filter.FilteredTable;
@@ -78,6 +67,7 @@ import mapOptions.LegendPanel;
 import mapOptions.MapColor;
 import mapOptions.MapColorPalette;
 import mapOptions.MapOptionsUtil;
+import mapOptions.ShapeFeatureCache;
 
 /**
  * StateMapPanel displays a map with color-coded states based on table data.
@@ -95,6 +85,9 @@ public class StateMapPanel extends JFrame implements ComponentListener {
     private JMapPane jmap;
     // MapContent holds map layers
     private MapContent stateMap;
+    // Region features from the shapefile cache and the values currently drawn for them
+    private ShapeFeatureCache.ShapeFeatures regionShapes;
+    private HashMap<String, Double> dataForRegions = new HashMap<>();
     // Toolbar for controls
     private JToolBar toolBar;
     // Panels for UI sections
@@ -407,6 +400,9 @@ public class StateMapPanel extends JFrame implements ComponentListener {
         stateMap = createStateBoundaryMapLayer2();
         jmap = new JMapPane(stateMap);
         jmap.setBorder(new EmptyBorder(50, 50, 50, 50));
+        if (regionShapes != null) {
+            MapOptionsUtil.installRegionToolTips(jmap, regionShapes, "subRegn", dataForRegions);
+        }
         addMapPanel.add(jmap);
         return addMapPanel;
     }
@@ -848,46 +844,23 @@ public class StateMapPanel extends JFrame implements ComponentListener {
      * @return MapContent
      */
     public MapContent createStateBoundaryMapLayer2() {
-        FeatureLayer stateLayer = null;
-        FeatureIterator<SimpleFeature> iterator = null;
-        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = null;
-        Collection<Property> properties;
-        String propertyVal;
-        Color fillerColor;
-        FilterFactory myFilter = CommonFactoryFinder.getFilterFactory(null);
         HashMap<String, Double> dataForState = new HashMap<>();
         MapContent map = new MapContent();
+        // the shapefile is only read once per session, every redraw only builds a new style for its features
         String shpFilePath = InterfaceMain.stateShapeFileLocation;
-        featureCollection = MapOptionsUtil.getCollectionFromShape(shpFilePath);
+        regionShapes = ShapeFeatureCache.get(shpFilePath);
         try {
-            ArrayList<String> yearColInTable = MapOptionsUtil.getYearListFromTableData(jtable);
             dataForState = MapOptionsUtil.getTableDataForStateOrCountry(jtable, (String) yearListMenu.getSelectedItem(), (String) scenarioListMenu.getSelectedItem());
         } catch (Exception e) {
             e.printStackTrace();
         }
-        iterator = featureCollection.features();
-        while (iterator.hasNext()) {
-            SimpleFeature f = (SimpleFeature) iterator.next();
-            SimpleFeatureType type = f.getType();
-            properties = f.getProperties();
-            for (Property property : properties) {
-                String propName = property.getName().getLocalPart();
-                if (propName.equals("subRegn")) {
-                    propertyVal = property.getValue().toString();
-                    if (dataForState.get(propertyVal) != null) {
-                        fillerColor = MapOptionsUtil.findStateColorFromMapColor(useMapColor, dataForState.get(propertyVal));
-                    } else {
-                        fillerColor = null;
-                    }
-                    stateLayer = new FeatureLayer(featureCollection, SLD.createPolygonStyle(new Color(1, 1, 1), fillerColor, (float) 0.9));
-                    Filter fil = myFilter.equals(myFilter.property("subRegn"), myFilter.literal(f.getProperty("subRegn").getValue()));
-                    stateLayer.setQuery(new Query(type.getName().getLocalPart(), fil));
-                    stateLayer.setVisible(true);
-                    map.addLayer(stateLayer);
-                }
-            }
+        dataForRegions = dataForState;
+        if (regionShapes == null) {
+            return map;
         }
-        iterator.close();
+        FeatureLayer stateLayer = MapOptionsUtil.createChoroplethLayer(regionShapes, "subRegn", dataForState, useMapColor);
+        stateLayer.setVisible(true);
+        map.addLayer(stateLayer);
         return map;
     }
 
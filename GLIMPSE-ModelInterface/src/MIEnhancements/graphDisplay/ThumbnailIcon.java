@@ -0,0 +1,146 @@
+/*
+ * LEGAL NOTICE
+ * This computer software was prepared by US EPA.
+ * THE GOVERNMENT MAKES NO WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+ * LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+ * sentence must appear on any copies of this computer software.
+ * 
+ * EXPORT CONTROL
+ * User agrees that the Software will not be shipped, transferred or
+ * exported into any country or used in any manner prohibited by the
+ * United States Export Administration Act or any other applicable
+ * export laws, restrictions or regulations (collectively the "Export Laws").
+ * Export of the Software may require some form of license or other
+ * authority from the U.S. Government, and failure to obtain such
+ * export control license may result in criminal liability under
+ * U.S. laws. In addition, if the Software is identified as export controlled
+ * items under the Export Laws, User represents and warrants that User
+ * is not a citizen, or otherwise located within, an embargoed nation
+ * (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+ *     and that User is not otherwise prohibited
+ * under the Export Laws from receiving the Software.
+ *
+ * SUPPORT
+ * For the GLIMPSE project, GCAM development, data processing, and support for 
+ * policy implementations has been led by Dr. Steven J. Smith of PNNL, via Interagency 
+ * Agreements 89-92423101 and 89-92549601. Contributors * from PNNL include 
+ * Maridee Weber, Catherine Ledna, Gokul Iyer, Page Kyle, Marshall Wise, Matthew 
+ * Binsted, and Pralit Patel. Coding contributions have also been made by Aaron 
+ * Parks and Yadong Xu of ARA through the EPA’s Environmental Modeling and 
+ * Visualization Laboratory contract. 
+ */
+package graphDisplay;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.Icon;
+import javax.swing.SwingUtilities;
+
+import org.jfree.chart.JFreeChart;
+
+/**
+ * Icon which shows a chart thumbnail once it has been rendered. The chart is only
+ * set up as a thumbnail and rendered, on the ThumbnailImageCache threads, the first
+ * time the icon is painted, so thumbnails which are scrolled out of view cost
+ * nothing. Until then a placeholder is drawn. The background threads render a copy
+ * of the chart taken when it is set up, since the chart itself is changed on the
+ * event dispatch thread once it is opened in a chart display.
+ */
+public class ThumbnailIcon implements Icon {
+	private static final Logger LOGGER = Logger.getLogger(ThumbnailIcon.class.getName());
+	private static final AtomicLong nextId = new AtomicLong();
+	private static final Color PLACEHOLDER_COLOR = new Color(225, 225, 225);
+	private static final String PLACEHOLDER_TEXT = "Loading...";
+
+	private final long id = nextId.getAndIncrement();
+	private final int size;
+	private Supplier<JFreeChart> chartSource;
+	private JFreeChart chart;
+	private boolean copied;
+	private volatile boolean pending;
+
+	/**
+	 * Creates an icon for a chart which is set up for display as a thumbnail when
+	 * the icon is first painted.
+	 * 
+	 * @param chartSource Sets up and returns the chart to draw, called on the event
+	 *                    dispatch thread
+	 * @param size        Width and height of the thumbnail
+	 */
+	public ThumbnailIcon(Supplier<JFreeChart> chartSource, int size) {
+		this.chartSource = chartSource;
+		this.size = size;
+	}
+
+	/**
+	 * Sets up the chart and takes the copy to render the first time it is needed.
+	 */
+	private void prepareChart() {
+		if (chartSource == null) {
+			return;
+		}
+		JFreeChart source = chartSource.get();
+		chartSource = null;
+		try {
+			chart = (JFreeChart) source.clone();
+			copied = true;
+		} catch (CloneNotSupportedException e) {
+			LOGGER.log(Level.FINE, "Thumbnail will be rendered on the event dispatch thread", e);
+			chart = source;
+		}
+	}
+
+	@Override
+	public void paintIcon(final Component c, Graphics g, int x, int y) {
+		BufferedImage image = ThumbnailImageCache.get(id);
+		if (image == null) {
+			prepareChart();
+		}
+		if (image == null && !copied) {
+			// the chart is shared with the display so it may only be drawn on this thread
+			image = chart.createBufferedImage(size, size, BufferedImage.TYPE_INT_ARGB, null);
+			ThumbnailImageCache.put(id, image);
+		}
+		if (image != null) {
+			g.drawImage(image, x, y, null);
+			return;
+		}
+		g.setColor(PLACEHOLDER_COLOR);
+		g.fillRect(x, y, size, size);
+		g.setColor(Color.DARK_GRAY);
+		FontMetrics fm = g.getFontMetrics();
+		g.drawString(PLACEHOLDER_TEXT, x + (size - fm.stringWidth(PLACEHOLDER_TEXT)) / 2, y + size / 2);
+		if (!pending) {
+			pending = true;
+			ThumbnailImageCache.render(() -> {
+				try {
+					ThumbnailImageCache.put(id, chart.createBufferedImage(size, size, BufferedImage.TYPE_INT_ARGB, null));
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Could not render thumbnail", e);
+					return;
+				} finally {
+					pending = false;
+				}
+				SwingUtilities.invokeLater(c::repaint);
+			});
+		}
+	}
+
+	@Override
+	public int getIconWidth() {
+		return size;
+	}
+
+	@Override
+	public int getIconHeight() {
+		return size;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * LEGAL NOTICE
+ * This computer software was prepared by US EPA.
+ * THE GOVERNMENT MAKES NO WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+ * LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+ * sentence must appear on any copies of this computer software.
+ * 
+ * EXPORT CONTROL
+ * User agrees that the Software will not be shipped, transferred or
+ * exported into any country or used in any manner prohibited by the
+ * United States Export Administration Act or any other applicable
+ * export laws, restrictions or regulations (collectively the "Export Laws").
+ * Export of the Software may require some form of license or other
+ * authority from the U.S. Government, and failure to obtain such
+ * export control license may result in criminal liability under
+ * U.S. laws. In addition, if the Software is identified as export controlled
+ * items under the Export Laws, User represents and warrants that User
+ * is not a citizen, or otherwise located within, an embargoed nation
+ * (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+ *     and that User is not otherwise prohibited
+ * under the Export Laws from receiving the Software.
+ *
+ * SUPPORT
+ * For the GLIMPSE project, GCAM development, data processing, and support for 
+ * policy implementations has been led by Dr. Steven J. Smith of PNNL, via Interagency 
+ * Agreements 89-92423101 and 89-92549601. Contributors * from PNNL include 
+ * Maridee Weber, Catherine Ledna, Gokul Iyer, Page Kyle, Marshall Wise, Matthew 
+ * Binsted, and Pralit Patel. Coding contributions have also been made by Aaron 
+ * Parks and Yadong Xu of ARA through the EPA’s Environmental Modeling and 
+ * Visualization Laboratory contract. 
+ */
+package graphDisplay;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-capped cache of rendered chart thumbnails along with the bounded pool of
+ * background threads which renders them. Images are evicted least recently used
+ * first once their total size passes -DModelInterface.THUMBNAIL_CACHE_MB
+ * megabytes (64 by default) and are simply rendered again when next shown.
+ */
+public class ThumbnailImageCache {
+	/**
+	 * The system property which sets the memory bound of the cache in megabytes.
+	 */
+	public static final String MAX_MEGABYTES_PROPERTY = "ModelInterface.THUMBNAIL_CACHE_MB";
+	private static final int NUM_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+	private static final LinkedHashMap<Long, BufferedImage> images = new LinkedHashMap<>(64, 0.75f, true);
+	private static long cachedBytes = 0;
+	private static final ThreadPoolExecutor executor;
+	static {
+		// the most recently requested thumbnails are the ones on screen so run them first
+		BlockingQueue<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean offer(Runnable r) {
+				return offerFirst(r);
+			}
+		};
+		executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, 30, TimeUnit.SECONDS, queue, r -> {
+			Thread t = new Thread(r, "Thumbnail renderer");
+			t.setDaemon(true);
+			t.setPriority(Thread.NORM_PRIORITY - 1);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private ThumbnailImageCache() {
+	}
+
+	/**
+	 * Gets a rendered thumbnail.
+	 * 
+	 * @param id Id of the thumbnail
+	 * @return The image or null if it has not been rendered or was evicted
+	 */
+	public static synchronized BufferedImage get(long id) {
+		return images.get(id);
+	}
+
+	/**
+	 * Stores a rendered thumbnail, evicting the least recently used ones if the
+	 * cache is full.
+	 * 
+	 * @param id    Id of the thumbnail
+	 * @param image The rendered image
+	 */
+	public static synchronized void put(long id, BufferedImage image) {
+		BufferedImage old = images.put(id, image);
+		if (old != null) {
+			cachedBytes -= sizeOf(old);
+		}
+		cachedBytes += sizeOf(image);
+		long maxBytes = Long.getLong(MAX_MEGABYTES_PROPERTY, 64) * 1024 * 1024;
+		Iterator<Map.Entry<Long, BufferedImage>> it = images.entrySet().iterator();
+		while (cachedBytes > maxBytes && images.size() > 1) {
+			cachedBytes -= sizeOf(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Queues a thumbnail to be rendered in the background.
+	 * 
+	 * @param task Renders the thumbnail and stores it with put
+	 */
+	public static void render(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Removes all thumbnails from the cache.
+	 */
+	public static synchronized void clear() {
+		images.clear();
+		cachedBytes = 0;
+	}
+
+	private static long sizeOf(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() * 4;
+	}
+}
@@ -7,7 +7,6 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.Insets;
-import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -18,9 +17,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
-import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 
@@ -392,16 +389,8 @@ public class ThumbnailUtilNew {
 		double min = setMin(chart);
 		for (int i = 0; i < chart.length; i++) {
 			IconMouseListener iconListener = new IconMouseListener(chart, i);
-			JButton jb = null;
-			try {
-				jb = buttonIcon(chart[i], chart.length - 1 - i, w, max, min, sameScale, transpose, iconListener);
-			} catch (OutOfMemoryError e2) {
-				JOptionPane.showMessageDialog(null, "Too many charts to be created. No enough memory ", "Information",
-						JOptionPane.INFORMATION_MESSAGE);
-				chartPane.removeAll();
-				Runtime.getRuntime().gc();
-				return null;
-			}
+			// thumbnails are set up and rendered when they are first scrolled into view
+			JButton jb = buttonIcon(chart[i], chart.length - 1 - i, w, max, min, sameScale, transpose, iconListener);
 			jb.setMargin(new Insets(0, 0, 0, 0));
 			jb.setBackground(Color.lightGray);
 			jb.setName(String.valueOf(i));
@@ -413,7 +402,9 @@ public class ThumbnailUtilNew {
 	}
 
 	/**
-	 * Creates a JButton with chart thumbnail icon and tooltip.
+	 * Creates a JButton with chart thumbnail icon and tooltip. The chart is set up
+	 * as a thumbnail and its image rendered asynchronously by a
+	 * {@link ThumbnailIcon} once the button is first shown.
 	 * 
 	 * @param chart        Chart object
 	 * @param idx          Index for button name
@@ -438,47 +429,13 @@ public class ThumbnailUtilNew {
 			// ignore
 		}
 		if (freeChart != null) {
-			// Set axis label positions and scaling
-			if (category)
-				freeChart.getCategoryPlot().getDomainAxis().setCategoryLabelPositions(CategoryLabelPositions.DOWN_90);
-			else
-				freeChart.getXYPlot().getDomainAxis().setLabelAngle(90);
-			if (sameScale) {
-				if (category) {
-					freeChart.getCategoryPlot().getRangeAxis().setUpperBound(max);
-					freeChart.getCategoryPlot().getRangeAxis().setLowerBound(min);
-				} else {
-					freeChart.getXYPlot().getRangeAxis().setUpperBound(max);
-					freeChart.getXYPlot().getRangeAxis().setLowerBound(min);
-				}
-			} else {
-				if (category)
-					freeChart.getCategoryPlot().getRangeAxis().setAutoRange(true);
-				else
-					freeChart.getXYPlot().getRangeAxis().setAutoRange(true);
-			}
-			// Hide legend and title for thumbnail
-			if (freeChart.getLegend() != null) {
-				freeChart.getLegend().visible = false;
-			}
-			freeChart.getTitle().setFont(THUMBNAIL_TITLE_FONT);
-			freeChart.getTitle().setVisible(false);
-			// Set subtitle font and visibility
-			for (int j = 0; j < freeChart.getSubtitleCount()
-					&& !(freeChart.getSubtitle(j) instanceof org.jfree.chart.title.LegendTitle); j++) {
-				((TextTitle) freeChart.getSubtitle(j)).setFont(THUMBNAIL_SUBTITLE_FONT);
-				freeChart.getSubtitle(j).setVisible(true);
-			}
-			ChartUtils.applyCurrentTheme(freeChart);
-			try {
-				// Create thumbnail image
-				BufferedImage thumb1 = freeChart.createBufferedImage(w, w, BufferedImage.TYPE_INT_ARGB, null);
-				ImageIcon image1 = new ImageIcon(thumb1);
-				jb.setIcon(image1);
-				jb.setName(String.valueOf(idx));
-			} catch (IllegalStateException | NullPointerException e) {
-				// ignore
-			}
+			final JFreeChart thumbnailChart = freeChart;
+			final boolean isCategory = category;
+			jb.setIcon(new ThumbnailIcon(() -> {
+				setThumbnailStyle(thumbnailChart, isCategory, max, min, sameScale);
+				return thumbnailChart;
+			}, w));
+			jb.setName(String.valueOf(idx));
 			jb.addMouseListener(iconListener);
 			jb.setToolTipText(chart.getMeta());
 		} else {
@@ -489,6 +446,51 @@ public class ThumbnailUtilNew {
 		return jb;
 	}
 
+	/**
+	 * Sets up a chart for display as a thumbnail.
+	 * 
+	 * @param freeChart The chart to set up
+	 * @param category  Whether the chart has a category plot rather than an XY plot
+	 * @param max       Maximum value for scaling
+	 * @param min       Minimum value for scaling
+	 * @param sameScale Whether to use same scale for all charts
+	 */
+	private static void setThumbnailStyle(JFreeChart freeChart, boolean category, double max, double min,
+			boolean sameScale) {
+		// Set axis label positions and scaling
+		if (category)
+			freeChart.getCategoryPlot().getDomainAxis().setCategoryLabelPositions(CategoryLabelPositions.DOWN_90);
+		else
+			freeChart.getXYPlot().getDomainAxis().setLabelAngle(90);
+		if (sameScale) {
+			if (category) {
+				freeChart.getCategoryPlot().getRangeAxis().setUpperBound(max);
+				freeChart.getCategoryPlot().getRangeAxis().setLowerBound(min);
+			} else {
+				freeChart.getXYPlot().getRangeAxis().setUpperBound(max);
+				freeChart.getXYPlot().getRangeAxis().setLowerBound(min);
+			}
+		} else {
+			if (category)
+				freeChart.getCategoryPlot().getRangeAxis().setAutoRange(true);
+			else
+				freeChart.getXYPlot().getRangeAxis().setAutoRange(true);
+		}
+		// Hide legend and title for thumbnail
+		if (freeChart.getLegend() != null) {
+			freeChart.getLegend().visible = false;
+		}
+		freeChart.getTitle().setFont(THUMBNAIL_TITLE_FONT);
+		freeChart.getTitle().setVisible(false);
+		// Set subtitle font and visibility
+		for (int j = 0; j < freeChart.getSubtitleCount()
+				&& !(freeChart.getSubtitle(j) instanceof org.jfree.chart.title.LegendTitle); j++) {
+			((TextTitle) freeChart.getSubtitle(j)).setFont(THUMBNAIL_SUBTITLE_FONT);
+			freeChart.getSubtitle(j).setVisible(true);
+		}
+		ChartUtils.applyCurrentTheme(freeChart);
+	}
+
 	/**
 	 * Returns a description for an empty chart.
 	 * 
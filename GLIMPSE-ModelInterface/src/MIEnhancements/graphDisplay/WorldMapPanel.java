@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -56,21 +55,11 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-import org.geotools.data.Query;
-import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.MapContent;
-import org.geotools.styling.SLD;
 
 import org.geotools.swing.JMapPane;
 import org.geotools.swing.tool.PanTool;
-import org.opengis.feature.Property;
-import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.FilterFactory;
-import org.opengis.filter.Filter;
 import ModelInterface.InterfaceMain;
 import ModelInterface.ModelGUI2.DbViewer;
 import filter.FilteredTable;
@@ -78,6 +67,7 @@ import mapOptions.LegendPanel;
 import mapOptions.MapColor;
 import mapOptions.MapColorPalette;
 import mapOptions.MapOptionsUtil;
+import mapOptions.ShapeFeatureCache;
 
 /**
  * WorldMapPanel displays a world or US map with color-coded regions based on data from a JTable.
@@ -96,6 +86,9 @@ public class WorldMapPanel extends JFrame implements ComponentListener {
     private JMapPane jmap;
     // MapContent holds the map layers
     private MapContent stateMap;
+    // Region features from the shapefile cache and the values currently drawn for them
+    private ShapeFeatureCache.ShapeFeatures regionShapes;
+    private HashMap<String, Double> dataForRegions = new HashMap<>();
     // Toolbar and UI panels
     private JToolBar toolBar;
     private JPanel scenarioMenuPanel;
@@ -429,6 +422,9 @@ public class WorldMapPanel extends JFrame implements ComponentListener {
         stateMap = createWorldBoundaryMapLayer();
         jmap = new JMapPane(stateMap);
         jmap.setBorder(new EmptyBorder(50, 50, 50, 50));
+        if (regionShapes != null) {
+            MapOptionsUtil.installRegionToolTips(jmap, regionShapes, "subRegn", dataForRegions);
+        }
         PanTool myPanTool = new PanTool();
         myPanTool.onMouseDragged(null);
         jmap.setCursorTool(myPanTool);
@@ -462,53 +458,28 @@ public class WorldMapPanel extends JFrame implements ComponentListener {
      * @return MapContent with region layers
      */
     public MapContent createWorldBoundaryMapLayer() {
-        boolean verbose = false;
-        FeatureLayer countryLayer = null;
-        FeatureIterator<SimpleFeature> iterator = null;
-        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = null;
-        Collection<Property> properties;
-        String propertyVal;
-        Color fillerColor;
-        FilterFactory myFilter = CommonFactoryFinder.getFilterFactory(null);
         HashMap<String, Double> dataForCountry = new HashMap<>();
         MapContent map = new MapContent();
+        // the shapefile is only read once per session, every redraw only builds a new style for its features
         String shpFilePath = InterfaceMain.gcamReg32ShapeFileLocation;
         if (statesIncluded) {
             shpFilePath = InterfaceMain.gcamReg32US52ShapeFileLocation;
         } else {
             shpFilePath = InterfaceMain.gcamReg32ShapeFileLocation;
         }
-        featureCollection = MapOptionsUtil.getCollectionFromShape(shpFilePath);
+        regionShapes = ShapeFeatureCache.get(shpFilePath);
         try {
-            ArrayList<String> yearColInTable = MapOptionsUtil.getYearListFromTableData(jtable);
             dataForCountry = MapOptionsUtil.getTableDataForStateOrCountry(jtable, (String) yearListMenu.getSelectedItem(), (String) scenarioListMenu.getSelectedItem());
         } catch (Exception e) {
             e.printStackTrace();
         }
-        iterator = featureCollection.features();
-        while (iterator.hasNext()) {
-            SimpleFeature f = (SimpleFeature) iterator.next();
-            SimpleFeatureType type = f.getType();
-            properties = f.getProperties();
-            for (Property property : properties) {
-                String propName = property.getName().getLocalPart();
-                if (propName.equals("subRegn")) {
-                    propertyVal = property.getValue().toString();
-                    if (verbose) System.out.println("subRegn attribute: " + propertyVal);
-                    if (dataForCountry.get(propertyVal) != null) {
-                        fillerColor = MapOptionsUtil.findStateColorFromMapColor(useMapColor, dataForCountry.get(propertyVal));
-                    } else {
-                        fillerColor = null;
-                    }
-                    countryLayer = new FeatureLayer(featureCollection, SLD.createPolygonStyle(new Color(1, 1, 1), fillerColor, 0.9f));
-                    Filter fil = myFilter.equals(myFilter.property("subRegn"), myFilter.literal(f.getProperty("subRegn").getValue()));
-                    countryLayer.setQuery(new Query(type.getName().getLocalPart(), fil));
-                    countryLayer.setVisible(true);
-                    map.addLayer(countryLayer);
-                }
-            }
+        dataForRegions = dataForCountry;
+        if (regionShapes == null) {
+            return map;
         }
-        iterator.close();
+        FeatureLayer countryLayer = MapOptionsUtil.createChoroplethLayer(regionShapes, "subRegn", dataForCountry, useMapColor);
+        countryLayer.setVisible(true);
+        map.addLayer(countryLayer);
         return map;
     }
 
@@ -1,6 +1,10 @@
 package mapOptions;
 
 import java.awt.Color;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
@@ -10,12 +14,21 @@ import org.geotools.data.FeatureSource;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.map.FeatureLayer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.PolygonSymbolizer;
+import org.geotools.styling.Rule;
+import org.geotools.styling.SLD;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
+import org.geotools.swing.JMapPane;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.identity.FeatureId;
 import filter.FilteredTable;
+import filter.TableDataset;
 
 /**
  * Utility class for map options and table data operations.
@@ -151,9 +164,11 @@ public class MapOptionsUtil {
         int min = Integer.MAX_VALUE;
         int max = Integer.MIN_VALUE;
         double[] minMax = new double[2];
-        int columnIdx = FilteredTable.getColumnByName(jtable, yearColumnName);
-        for (int i = 0; i < jtable.getRowCount(); i++) {
-            double valueInCell = Double.parseDouble((String) jtable.getValueAt(i, columnIdx));
+        TableDataset dataset = TableDataset.forTable(jtable);
+        for (double valueInCell : dataset.getValues(dataset.getColumnIndex(yearColumnName))) {
+            if (Double.isNaN(valueInCell)) {
+                continue;
+            }
             if (valueInCell < min) {
                 min = (int) Math.floor(valueInCell);
             }
@@ -191,11 +206,11 @@ public class MapOptionsUtil {
         double min = Double.MAX_VALUE;
         double max = Double.MIN_VALUE;
         double[] minMax = new double[2];
-        ArrayList<String> yearList = getYearListFromTableData(jtable);
-        int firstYearIdx = FilteredTable.getColumnByName(jtable, yearList.get(0));
-        for (int i = 0; i < jtable.getRowCount(); i++) {
-            for (int j = firstYearIdx; j < yearList.size() + firstYearIdx; j++) {
-                double valueInCell = Double.parseDouble((String) jtable.getValueAt(i, j));
+        TableDataset dataset = TableDataset.forTable(jtable);
+        List<String> yearList = dataset.getYearList();
+        int firstYearIdx = dataset.getColumnIndex(yearList.get(0));
+        for (int j = firstYearIdx; j < yearList.size() + firstYearIdx; j++) {
+            for (double valueInCell : dataset.getValues(j)) {
                 if (valueInCell < min) {
                     min = valueInCell;
                 }
@@ -233,77 +248,41 @@ public class MapOptionsUtil {
      * @return map of region to value
      */
     public static HashMap<String, Double> getTableDataForStateOrCountry(JTable jtable, String yearCol, String scenarioStr) {
-        HashMap<String, Double> dataForState = new HashMap<>();
-        List<String> regionsInTable = getUniqueRegionsInTable(jtable);
-        int regionIdx = FilteredTable.getColumnByName(jtable, "region");
-        int yearIdx = FilteredTable.getColumnByName(jtable, yearCol);
-        List<String> scenarioList = getScenarioListFromTableData(jtable);
-        ArrayList<String> yearList = getYearListFromTableData(jtable);
-        int firstYearIdx = FilteredTable.getColumnByName(jtable, yearList.get(0));
+        TableDataset dataset = TableDataset.forTable(jtable);
+        int regionIdx = dataset.getColumnIndex("region");
+        int yearIdx = dataset.getColumnIndex(yearCol);
+        int scenarioCount = dataset.getDistinctLabels(dataset.getColumnIndex("scenario")).size();
+        List<String> yearList = dataset.getYearList();
+        int firstYearIdx = dataset.getColumnIndex(yearList.get(0));
         int idxDiff = firstYearIdx - regionIdx;
         boolean noRowSelected = jtable.getSelectionModel().isSelectionEmpty();
-        // Only one scenario and a row is selected
-        if (idxDiff > 1 && scenarioList.size() == 1 && !noRowSelected) {
-            int selectedRowIdx = jtable.getSelectedRow();
-            String[] valsAtSelectedRow = new String[firstYearIdx - regionIdx - 1];
-            for (int n = 0; n < firstYearIdx - regionIdx - 1; n++) {
-                valsAtSelectedRow[n] = (String) jtable.getValueAt(selectedRowIdx, regionIdx + 1 + n);
-            }
-            for (int i = 0; i < jtable.getRowCount(); i++) {
-                String[] valsAtThisRow = new String[firstYearIdx - regionIdx - 1];
-                for (int n = 0; n < firstYearIdx - regionIdx - 1; n++) {
-                    valsAtThisRow[n] = (String) jtable.getValueAt(i, regionIdx + 1 + n);
-                }
-                boolean theSame = arraysEquals(valsAtThisRow, valsAtSelectedRow);
-                if (theSame) {
-                    String regionStr = (String) jtable.getValueAt(i, regionIdx);
-                    double valForYear = 0;
-                    try {
-                        valForYear = Double.parseDouble((String) jtable.getValueAt(i, yearIdx));
-                    } catch (Exception e) {
-                        valForYear = 0;
-                    }
-                    dataForState.put(regionStr, valForYear);
-                }
-            }
-        } else if (idxDiff == 1 && scenarioList.size() == 1) {
-            for (int n = 0; n < jtable.getRowCount(); n++) {
-                String regionStr = (String) jtable.getValueAt(n, regionIdx);
-                double valForYear = Double.parseDouble((String) jtable.getValueAt(n, yearIdx));
-                dataForState.put(regionStr, valForYear);
-            }
-        } else if (scenarioList.size() > 1 && !noRowSelected) {
-            int selectedRowIdx = jtable.getSelectedRow();
-            String[] valsAtSelectedRow = new String[firstYearIdx - regionIdx - 1];
-            for (int n = 0; n < firstYearIdx - regionIdx - 1; n++) {
-                valsAtSelectedRow[n] = (String) jtable.getValueAt(selectedRowIdx, regionIdx + 1 + n);
-            }
-            for (int i = 0; i < jtable.getRowCount(); i++) {
-                String scenarioAtThisRow = (String) jtable.getValueAt(i, 0);
-                if (scenarioAtThisRow.equals(scenarioStr)) {
-                    String[] valsAtThisRow = new String[firstYearIdx - regionIdx - 1];
-                    for (int n = 0; n < firstYearIdx - regionIdx - 1; n++) {
-                        valsAtThisRow[n] = (String) jtable.getValueAt(i, regionIdx + 1 + n);
-                    }
-                    boolean theSame = arraysEquals(valsAtThisRow, valsAtSelectedRow);
-                    if (theSame) {
-                        String regionStr = (String) jtable.getValueAt(i, regionIdx);
-                        double valForYear = Double.parseDouble((String) jtable.getValueAt(i, yearIdx));
-                        dataForState.put(regionStr, valForYear);
-                    }
-                }
-            }
-        } else if (scenarioList.size() > 1 && noRowSelected) {
-            for (int n = 0; n < jtable.getRowCount(); n++) {
-                String scenarioAtThisRow = (String) jtable.getValueAt(n, 0);
-                if (scenarioAtThisRow.equals(scenarioStr)) {
-                    String regionStr = (String) jtable.getValueAt(n, regionIdx);
-                    double valForYear = Double.parseDouble((String) jtable.getValueAt(n, yearIdx));
-                    dataForState.put(regionStr, valForYear);
-                }
+        // columns between region and the years which the selected row is matched on
+        int[] matchCols = new int[0];
+        String[] matchVals = new String[0];
+        if (idxDiff > 1 && !noRowSelected) {
+            int selectedRowIdx = jtable.convertRowIndexToModel(jtable.getSelectedRow());
+            matchCols = new int[idxDiff - 1];
+            matchVals = new String[idxDiff - 1];
+            for (int n = 0; n < idxDiff - 1; n++) {
+                matchCols[n] = regionIdx + 1 + n;
+                matchVals[n] = dataset.getLabels(matchCols[n])[selectedRowIdx];
             }
         }
-        return dataForState;
+        if (idxDiff > 1 && scenarioCount == 1 && !noRowSelected) {
+            // Only one scenario and a row is selected
+            return dataset.getValuesByLabel(yearIdx, regionIdx, matchCols, matchVals, 0);
+        } else if (idxDiff == 1 && scenarioCount == 1) {
+            return dataset.getValuesByLabel(yearIdx, regionIdx, matchCols, matchVals, Double.NaN);
+        } else if (scenarioCount > 1) {
+            int[] cols = new int[matchCols.length + 1];
+            String[] vals = new String[matchVals.length + 1];
+            cols[0] = 0;
+            vals[0] = scenarioStr;
+            System.arraycopy(matchCols, 0, cols, 1, matchCols.length);
+            System.arraycopy(matchVals, 0, vals, 1, matchVals.length);
+            return dataset.getValuesByLabel(yearIdx, regionIdx, cols, vals, Double.NaN);
+        }
+        return new HashMap<>();
     }
 
     /**
@@ -355,26 +334,150 @@ public class MapOptionsUtil {
      * @return the corresponding Color, or null if not found
      */
     public static Color findStateColorFromMapColor(MapColor mapColor, double val) {
-        Color myColor = null; // Default color for missing data
+        int colorIdx = findColorIndexFromMapColor(mapColor, val);
+        return colorIdx < 0 ? null : mapColor.getColor(colorIdx);
+    }
+
+    /**
+     * Finds the index of the color class for a value from the map color intervals.
+     * @param mapColor the MapColor object
+     * @param val the value to map
+     * @return the index of the color, or -1 if not found
+     */
+    public static int findColorIndexFromMapColor(MapColor mapColor, double val) {
+        int colorIdx = -1; // Default for missing data
         if (mapColor != null) {
             try {
                 double[] colorIntervals = mapColor.getIntervals();
                 if (val > colorIntervals[colorIntervals.length - 1]) {
-                    myColor = mapColor.getColor(colorIntervals.length - 1);
+                    colorIdx = colorIntervals.length - 1;
                 } else if (val >= colorIntervals[0] && val <= colorIntervals[colorIntervals.length - 1]) {
                     for (int i = 0; i < colorIntervals.length - 1; i++) {
                         if (val >= colorIntervals[i] && val < colorIntervals[i + 1]) {
-                            myColor = mapColor.getColor(i);
+                            colorIdx = i;
                             break;
                         }
                     }
                 } else if (val < colorIntervals[0]) {
-                    myColor = mapColor.getColor(0);
+                    colorIdx = 0;
                 }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
-        return myColor;
+        return colorIdx;
+    }
+
+    /**
+     * Creates a single choropleth layer for the features of a shapefile.
+     * The cached features are drawn as they are with a style that has one rule per
+     * color class, each selecting the regions whose value falls in that class by
+     * the key attribute, so a redraw only builds a new style rather than copying
+     * the features.
+     * @param shapes the cached features of the shapefile
+     * @param keyAttribute the feature attribute which holds the region name
+     * @param dataForRegion map of region name to value
+     * @param mapColor the MapColor used to classify values
+     * @return a FeatureLayer covering every region
+     */
+    public static FeatureLayer createChoroplethLayer(ShapeFeatureCache.ShapeFeatures shapes, String keyAttribute, Map<String, Double> dataForRegion, MapColor mapColor) {
+        return new FeatureLayer(shapes.getFeatures(), createValueClassStyle(mapColor, shapes, keyAttribute, dataForRegion));
+    }
+
+    /**
+     * Creates a polygon style with a rule for each color class of the map color,
+     * matching the regions whose value is in the class, and one for regions
+     * without data, which are only outlined. The rules are repeated for each
+     * simplified geometry level of the shapes, limited to the scales at which
+     * that level is drawn.
+     * @param mapColor the MapColor which supplies the class colors
+     * @param shapes the cached features the style is for
+     * @param keyAttribute the feature attribute which holds the region name
+     * @param dataForRegion map of region name to value
+     * @return the rule based Style
+     */
+    public static Style createValueClassStyle(MapColor mapColor, ShapeFeatureCache.ShapeFeatures shapes, String keyAttribute, Map<String, Double> dataForRegion) {
+        StyleFactory sf = CommonFactoryFinder.getStyleFactory();
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+        FeatureTypeStyle fts = sf.createFeatureTypeStyle();
+        int numClasses = 0;
+        if (mapColor != null) {
+            try {
+                numClasses = mapColor.getIntervals().length;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        // the filter selecting the regions in each class
+        List<List<Filter>> regionsInClass = new ArrayList<>();
+        for (int i = 0; i < numClasses; i++) {
+            regionsInClass.add(new ArrayList<Filter>());
+        }
+        for (Map.Entry<String, Double> entry : dataForRegion.entrySet()) {
+            int colorIdx = entry.getValue() == null ? -1 : findColorIndexFromMapColor(mapColor, entry.getValue());
+            if (colorIdx >= 0 && colorIdx < numClasses) {
+                regionsInClass.get(colorIdx).add(ff.equals(ff.property(keyAttribute), ff.literal(entry.getKey())));
+            }
+        }
+        int numLevels = ShapeFeatureCache.SIMPLIFIED_GEOMETRY_ATTRIBUTES.length;
+        // level -1 is the full resolution geometry
+        for (int level = -1; level < numLevels; level++) {
+            for (int i = -1; i < numClasses; i++) {
+                if (i >= 0 && regionsInClass.get(i).isEmpty()) {
+                    continue;
+                }
+                Color fillerColor = i < 0 ? null : mapColor.getColor(i);
+                PolygonSymbolizer sym = SLD.polySymbolizer(SLD.createPolygonStyle(new Color(1, 1, 1), fillerColor, 0.9f));
+                Rule rule = sf.createRule();
+                if (level >= 0) {
+                    sym.setGeometryPropertyName(ShapeFeatureCache.SIMPLIFIED_GEOMETRY_ATTRIBUTES[level]);
+                    rule.setMinScaleDenominator(shapes.getMinScale(level));
+                }
+                if (level + 1 < numLevels) {
+                    rule.setMaxScaleDenominator(shapes.getMinScale(level + 1));
+                }
+                rule.symbolizers().add(sym);
+                if (i < 0) {
+                    // regions which no other rule at this scale matched
+                    rule.setElseFilter(true);
+                } else if (regionsInClass.get(i).size() == 1) {
+                    rule.setFilter(regionsInClass.get(i).get(0));
+                } else {
+                    rule.setFilter(ff.or(regionsInClass.get(i)));
+                }
+                fts.rules().add(rule);
+            }
+        }
+        Style style = sf.createStyle();
+        style.featureTypeStyles().add(fts);
+        return style;
+    }
+
+    /**
+     * Shows the name and value of the region under the mouse as the tooltip of a map.
+     * @param jmap the map pane
+     * @param shapes the cached features drawn in the map
+     * @param keyAttribute the feature attribute which holds the region name
+     * @param dataForRegion map of region name to value
+     */
+    public static void installRegionToolTips(final JMapPane jmap, final ShapeFeatureCache.ShapeFeatures shapes, final String keyAttribute, final Map<String, Double> dataForRegion) {
+        ToolTipManager.sharedInstance().registerComponent(jmap);
+        jmap.addMouseMotionListener(new MouseMotionAdapter() {
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                AffineTransform screenToWorld = jmap.getScreenToWorldTransform();
+                String tip = null;
+                if (screenToWorld != null) {
+                    Point2D world = screenToWorld.transform(e.getPoint(), null);
+                    SimpleFeature f = shapes.featureAt(world.getX(), world.getY());
+                    Object key = f == null ? null : f.getAttribute(keyAttribute);
+                    if (key != null) {
+                        Double val = dataForRegion.get(key.toString());
+                        tip = key + ": " + (val == null ? "no data" : val);
+                    }
+                }
+                jmap.setToolTipText(tip);
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,244 @@
+/*
+ * LEGAL NOTICE
+ * This computer software was prepared by US EPA.
+ * THE GOVERNMENT MAKES NO WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+ * LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+ * sentence must appear on any copies of this computer software.
+ * 
+ * EXPORT CONTROL
+ * User agrees that the Software will not be shipped, transferred or
+ * exported into any country or used in any manner prohibited by the
+ * United States Export Administration Act or any other applicable
+ * export laws, restrictions or regulations (collectively the "Export Laws").
+ * Export of the Software may require some form of license or other
+ * authority from the U.S. Government, and failure to obtain such
+ * export control license may result in criminal liability under
+ * U.S. laws. In addition, if the Software is identified as export controlled
+ * items under the Export Laws, User represents and warrants that User
+ * is not a citizen, or otherwise located within, an embargoed nation
+ * (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+ *     and that User is not otherwise prohibited
+ * under the Export Laws from receiving the Software.
+ *
+ * SUPPORT
+ * For the GLIMPSE project, GCAM development, data processing, and support for 
+ * policy implementations has been led by Dr. Steven J. Smith of PNNL, via Interagency 
+ * Agreements 89-92423101 and 89-92549601. Contributors * from PNNL include 
+ * Maridee Weber, Catherine Ledna, Gokul Iyer, Page Kyle, Marshall Wise, Matthew 
+ * Binsted, and Pralit Patel. Coding contributions have also been made by Aaron 
+ * Parks and Yadong Xu of ARA through the EPA’s Environmental Modeling and 
+ * Visualization Laboratory contract. 
+ */
+package mapOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+
+/**
+ * Process wide cache of the features read from the map shapefiles.
+ * Each shapefile is read once and its features are kept in memory along with
+ * simplified copies of their geometry for zoomed out views and an STRtree which
+ * is used to find the region under the mouse. The cache holds on to at most
+ * -DModelInterface.SHAPE_CACHE_MB megabytes (64 by default) of geometry and drops
+ * the least recently used shapefiles beyond that.
+ */
+public class ShapeFeatureCache {
+    /**
+     * The system property which sets the memory bound of the cache in megabytes.
+     */
+    public static final String MAX_MEGABYTES_PROPERTY = "ModelInterface.SHAPE_CACHE_MB";
+    /**
+     * Simplification tolerances as a fraction of the width of a shapefile's extent,
+     * from the finest to the coarsest level.
+     */
+    public static final double[] SIMPLIFY_FRACTIONS = {1.0 / 4000, 1.0 / 800};
+    /**
+     * Names of the attributes which hold the simplified geometry for each level.
+     */
+    public static final String[] SIMPLIFIED_GEOMETRY_ATTRIBUTES = {"geomLevel1", "geomLevel2"};
+    // rough size of a coordinate once loaded, including the JTS object overhead
+    private static final long BYTES_PER_COORDINATE = 40;
+    // size of a pixel in meters used by the renderer to compute scale denominators
+    private static final double STANDARDIZED_PIXEL_SIZE = 0.00028;
+    private static final double METERS_PER_DEGREE = Math.PI / 180 * 6378137;
+
+    private static final LinkedHashMap<String, ShapeFeatures> cache = new LinkedHashMap<>(8, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    /**
+     * Features of one shapefile along with their simplified geometry and spatial index.
+     */
+    public static class ShapeFeatures {
+        private final SimpleFeatureCollection features;
+        private final STRtree index = new STRtree();
+        private final double[] minScales;
+        private final long lastModified;
+        private long estimatedBytes;
+
+        private ShapeFeatures(File shpFile) throws IOException {
+            lastModified = shpFile.lastModified();
+            ShapefileDataStore store = new ShapefileDataStore(shpFile.toURI().toURL());
+            try {
+                SimpleFeatureCollection source = store.getFeatureSource(store.getTypeNames()[0]).getFeatures();
+                SimpleFeatureType sourceType = source.getSchema();
+                CoordinateReferenceSystem crs = sourceType.getCoordinateReferenceSystem();
+                Class<?> geomClass = sourceType.getGeometryDescriptor().getType().getBinding();
+                SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+                typeBuilder.init(sourceType);
+                for (String attr : SIMPLIFIED_GEOMETRY_ATTRIBUTES) {
+                    typeBuilder.add(attr, geomClass, crs);
+                }
+                SimpleFeatureType type = typeBuilder.buildFeatureType();
+                Envelope bounds = source.getBounds();
+                double[] tolerances = new double[SIMPLIFY_FRACTIONS.length];
+                double metersPerUnit = crs instanceof GeographicCRS ? METERS_PER_DEGREE : 1;
+                minScales = new double[SIMPLIFY_FRACTIONS.length];
+                for (int i = 0; i < tolerances.length; i++) {
+                    tolerances[i] = bounds.getWidth() * SIMPLIFY_FRACTIONS[i];
+                    // a level is used once a pixel covers twice its tolerance
+                    minScales[i] = 2 * tolerances[i] * metersPerUnit / STANDARDIZED_PIXEL_SIZE;
+                }
+                features = new ListFeatureCollection(type);
+                SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(type);
+                try (SimpleFeatureIterator iterator = source.features()) {
+                    while (iterator.hasNext()) {
+                        SimpleFeature f = iterator.next();
+                        Geometry geom = (Geometry) f.getDefaultGeometry();
+                        featureBuilder.addAll(f.getAttributes());
+                        if (geom != null) {
+                            estimatedBytes += geom.getNumPoints() * BYTES_PER_COORDINATE;
+                        }
+                        // each level is simplified from the previous one which is much quicker
+                        Geometry simple = geom;
+                        for (double tolerance : tolerances) {
+                            simple = simple == null ? null : TopologyPreservingSimplifier.simplify(simple, tolerance);
+                            if (simple != null) {
+                                estimatedBytes += simple.getNumPoints() * BYTES_PER_COORDINATE;
+                            }
+                            featureBuilder.add(simple);
+                        }
+                        SimpleFeature cached = featureBuilder.buildFeature(f.getID());
+                        ((ListFeatureCollection) features).add(cached);
+                        if (geom != null) {
+                            index.insert(geom.getEnvelopeInternal(), new Object[] {PreparedGeometryFactory.prepare(geom), cached});
+                        }
+                    }
+                }
+                index.build();
+            } finally {
+                store.dispose();
+            }
+        }
+
+        /**
+         * Gets the features of the shapefile. Each feature has the original attributes
+         * followed by the simplified geometry attributes.
+         * @return the cached features which must not be modified
+         */
+        public SimpleFeatureCollection getFeatures() {
+            return features;
+        }
+
+        /**
+         * Gets the scale denominator from which a simplified level should be drawn.
+         * @param level index into SIMPLIFIED_GEOMETRY_ATTRIBUTES
+         * @return the smallest scale denominator the level is used at
+         */
+        public double getMinScale(int level) {
+            return minScales[level];
+        }
+
+        /**
+         * Finds the feature whose full resolution geometry contains a point.
+         * @param x x coordinate in the shapefile's coordinate system
+         * @param y y coordinate in the shapefile's coordinate system
+         * @return the feature or null if the point is not in any feature
+         */
+        public SimpleFeature featureAt(double x, double y) {
+            Point point = new GeometryFactory().createPoint(new Coordinate(x, y));
+            List<?> candidates = index.query(new Envelope(x, x, y, y));
+            for (Object candidate : candidates) {
+                Object[] entry = (Object[]) candidate;
+                if (((PreparedGeometry) entry[0]).contains(point)) {
+                    return (SimpleFeature) entry[1];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return rough number of bytes used by the geometry of these features
+         */
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+    }
+
+    /**
+     * Gets the features of a shapefile, reading it if it is not cached yet or has
+     * changed since it was read.
+     * @param shpFilePath the shapefile path
+     * @return the features or null if the shapefile could not be read
+     */
+    public static synchronized ShapeFeatures get(String shpFilePath) {
+        File shpFile = new File(shpFilePath).getAbsoluteFile();
+        String key = shpFile.getPath();
+        ShapeFeatures entry = cache.get(key);
+        if (entry != null && entry.lastModified == shpFile.lastModified()) {
+            return entry;
+        }
+        if (entry != null) {
+            cache.remove(key);
+            cachedBytes -= entry.getEstimatedBytes();
+        }
+        try {
+            entry = new ShapeFeatures(shpFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        cache.put(key, entry);
+        cachedBytes += entry.getEstimatedBytes();
+        long maxBytes = Long.getLong(MAX_MEGABYTES_PROPERTY, 64) * 1024 * 1024;
+        Iterator<Map.Entry<String, ShapeFeatures>> it = cache.entrySet().iterator();
+        // always keep the entry just read even if it is larger than the bound on its own
+        while (cachedBytes > maxBytes && cache.size() > 1) {
+            Map.Entry<String, ShapeFeatures> eldest = it.next();
+            cachedBytes -= eldest.getValue().getEstimatedBytes();
+            it.remove();
+        }
+        return entry;
+    }
+
+    /**
+     * Removes all shapefiles from the cache.
+     */
+    public static synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+}
@@ -72,7 +72,6 @@ import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
 
 import org.basex.query.QueryException;
-import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.item.Item;
 //import org.hsqldb.persist.DirectoryBlockCachedObject;
@@ -96,7 +95,9 @@ import ModelInterface.ModelGUI2.InputViewer;
 import ModelInterface.ModelGUI2.QueryTreeModel;
 import ModelInterface.ModelGUI2.XMLFilter;
 import ModelInterface.ModelGUI2.QueryTreeModel.QueryGroup;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
+import ModelInterface.ModelGUI2.xmldb.XMLDBCatalog;
 import ModelInterface.PPsource.PPViewer;
 import ModelInterface.common.FileChooser;
 import ModelInterface.common.FileChooserFactory;
@@ -1153,22 +1154,29 @@ public class InterfaceMain implements ActionListener {
 	// YD added, 07-05-2023,line 703-723 this method "getRegions()" was copied from
 	// "DbViewer.java"
 	protected Vector getRegions() {
+		final XMLDBCatalog catalog = XMLDB.getInstance().getCatalog();
+		if (catalog != null) {
+			try {
+				Vector ret = catalog.getRegions();
+				ret.add("Global");
+				return ret;
+			} catch (QueryException e) {
+				e.printStackTrace();
+			}
+		}
 		Vector funcTemp = new Vector<String>(1, 0);
 		funcTemp.add("distinct-values");
 		Vector ret = new Vector();
-		QueryProcessor queryProc = XMLDB.getInstance().createQuery(
+		try (QueryLease query = XMLDB.getInstance().createQuery(
 				"/scenario/world/" + ModelInterface.ModelGUI2.queries.QueryBuilder.regionQueryPortion + "/@name",
-				funcTemp, null, null);
-		try {
-			Iter res = queryProc.iter();
+				funcTemp, null, null)) {
+			Iter res = query.getQuery().iter();
 			Item temp;
 			while ((temp = res.next()) != null) {
 				ret.add(temp.toJava());
 			}
 		} catch (QueryException e) {
 			e.printStackTrace();
-		} finally {
-			queryProc.close();
 		}
 		ret.add("Global");
 		return ret;
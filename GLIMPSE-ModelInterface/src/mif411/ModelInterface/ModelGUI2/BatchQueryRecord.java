@@ -0,0 +1,126 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2;
+
+import java.io.Serializable;
+
+import ModelInterface.ModelGUI2.xmldb.QueryMetrics;
+
+/**
+ * A record of running a single batch query which is used to report on how long the
+ * queries in a batch took, how many rows they produced and which ones failed.
+ */
+public class BatchQueryRecord implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String queryName;
+	private final String[] scenarios;
+	private final boolean isExtraRun;
+	private final long startTime;
+	private final long durationMillis;
+	private final int rows;
+	private final String error;
+	private final QueryMetrics metrics;
+
+	/**
+	 * @param queryName The name of the query.
+	 * @param scenarios The names of the scenarios the query was run for.
+	 * @param isExtraRun If this was the extra Global run of a query.
+	 * @param startTime When the query started in milliseconds since the epoch.
+	 * @param durationMillis How long the query took.
+	 * @param rows The number of data rows in the results.
+	 * @param error The error the query failed with or null if it succeeded.
+	 */
+	public BatchQueryRecord(String queryName, String[] scenarios, boolean isExtraRun, long startTime,
+			long durationMillis, int rows, String error) {
+		this(queryName, scenarios, isExtraRun, startTime, durationMillis, rows, error, null);
+	}
+
+	/**
+	 * @param queryName The name of the query.
+	 * @param scenarios The names of the scenarios the query was run for.
+	 * @param isExtraRun If this was the extra Global run of a query.
+	 * @param startTime When the query started in milliseconds since the epoch.
+	 * @param durationMillis How long the query took.
+	 * @param rows The number of data rows in the results.
+	 * @param error The error the query failed with or null if it succeeded.
+	 * @param metrics The time spent in each phase of the query which will be
+	 *  filled in up to when the results are exported, or null if unknown.
+	 */
+	public BatchQueryRecord(String queryName, String[] scenarios, boolean isExtraRun, long startTime,
+			long durationMillis, int rows, String error, QueryMetrics metrics) {
+		this.queryName = queryName;
+		this.scenarios = scenarios;
+		this.isExtraRun = isExtraRun;
+		this.startTime = startTime;
+		this.durationMillis = durationMillis;
+		this.rows = rows;
+		this.error = error;
+		this.metrics = metrics;
+	}
+
+	public String getQueryName() {
+		return queryName;
+	}
+
+	public String[] getScenarios() {
+		return scenarios;
+	}
+
+	public boolean isExtraRun() {
+		return isExtraRun;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return The error message or null if the query succeeded.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return The query phase metrics or null if they are not known.
+	 */
+	public QueryMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import ModelInterface.ModelGUI2.xmldb.QueryMetrics;
+
+/**
+ * A machine readable report of a batch run written as JSON.  The report lists each
+ * query that was run with how long it took, the time spent in each phase of it, the
+ * number of rows it produced and any error, as well as each worker process if the
+ * batch was sharded, so that batch runs can be monitored and post-processed
+ * automatically.
+ */
+public class BatchRunReport {
+	/**
+	 * A query that was run and the worker that ran it.
+	 */
+	private static class QueryEntry {
+		final BatchQueryRecord record;
+		final int worker;
+		QueryEntry(BatchQueryRecord record, int worker) {
+			this.record = record;
+			this.worker = worker;
+		}
+	}
+
+	/**
+	 * A worker process which ran part of the batch.
+	 */
+	private static class WorkerEntry {
+		final int worker;
+		final int exitCode;
+		final long durationMillis;
+		final int numUnits;
+		WorkerEntry(int worker, int exitCode, long durationMillis, int numUnits) {
+			this.worker = worker;
+			this.exitCode = exitCode;
+			this.durationMillis = durationMillis;
+			this.numUnits = numUnits;
+		}
+	}
+
+	private final File outFile;
+	private final int numWorkers;
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private final List<QueryEntry> queries = new ArrayList<QueryEntry>();
+	private final List<WorkerEntry> workers = new ArrayList<WorkerEntry>();
+
+	/**
+	 * Start a report for a batch run.  The run is timed from when the report is
+	 * created until it is written.
+	 * @param outFile The file the batch results are written to.
+	 * @param numWorkers The number of worker processes used.
+	 */
+	public BatchRunReport(File outFile, int numWorkers) {
+		this.outFile = outFile;
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * Add queries that were run.
+	 * @param records The query records.
+	 * @param worker The worker which ran them or -1 if there were no workers.
+	 */
+	public void addQueries(List<BatchQueryRecord> records, int worker) {
+		for(BatchQueryRecord record : records) {
+			queries.add(new QueryEntry(record, worker));
+		}
+	}
+
+	/**
+	 * Add a worker process.
+	 * @param worker The index of the worker.
+	 * @param exitCode The exit code of the process.
+	 * @param durationMillis How long the process ran for.
+	 * @param numUnits The number of query and scenario combinations it was given.
+	 */
+	public void addWorker(int worker, int exitCode, long durationMillis, int numUnits) {
+		workers.add(new WorkerEntry(worker, exitCode, durationMillis, numUnits));
+	}
+
+	/**
+	 * @return The number of queries which failed.
+	 */
+	public int getNumFailures() {
+		int ret = 0;
+		for(QueryEntry entry : queries) {
+			if(entry.record.getError() != null) {
+				++ret;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Write the report.
+	 * @param reportFile The file to write the JSON to.
+	 * @throws IOException If the report could not be written.
+	 */
+	public void write(File reportFile) throws IOException {
+		long totalRows = 0;
+		for(QueryEntry entry : queries) {
+			totalRows += entry.record.getRows();
+		}
+		try(Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+			out.write("{\n");
+			out.write("  \"outFile\": "+quote(outFile.getPath())+",\n");
+			out.write("  \"startTime\": "+quote(formatTime(startTime))+",\n");
+			out.write("  \"durationMillis\": "+(System.nanoTime() - startNanos) / 1000000+",\n");
+			out.write("  \"numWorkers\": "+numWorkers+",\n");
+			out.write("  \"numQueries\": "+queries.size()+",\n");
+			out.write("  \"numFailures\": "+getNumFailures()+",\n");
+			out.write("  \"totalRows\": "+totalRows+",\n");
+			out.write("  \"workers\": [");
+			for(int i = 0; i < workers.size(); ++i) {
+				final WorkerEntry worker = workers.get(i);
+				out.write(i == 0 ? "\n" : ",\n");
+				out.write("    {\"worker\": "+worker.worker+", \"exitCode\": "+worker.exitCode+
+						", \"durationMillis\": "+worker.durationMillis+", \"units\": "+worker.numUnits+"}");
+			}
+			out.write(workers.isEmpty() ? "],\n" : "\n  ],\n");
+			out.write("  \"queries\": [");
+			for(int i = 0; i < queries.size(); ++i) {
+				final QueryEntry entry = queries.get(i);
+				final BatchQueryRecord record = entry.record;
+				out.write(i == 0 ? "\n" : ",\n");
+				out.write("    {\"query\": "+quote(record.getQueryName())+", \"scenarios\": [");
+				final String[] scenarios = record.getScenarios();
+				for(int j = 0; j < scenarios.length; ++j) {
+					out.write((j == 0 ? "" : ", ")+quote(scenarios[j]));
+				}
+				out.write("], \"extraRun\": "+record.isExtraRun()+", \"worker\": "+entry.worker+
+						", \"startTime\": "+quote(formatTime(record.getStartTime()))+
+						", \"durationMillis\": "+record.getDurationMillis()+", \"rows\": "+record.getRows()+
+						", \"error\": "+quote(record.getError()));
+				final QueryMetrics metrics = record.getMetrics();
+				if(metrics != null) {
+					out.write(", \"cached\": "+metrics.isCached()+", \"compileMillis\": "+metrics.getCompileMillis()+
+							", \"evalMillis\": "+metrics.getEvalMillis()+", \"nodes\": "+metrics.getNumNodes()+
+							", \"dataTreeMillis\": "+metrics.getDataTreeMillis()+", \"buildMillis\": "+metrics.getBuildMillis()+
+							", \"exportMillis\": "+metrics.getExportMillis());
+				}
+				out.write("}");
+			}
+			out.write(queries.isEmpty() ? "]\n" : "\n  ]\n");
+			out.write("}\n");
+		}
+	}
+
+	private static String formatTime(long time) {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(time));
+	}
+
+	/**
+	 * Quote a string as a JSON string literal.
+	 * @param str The string to quote which may be null.
+	 * @return The JSON string or null.
+	 */
+	private static String quote(String str) {
+		if(str == null) {
+			return "null";
+		}
+		final StringBuilder ret = new StringBuilder(str.length() + 2).append('"');
+		for(int i = 0; i < str.length(); ++i) {
+			final char c = str.charAt(i);
+			switch(c) {
+			case '"':
+				ret.append("\\\"");
+				break;
+			case '\\':
+				ret.append("\\\\");
+				break;
+			case '\n':
+				ret.append("\\n");
+				break;
+			case '\r':
+				ret.append("\\r");
+				break;
+			case '\t':
+				ret.append("\\t");
+				break;
+			default:
+				if(c < 0x20) {
+					ret.append(String.format("\\u%04x", (int)c));
+				} else {
+					ret.append(c);
+				}
+			}
+		}
+		return ret.append('"').toString();
+	}
+}
@@ -37,21 +37,26 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -67,10 +72,6 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
 
-import org.apache.poi.hssf.usermodel.HSSFPatriarch;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -80,7 +81,10 @@ import ModelInterface.ModelGUI2.queries.QueryGenerator;
 import ModelInterface.ModelGUI2.tables.BaseTableModel;
 import ModelInterface.ModelGUI2.tables.ComboTableModel;
 import ModelInterface.ModelGUI2.tables.MultiTableModel;
+import ModelInterface.ModelGUI2.tables.StreamingExcelWriter;
 import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
+import ModelInterface.ModelGUI2.xmldb.QueryMetrics;
+import ModelInterface.ModelGUI2.xmldb.QueryMetricsLog;
 
 
 
@@ -111,7 +115,108 @@ public class BatchWindow {
 	final JProgressBar progressBar;
 	final Runnable increaseProgress;
 	final Window progressDialog;
+	final JLabel metricsLabel;
     final ExecutorService queryThreadPool;
+    /**
+     * Query tasks are added to this queue as they finish so that results can be
+     * written out in the order they complete.
+     */
+    final BlockingQueue<FutureQueryTask> completedTasks = new LinkedBlockingQueue<FutureQueryTask>();
+    /**
+     * Records of each query that was run for reporting.
+     */
+    final List<BatchQueryRecord> queryRecords = Collections.synchronizedList(new ArrayList<BatchQueryRecord>());
+    /**
+     * Totals of the metrics of the queries exported so far.  This is only used by
+     * the export thread.
+     */
+    final MetricsSummary metricsSummary = new MetricsSummary();
+
+    /**
+     * Keeps track of the time spent in each query phase and the slowest queries so
+     * that users can see which queries dominate the time of the batch.
+     */
+    private static class MetricsSummary {
+        /**
+         * The number of slowest queries to show.
+         */
+        static final int NUM_SLOWEST = 3;
+        long compileMillis;
+        long evalMillis;
+        long dataTreeMillis;
+        long buildMillis;
+        long exportMillis;
+        /**
+         * The slowest queries so far, slowest first.
+         */
+        final List<QueryMetrics> slowest = new ArrayList<QueryMetrics>(NUM_SLOWEST + 1);
+
+        void add(QueryMetrics metrics) {
+            compileMillis += metrics.getCompileMillis();
+            evalMillis += metrics.getEvalMillis();
+            dataTreeMillis += metrics.getDataTreeMillis();
+            buildMillis += metrics.getBuildMillis();
+            exportMillis += metrics.getExportMillis();
+            int pos = 0;
+            while(pos < slowest.size() && slowest.get(pos).getTotalMillis() >= metrics.getTotalMillis()) {
+                ++pos;
+            }
+            if(pos < NUM_SLOWEST) {
+                slowest.add(pos, metrics);
+                if(slowest.size() > NUM_SLOWEST) {
+                    slowest.remove(NUM_SLOWEST);
+                }
+            }
+        }
+        String getPhaseTotals() {
+            return "compile "+formatMillis(compileMillis)+", evaluate "+formatMillis(evalMillis)
+                +", categorize "+formatMillis(dataTreeMillis)+", build "+formatMillis(buildMillis)
+                +", export "+formatMillis(exportMillis);
+        }
+        /**
+         * @return The summary formatted for a label.
+         */
+        String toHtml() {
+            final StringBuilder ret = new StringBuilder("<html>Query time: ").append(getPhaseTotals());
+            ret.append("<br>Slowest queries:");
+            for(QueryMetrics metrics : slowest) {
+                ret.append("<br>&nbsp;&nbsp;").append(escapeHtml(metrics.getQueryName()))
+                    .append(" (").append(formatMillis(metrics.getTotalMillis())).append(")");
+            }
+            return ret.append("</html>").toString();
+        }
+        @Override
+        public String toString() {
+            final StringBuilder ret = new StringBuilder("Batch query time: ").append(getPhaseTotals());
+            for(QueryMetrics metrics : slowest) {
+                ret.append(System.getProperty("line.separator")).append("  ").append(metrics);
+            }
+            return ret.toString();
+        }
+        static String formatMillis(long millis) {
+            return String.format("%.1f s", millis / 1000.0);
+        }
+        static String escapeHtml(String str) {
+            return str.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+
+    /**
+     * A group of query results which must be written in order such as the results
+     * which go into the same sheet.
+     */
+    private static class ResultGroup {
+        final List<FutureQueryTask> tasks = new ArrayList<FutureQueryTask>();
+        /**
+         * Results which have finished but could not be written yet.
+         */
+        final List<Object> finished = new ArrayList<Object>();
+        /**
+         * The position of the next result to write.
+         */
+        int next = 0;
+        StreamingExcelWriter.SheetPosition sheetPosition;
+    }
 
     /**
      * An implementation of both a future task as well as a callable task such that it can be scheduled 
@@ -126,17 +231,29 @@ public class BatchWindow {
         final Object[] scenarios;
         final Object[] regions;
         final boolean isExtraRun;
-        public FutureQueryTask(final QueryGenerator qg, final Object[] scenarios, final List<String> regions, final boolean isExtraRun) {
+        final ResultGroup group;
+        final int index;
+        public FutureQueryTask(final QueryGenerator qg, final Object[] scenarios, final List<String> regions, final boolean isExtraRun,
+                final ResultGroup group) {
             this.qg = qg;
             this.scenarios = scenarios;
             // copy the region as an array the way the table model wants it
             this.regions = regions.toArray();
             this.isExtraRun = isExtraRun;
+            this.group = group;
+            index = group.tasks.size();
+            group.tasks.add(this);
+            group.finished.add(null);
             context = new DbProcInterrupt();
             // we must compose rather then extend FutureTask due to limitations with
             // the super type constructor, alternately we could have broken the Callable
             // aspect into a seperate class
-            futureDelegate = new FutureTask<BaseTableModel>(this);
+            futureDelegate = new FutureTask<BaseTableModel>(this) {
+                @Override
+                protected void done() {
+                    completedTasks.add(FutureQueryTask.this);
+                }
+            };
         }
         boolean isTaskAnExtraRun() {
             return isExtraRun;
@@ -170,6 +287,11 @@ public class BatchWindow {
 
         // Callable methods
         public BaseTableModel call() throws Exception {
+            final long startTime = System.currentTimeMillis();
+            final long startNanos = System.nanoTime();
+            int rows = 0;
+            String error = null;
+            QueryMetrics metrics = null;
             try {
                 if(qg == null || !qg .isValid()) {
                     throw new Exception("Could not find a valid query to run.");
@@ -177,10 +299,23 @@ public class BatchWindow {
                 if(regions.length == 0) {
                     throw new Exception("No regions were set to query.");
                 }
-                return qg.isGroup()
+                final BaseTableModel ret = qg.isGroup()
                     ? new MultiTableModel(qg, scenarios, regions, context)
                     : new ComboTableModel(qg, scenarios, regions, null, context);
+                rows = ret.getDataRowCount();
+                metrics = ret.getQueryMetrics();
+                return ret;
+            } catch(Exception e) {
+                error = e.toString();
+                throw e;
             } finally {
+                final String[] scenarioNames = new String[scenarios.length];
+                for(int i = 0; i < scenarios.length; ++i) {
+                    scenarioNames[i] = ((ScenarioListItem)scenarios[i]).getScnName();
+                }
+                queryRecords.add(new BatchQueryRecord(qg != null ? getQueryName() : "", scenarioNames, isExtraRun,
+                            startTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), rows, error,
+                            metrics));
                 // the count for the progress bar is made before we could determine if extra
                 // queries will be run so avoid increasing the progress extra times
                 if(!isExtraRun) {
@@ -195,7 +330,7 @@ public class BatchWindow {
 	 * Instantiates a new batch window. A window with a progress bar is made. 
 	 * The window terminates the operating thread upon exiting the window.  
 	 * 
-	 * @param outputFile that the results will be saved in. This may be xls or csv
+	 * @param outputFile that the results will be saved in. This may be xlsx, xls or csv
      *  determined by the filename extension.
 	 * @param toRunScns the scans to run
 	 * @param allRegions A list of all regions in the database that may be useful if a user does not want to list them all.
@@ -212,8 +347,8 @@ public class BatchWindow {
 
 
 
+        final boolean isExcelOutput = isExcelFile(outputFile);
         this.outputFile = outputFile;
-        final boolean isExcelOutput = outputFile.getName().endsWith(".xls");
 		this.toRunScns = toRunScns;
         this.allRegions = allRegions;
 		this.singleSheet = singleSheet;
@@ -229,10 +364,12 @@ public class BatchWindow {
         if(InterfaceMain.getInstance().getFrame() == null) {
             progressBar = null;
             progressDialog = null;
+            metricsLabel = null;
         } else {
             progressBar = new JProgressBar(0, totalQueriesToExcute);
+            metricsLabel = new JLabel(" ");
             progressDialog = createProgressBarGUI2(progressBar, 
-                    "Running Queries", "Run and Export Progress");
+                    "Running Queries", "Run and Export Progress", metricsLabel);
             WindowAdapter myWindowAdapter = new WindowAdapter() {
                 public void windowClosing(WindowEvent e) {
                     killThread();
@@ -265,34 +402,36 @@ public class BatchWindow {
 
 			public void run() {
 				Node tempNode;
-				HSSFWorkbook wb = null;
 				List<String>tempRegions = new Vector<String>();
-				// read/create the output excel file
-
 
 				if(isInterrupted())
 					return;
 
-				if(isExcelOutput && outputFile.exists() && !(overwriteFile)) {
-					try {
-						wb = new HSSFWorkbook(new FileInputStream(outputFile));
-					} catch (IOException ioe) {
-						ioe.printStackTrace();
-						InterfaceMain.getInstance().showMessageDialog(
-								"There was an error while trying to open "+outputFile,
-								"Batch Query Error", JOptionPane.ERROR_MESSAGE);
-                        if(progressDialog != null) {
-                            progressDialog.dispose();
-                        }
-						return;
-					}
-				}
-                // a query of future query results
-                Queue<FutureQueryTask> results = new LinkedList<FutureQueryTask>();
+				// read/create the output file
+                final BatchOutput output;
+                try {
+                    output = isExcelOutput ? new ExcelOutput() : new CsvOutput();
+                } catch(IOException ioe) {
+                    ioe.printStackTrace();
+                    InterfaceMain.getInstance().showMessageDialog(
+                            "There was an error while trying to open "+BatchWindow.this.outputFile,
+                            "Batch Query Error", JOptionPane.ERROR_MESSAGE);
+                    if(progressDialog != null) {
+                        progressDialog.dispose();
+                    }
+                    return;
+                }
+                final List<ResultGroup> groups = new ArrayList<ResultGroup>();
+                ResultGroup group = null;
+                int numTasks = 0;
 
                 // schedule future results
 				for(Iterator<Object[]> itScn = toRunScns.iterator(); itScn.hasNext(); ) {
                     Object[] currScns = itScn.next();
+                    if(output.isGroupPerScenarioSet() || (group == null && !output.isGroupPerQuery())) {
+                        group = output.createGroup();
+                        groups.add(group);
+                    }
 					for(int snapshotIndex = 0; snapshotIndex < numQueries; ++snapshotIndex) {
                         QueryGenerator qgTemp = null;
 						tempNode = res.item(snapshotIndex);
@@ -301,6 +440,10 @@ public class BatchWindow {
 							SwingUtilities.invokeLater(increaseProgress);
 							continue;
 						}
+                        if(output.isGroupPerQuery()) {
+                            group = output.createGroup();
+                            groups.add(group);
+                        }
 						tempRegions.clear();
 						NodeList nl = tempNode.getChildNodes();
 						boolean isGlobal = false;
@@ -343,8 +486,8 @@ public class BatchWindow {
                             isGlobal = false;
                         }
                         if(tempRegions.size() > 0) {
-                            task = new FutureQueryTask(qgTemp, currScns, tempRegions, extraTask);
-                            results.add(task);
+                            task = new FutureQueryTask(qgTemp, currScns, tempRegions, extraTask, group);
+                            ++numTasks;
                             queryThreadPool.execute(task);
                             extraTask = true;
                         }
@@ -353,8 +496,8 @@ public class BatchWindow {
                         if(isGlobal) {
                             tempRegions.clear();
                             tempRegions.add("Global");
-                            task = new FutureQueryTask(qgTemp, currScns, tempRegions, extraTask);
-                            results.add(task);
+                            task = new FutureQueryTask(qgTemp, currScns, tempRegions, extraTask, group);
+                            ++numTasks;
                             queryThreadPool.execute(task);
                         }
                     }
@@ -363,12 +506,8 @@ public class BatchWindow {
                 // let the thread pool know no more queries will be added
                 queryThreadPool.shutdown();
 
-                // Write results as they becuase available
-                if(isExcelOutput) {
-                    doExcelOutput(outputFile, wb, results);
-                } else {
-                    doCsvOutput(outputFile, results);
-                }
+                // Write results as they become available
+                exportResults(output, groups, numTasks);
 
 			}
 		};
@@ -388,6 +527,21 @@ public class BatchWindow {
 	 */
 	public static Window createProgressBarGUI2(JProgressBar progBar, String title, 
 			String labelStr) {
+		return createProgressBarGUI2(progBar, title, labelStr, null);
+	}
+
+	/**
+	 * Creates the progress bar GUI with a label for details under the progress bar.
+	 * 
+	 * @param progBar the progress bar
+	 * @param title title of the window
+	 * @param labelStr the label of the window
+	 * @param detailLabel the label to show under the progress bar or null
+	 * 
+	 * @return the window
+	 */
+	public static Window createProgressBarGUI2(JProgressBar progBar, String title, 
+			String labelStr, JLabel detailLabel) {
 		if(progBar.getMaximum() == 0) {
 			return null;
 		}
@@ -402,6 +556,10 @@ public class BatchWindow {
 		all.add(label, BorderLayout.PAGE_START);
 		all.add(Box.createVerticalStrut(10));
 		all.add(progBar);
+		if(detailLabel != null) {
+			all.add(Box.createVerticalStrut(10));
+			all.add(detailLabel);
+		}
 		final JButton cancelButton = new JButton("Cancel");
 		cancelButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -439,6 +597,26 @@ public class BatchWindow {
 		exportThread.interrupt();
 	}
 
+    /**
+     * @param outputFile The file results will be saved in.
+     * @return True if the results will be written into an excel workbook rather
+     *  than a CSV file.
+     */
+    public static boolean isExcelFile(File outputFile) {
+        return outputFile.getName().endsWith(".xls") || outputFile.getName().endsWith(".xlsx");
+    }
+
+    /**
+     * Get the records of each query that was run.  This should be called after
+     * waitForFinish to get a complete list.
+     * @return The query records in the order the queries finished.
+     */
+    public List<BatchQueryRecord> getQueryRecords() {
+        synchronized(queryRecords) {
+            return new ArrayList<BatchQueryRecord>(queryRecords);
+        }
+    }
+
     /**
      * Wait for the runner to finish.  This will block until it can join with the
      * export thread.
@@ -452,184 +630,313 @@ public class BatchWindow {
     }
 
     /**
-     * Write the results of the batch into an excel spread sheet.
-     * @param outputFile The location to write the spread sheet to.
-     * @param wb The workbook object which may have already been opened for the
-     *  case when results will be appended to the file.  Null otherwise.
-     * @param results The batch results to be written out as they become available.
+     * Write out results in the order the queries finish.  A result which finishes
+     * before the results ahead of it in its group is held by the output until it
+     * can be written.
+     * @param output Where to write the results.
+     * @param groups All of the result groups.
+     * @param numTasks The total number of query tasks scheduled.
      */
-    private void doExcelOutput(final File outputFile, HSSFWorkbook wb, Queue<FutureQueryTask> results) {
-        HSSFSheet sheet = null;
-        HSSFPatriarch drawingPat = null;
-        int numErrors = 0;
-
-        //Option to add results to an existing file has been added.
-        if(wb == null || (outputFile.exists() && (overwriteFile))) {
-            wb = new HSSFWorkbook();
-        }
-
+    private void exportResults(BatchOutput output, List<ResultGroup> groups, int numTasks) {
         try {
-            // actually get the query results and write them into the spreadsheet
-            for(Iterator<Object[]> itScn = toRunScns.iterator(); itScn.hasNext(); itScn.next()) {
-                if(!singleSheet) { 
-                    sheet = wb.createSheet("Sheet"+String.valueOf(wb.getNumberOfSheets()+1));
-                    drawingPat = drawPics ? sheet.createDrawingPatriarch() : null;
+            for(int i = 0; i < numTasks; ++i) {
+                final FutureQueryTask task = completedTasks.take();
+                final ResultGroup group = task.group;
+                // the group no longer needs to keep the task for cancelling
+                group.tasks.set(task.index, null);
+                group.finished.set(task.index, task.index == group.next ? task : output.hold(task));
+                while(group.next < group.finished.size() && group.finished.get(group.next) != null) {
+                    output.write(group, group.finished.set(group.next++, null));
                 }
-                for(int snapshotIndex = 0; snapshotIndex < numQueries; ++snapshotIndex) {
-                    Node tempNode = res.item(snapshotIndex);
-                    if(tempNode.getNodeType() == Node.COMMENT_NODE) {
-                        // skip comments
-                        continue;
-                    }
-                    if(Thread.currentThread().isInterrupted())
-                        return;
-
-                    if(singleSheet) {
-                        sheet = wb.createSheet("Sheet"+String.valueOf(wb.getNumberOfSheets()+1));
-                        drawingPat = drawPics ? sheet.createDrawingPatriarch() : null;
-                    }
-
-                    // may need to get two results if the task was an extra run for global
-                    for(int extra = 0; extra < 1 || (!results.isEmpty() && results.peek().isTaskAnExtraRun()); ++extra) {
-                        try {
-                            // get will block until the query is done processing
-                            // just peek now and remove after the get to ensure all tasks get cancelled 
-                            // in the event we are interrupted
-                            results.peek().get().exportToExcel(sheet, wb, drawingPat);
-                        } catch(ExecutionException ee) {
-                            ee.printStackTrace();
-                            HSSFRow row = sheet.createRow(sheet.getLastRowNum()+1);
-                            row.createCell((short)0).setCellValue(results.peek().getQueryName()+" had error: "+ee.getMessage());
-                            // avoid reporting the same error twice in the case of extra runs
-                            if(!results.peek().isTaskAnExtraRun()) {
-                                ++numErrors;
-                            }
-                        } finally {
-                            results.remove();
-                        }
-                    }
-                }
-
             }
-            if(Thread.currentThread().isInterrupted())
-                return;
-
-
-            try {
-                FileOutputStream fos = new FileOutputStream(outputFile);
-                wb.write(fos);
-                fos.close();
-                if(numErrors == 0) {
-                    InterfaceMain.getInstance().showMessageDialog(
-                            "Successfully ran batch query",
-                            "Batch Query", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    // warn the users that some queries had errors
-                    final String message = "Batch queries finished with "+numErrors+" error"+(numErrors == 1 ? "." : "s.");
-                    InterfaceMain.getInstance().showMessageDialog(
-                            message,
-                            "Batch Query", JOptionPane.WARNING_MESSAGE);
-                }
-            } catch(IOException ioe) {
-                ioe.printStackTrace();
+            output.save();
+            if(progressDialog == null) {
+                // headless runs have no progress dialog to show the summary in
+                System.out.println(metricsSummary);
+            }
+            final int numErrors = output.getNumErrors();
+            if(numErrors == 0) {
                 InterfaceMain.getInstance().showMessageDialog(
-                        "There was an error while trying to write results",
-                        "Batch Query Error", JOptionPane.ERROR_MESSAGE);
-            } finally {
-                if(progressDialog != null) {
-                    progressDialog.dispose();
-                }
+                        "Successfully ran batch query",
+                        "Batch Query", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                // warn the users that some queries had errors
+                final String message = "Batch queries finished with "+numErrors+" error"+(numErrors == 1 ? "." : "s.");
+                InterfaceMain.getInstance().showMessageDialog(
+                        message,
+                        "Batch Query", JOptionPane.WARNING_MESSAGE);
             }
         } catch(InterruptedException ie) {
             ie.printStackTrace();
             // make sure all of the query tasks are cancelled since the thread pool will
             // not do this for us
-            for(Iterator<FutureQueryTask> it = results.iterator(); it.hasNext(); ) {
-                it.next().cancel(true);
+            cancelTasks(groups);
+            output.abort();
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            cancelTasks(groups);
+            output.abort();
+            InterfaceMain.getInstance().showMessageDialog(
+                    "There was an error while trying to write results",
+                    "Batch Query Error", JOptionPane.ERROR_MESSAGE);
+        } finally {
+            if(progressDialog != null) {
+                progressDialog.dispose();
+            }
+        }
+    }
+
+    private void cancelTasks(List<ResultGroup> groups) {
+        for(ResultGroup group : groups) {
+            for(FutureQueryTask task : group.tasks) {
+                if(task != null) {
+                    task.cancel(true);
+                }
             }
         }
     }
 
     /**
-     * Write the results of the batch into a CSV file.
-     * @param outputFile The location to write the CSV to.
-     * @param results The batch results to be written out as they become available.
+     * Where the results of a batch are written.
      */
-    private void doCsvOutput(final File outputFile, Queue<FutureQueryTask> results) {
-        final char delimiter = ',';
-        int numErrors = 0;
-        StringBuilder outputBuf = new StringBuilder();
+    private abstract class BatchOutput {
+        private int numErrors = 0;
 
-        try {
-            // actually get the query results and write them into the spreadsheet
-            for(Iterator<Object[]> itScn = toRunScns.iterator(); itScn.hasNext(); itScn.next()) {
-                for(int snapshotIndex = 0; snapshotIndex < numQueries; ++snapshotIndex) {
-                    Node tempNode = res.item(snapshotIndex);
-                    if(tempNode.getNodeType() == Node.COMMENT_NODE) {
-                        // skip comments
-                        continue;
-                    }
-                    if(Thread.currentThread().isInterrupted())
-                        return;
-
-                    // may need to get two results if the task was an extra run for global
-                    for(int extra = 0; extra < 1 || (!results.isEmpty() && results.peek().isTaskAnExtraRun()); ++extra) {
-                        try {
-                            // get will block until the query is done processing
-                            // just peek now and remove after the get to ensure all tasks get cancelled 
-                            // in the event we are interrupted
-                            outputBuf.append(results.peek().get().exportToText(delimiter));
-                        } catch(ExecutionException ee) {
-                            ee.printStackTrace();
-                            String lineEnding = System.getProperty("line.separator");
-                            outputBuf.append(results.peek().getQueryName()).append(" had error: ").append(ee.getMessage())
-                                        .append(lineEnding);
-                            // avoid reporting the same error twice in the case of extra runs
-                            if(!results.peek().isTaskAnExtraRun()) {
-                                ++numErrors;
-                            }
-                        } finally {
-                            results.remove();
-                        }
-                    }
+        ResultGroup createGroup() {
+            return new ResultGroup();
+        }
+        /**
+         * @return True if each query gets its own group.
+         */
+        boolean isGroupPerQuery() {
+            return false;
+        }
+        /**
+         * @return True if each set of scenarios gets its own group.  If neither this
+         *  nor isGroupPerQuery then all results are in a single group.
+         */
+        boolean isGroupPerScenarioSet() {
+            return false;
+        }
+        int getNumErrors() {
+            return numErrors;
+        }
+        /**
+         * Get the results of a finished task.
+         * @return The results or null if the query failed in which case the error
+         *  will have been counted.
+         */
+        BaseTableModel getResult(FutureQueryTask task) throws InterruptedException {
+            try {
+                return task.get();
+            } catch(ExecutionException ee) {
+                ee.printStackTrace();
+                // avoid reporting the same error twice in the case of extra runs
+                if(!task.isTaskAnExtraRun()) {
+                    ++numErrors;
                 }
-
+                return null;
             }
-            if(Thread.currentThread().isInterrupted())
+        }
+        /**
+         * Record the time to export a result and log its metrics now that the query
+         * is done with.
+         * @param result The result that was exported.
+         * @param exportStart When the export started from System.nanoTime.
+         */
+        void exported(BaseTableModel result, long exportStart) {
+            final QueryMetrics metrics = result.getQueryMetrics();
+            if(metrics == null) {
                 return;
+            }
+            metrics.addExportNanos(System.nanoTime() - exportStart);
+            QueryMetricsLog.recordMetrics(metrics);
+            metricsSummary.add(metrics);
+            if(progressDialog != null) {
+                final String text = metricsSummary.toHtml();
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        metricsLabel.setText(text);
+                        progressDialog.pack();
+                    }
+                });
+            }
+        }
+        String getErrorMessage(FutureQueryTask task) {
+            try {
+                task.get();
+                return null;
+            } catch(Exception e) {
+                return task.getQueryName()+" had error: "+e.getMessage();
+            }
+        }
+        /**
+         * Keep a finished task which can not be written yet.
+         * @return The object to pass to write once it is this task's turn.
+         */
+        abstract Object hold(FutureQueryTask task) throws IOException, InterruptedException;
+        /**
+         * Write a finished task or an object returned from hold.
+         */
+        abstract void write(ResultGroup group, Object finished) throws IOException, InterruptedException;
+        /**
+         * Called once all results have been written.
+         */
+        abstract void save() throws IOException;
+        /**
+         * Clean up after the batch was stopped.
+         */
+        abstract void abort();
+    }
 
+    /**
+     * Writes the results into an excel spread sheet.  Each group of results gets its
+     * own sheet which are created up front so they are in the same order regardless
+     * of when queries finish.  Rows are streamed so only the most recent rows of each
+     * sheet are kept in memory, and results which finish early are spooled into
+     * their own temporary files until their turn.
+     */
+    private class ExcelOutput extends BatchOutput {
+        final StreamingExcelWriter out;
+        final List<StreamingExcelWriter.Spool> spools = new ArrayList<StreamingExcelWriter.Spool>();
 
+        ExcelOutput() throws IOException {
+            //Option to add results to an existing file has been added.
+            out = new StreamingExcelWriter(outputFile, !overwriteFile);
+        }
+        @Override
+        ResultGroup createGroup() {
+            final ResultGroup ret = super.createGroup();
+            out.createSheet();
+            ret.sheetPosition = out.getPosition();
+            return ret;
+        }
+        @Override
+        boolean isGroupPerQuery() {
+            return singleSheet;
+        }
+        @Override
+        boolean isGroupPerScenarioSet() {
+            return !singleSheet;
+        }
+        @Override
+        Object hold(FutureQueryTask task) throws IOException, InterruptedException {
+            final BaseTableModel result = getResult(task);
+            if(result == null) {
+                return getErrorMessage(task);
+            }
+            final StreamingExcelWriter.Spool spool = new StreamingExcelWriter.Spool();
+            spools.add(spool);
+            final long exportStart = System.nanoTime();
+            result.exportToExcel(spool.getWriter(), drawPics);
+            spool.finish();
+            exported(result, exportStart);
+            return spool;
+        }
+        @Override
+        void write(ResultGroup group, Object finished) throws IOException, InterruptedException {
+            out.setPosition(group.sheetPosition);
+            if(finished instanceof StreamingExcelWriter.Spool) {
+                final StreamingExcelWriter.Spool spool = (StreamingExcelWriter.Spool)finished;
+                spool.copyTo(out);
+                spool.close();
+                spools.remove(spool);
+                return;
+            } else if(finished instanceof String) {
+                out.createRow().createCell(0).setCellValue((String)finished);
+                return;
+            }
+            final FutureQueryTask task = (FutureQueryTask)finished;
+            final BaseTableModel result = getResult(task);
+            if(result != null) {
+                final long exportStart = System.nanoTime();
+                result.exportToExcel(out, drawPics);
+                exported(result, exportStart);
+            } else {
+                out.createRow().createCell(0).setCellValue(getErrorMessage(task));
+            }
+        }
+        @Override
+        void save() throws IOException {
             try {
-                PrintStream outputStream = new PrintStream(outputFile);
-                outputStream.print(outputBuf.toString());
-                outputStream.close();
-                if(numErrors == 0) {
-                    InterfaceMain.getInstance().showMessageDialog(
-                            "Successfully ran batch query",
-                            "Batch Query", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    // warn the users that some queries had errors
-                    final String message = "Batch queries finished with "+numErrors+" error"+(numErrors == 1 ? "." : "s.");
-                    InterfaceMain.getInstance().showMessageDialog(
-                            message,
-                            "Batch Query", JOptionPane.WARNING_MESSAGE);
-                }
-            } catch(IOException ioe) {
-                ioe.printStackTrace();
-                InterfaceMain.getInstance().showMessageDialog(
-                        "There was an error while trying to write results",
-                        "Batch Query Error", JOptionPane.ERROR_MESSAGE);
+                out.write(outputFile);
             } finally {
-                if(progressDialog != null) {
-                    progressDialog.dispose();
+                out.close();
+            }
+        }
+        @Override
+        void abort() {
+            try {
+                out.close();
+                for(StreamingExcelWriter.Spool spool : spools) {
+                    spool.close();
                 }
+            } catch(IOException ioe) {
+                // we are giving up on the output anyways
             }
-        } catch(InterruptedException ie) {
-            ie.printStackTrace();
-            // make sure all of the query tasks are cancelled since the thread pool will
-            // not do this for us
-            for(Iterator<FutureQueryTask> it = results.iterator(); it.hasNext(); ) {
-                it.next().cancel(true);
+        }
+    }
+
+    /**
+     * Writes the results into a CSV file.  Results are written straight into a
+     * temporary file next to the output as soon as it is their turn, and results
+     * which finish early are spooled into their own temporary files until then.
+     * The output file is only replaced once all results are written.
+     */
+    private class CsvOutput extends BatchOutput {
+        final char delimiter = ',';
+        final Charset charset = Charset.defaultCharset();
+        final File tempFile;
+        final OutputStream out;
+        final List<File> spoolFiles = new ArrayList<File>();
+
+        CsvOutput() throws IOException {
+            tempFile = File.createTempFile(outputFile.getName(), ".tmp", outputFile.getAbsoluteFile().getParentFile());
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+        }
+        private byte[] getResultText(FutureQueryTask task) throws InterruptedException {
+            final BaseTableModel result = getResult(task);
+            if(result == null) {
+                return (getErrorMessage(task)+System.getProperty("line.separator")).getBytes(charset);
+            }
+            final long exportStart = System.nanoTime();
+            final byte[] ret = result.exportToText(delimiter).getBytes(charset);
+            exported(result, exportStart);
+            return ret;
+        }
+        @Override
+        Object hold(FutureQueryTask task) throws IOException, InterruptedException {
+            final File spoolFile = File.createTempFile("batch", ".csv", tempFile.getParentFile());
+            spoolFiles.add(spoolFile);
+            Files.write(spoolFile.toPath(), getResultText(task));
+            return spoolFile;
+        }
+        @Override
+        void write(ResultGroup group, Object finished) throws IOException, InterruptedException {
+            if(finished instanceof File) {
+                final File spoolFile = (File)finished;
+                Files.copy(spoolFile.toPath(), out);
+                spoolFile.delete();
+                spoolFiles.remove(spoolFile);
+            } else {
+                out.write(getResultText((FutureQueryTask)finished));
+            }
+        }
+        @Override
+        void save() throws IOException {
+            out.close();
+            Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        @Override
+        void abort() {
+            try {
+                out.close();
+            } catch(IOException ioe) {
+                // we are giving up on the output anyways
+            }
+            tempFile.delete();
+            for(File spoolFile : spoolFiles) {
+                spoolFile.delete();
             }
         }
     }
@@ -52,6 +52,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -112,7 +113,6 @@ import javax.xml.xpath.XPathFactory;
 import org.basex.api.dom.BXDoc;
 import org.basex.api.dom.BXNode;
 import org.basex.query.QueryException;
-import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.ANode;
@@ -143,7 +143,11 @@ import ModelInterface.ModelGUI2.tables.TableSorter;
 import ModelInterface.ModelGUI2.tables.TableTransferHandler;
 import ModelInterface.ModelGUI2.undo.RenameScenarioUndoableEdit;
 import ModelInterface.ModelGUI2.xmldb.QueryBinding;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
+import ModelInterface.ModelGUI2.xmldb.XMLDBCatalog;
+import ModelInterface.ModelGUI2.xmldb.XMLDBIndexProfile;
+import ModelInterface.ModelGUI2.xmldb.XMLDBIndexProfileReport;
 import ModelInterface.common.DataPair;
 import ModelInterface.common.FileChooser;
 import ModelInterface.common.FileChooserFactory;
@@ -754,12 +758,12 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 			main.getProperties().setProperty("lastDirectory", batchFiles[0].getParent());
 			final FileFilter xlsFilter = new javax.swing.filechooser.FileFilter() {
 				public boolean accept(File f) {
-					return f.getName().toLowerCase().endsWith(".xls") || f.getName().toLowerCase().endsWith(".csv")
-							|| f.isDirectory();
+					return f.getName().toLowerCase().endsWith(".xlsx") || f.getName().toLowerCase().endsWith(".xls")
+							|| f.getName().toLowerCase().endsWith(".csv") || f.isDirectory();
 				}
 
 				public String getDescription() {
-					return "Microsoft Excel File(*.xls) or CSV (*.csv)";
+					return "Microsoft Excel File(*.xlsx) or CSV (*.csv)";
 				}
 			};
 			File[] xlsFiles = fc.doFilePrompt(parentFrame, "Select Where to Save Output", FileChooser.SAVE_DIALOG,
@@ -768,8 +772,9 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 				return;
 			} else {
 				for (int i = 0; i < xlsFiles.length; ++i) {
-					if (!xlsFiles[i].getName().endsWith(".xls") && !xlsFiles[i].getName().endsWith(".csv")) {
-						xlsFiles[i] = new File(xlsFiles[i].getAbsolutePath() + ".xls");
+					if (!xlsFiles[i].getName().endsWith(".xlsx") && !xlsFiles[i].getName().endsWith(".xls")
+							&& !xlsFiles[i].getName().endsWith(".csv")) {
+						xlsFiles[i] = new File(xlsFiles[i].getAbsolutePath() + ".xlsx");
 					}
 				}
 				main.getProperties().setProperty("lastDirectory", xlsFiles[0].getParent());
@@ -896,10 +901,17 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 	 * @return Vector of ScenarioListItem objects.
 	 */
 	public static Vector<ScenarioListItem> getScenarios(XMLDB xmldb) {
+		// the catalog avoids having to visit every scenario document
+		if (xmldb.getCatalog() != null) {
+			try {
+				return xmldb.getCatalog().getScenarios();
+			} catch (QueryException e) {
+				System.out.println("Could not read the scenario catalog: " + e.toString());
+			}
+		}
 		Vector<ScenarioListItem> ret = new Vector<ScenarioListItem>();
-		QueryProcessor queryProc = xmldb.createQuery("/scenario", null, null, null);
-		try {
-			Iter res = queryProc.iter();
+		try (QueryLease query = xmldb.createQuery("/scenario", null, null, null)) {
+			Iter res = query.getQuery().iter();
 			ANode temp;
 			while ((temp = (ANode) res.next()) != null) {
 				BXNode tempNode = BXNode.get(temp);
@@ -919,8 +931,6 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 			JOptionPane.showMessageDialog(null,
 					"Could not load selected database, probably due to file corruption. Please review console for futher details.  All loading will stop.");
 			return null;
-		} finally {
-			queryProc.close();
 		}
 		return ret;
 	}
@@ -943,15 +953,24 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 	 * @return Vector of region names.
 	 */
 	protected Vector getRegions() {
+		final XMLDBCatalog catalog = XMLDB.getInstance().getCatalog();
+		if (catalog != null) {
+			try {
+				Vector ret = catalog.getRegions();
+				ret.add("Global");
+				return ret;
+			} catch (QueryException e) {
+				System.out.println("Could not read the scenario catalog: " + e.toString());
+			}
+		}
 
 		Vector funcTemp = new Vector<String>(1, 0);
 		funcTemp.add("distinct-values");
 		Vector ret = new Vector();
-		QueryProcessor queryProc = XMLDB.getInstance().createQuery(
+		try (QueryLease query = XMLDB.getInstance().createQuery(
 				"/scenario/world/" + ModelInterface.ModelGUI2.queries.QueryBuilder.regionQueryPortion + "/@name",
-				funcTemp, null, null);
-		try {
-			Iter res = queryProc.iter();
+				funcTemp, null, null)) {
+			Iter res = query.getQuery().iter();
 			Item temp;
 			while ((temp = res.next()) != null) {
 				ret.add(temp.toJava());
@@ -959,8 +978,6 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 		} catch (QueryException e) {
 			System.out.println("Error loading regions: " + e.toString());
 			return null;
-		} finally {
-			queryProc.close();
 		}
 		ret.add("Global");
 		return ret;
@@ -1986,11 +2003,8 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 
 						new Thread(new Runnable() {
 							public void run() {
-								for (int addFileIndex = 0; addFileIndex < xmlFiles.length; ++addFileIndex) {
-									XMLDB.getInstance().addFile(xmlFiles[addFileIndex].getAbsolutePath(), addFileIndex,
-											xmlFiles.length);
-									// SwingUtilities.invokeLater(incProgress);
-								}
+								// the files are parsed concurrently and indices rebuilt once at the end
+								XMLDB.getInstance().addFiles(xmlFiles);
 								scns = getScenarios();
 								list.setListData(scns);
 								// jd.setVisible(false);
@@ -2972,23 +2986,21 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 				// get the cache document, if there is an exception getting it then it
 				// may not exsist so we can try to create it
 				XMLDB xmldbInstance = XMLDB.getInstance();
-				QueryProcessor queryProc = xmldbInstance.createQuery("/singleQueryListCache", null, null, null);
 				ANode doc = null;
 				try {
-					Iter res = queryProc.iter();
-					doc = (ANode) res.next();
+					try (QueryLease query = xmldbInstance.createQuery("/singleQueryListCache", null, null, null)) {
+						doc = (ANode) query.getQuery().iter().next();
+					}
 					if (doc == null) {
 						// Try to create it then get the doc
 						xmldbInstance.addFile("cache.xml", "<singleQueryListCache />", 1, 1);
-						queryProc = xmldbInstance.createQuery("/singleQueryListCache", null, null, null);
-						res = queryProc.iter();
-						doc = (ANode) res.next();
+						try (QueryLease query = xmldbInstance.createQuery("/singleQueryListCache", null, null, null)) {
+							doc = (ANode) query.getQuery().iter().next();
+						}
 					}
 				} catch (QueryException e) {
 					// TODO: put error to screen?
 					e.printStackTrace();
-				} finally {
-					queryProc.close();
 				}
 
 				// a final check if we were not able to get the doc then do not scan
@@ -3138,9 +3150,11 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 		final String splitRunsPropName = "batchQuerySplitRunsInDifferentSheets";
 		final String replaceResultsPropName = "batchQueryReplaceResults";
 		final String coresToUsePropertyName = "coresToUse";
+		final String numWorkersPropName = "batchQueryNumWorkers";
 		Runtime.getRuntime().availableProcessors();
 		final int defaultNumCoresToUse = Integer.valueOf(prop.getProperty(coresToUsePropertyName, Integer.toString(2)));
 		prop.setProperty(coresToUsePropertyName, Integer.toString(defaultNumCoresToUse));
+		final int defaultNumWorkers = Integer.valueOf(prop.getProperty(numWorkersPropName, Integer.toString(1)));
 
 		NodeList children = command.getChildNodes();
 		for (int i = 0; i < children.getLength(); ++i) {
@@ -3167,6 +3181,8 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 				boolean splitRuns = Boolean.parseBoolean(prop.getProperty(splitRunsPropName, "false"));
 				boolean replaceResults = Boolean.parseBoolean(prop.getProperty(replaceResultsPropName, "false"));
 				int numCoresToUse = defaultNumCoresToUse;
+				int numWorkers = defaultNumWorkers;
+				File reportFile = null;
 				// Parse child nodes for batch file configuration
 				NodeList fileNameChildren = child.getChildNodes();
 				for (int j = 0; j < fileNameChildren.getLength(); ++j) {
@@ -3211,6 +3227,16 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 							numCoresToUse = defaultNumCoresToUse;
 						}
 						break;
+					case numWorkersPropName:
+						try {
+							numWorkers = Integer.parseInt(fileNode.getTextContent());
+						} catch (NumberFormatException ex) {
+							numWorkers = defaultNumWorkers;
+						}
+						break;
+					case "runReport":
+						reportFile = new File(fileNode.getTextContent());
+						break;
 					default:
 						System.out.println("Unknown tag: " + nodeName);
 						break;
@@ -3276,11 +3302,20 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 					// Get regions (excluding Global)
 					Vector<String> allRegions = getRegions();
 					allRegions.remove("Global");
-					// Run the batch window
-					BatchWindow runner = new BatchWindow(outFile, toRunScns, allRegions, singleSheet, includeCharts,
-							numQueries, res, replaceResults, numCoresToUse);
-					if (runner != null) {
+					if (numWorkers > 1) {
+						// shard the queries across worker processes which each open the database
+						new ShardedBatchRunner(dbFile, outFile, res, toRunScns, singleSheet, includeCharts, replaceResults,
+								numWorkers, numCoresToUse).run(reportFile);
+					} else {
+						// Run the batch window
+						BatchRunReport report = new BatchRunReport(outFile, 1);
+						BatchWindow runner = new BatchWindow(outFile, toRunScns, allRegions, singleSheet, includeCharts,
+								numQueries, res, replaceResults, numCoresToUse);
 						runner.waitForFinish();
+						if (reportFile != null) {
+							report.addQueries(runner.getQueryRecords(), -1);
+							report.write(reportFile);
+						}
 					}
 				} catch (Exception e) {
 					// Print stack trace for errors
@@ -3291,6 +3326,13 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 						XMLDB.closeDatabase();
 					}
 				}
+			} else if (ShardedBatchRunner.SHARD_COMMAND.equals(actionCommand)) {
+				runBatchShard((Element) child);
+			} else if ("XMLDB Set Index Profile".equals(actionCommand)
+					|| "XMLDB Index Profile Report".equals(actionCommand)) {
+				runIndexProfileCommand((Element) child, actionCommand);
+			} else if ("XMLDB Diff Scenarios".equals(actionCommand)) {
+				runDiffCommand((Element) child);
 			} else {
 				// Unknown command type
 				System.out.println("Unknown command: " + actionCommand);
@@ -3298,6 +3340,295 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 		}
 	}
 
+	/**
+	 * Runs the part of a sharded batch query given to this worker process.
+	 *
+	 * @param command The shard command written by the ShardedBatchRunner.
+	 * @see ShardedBatchRunner
+	 */
+	private void runBatchShard(Element command) {
+		boolean didOpenDB = false;
+		try {
+			if (XMLDB.getInstance() == null) {
+				XMLDB.openDatabase(ShardedBatchRunner.getDbLocation(command));
+				didOpenDB = true;
+			}
+			Vector<String> allRegions = getRegions();
+			allRegions.remove("Global");
+			ShardedBatchRunner.runShard(command, getScenarios(), allRegions);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (didOpenDB) {
+				XMLDB.closeDatabase();
+			}
+		}
+	}
+
+	/**
+	 * Executes a batch command to either set the index profile of a database or
+	 * to generate a timing report comparing index profiles.
+	 * <p>
+	 * Both commands require an xmldbLocation and will use any profile elements
+	 * given. To set the profile exactly one profile must be given. The report
+	 * additionally requires a queryFile and outFile, may list scenario elements
+	 * (the last scenario in the database is used otherwise), and may set the
+	 * number of repeats of each query. If no profiles are given for the report
+	 * all profiles are compared.
+	 *
+	 * @param command       The XML Element containing the command options.
+	 * @param actionCommand The name of the command to run.
+	 */
+	private void runIndexProfileCommand(Element command, String actionCommand) {
+		File queryFile = null;
+		File outFile = null;
+		String dbFile = null;
+		int repeats = 1;
+		boolean didOpenDB = false;
+		List<XMLDBIndexProfile> profiles = new ArrayList<>();
+		List<DataPair<String, String>> scenariosNames = new ArrayList<>();
+		NodeList children = command.getChildNodes();
+		for (int j = 0; j < children.getLength(); ++j) {
+			Node fileNode = children.item(j);
+			if (fileNode.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			String nodeName = fileNode.getNodeName();
+			switch (nodeName) {
+			case "queryFile":
+				queryFile = new File(fileNode.getTextContent());
+				break;
+			case "outFile":
+				outFile = new File(fileNode.getTextContent());
+				break;
+			case "xmldbLocation":
+				dbFile = fileNode.getTextContent();
+				break;
+			case "scenario":
+				scenariosNames.add(new DataPair<>(((Element) fileNode).getAttribute("name"),
+						((Element) fileNode).getAttribute("date")));
+				break;
+			case "profile":
+				XMLDBIndexProfile profile = XMLDBIndexProfile.fromName(fileNode.getTextContent());
+				if (profile == null) {
+					System.out.println("Unknown index profile: " + fileNode.getTextContent());
+				} else {
+					profiles.add(profile);
+				}
+				break;
+			case "repeats":
+				try {
+					repeats = Integer.parseInt(fileNode.getTextContent().trim());
+				} catch (NumberFormatException ex) {
+					repeats = 1;
+				}
+				break;
+			default:
+				System.out.println("Unknown tag: " + nodeName);
+				break;
+			}
+		}
+		try {
+			if (dbFile == null) {
+				throw new Exception("No database location was provided.");
+			}
+			if (XMLDB.getInstance() == null) {
+				XMLDB.openDatabase(dbFile);
+				didOpenDB = true;
+			}
+			if ("XMLDB Set Index Profile".equals(actionCommand)) {
+				if (profiles.size() != 1) {
+					throw new Exception("Exactly one index profile must be given to set.");
+				}
+				XMLDB.getInstance().setIndexProfile(profiles.get(0));
+				System.out.println("Index profile set to " + XMLDB.getInstance().getIndexProfile());
+				return;
+			}
+			if (queryFile == null || outFile == null) {
+				throw new Exception("Not enough information provided to run the index profile report.");
+			}
+			if (profiles.isEmpty()) {
+				profiles.addAll(Arrays.asList(XMLDBIndexProfile.values()));
+			}
+			Vector<ScenarioListItem> scenariosInDb = getScenarios();
+			Vector<ScenarioListItem> scenariosToRun = new Vector<>();
+			if (scenariosNames.isEmpty() && !scenariosInDb.isEmpty()) {
+				scenariosToRun.add(scenariosInDb.lastElement());
+			} else {
+				for (DataPair<String, String> currScn : scenariosNames) {
+					String date = currScn.getValue().isEmpty() ? null : currScn.getValue();
+					ScenarioListItem found = ScenarioListItem.findClosestScenario(scenariosInDb, currScn.getKey(), date);
+					if (found != null) {
+						scenariosToRun.add(found);
+					}
+				}
+			}
+			if (scenariosToRun.isEmpty()) {
+				throw new Exception("Could not find scenarios to run.");
+			}
+			Vector<String> allRegions = getRegions();
+			allRegions.remove("Global");
+			XMLDBIndexProfileReport report = new XMLDBIndexProfileReport(XMLDB.getInstance(),
+					readQueries(queryFile).getDocumentElement(), scenariosToRun.toArray(), allRegions.toArray());
+			System.out.println("Timing " + report.getNumQueries() + " queries under " + profiles.size() + " index profiles");
+			report.run(profiles, repeats, outFile);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (didOpenDB) {
+				XMLDB.closeDatabase();
+			}
+		}
+	}
+
+	/**
+	 * Executes a batch command which runs queries and writes the difference of
+	 * each scenario from a reference scenario to a CSV file.
+	 * <p>
+	 * Requires an xmldbLocation, a queryFile in the same format as the XMLDB Batch
+	 * File command, an outFile and at least two scenario elements, the first of
+	 * which is the reference scenario. The differences may be given as a percent
+	 * of the reference with showPercentDiff, and rows with only small differences
+	 * left out with minValue and minPercent.
+	 *
+	 * @param command The XML Element containing the command options.
+	 */
+	private void runDiffCommand(Element command) {
+		File queryFile = null;
+		File outFile = null;
+		String dbFile = null;
+		boolean showPctDiff = false;
+		Double minValue = null;
+		Double minPercent = null;
+		boolean didOpenDB = false;
+		List<DataPair<String, String>> scenariosNames = new ArrayList<>();
+		NodeList children = command.getChildNodes();
+		for (int j = 0; j < children.getLength(); ++j) {
+			Node fileNode = children.item(j);
+			if (fileNode.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			String nodeName = fileNode.getNodeName();
+			switch (nodeName) {
+			case "queryFile":
+				queryFile = new File(fileNode.getTextContent());
+				break;
+			case "outFile":
+				outFile = new File(fileNode.getTextContent());
+				break;
+			case "xmldbLocation":
+				dbFile = fileNode.getTextContent();
+				break;
+			case "scenario":
+				scenariosNames.add(new DataPair<>(((Element) fileNode).getAttribute("name"),
+						((Element) fileNode).getAttribute("date")));
+				break;
+			case "showPercentDiff":
+				showPctDiff = Boolean.parseBoolean(fileNode.getTextContent().trim());
+				break;
+			case "minValue":
+				minValue = Double.valueOf(fileNode.getTextContent().trim());
+				break;
+			case "minPercent":
+				minPercent = Double.valueOf(fileNode.getTextContent().trim());
+				break;
+			default:
+				System.out.println("Unknown tag: " + nodeName);
+				break;
+			}
+		}
+		try {
+			if (queryFile == null || outFile == null || dbFile == null) {
+				throw new Exception("Not enough information provided to diff scenarios.");
+			}
+			if (XMLDB.getInstance() == null) {
+				XMLDB.openDatabase(dbFile);
+				didOpenDB = true;
+			}
+			Vector<ScenarioListItem> scenariosInDb = getScenarios();
+			Vector<ScenarioListItem> scenariosToRun = new Vector<>();
+			for (DataPair<String, String> currScn : scenariosNames) {
+				String date = currScn.getValue().isEmpty() ? null : currScn.getValue();
+				ScenarioListItem found = ScenarioListItem.findClosestScenario(scenariosInDb, currScn.getKey(), date);
+				if (found != null) {
+					scenariosToRun.add(found);
+				}
+			}
+			if (scenariosToRun.size() < 2) {
+				throw new Exception("Could not find a reference and at least one other scenario to diff.");
+			}
+			final NodeList res = (NodeList) XPathFactory.newInstance().newXPath().evaluate("./aQuery",
+					readQueries(queryFile).getDocumentElement(), XPathConstants.NODESET);
+			Vector<String> allRegions = getRegions();
+			allRegions.remove("Global");
+			ScenarioDiffEngine engine = new ScenarioDiffEngine(scenariosToRun.get(0).getScnName(), showPctDiff);
+			engine.setMinValue(minValue);
+			engine.setMinPercent(minPercent);
+			try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(outFile)))) {
+				for (int i = 0; i < res.getLength(); ++i) {
+					QueryGenerator qg = null;
+					List<String> regions = new ArrayList<>();
+					for (Node currEl = res.item(i).getFirstChild(); currEl != null; currEl = currEl.getNextSibling()) {
+						if (currEl.getNodeType() != Node.ELEMENT_NODE) {
+							continue;
+						} else if (currEl.getNodeName().equals("region")) {
+							regions.add(((Element) currEl).getAttribute("name"));
+						} else if (currEl.getNodeName().equals("all-regions")) {
+							regions.addAll(allRegions);
+						} else {
+							qg = new QueryGenerator(currEl);
+						}
+					}
+					// Global may only be run on its own
+					if (regions.size() > 1) {
+						regions.remove("Global");
+					}
+					if (regions.isEmpty()) {
+						regions.addAll(allRegions);
+					}
+					if (qg == null) {
+						continue;
+					}
+					out.println(qg.toString());
+					try {
+						writeCSV(engine.diff(qg, scenariosToRun.toArray(), regions.toArray()), out);
+					} catch (Exception e) {
+						e.printStackTrace();
+						out.println(qg.toString() + " had error: " + e.getMessage());
+					}
+					out.println();
+				}
+			}
+			System.out.println("Wrote scenario differences to " + outFile);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (didOpenDB) {
+				XMLDB.closeDatabase();
+			}
+		}
+	}
+
+	/**
+	 * Writes a table as CSV with a header row of the column names.
+	 */
+	private static void writeCSV(TableModel tm, PrintWriter out) {
+		for (int row = -1; row < tm.getRowCount(); ++row) {
+			for (int col = 0; col < tm.getColumnCount(); ++col) {
+				if (col != 0) {
+					out.print(',');
+				}
+				Object value = row == -1 ? tm.getColumnName(col) : tm.getValueAt(row, col);
+				if (value instanceof Number) {
+					out.print(value);
+				} else if (value != null) {
+					out.print("\"" + value.toString().replace("\"", "\"\"") + "\"");
+				}
+			}
+			out.println();
+		}
+	}
+
 	private void finalizeUI() {
 		JFrame parentFrame = InterfaceMain.getInstance().getFrame();
 		if (parentFrame == null)
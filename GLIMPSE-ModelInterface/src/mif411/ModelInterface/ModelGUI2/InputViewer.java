@@ -34,6 +34,7 @@ import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Window;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
@@ -48,10 +49,13 @@ import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -65,10 +69,12 @@ import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSplitPane;
@@ -79,8 +85,11 @@ import javax.swing.KeyStroke;
 import javax.swing.MenuElement;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreePath;
@@ -118,6 +127,12 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 
 	private Document doc;
 
+	// set instead of doc when the file is too large to parse into a DOM
+	private LazyXMLTreeModel lazyModel;
+
+	// indexes a large file in the background, null when no file is being opened
+	private SwingWorker<LazyXMLTreeModel, Void> lazyOpener;
+
 	private LSInput lsInput;
 
 	private LSParser lsParser;
@@ -268,6 +283,11 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 						//main.getQuitMenu().removeActionListener(thisViewer);
 						main.getSaveMenu().setEnabled(false);
 						doc = null;
+						lazyModel = null;
+						if(lazyOpener != null) {
+							lazyOpener.cancel(true);
+							lazyOpener = null;
+						}
 						documentation = null;
 						main.getUndoManager().discardAllEdits();
 						main.refreshUndoRedo();
@@ -362,13 +382,26 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 		Container contentPane = parentFrame.getContentPane();
 		contentPane.removeAll();
 		// Set up the tree
-		jtree = new JTree(new DOMmodel(doc));
-		jtree.setEditable(true);
+		if(lazyModel != null) {
+			// read only, children read on expansion are dropped on collapse
+			jtree = new JTree(lazyModel);
+			jtree.addTreeExpansionListener(new TreeExpansionListener() {
+				public void treeExpanded(TreeExpansionEvent e) {
+				}
+
+				public void treeCollapsed(TreeExpansionEvent e) {
+					lazyModel.releaseChildren(e.getPath());
+				}
+			});
+		} else {
+			jtree = new JTree(new DOMmodel(doc));
+			jtree.setEditable(true);
+			jtree.getModel().addTreeModelListener(new MyTreeModelListener());
+			jtree.setCellEditor( new DOMTreeCellEditor());
+		}
 		jtree.getSelectionModel().setSelectionMode(
 				TreeSelectionModel.SINGLE_TREE_SELECTION);
 		jtree.setShowsRootHandles(true);
-		jtree.getModel().addTreeModelListener(new MyTreeModelListener());
-		jtree.setCellEditor( new DOMTreeCellEditor());
 
 		//listen for right click on the tree
 		jtree.addMouseListener(new MouseAdapter() {
@@ -385,6 +418,10 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 					selectedPath = jtree.getClosestPathForLocation(e.getX(), e
 							.getY());
 					jtree.setSelectionPath(selectedPath);
+					if(lazyModel != null) {
+						treeMenu.show(e.getComponent(), e.getX(), e.getY());
+						return;
+					}
 					MenuElement[] me = treeMenu.getSubElements();
 					// Display Table is only availabe on elements that contain
 					// text data
@@ -455,7 +492,7 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 		// Add GUI components
 		contentPane.add("Center", splitPane);
 
-		treeMenu = makePopupTreeMenu();
+		treeMenu = lazyModel != null ? makeLazyPopupTreeMenu() : makePopupTreeMenu();
 
 		//create the dialog for adding new node children, but leave invisible
 		makeAddChildDialog();
@@ -479,14 +516,16 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 		if (command.equals("XML file")) {
 			// Open a file
 			status = openXMLFile(e);
-			if (doc == null) {
+			if (doc == null && lazyModel == null) {
 				// probably the cancel, just return here to avoid exceptions
 				return;
 			}
 			if(status) {
 				displayJtree();
-				jtree.setTransferHandler(new DOMTransferHandler(doc, implls));
-				jtree.setDragEnabled(true);
+				if(doc != null) {
+					jtree.setTransferHandler(new DOMTransferHandler(doc, implls));
+					jtree.setDragEnabled(true);
+				}
 				parentFrame.setTitle("["+file+"] - ModelInterface");
 			}
 		} else if (command.equals("CSV to XML")) {  //YD edits, "CSV file" > "CSV to XML"
@@ -496,6 +535,9 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 				displayJtree();
 				parentFrame.setTitle("["+file+"] - ModelInterface");
 			}
+		} else if ((command.equals("Save") || command.equals("Save As")) && lazyModel != null) {
+			main.showMessageDialog("Large files are opened read only and can not be saved.",
+					"File Save Error", JOptionPane.ERROR_MESSAGE);
 		} else if (command.equals("Save")) {
 			if (!(file.getAbsolutePath().endsWith(".xml"))) {
 				status = saveFile();
@@ -568,6 +610,8 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 			deleteNode();
 		} else if (command.equals("Display Table")) {
 			displayTable();
+		} else if (command.equals("Find...")) {
+			findInLazyTree();
 		} else if(command.equals("Annotate")) {
 			jtree.setSelectionPath(selectedPath);
 
@@ -680,6 +724,114 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 		return treeMenu;
 	}
 
+	/**
+	 * Create right click menu for the JTree of a file opened read only, which
+	 * only has find.
+	 * 
+	 * @return the right click menu for the JTree
+	 */
+	private JPopupMenu makeLazyPopupTreeMenu() {
+		treeMenu = new JPopupMenu();
+		JMenuItem menuItem = new JMenuItem("Find...");
+		menuItem.addActionListener(this);
+		treeMenu.add(menuItem);
+		return treeMenu;
+	}
+
+	/**
+	 * Prompts for a path or text to look for in a file opened read only, lists
+	 * the matching elements and selects the one chosen in the tree.  The file is
+	 * searched in the background and the search can be cancelled.
+	 */
+	private void findInLazyTree() {
+		final JFrame parentFrame = InterfaceMain.getInstance().getFrame();
+		final String expr = JOptionPane.showInputDialog(parentFrame,
+				"Path such as //region[@name='USA']/supplysector or text to find:", "Find",
+				JOptionPane.QUESTION_MESSAGE);
+		if(expr == null || expr.trim().equals("")) {
+			return;
+		}
+		final LazyXMLTreeModel searched = lazyModel;
+		final SwingWorker<List<LazyXMLTreeModel.Match>, Void> finder =
+			new SwingWorker<List<LazyXMLTreeModel.Match>, Void>() {
+				@Override
+				protected List<LazyXMLTreeModel.Match> doInBackground() throws IOException {
+					return searched.find(expr);
+				}
+				@Override
+				protected void done() {
+					// the search was cancelled or another file has been opened since
+					if(isCancelled() || lazyModel != searched) {
+						return;
+					}
+					try {
+						showFindResults(expr, get());
+					} catch(InterruptedException e) {
+						// the search was cancelled
+					} catch(ExecutionException e) {
+						JOptionPane.showMessageDialog(parentFrame, e.getCause().getMessage(), "Find Error",
+								JOptionPane.ERROR_MESSAGE);
+					}
+				}
+		};
+		showBackgroundProgress("Find", "Searching for "+expr, finder);
+		finder.execute();
+	}
+
+	/**
+	 * Lists the matches found in a file opened read only and selects the one
+	 * chosen in the tree.
+	 */
+	private void showFindResults(String expr, List<LazyXMLTreeModel.Match> results) {
+		final JFrame parentFrame = InterfaceMain.getInstance().getFrame();
+		if(results.isEmpty()) {
+			JOptionPane.showMessageDialog(parentFrame, "No matches for "+expr, "Find",
+					JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		JList<LazyXMLTreeModel.Match> resultList = new JList<LazyXMLTreeModel.Match>(
+				results.toArray(new LazyXMLTreeModel.Match[results.size()]));
+		resultList.setSelectedIndex(0);
+		JScrollPane resultScroll = new JScrollPane(resultList);
+		resultScroll.setPreferredSize(new Dimension(600, 300));
+		String title = results.size() >= LazyXMLTreeModel.MAX_SEARCH_RESULTS ?
+			"First "+results.size()+" matches" : results.size()+" matches";
+		if(JOptionPane.showConfirmDialog(parentFrame, resultScroll, title, JOptionPane.OK_CANCEL_OPTION,
+					JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION || resultList.getSelectedValue() == null) {
+			return;
+		}
+		TreePath path = lazyModel.getPath(resultList.getSelectedValue());
+		if(path != null) {
+			jtree.setSelectionPath(path);
+			jtree.scrollPathToVisible(path);
+		}
+	}
+
+	/**
+	 * Shows a progress window for a background task until it is done.  Cancelling
+	 * the window interrupts the task.
+	 * @param title The title of the window.
+	 * @param labelStr The label describing the task.
+	 * @param task The task which has not been started yet.
+	 */
+	private static void showBackgroundProgress(String title, String labelStr, final SwingWorker<?, ?> task) {
+		final JProgressBar progBar = new JProgressBar(0, 1);
+		progBar.setIndeterminate(true);
+		final Window progressWindow = BatchWindow.createProgressBarGUI2(progBar, title, labelStr);
+		progressWindow.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e) {
+				task.cancel(true);
+			}
+		});
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if("state".equals(evt.getPropertyName()) && evt.getNewValue() == SwingWorker.StateValue.DONE) {
+					progressWindow.dispose();
+				}
+			}
+		});
+	}
+
 	/**
 	 * Creates the right click menu for tables which currently consists of flip,
 	 * also creates the listener
@@ -1101,7 +1253,8 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 	 * file and sets doc to it
 	 *
 	 * @param evt The event that spured the opening 
-	 * @return true if we parsed a file, false otherwise
+	 * @return true if we parsed a file, false otherwise including when a large
+	 *         file is being indexed in the background
 	 */
 	boolean openXMLFile(ActionEvent evt) {
 
@@ -1124,14 +1277,20 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 			file = result[0];
 			main.getProperties().setProperty("lastDirectory", file.getParent());
 
-			  //Dan: Trying to see if file is too big to view
-		      long len=file.length();
-			  System.out.println("Length "+len);
-		      if (len/1000000.>1000) {
-		    	  System.out.println("File->Open->XML File is limited to files of 1 GB. To import a scenario, use File->Manage DB");
-		    	  return false;			
-		      }
-			
+			// files too big to parse into a DOM are indexed in the background and
+			// shown read only once that is done
+			if(LazyXMLTreeModel.useFor(file)) {
+				doc = null;
+				lazyModel = null;
+				documentation = null;
+				openLazyXMLFile(file);
+				return false;
+			}
+			lazyModel = null;
+			if(lazyOpener != null) {
+				lazyOpener.cancel(true);
+				lazyOpener = null;
+			}
 			doc = readXMLFile( file );
 			
 			// Set the document URI for the file.
@@ -1189,6 +1348,47 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 		return true;
 	}
 
+	/**
+	 * Indexes a file which is too large to parse into a DOM in the background
+	 * and displays it read only once it is done.
+	 *
+	 * @param toOpen The file to index.
+	 */
+	private void openLazyXMLFile(final File toOpen) {
+		final InterfaceMain main = InterfaceMain.getInstance();
+		final JFrame parentFrame = main.getFrame();
+		if(lazyOpener != null) {
+			lazyOpener.cancel(true);
+		}
+		lazyOpener = new SwingWorker<LazyXMLTreeModel, Void>() {
+			@Override
+			protected LazyXMLTreeModel doInBackground() throws IOException {
+				return new LazyXMLTreeModel(toOpen);
+			}
+			@Override
+			protected void done() {
+				// cancelled, closed or replaced by another file in the mean time
+				if(isCancelled() || lazyOpener != this) {
+					return;
+				}
+				lazyOpener = null;
+				try {
+					lazyModel = get();
+				} catch(InterruptedException e) {
+					return;
+				} catch(ExecutionException e) {
+					main.showMessageDialog("Could not read "+toOpen+": "+e.getCause().getMessage(),
+							"File Open Error", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				displayJtree();
+				parentFrame.setTitle("["+toOpen+"] - ModelInterface");
+			}
+		};
+		showBackgroundProgress("Open XML File", "Indexing "+toOpen.getName(), lazyOpener);
+		lazyOpener.execute();
+	}
+
 	/**
 	 * Creates file choosers to get a CSV file and a header file, then processes
 	 * them with the CSV to XML converter
@@ -1239,6 +1439,11 @@ public class InputViewer implements ActionListener, TableModelListener, MenuAdde
 
 		// TODO: get rid of the dependency on file
 		file = csvFiles[0];
+		lazyModel = null;
+		if(lazyOpener != null) {
+			lazyOpener.cancel(true);
+			lazyOpener = null;
+		}
 		readCSVFile(csvFiles, headerFiles[0]);
 		return true;
 	}
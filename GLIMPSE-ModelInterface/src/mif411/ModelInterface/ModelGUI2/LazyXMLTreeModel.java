@@ -0,0 +1,593 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A read only tree model over an XML file which is too large to parse into a
+ * DOM.  A single pass over the file records the byte offsets of the elements
+ * down to -DModelInterface.XML_INDEX_DEPTH levels (4 by default, which for GCAM
+ * inputs is scenario/world/region/sector/subsector).  The children of deeper
+ * elements are read from the file when they are expanded and dropped again
+ * when they are collapsed, so memory use follows what is shown in the tree
+ * rather than the size of the file.
+ */
+public class LazyXMLTreeModel implements TreeModel {
+	/**
+	 * The system property which sets the size in megabytes from which input
+	 * files are opened with this model instead of a DOM.
+	 */
+	public static final String THRESHOLD_PROPERTY = "ModelInterface.LAZY_XML_MB";
+	/**
+	 * The system property which sets how many levels of elements are indexed
+	 * when the file is opened.
+	 */
+	public static final String INDEX_DEPTH_PROPERTY = "ModelInterface.XML_INDEX_DEPTH";
+	/**
+	 * The most results a search will return.
+	 */
+	public static final int MAX_SEARCH_RESULTS = 1000;
+
+	private final File file;
+	private final Charset charset;
+	private final int indexDepth;
+	private final LazyNode root;
+	private Vector<TreeModelListener> treeModelListeners = new Vector<TreeModelListener>();
+
+	/**
+	 * A node of the tree which is either an element or the text in an element.
+	 */
+	public static class LazyNode {
+		private final LazyNode parent;
+		private final int depth;
+		private final long start;
+		private long end;
+		private final String name;
+		private final String[] attributes;
+		private final String text;
+		private boolean empty;
+		// null until read from the file
+		private List<LazyNode> children;
+
+		private LazyNode(LazyNode parent, long start, String name, String[] attributes, String text) {
+			this.parent = parent;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+			this.start = start;
+			this.name = name;
+			this.attributes = attributes;
+			this.text = text;
+		}
+
+		/**
+		 * @return The element name, or null for text.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @param attrName Name of an attribute.
+		 * @return The value of the attribute or null if the element does not have it.
+		 */
+		public String getAttribute(String attrName) {
+			for(int i = 0; attributes != null && i < attributes.length; i += 2) {
+				if(attributes[i].equals(attrName)) {
+					return attributes[i + 1];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return Whether this node is text rather than an element.
+		 */
+		public boolean isText() {
+			return name == null;
+		}
+
+		/**
+		 * Return the node in the same form as DOMmodel.DOMNodeAdapter: text
+		 * returns its value and elements return NodeName attrName = attrVal..
+		 */
+		public String toString() {
+			if(isText()) {
+				return text;
+			}
+			StringBuilder ret = new StringBuilder(name);
+			for(int i = 0; i < attributes.length; i += 2) {
+				ret.append(' ').append(attributes[i]).append(" = ").append(attributes[i + 1]);
+			}
+			return ret.toString();
+		}
+	}
+
+	/**
+	 * An element found by {@link LazyXMLTreeModel#find(String)}.
+	 */
+	public static class Match {
+		private final String label;
+		private final long[] startChain;
+
+		private Match(String label, long[] startChain) {
+			this.label = label;
+			this.startChain = startChain;
+		}
+
+		/**
+		 * Returns the location of the element in the form
+		 * /scenario/world/region[@name='USA']/...
+		 */
+		public String toString() {
+			return label;
+		}
+	}
+
+	/**
+	 * Whether a file is large enough that it should be opened with this model.
+	 * @param file The XML file.
+	 * @return True if the file is at least -DModelInterface.LAZY_XML_MB megabytes.
+	 */
+	public static boolean useFor(File file) {
+		return file.length() >= Long.getLong(THRESHOLD_PROPERTY, 64) * 1024 * 1024;
+	}
+
+	/**
+	 * Indexes an XML file.  Interrupting the calling thread stops the indexing
+	 * with a ClosedByInterruptException.
+	 * @param file The XML file.
+	 * @throws IOException If the file could not be read, is not well formed, or
+	 *         is in an encoding which is not supported.
+	 */
+	public LazyXMLTreeModel(File file) throws IOException {
+		this.file = file;
+		indexDepth = Math.max(1, Integer.getInteger(INDEX_DEPTH_PROPERTY, 4));
+		try(FileChannel channel = open()) {
+			charset = XMLOffsetScanner.detectCharset(channel);
+			XMLOffsetScanner scanner = new XMLOffsetScanner(channel, 0, channel.size(), charset);
+			LazyNode docRoot = null;
+			LazyNode current = null;
+			int ev;
+			while((ev = scanner.next()) != XMLOffsetScanner.END_DOCUMENT) {
+				if(ev == XMLOffsetScanner.START_ELEMENT) {
+					if(current == null && docRoot != null) {
+						throw new IOException("More than one root element in "+file);
+					}
+					LazyNode node = new LazyNode(current, scanner.getEventStart(), scanner.getLocalName(),
+							scanner.getAttributes(), null);
+					node.empty = scanner.isEmptyElement();
+					if(current == null) {
+						docRoot = node;
+					} else {
+						current.children.add(node);
+					}
+					if(node.depth < indexDepth) {
+						node.children = new ArrayList<LazyNode>();
+						current = node;
+					} else {
+						node.end = scanner.skipElement();
+					}
+				} else if(ev == XMLOffsetScanner.END_ELEMENT) {
+					if(current == null) {
+						throw new IOException("Unbalanced end tag "+scanner.getLocalName()+" in "+file);
+					}
+					current.end = scanner.getEventEnd();
+					current = current.parent;
+				} else if(ev == XMLOffsetScanner.CHARACTERS && current != null) {
+					current.children.add(new LazyNode(current, scanner.getEventStart(), null, null,
+							scanner.getText()));
+				}
+			}
+			if(docRoot == null || current != null) {
+				throw new IOException("No complete root element in "+file);
+			}
+			root = docRoot;
+		}
+	}
+
+	private FileChannel open() throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Reads the direct children of an element which was not indexed.
+	 */
+	private void loadChildren(LazyNode node) {
+		List<LazyNode> children = new ArrayList<LazyNode>();
+		try(FileChannel channel = open()) {
+			XMLOffsetScanner scanner = new XMLOffsetScanner(channel, node.start, node.end, charset);
+			// the element itself
+			scanner.next();
+			int ev;
+			while((ev = scanner.next()) != XMLOffsetScanner.END_ELEMENT && ev != XMLOffsetScanner.END_DOCUMENT) {
+				if(ev == XMLOffsetScanner.START_ELEMENT) {
+					LazyNode child = new LazyNode(node, scanner.getEventStart(), scanner.getLocalName(),
+							scanner.getAttributes(), null);
+					child.empty = scanner.isEmptyElement();
+					child.end = scanner.skipElement();
+					children.add(child);
+				} else if(ev == XMLOffsetScanner.CHARACTERS) {
+					children.add(new LazyNode(node, scanner.getEventStart(), null, null, scanner.getText()));
+				}
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		node.children = children;
+	}
+
+	private List<LazyNode> getChildren(Object parent) {
+		LazyNode node = (LazyNode)parent;
+		if(node.isText() || node.empty) {
+			return Collections.emptyList();
+		}
+		if(node.children == null) {
+			loadChildren(node);
+		}
+		return node.children;
+	}
+
+	/**
+	 * Drops the children of a collapsed element which were read on expansion
+	 * so that they can be garbage collected.  Indexed elements are kept.
+	 * @param path Path to the collapsed element.
+	 */
+	public void releaseChildren(TreePath path) {
+		LazyNode node = (LazyNode)path.getLastPathComponent();
+		if(node.depth < indexDepth || node.children == null) {
+			return;
+		}
+		node.children = null;
+		TreeModelEvent e = new TreeModelEvent(this, path);
+		for(TreeModelListener listener : new ArrayList<TreeModelListener>(treeModelListeners)) {
+			listener.treeStructureChanged(e);
+		}
+	}
+
+	public Object getRoot() {
+		return root;
+	}
+
+	public Object getChild(Object parent, int index) {
+		return getChildren(parent).get(index);
+	}
+
+	public int getChildCount(Object parent) {
+		return getChildren(parent).size();
+	}
+
+	public boolean isLeaf(Object node) {
+		LazyNode lNode = (LazyNode)node;
+		if(lNode.isText() || lNode.empty) {
+			return true;
+		}
+		// avoid reading the file just to draw the node
+		return lNode.children != null && lNode.children.isEmpty();
+	}
+
+	public int getIndexOfChild(Object parent, Object child) {
+		if(parent == null || child == null) {
+			return -1;
+		}
+		return getChildren(parent).indexOf(child);
+	}
+
+	/**
+	 * The tree is read only so edits are ignored.
+	 */
+	public void valueForPathChanged(TreePath path, Object newValue) {
+	}
+
+	public void addTreeModelListener(TreeModelListener l) {
+		treeModelListeners.add(l);
+	}
+
+	public void removeTreeModelListener(TreeModelListener l) {
+		treeModelListeners.remove(l);
+	}
+
+	/**
+	 * One step of a search expression.
+	 */
+	private static class Step {
+		// matches at any depth below the previous step rather than just the children
+		boolean descendant;
+		// element name or * for any
+		String name = "*";
+		// attribute the element must have, and the value it must have if not null
+		String attrName;
+		String attrValue;
+		// lower case text which the name or an attribute value must contain
+		String contains;
+
+		boolean matches(String elementName, String[] attributes) {
+			if(!name.equals("*") && !name.equals(elementName)) {
+				return false;
+			}
+			if(attrName != null) {
+				boolean found = false;
+				for(int i = 0; i < attributes.length && !found; i += 2) {
+					found = attributes[i].equals(attrName) && (attrValue == null || attrValue.equals(attributes[i + 1]));
+				}
+				if(!found) {
+					return false;
+				}
+			}
+			if(contains != null) {
+				if(elementName.toLowerCase().contains(contains)) {
+					return true;
+				}
+				for(int i = 1; i < attributes.length; i += 2) {
+					if(attributes[i].toLowerCase().contains(contains)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Parses a search expression.  Expressions which start with / are paths made
+	 * of the steps /name, //name, * and the predicates [@attr] and
+	 * [@attr='value'].  Anything else finds the elements whose name or an
+	 * attribute value contains the text, ignoring case.
+	 */
+	private static Step[] parse(String expr) {
+		expr = expr.trim();
+		List<Step> steps = new ArrayList<Step>();
+		if(!expr.startsWith("/")) {
+			Step step = new Step();
+			step.descendant = true;
+			step.contains = expr.toLowerCase();
+			steps.add(step);
+			return steps.toArray(new Step[steps.size()]);
+		}
+		int i = 0;
+		while(i < expr.length()) {
+			if(expr.charAt(i) != '/') {
+				throw new IllegalArgumentException("Expected / at "+i+" in "+expr);
+			}
+			Step step = new Step();
+			++i;
+			if(i < expr.length() && expr.charAt(i) == '/') {
+				step.descendant = true;
+				++i;
+			}
+			int nameEnd = i;
+			while(nameEnd < expr.length() && expr.charAt(nameEnd) != '/' && expr.charAt(nameEnd) != '[') {
+				++nameEnd;
+			}
+			step.name = expr.substring(i, nameEnd).trim();
+			if(step.name.isEmpty()) {
+				throw new IllegalArgumentException("Missing element name at "+i+" in "+expr);
+			}
+			i = nameEnd;
+			if(i < expr.length() && expr.charAt(i) == '[') {
+				int close = expr.indexOf(']', i);
+				if(close == -1 || expr.charAt(i + 1) != '@') {
+					throw new IllegalArgumentException("Only [@attr] and [@attr='value'] predicates are supported: "+expr);
+				}
+				String pred = expr.substring(i + 2, close);
+				int eq = pred.indexOf('=');
+				if(eq == -1) {
+					step.attrName = pred.trim();
+				} else {
+					step.attrName = pred.substring(0, eq).trim();
+					String value = pred.substring(eq + 1).trim();
+					if(value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"')
+							&& value.charAt(value.length() - 1) == value.charAt(0)) {
+						value = value.substring(1, value.length() - 1);
+					}
+					step.attrValue = value;
+				}
+				i = close + 1;
+			}
+			steps.add(step);
+		}
+		if(steps.size() > 31) {
+			throw new IllegalArgumentException("Too many steps in "+expr);
+		}
+		return steps.toArray(new Step[steps.size()]);
+	}
+
+	/**
+	 * The search state of an element as bit sets of how many steps have been
+	 * matched: exact are those where the last matched step is the element and
+	 * any are those where it is the element or one of its ancestors.
+	 */
+	private static int[] advance(Step[] steps, int[] parentState, String elementName, String[] attributes) {
+		int exact = 0;
+		for(int k = 0; k < steps.length; ++k) {
+			int need = steps[k].descendant ? parentState[1] : parentState[0];
+			if((need & (1 << k)) != 0 && steps[k].matches(elementName, attributes)) {
+				exact |= 1 << (k + 1);
+			}
+		}
+		return new int[] { exact, parentState[1] | exact };
+	}
+
+	/**
+	 * Whether anything below an element in the given state could still match.
+	 */
+	private static boolean canContinue(Step[] steps, int[] state) {
+		for(int k = 0; k < steps.length; ++k) {
+			if((state[0] & (1 << k)) != 0 || (steps[k].descendant && (state[1] & (1 << k)) != 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String labelStep(String elementName, String[] attributes) {
+		if(attributes.length == 0) {
+			return "/"+elementName;
+		}
+		return "/"+elementName+"[@"+attributes[0]+"='"+attributes[1]+"']";
+	}
+
+	/**
+	 * Finds the elements matching an expression.  The indexed elements are
+	 * searched in memory and only the parts of the file below those which could
+	 * still match are read.  The search may run on any thread, and interrupting
+	 * it stops the search with a ClosedByInterruptException.
+	 * @param expr A path such as //region[@name='USA']/supplysector or text to
+	 *        look for in element names and attribute values.
+	 * @return Up to MAX_SEARCH_RESULTS matches in document order.
+	 * @throws IOException If the file could not be read.
+	 * @throws IllegalArgumentException If the expression is not supported.
+	 */
+	public List<Match> find(String expr) throws IOException {
+		Step[] steps = parse(expr);
+		List<Match> results = new ArrayList<Match>();
+		try(FileChannel channel = open()) {
+			int[] docState = { 1, 1 };
+			findIndexed(channel, steps, root, docState, "", new long[0], results);
+		}
+		return results;
+	}
+
+	private void findIndexed(FileChannel channel, Step[] steps, LazyNode node, int[] parentState,
+			String parentLabel, long[] parentChain, List<Match> results) throws IOException {
+		if(node.isText() || results.size() >= MAX_SEARCH_RESULTS) {
+			return;
+		}
+		int[] state = advance(steps, parentState, node.name, node.attributes);
+		String label = parentLabel + labelStep(node.name, node.attributes);
+		long[] chain = new long[parentChain.length + 1];
+		System.arraycopy(parentChain, 0, chain, 0, parentChain.length);
+		chain[parentChain.length] = node.start;
+		if((state[0] & (1 << steps.length)) != 0) {
+			results.add(new Match(label, chain));
+		}
+		if(node.empty || !canContinue(steps, state)) {
+			return;
+		}
+		if(node.depth < indexDepth) {
+			for(LazyNode child : node.children) {
+				findIndexed(channel, steps, child, state, label, chain, results);
+			}
+		} else {
+			findInFile(channel, steps, node, state, label, chain, results);
+		}
+	}
+
+	/**
+	 * Streams the part of the file below an element which was not indexed.
+	 */
+	private void findInFile(FileChannel channel, Step[] steps, LazyNode node, int[] state,
+			String label, long[] chain, List<Match> results) throws IOException {
+		XMLOffsetScanner scanner = new XMLOffsetScanner(channel, node.start, node.end, charset);
+		scanner.setCollectText(false);
+		// the element itself
+		scanner.next();
+		List<int[]> states = new ArrayList<int[]>();
+		List<String> labels = new ArrayList<String>();
+		List<Long> starts = new ArrayList<Long>();
+		states.add(state);
+		labels.add(label);
+		int ev;
+		while(!states.isEmpty() && (ev = scanner.next()) != XMLOffsetScanner.END_DOCUMENT) {
+			if(ev == XMLOffsetScanner.START_ELEMENT) {
+				String[] attrs = scanner.getAttributes();
+				int[] parentState = states.get(states.size() - 1);
+				int[] childState = advance(steps, parentState, scanner.getLocalName(), attrs);
+				String childLabel = labels.get(labels.size() - 1) + labelStep(scanner.getLocalName(), attrs);
+				starts.add(scanner.getEventStart());
+				if((childState[0] & (1 << steps.length)) != 0) {
+					long[] matchChain = new long[chain.length + starts.size()];
+					System.arraycopy(chain, 0, matchChain, 0, chain.length);
+					for(int i = 0; i < starts.size(); ++i) {
+						matchChain[chain.length + i] = starts.get(i);
+					}
+					results.add(new Match(childLabel, matchChain));
+					if(results.size() >= MAX_SEARCH_RESULTS) {
+						return;
+					}
+				}
+				if(canContinue(steps, childState)) {
+					states.add(childState);
+					labels.add(childLabel);
+				} else {
+					scanner.skipElement();
+					starts.remove(starts.size() - 1);
+				}
+			} else if(ev == XMLOffsetScanner.END_ELEMENT) {
+				states.remove(states.size() - 1);
+				labels.remove(labels.size() - 1);
+				if(!starts.isEmpty()) {
+					starts.remove(starts.size() - 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the path to a search result, reading the elements along it.
+	 * @param match A result of {@link #find(String)}.
+	 * @return The path, or null if the file no longer has the element.
+	 */
+	public TreePath getPath(Match match) {
+		if(match.startChain.length == 0 || match.startChain[0] != root.start) {
+			return null;
+		}
+		TreePath path = new TreePath(root);
+		LazyNode current = root;
+		for(int i = 1; i < match.startChain.length; ++i) {
+			LazyNode next = null;
+			for(LazyNode child : getChildren(current)) {
+				if(child.start == match.startChain[i]) {
+					next = child;
+					break;
+				}
+			}
+			if(next == null) {
+				return null;
+			}
+			current = next;
+			path = path.pathByAddingChild(current);
+		}
+		return path;
+	}
+}
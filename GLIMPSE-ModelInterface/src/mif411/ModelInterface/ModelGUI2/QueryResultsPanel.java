@@ -29,21 +29,7 @@
 */
 package ModelInterface.ModelGUI2;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -57,7 +43,7 @@ import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableModel;
 
 import ModelInterface.InterfaceMain;
-import ModelInterface.UnitConversionInstance;
+import ModelInterface.UnitConversionRules;
 import ModelInterface.ModelGUI2.queries.QueryGenerator;
 import ModelInterface.ModelGUI2.tables.BaseTableModel;
 import ModelInterface.ModelGUI2.tables.ComboTableModel;
@@ -65,6 +51,7 @@ import ModelInterface.ModelGUI2.tables.CopyPaste;
 import ModelInterface.ModelGUI2.tables.MultiTableModel;
 import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
 import ModelInterface.ModelGUI2.xmldb.QueryBinding;
+import ModelInterface.ModelGUI2.xmldb.QueryMetricsLog;
 import filter.FilteredTable;
 
 /**
@@ -223,6 +210,7 @@ public class QueryResultsPanel extends JPanel {
 	private JComponent createGroupTableContent(QueryGenerator qg, final Object[] scnListValues,
 			final Object[] regionListValues) throws Exception {
 		BaseTableModel bt = new MultiTableModel(qg, scnListValues, regionListValues, context);
+		QueryMetricsLog.recordMetrics(bt.getQueryMetrics());
 		JTable jTable = new JTable(bt);
 		jTable.setCellSelectionEnabled(true);
 		jTable.getColumnModel().getColumn(0).setCellRenderer(((MultiTableModel) bt).getCellRenderer(0, 0));
@@ -256,6 +244,7 @@ public class QueryResultsPanel extends JPanel {
 		JSplitPane sp = new JSplitPane();
 		// BaseTableModel
 		ComboTableModel bt = new ComboTableModel(qg, scenarioListValues, regionListValues, singleBinding, context);
+		QueryMetricsLog.recordMetrics(bt.getQueryMetrics());
 
 		JTable jTable = null;
 
@@ -309,326 +298,12 @@ public class QueryResultsPanel extends JPanel {
 	}
 	
 	private void convertUnits(QueryGenerator qg, JTable table) {
-		HashMap<String,ArrayList<UnitConversionInstance>>unitLookup=getUnitInformation();
+		UnitConversionRules unitRules = UnitConversionRules.getInstance();
 		//only run if there is something to convert.
-		if(unitLookup==null) {
+		if(unitRules == null || qg == null) {
 			return;
 		}
-		ArrayList<UnitConversionInstance> possibleConversions=null;
-		UnitConversionInstance uci=null;
-		int num_rows = table.getRowCount();
-		int num_cols = table.getColumnCount();
-		Double tableVal=null;
-		UnitConversionInstance bestUCIMatch=null;
-		HashMap<String,Integer> headerLookup=new HashMap<>();
-		TableModel tm=table.getModel();
-		for (int i = 0; i < table.getColumnCount(); i++) {
-           headerLookup.put(tm.getColumnName(i),i);
-        }
-		String headerComp=null;
-		String valComp=null;
-		//get all the unique units in this table
-		HashSet<String> uniqueUnits=new HashSet<String>();
-		for(int i=0;i<num_rows;i++) {
-			uniqueUnits.add( (String) table.getValueAt(i, num_cols - 1));
-		}
-		//make a list of possible conversion objects:
-		ArrayList<UnitConversionInstance> conversionOpts=new ArrayList<UnitConversionInstance>();
-		for(String unit:uniqueUnits) {
-			possibleConversions=unitLookup.get(unit);
-			if(possibleConversions==null) {
-				continue;
-			}
-			//to narrow down list, see if this query is our query
-			for(UnitConversionInstance uciCheck:possibleConversions) {
-				//not all conversions have a query specified
-				if(uciCheck.getQuery()==null || uciCheck.getQuery().trim().length()==0) {
-					conversionOpts.add(uciCheck);
-				}else if(uciCheck.getQuery().contains("*")) {
-					//for wildcards, since we can't rule it out yet
-					conversionOpts.add(uciCheck);
-				}
-				else if(uciCheck.getQuery().compareToIgnoreCase(qg.toString().trim())==0) {
-					conversionOpts.add(uciCheck);
-				}
-			}
-		}
-		//from this short list, make a specificity level
-		HashMap<Integer,ArrayList<UnitConversionInstance>> convertBySpec=new HashMap<>();
-		int biggestRank=-1;
-		int myRank=0;
-		for(UnitConversionInstance toSort:conversionOpts) {
-			myRank=0;
-			//we want queries to have elevated importance, so give them two points
-			if(toSort.getQuery()!=null && toSort.getQuery().trim().length()>0) {
-				myRank++;
-				myRank++;
-			}
-			if(toSort.getHeadingOne()!=null && toSort.getHeadingOne().trim().length()>0) {
-				myRank++;
-			}
-			if(toSort.getHeadingTwo()!=null && toSort.getHeadingTwo().trim().length()>0) {
-				myRank++;
-			}
-			if(toSort.getHeadingThree()!=null && toSort.getHeadingThree().trim().length()>0) {
-				myRank++;
-			}
-			if(toSort.getHeadingFour()!=null && toSort.getHeadingFour().trim().length()>0) {
-				myRank++;
-			}
-			if(myRank>biggestRank) {
-				biggestRank=myRank;
-			}
-			if(!convertBySpec.containsKey(myRank)) {
-				convertBySpec.put(myRank, new ArrayList<UnitConversionInstance>());
-			}
-			convertBySpec.get(myRank).add(toSort);
-		}
-		
-		
-		if(qg!=null) {
-			for (int i = 0; i < num_rows; i++) {
-				bestUCIMatch=null;
-				//look from most specific to least specific.  Only perfect matches count
-				for(int rank=biggestRank;rank>=0;rank--) {
-					if(convertBySpec.containsKey(rank)) {
-						for(UnitConversionInstance isPer:convertBySpec.get(rank)) {
-							if(isPerfectMatchUnitConvOpt(isPer,i,table,headerLookup)) {
-								bestUCIMatch=isPer;
-							}
-							if(bestUCIMatch!=null) {
-								break;
-							}
-						}
-						if(bestUCIMatch!=null) {
-							break;
-						}
-					}
-					
-					
-				}
-				
-				
-				if(bestUCIMatch!=null) {
-					table.setValueAt(bestUCIMatch.getToUnit()+"", i, num_cols-1);
-					Double toMult=bestUCIMatch.getConversionFactor();
-					if(toMult != null) {
-						//assume first two columns never have results
-						for(int curCol=0;curCol<num_cols;curCol++) {
-							try {
-								tableVal=Double.parseDouble(table.getValueAt(i, curCol).toString());
-							}catch(Exception e) {
-								//only care it's not a number
-								tableVal=null;
-							}
-							if(tableVal!=null) {
-								table.setValueAt((tableVal*toMult), i, curCol);
-								//table.setValueAt(Math.random(), i, curCol);
-							}
-							
-						}
-					}
-					
-					
-					
-					
-				}
-			}
-		}
-		
-	}
-
-	private boolean isPerfectMatchUnitConvOpt(UnitConversionInstance uci, int i, JTable table, HashMap<String, Integer> headerLookup) {
-		//note that we don't test query here because it is selected against when culling options above
-		
-		//do need to check unit, as different rows can have different units
-		if(uci.getFromUnit().compareToIgnoreCase(table.getValueAt(i, table.getColumnCount()-1).toString())!=0){
-			return false;
-		}
-		
-		
-		//assume this is a regex in all comparisons below
-		 //now heading one
-		String valComp=null;
-		int curHdrIdx=-1;
-		String regEx=null;
-		if(uci.getHeadingOne()!=null && uci.getHeadingOne().trim().length()>0) {
-			curHdrIdx=getIdxGivenKey(uci.getHeadingOne(),headerLookup);
-			if(curHdrIdx>=0) {
-				valComp=table.getValueAt(i, curHdrIdx).toString();
-				regEx="\\Q" + uci.getValueOne().toLowerCase().replace("*", "\\E.*?\\Q") + "\\E";
-				if(!Pattern.matches(regEx, valComp.toLowerCase()))
-				{
-					return false;
-				}
-			}
-			
-			
-		}
-		
-		//now heading two
-		if(uci.getHeadingTwo()!=null && uci.getHeadingTwo().trim().length()>0) {
-			curHdrIdx=-1;
-			curHdrIdx=getIdxGivenKey(uci.getHeadingTwo(),headerLookup);
-			if(curHdrIdx>=0) {
-				valComp=table.getValueAt(i, curHdrIdx).toString();
-				regEx="\\Q" + uci.getValueTwo().toLowerCase().replace("*", "\\E.*?\\Q") + "\\E";
-				if(!Pattern.matches(regEx, valComp.toLowerCase()))
-				{
-					return false;
-				}
-			}
-		}
-		//now heading three
-		if(uci.getHeadingThree()!=null && uci.getHeadingThree().trim().length()>0) {
-			curHdrIdx=-1;
-			curHdrIdx=getIdxGivenKey(uci.getHeadingThree(),headerLookup);
-			if(curHdrIdx>=0) {
-				
-				valComp=table.getValueAt(i, curHdrIdx).toString();
-				regEx="\\Q" + uci.getValueThree().toLowerCase().replace("*", "\\E.*?\\Q") + "\\E";
-				
-				if(!Pattern.matches(regEx, valComp.toLowerCase()))
-				{
-					return false;
-				}
-			}
-		}
-		//now four
-		if(uci.getHeadingFour()!=null && uci.getHeadingFour().trim().length()>0) {
-			curHdrIdx=-1;
-			curHdrIdx=getIdxGivenKey(uci.getHeadingFour(),headerLookup);
-			if(curHdrIdx>=0) {
-				valComp=table.getValueAt(i, curHdrIdx).toString();
-				regEx="\\Q" + uci.getValueFour().toLowerCase().replace("*", "\\E.*?\\Q") + "\\E";
-				
-				if(!Pattern.matches(regEx, valComp.toLowerCase()))
-				{
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-
-	private int getIdxGivenKey(String UCIVal, HashMap<String, Integer> headerLookup) {
-		for(String key:headerLookup.keySet()) {
-			if(Pattern.matches(UCIVal, key)) {
-				return headerLookup.get(key);
-			}
-		}
-		return -1;
-	}
-
-	private HashMap<String, ArrayList<UnitConversionInstance>> getUnitInformation() {
-		//no need to run if there is no file
-		if(InterfaceMain.unitFileLocation==null || InterfaceMain.unitFileLocation.length()==0) {
-			return null;
-		}
-	
-		HashMap<String, ArrayList<UnitConversionInstance>> localInfo=new HashMap<>();
-		String[] parsedLine=null;
-		//expected items in string
-		String toUnit=null;
-		String fromUnit=null;
-		Double conversionFactor=null;
-		String query=null;
-		String headingOne=null;
-		String valueOne=null;
-		String headingTwo=null;
-		String valueTwo=null;
-		String headingThree=null;
-		String valueThree=null;
-		String headingFour=null;
-		String valueFour=null;
-		String unitsFileName = InterfaceMain.unitFileLocation;
-		Path myPath = null;
-		InputStream unitsStream = null;
-		try {
-			File unitsFile = new File(unitsFileName);
-			if (unitsFile.exists()) {
-				myPath = unitsFile.toPath();
-			} else {
-				unitsStream = getClass().getClassLoader().getResourceAsStream(unitsFileName);
-				if (unitsStream == null) {
-					throw new FileNotFoundException("Units file not found: " + unitsFileName);
-				}
-			}
-			List<String> lines;
-			if (myPath != null) {
-				lines = Files.readAllLines(myPath, StandardCharsets.UTF_8);
-			} else {
-				BufferedReader reader = new BufferedReader(new InputStreamReader(unitsStream, StandardCharsets.UTF_8));
-				lines = reader.lines().collect(Collectors.toList());
-			}
-			//first line is header
-			for(int curLine=1;curLine<lines.size();curLine++) {
-				if(lines.get(curLine).startsWith("#")) {
-					continue;
-				}
-				parsedLine=lines.get(curLine).split(",(?=([^\"]|\"[^\"]*\")*$)");
-				for(int i=0;i<parsedLine.length;i++) {
-					parsedLine[i]=parsedLine[i].replace("\"", "").trim();
-				}
-				if(!localInfo.containsKey(parsedLine[0])) {
-					localInfo.put(parsedLine[0], new ArrayList<UnitConversionInstance>());
-				}
-				//assume each line has a toUnit and Conversion
-				if(parsedLine.length>=3) {
-					fromUnit=parsedLine[0];
-					toUnit=parsedLine[1];
-					conversionFactor=Double.parseDouble(parsedLine[2]);
-				}
-				//check for entry in query field, set it null if blank
-				if(parsedLine.length>=4 && parsedLine[3].length()>0) {
-					query=parsedLine[3];
-				}else {
-					query=null;
-				}
-				
-				//check to make sure this query has match in system
-				
-				
-				//check for heading 1 and value, setting them both to null if there is no value for either
-				if(parsedLine.length>=6 && parsedLine[4].length()>0&& parsedLine[5].length()>0) {
-					headingOne=parsedLine[4];
-					valueOne=parsedLine[5];
-				}else {
-					headingOne=null;
-					valueOne=null;
-				}
-				//check for heading 2 and value, setting them both to null if there is no value for either
-				if(parsedLine.length>=8 && parsedLine[6].length()>0&& parsedLine[7].length()>0) {
-					headingTwo=parsedLine[6];
-					valueTwo=parsedLine[7];
-				}else {
-					headingTwo=null;
-					valueTwo=null;
-				}
-				//check for heading 3 and value, setting them both to null if there is no value for either
-				if(parsedLine.length>=10 && parsedLine[8].length()>0&& parsedLine[9].length()>0) {
-					headingThree=parsedLine[8];
-					valueThree=parsedLine[9];
-				}else {
-					headingThree=null;
-					valueThree=null;
-				}
-				//check for heading 4 and value, setting them both to null if there is no value for either
-				if(parsedLine.length>=12 && parsedLine[10].length()>0&& parsedLine[11].length()>0) {
-					headingFour=parsedLine[10];
-					valueFour=parsedLine[11];
-				}else {
-					headingFour=null;
-					valueFour=null;
-				}
-				
-				localInfo.get(parsedLine[0]).add(new UnitConversionInstance(fromUnit,toUnit,conversionFactor,query,
-						headingOne,valueOne,headingTwo,valueTwo,headingThree,valueThree,headingFour,valueFour));
-			}
-		}catch(Exception e) {
-			System.out.println("Could not read units file: "+e.toString());
-		}
-		return localInfo;
+		unitRules.convert(qg.toString(), table.getModel());
 	}
 
 	public String[][] getUnits(QueryGenerator qg, JTable table) {
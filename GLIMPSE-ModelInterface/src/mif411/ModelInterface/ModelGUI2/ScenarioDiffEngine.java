@@ -0,0 +1,342 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+import ModelInterface.ModelGUI2.tables.ComboTableModel;
+
+/**
+ * Calculates the difference of each scenario in a query result table from a
+ * reference scenario.  The table is expected to have the scenario in the first
+ * column and the region in the second, any other non-year columns identify a
+ * row within a scenario and region.  Rows are matched across scenarios by
+ * indexing each scenario's rows by those identity columns so the difference is
+ * calculated in a single pass over the table.
+ * <p>
+ * This does not require a user interface and is used in batch mode by the
+ * XMLDB Diff Scenarios command through
+ * {@link #diff(QueryGenerator, Object[], Object[])}.
+ */
+public class ScenarioDiffEngine {
+	private final String baseScenario;
+	private final boolean showPctDiff;
+	private double minVal = 0.001;
+	private double minPct = 0.1;
+	private boolean useValFilter = true;
+	private boolean usePctFilter = true;
+
+	/**
+	 * @param baseScenario The value of the scenario column for the reference
+	 *                     scenario, or just the scenario name.
+	 * @param showPctDiff  If differences should be given as a percent of the
+	 *                     reference value rather than the absolute difference.
+	 */
+	public ScenarioDiffEngine(String baseScenario, boolean showPctDiff) {
+		this.baseScenario = baseScenario;
+		this.showPctDiff = showPctDiff;
+	}
+
+	/**
+	 * Only keep rows where some absolute difference is greater than the given value.
+	 * 
+	 * @param minVal The minimum difference or null to keep all rows.
+	 */
+	public void setMinValue(Double minVal) {
+		useValFilter = minVal != null;
+		if (useValFilter) {
+			this.minVal = minVal;
+		}
+	}
+
+	/**
+	 * Only keep rows where some difference is greater than the given percent of
+	 * the reference value.
+	 * 
+	 * @param minPct The minimum percent difference or null to keep all rows.
+	 */
+	public void setMinPercent(Double minPct) {
+		usePctFilter = minPct != null;
+		if (usePctFilter) {
+			this.minPct = minPct;
+		}
+	}
+
+	/**
+	 * Run a query and calculate the differences from the reference scenario without
+	 * any user interaction.
+	 * 
+	 * @param qg        The query to run.
+	 * @param scenarios The ScenarioListItems to run the query for.
+	 * @param regions   The regions to run the query for.
+	 * @return The table of differences.
+	 * @throws Exception If the query could not be run.
+	 */
+	public DefaultTableModel diff(QueryGenerator qg, Object[] scenarios, Object[] regions) throws Exception {
+		return diff(new ComboTableModel(qg, scenarios, regions, null, null));
+	}
+
+	/**
+	 * Calculate the differences of each scenario from the reference scenario.  Rows
+	 * are produced for each scenario in the order they first appear in the table,
+	 * then by region and identity columns in the order those first appear.
+	 * 
+	 * @param tm The query results.
+	 * @return The table of differences which has the same columns as tm.
+	 */
+	public DefaultTableModel diff(TableModel tm) {
+		final int numCols = tm.getColumnCount();
+		final List<Integer> keys = new ArrayList<Integer>();
+		final List<Integer> years = new ArrayList<Integer>();
+		final DefaultTableModel dtm = new DefaultTableModel();
+		for (int col = 0; col < numCols; ++col) {
+			final String header = "" + tm.getColumnName(col);
+			dtm.addColumn(tm.getColumnName(col));
+			if (!header.equals("scenario") && !header.equals("region")) {
+				(isNumber(header) ? years : keys).add(col);
+			}
+		}
+
+		// index every row by scenario and identity, keeping track of the order the
+		// regions and identity values were first seen in
+		final Map<String, Map<String, Integer>> rowIndex = new LinkedHashMap<String, Map<String, Integer>>();
+		final Map<String, Integer> regionOrder = new HashMap<String, Integer>();
+		final Map<String, Integer> uniqueOrder = new HashMap<String, Integer>();
+		final Map<String, int[]> identityOrder = new HashMap<String, int[]>();
+		final StringBuilder buff = new StringBuilder();
+		for (int row = 0; row < tm.getRowCount(); ++row) {
+			final String scenario = "" + tm.getValueAt(row, 0);
+			final String region = "" + tm.getValueAt(row, 1);
+			buff.setLength(0);
+			for (int i = 0; i < keys.size(); ++i) {
+				if (i != 0) {
+					buff.append(',');
+				}
+				buff.append(tm.getValueAt(row, keys.get(i)));
+			}
+			final String unique = buff.toString();
+			final String identity = region + "," + unique;
+
+			Map<String, Integer> scenarioRows = rowIndex.get(scenario);
+			if (scenarioRows == null) {
+				scenarioRows = new HashMap<String, Integer>();
+				rowIndex.put(scenario, scenarioRows);
+			}
+			// when a row is repeated the last one is used
+			scenarioRows.put(identity, row);
+			if (!identityOrder.containsKey(identity)) {
+				identityOrder.put(identity, new int[] { orderOf(region, regionOrder), orderOf(unique, uniqueOrder) });
+			}
+		}
+		if (rowIndex.isEmpty()) {
+			return dtm;
+		}
+
+		final String base = findScenario(rowIndex.keySet());
+		final Map<String, Integer> baseRows = rowIndex.get(base);
+		final Comparator<String> identityComparator = new Comparator<String>() {
+			public int compare(String lhs, String rhs) {
+				final int[] lhsOrder = identityOrder.get(lhs);
+				final int[] rhsOrder = identityOrder.get(rhs);
+				return lhsOrder[0] != rhsOrder[0] ? Integer.compare(lhsOrder[0], rhsOrder[0])
+						: Integer.compare(lhsOrder[1], rhsOrder[1]);
+			}
+		};
+		final String label = " minus " + getScenarioName(base);
+		for (Map.Entry<String, Map<String, Integer>> scenarioEntry : rowIndex.entrySet()) {
+			if (scenarioEntry.getKey().equals(base)) {
+				continue;
+			}
+			final Map<String, Integer> altRows = scenarioEntry.getValue();
+			final List<String> identities = new ArrayList<String>(altRows.keySet());
+			for (String identity : baseRows.keySet()) {
+				if (!altRows.containsKey(identity)) {
+					identities.add(identity);
+				}
+			}
+			Collections.sort(identities, identityComparator);
+
+			final String scenarioLabel = getScenarioName(scenarioEntry.getKey()) + label;
+			for (String identity : identities) {
+				final Integer baseRow = baseRows.get(identity);
+				final Integer altRow = altRows.get(identity);
+				final double[] baseData = getRowData(baseRow, tm, years);
+				final double[] altData = getRowData(altRow, tm, years);
+				final double[] diffData = getDiffData(altData, baseData);
+				if (okToUse(baseData, altData, diffData)) {
+					dtm.addRow(createRow(scenarioLabel, tm, baseRow != null ? baseRow : altRow, diffData, years));
+				}
+			}
+		}
+		return dtm;
+	}
+
+	private static int orderOf(String value, Map<String, Integer> order) {
+		Integer ret = order.get(value);
+		if (ret == null) {
+			ret = order.size();
+			order.put(value, ret);
+		}
+		return ret;
+	}
+
+	private static boolean isNumber(String str) {
+		try {
+			Double.parseDouble(str);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Find the scenario column value for the reference scenario which may have been
+	 * given as just the scenario name.  Defaults to the first scenario.
+	 */
+	private String findScenario(Iterable<String> scenarios) {
+		String ret = null;
+		for (String scenario : scenarios) {
+			if (ret == null) {
+				ret = scenario;
+			}
+			if (scenario.equals(baseScenario)) {
+				return scenario;
+			}
+		}
+		for (String scenario : scenarios) {
+			if (getScenarioName(scenario).equals(baseScenario)) {
+				return scenario;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @param scenario A scenario column value such as name,date=...
+	 * @return Just the scenario name.
+	 */
+	private static String getScenarioName(String scenario) {
+		final int comma = scenario.indexOf(',');
+		return comma == -1 ? scenario : scenario.substring(0, comma);
+	}
+
+	private Object[] createRow(String scenarioLabel, TableModel tm, int index, double[] diffData,
+			List<Integer> years) {
+		final int numCols = tm.getColumnCount();
+		final Object[] ret = new Object[numCols];
+		ret[0] = scenarioLabel;
+		for (int i = 1; i < numCols; i++) {
+			ret[i] = tm.getValueAt(index, i);
+		}
+		if (showPctDiff) {
+			ret[numCols - 1] = "pct (" + ret[numCols - 1] + ")";
+		}
+		for (int i = 0; i < diffData.length; i++) {
+			ret[years.get(i)] = Double.valueOf(diffData[i]);
+		}
+		return ret;
+	}
+
+	private boolean okToUse(double[] baseData, double[] altData, double[] diffData) {
+		if (useValFilter) {
+			boolean okToUseVal = false;
+			for (int i = 0; i < diffData.length && !okToUseVal; i++) {
+				final double val = showPctDiff ? Math.abs(altData[i] - baseData[i]) : Math.abs(diffData[i]);
+				okToUseVal = val > minVal;
+			}
+			if (!okToUseVal) {
+				return false;
+			}
+		}
+		if (usePctFilter) {
+			for (int i = 0; i < baseData.length; i++) {
+				if (baseData[i] == 0.0 && altData[i] != 0.0) {
+					return true;
+				} else if (baseData[i] != 0.0 && altData[i] != 0.0) {
+					final double val = showPctDiff ? Math.abs(diffData[i])
+							: Math.abs(diffData[i] / baseData[i]) * 100.0;
+					if (val > minPct) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private double[] getDiffData(double[] alt, double[] base) {
+		final double[] ret = new double[alt.length];
+		for (int i = 0; i < ret.length; i++) {
+			if (!showPctDiff) {
+				ret[i] = alt[i] - base[i];
+			} else if (base[i] == 0.0) {
+				// explicitly handle the divide by zero
+				ret[i] = Double.NaN;
+			} else {
+				ret[i] = (alt[i] - base[i]) / base[i] * 100.0;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the year values of a row where a missing row is all zeros and any value
+	 * which is not a number is -9.
+	 */
+	private static double[] getRowData(Integer row, TableModel tm, List<Integer> years) {
+		final double[] ret = new double[years.size()];
+		if (row != null) {
+			for (int i = 0; i < ret.length; i++) {
+				final Object value = tm.getValueAt(row, years.get(i));
+				if (value instanceof Number) {
+					ret[i] = ((Number) value).doubleValue();
+				} else {
+					try {
+						ret[i] = Double.parseDouble("" + value);
+					} catch (NumberFormatException e) {
+						ret[i] = -9;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+}
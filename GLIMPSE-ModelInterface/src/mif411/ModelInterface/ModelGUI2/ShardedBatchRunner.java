@@ -0,0 +1,521 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFDrawing;
+import org.apache.poi.xssf.usermodel.XSSFPicture;
+import org.apache.poi.xssf.usermodel.XSSFShape;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSOutput;
+
+import ModelInterface.InterfaceMain;
+import ModelInterface.ModelGUI2.tables.StreamingExcelWriter;
+import ModelInterface.ModelGUI2.xmldb.XMLDB;
+
+/**
+ * Runs a batch query headless by sharding the combinations of query and scenario
+ * set across a number of local worker processes.  Each worker is a separate JVM
+ * running InterfaceMain in batch mode on a generated batch file with the
+ * SHARD_COMMAND and opens the database read only.  The combinations are dealt out
+ * to the workers in turn so that each gets a share of every query.
+ * <p>
+ * Workers write the results of each combination to its own file in a work
+ * directory next to the output, along with a record of the queries run, and once
+ * all workers are done the results are merged in the same order the BatchWindow
+ * would have written them.  A JSON run report may be written as well.  The work
+ * directory is removed unless a worker failed in which case the worker logs are
+ * kept there.
+ */
+public class ShardedBatchRunner {
+	/**
+	 * The batch command a worker process runs to execute its shard.
+	 */
+	public static final String SHARD_COMMAND = "XMLDB Batch Shard";
+
+	/**
+	 * How often to check whether the workers have exited.
+	 */
+	private static final long WORKER_POLL_MILLIS = 100;
+
+	private final String dbLocation;
+	private final File outFile;
+	private final boolean isExcelOutput;
+	private final List<Node> queries = new ArrayList<Node>();
+	private final Vector<Object[]> toRunScns;
+	private final boolean singleSheet;
+	private final boolean includeCharts;
+	private final boolean replaceResults;
+	private final int numWorkers;
+	private final int coresPerWorker;
+
+	/**
+	 * @param dbLocation The location of the database to query.
+	 * @param outFile The file results will be saved in, xlsx, xls or csv determined by
+	 *        the file name extension.
+	 * @param queries The aQuery elements to run.
+	 * @param toRunScns The sets of ScenarioListItems to run each query for.
+	 * @param singleSheet Put each query in its own sheet rather than each scenario set.
+	 * @param includeCharts Add charts to excel output.
+	 * @param replaceResults Replace an existing excel file rather than add to it.
+	 * @param numWorkers The number of worker processes to use.
+	 * @param coresPerWorker The number of threads each worker uses to run queries.
+	 */
+	public ShardedBatchRunner(String dbLocation, File outFile, NodeList queries, Vector<Object[]> toRunScns,
+			boolean singleSheet, boolean includeCharts, boolean replaceResults, int numWorkers, int coresPerWorker) {
+		this.dbLocation = dbLocation;
+		this.isExcelOutput = BatchWindow.isExcelFile(outFile);
+		this.outFile = outFile;
+		for(int i = 0; i < queries.getLength(); ++i) {
+			this.queries.add(queries.item(i));
+		}
+		this.toRunScns = toRunScns;
+		this.singleSheet = singleSheet;
+		this.includeCharts = includeCharts;
+		this.replaceResults = replaceResults;
+		this.numWorkers = numWorkers;
+		this.coresPerWorker = coresPerWorker;
+	}
+
+	/**
+	 * Run the batch, blocking until all of the workers are done and the results
+	 * have been merged.
+	 * @param reportFile The file to write the JSON run report to or null if no
+	 *        report is wanted.
+	 * @throws Exception If the workers could not be run or the results merged.
+	 */
+	public void run(File reportFile) throws Exception {
+		final int numUnits = toRunScns.size() * queries.size();
+		final int workers = Math.max(1, Math.min(numWorkers, numUnits));
+		final BatchRunReport report = new BatchRunReport(outFile, workers);
+		final File workDir = Files.createTempDirectory(outFile.getAbsoluteFile().getParentFile().toPath(),
+				outFile.getName()+"-shards").toFile();
+		boolean keepWorkDir = false;
+		try {
+			final Process[] processes = new Process[workers];
+			final long[] startNanos = new long[workers];
+			final long[] durationMillis = new long[workers];
+			final int[] exitCodes = new int[workers];
+			try {
+				for(int worker = 0; worker < workers; ++worker) {
+					final File batchFile = new File(workDir, "worker-"+worker+".xml");
+					writeWorkerBatch(batchFile, workDir, worker, workers);
+					startNanos[worker] = System.nanoTime();
+					processes[worker] = launchWorker(batchFile, new File(workDir, "worker-"+worker+".log"));
+				}
+				System.out.println("Started "+workers+" batch workers for "+numUnits+" queries");
+				// poll all of the workers so each one's time is recorded when it exits
+				// rather than when the workers ahead of it are done
+				int numRunning = workers;
+				final boolean[] exited = new boolean[workers];
+				while(numRunning > 0) {
+					for(int worker = 0; worker < workers; ++worker) {
+						if(!exited[worker] && !processes[worker].isAlive()) {
+							durationMillis[worker] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos[worker]);
+							exitCodes[worker] = processes[worker].exitValue();
+							exited[worker] = true;
+							--numRunning;
+						}
+					}
+					if(numRunning > 0) {
+						Thread.sleep(WORKER_POLL_MILLIS);
+					}
+				}
+			} catch(Exception | Error e) {
+				// do not leave workers running without anyone to merge their results
+				for(Process process : processes) {
+					if(process != null) {
+						process.destroyForcibly();
+					}
+				}
+				keepWorkDir = true;
+				throw e;
+			}
+			for(int worker = 0; worker < workers; ++worker) {
+				report.addWorker(worker, exitCodes[worker], durationMillis[worker], (numUnits - worker + workers - 1) / workers);
+				if(exitCodes[worker] != 0) {
+					System.out.println("Batch worker "+worker+" failed with exit code "+exitCodes[worker]);
+					keepWorkDir = true;
+				}
+			}
+
+			// collect the query records and errors for any results which are missing
+			final String[] missingErrors = new String[numUnits];
+			for(int unit = 0; unit < numUnits; ++unit) {
+				List<BatchQueryRecord> records = readRecords(getRecordsFile(workDir, unit));
+				if(records == null) {
+					keepWorkDir = true;
+					records = Collections.singletonList(createFailedRecord(unit, "The batch worker did not run the query"));
+				}
+				if(!getUnitFile(workDir, unit, getUnitExtension()).exists()) {
+					missingErrors[unit] = !records.isEmpty() && records.get(0).getError() != null ? records.get(0).getError()
+						: "The batch worker did not produce results";
+					keepWorkDir = true;
+				}
+				report.addQueries(records, unit % workers);
+			}
+			if(isExcelOutput) {
+				mergeExcel(workDir, missingErrors);
+			} else {
+				mergeCsv(workDir, missingErrors);
+			}
+			final int numFailures = report.getNumFailures();
+			System.out.println("Batch queries finished with "+numFailures+" error"+(numFailures == 1 ? "." : "s."));
+			if(reportFile != null) {
+				report.write(reportFile);
+			}
+		} finally {
+			if(keepWorkDir) {
+				System.out.println("Batch worker files have been kept in "+workDir);
+			} else {
+				deleteWorkDir(workDir);
+			}
+		}
+	}
+
+	/**
+	 * Run the combinations of query and scenario set that were given to this worker.
+	 * This is called in the worker process with the database already open.
+	 * @param command The shard command from the worker batch file.
+	 * @param scenariosInDb The scenarios in the database.
+	 * @param allRegions All of the regions in the database excluding Global.
+	 * @throws Exception If the shard could not be run.
+	 */
+	public static void runShard(Element command, Vector<ScenarioListItem> scenariosInDb, Vector<String> allRegions)
+			throws Exception {
+		final File workDir = new File(getChildText(command, "workDir"));
+		final String extension = getChildText(command, "outExtension");
+		final boolean includeCharts = Boolean.parseBoolean(getChildText(command, "batchQueryIncludeCharts"));
+		final int coresToUse = Integer.parseInt(getChildText(command, "coresToUse"));
+		final XPath xpath = XPathFactory.newInstance().newXPath();
+		final NodeList units = (NodeList)xpath.evaluate("./unit", command, XPathConstants.NODESET);
+		for(int i = 0; i < units.getLength(); ++i) {
+			final Element unit = (Element)units.item(i);
+			final int index = Integer.parseInt(unit.getAttribute("index"));
+			final NodeList res = (NodeList)xpath.evaluate("./aQuery", unit, XPathConstants.NODESET);
+			final NodeList scenarioNodes = unit.getElementsByTagName("scenario");
+			final Object[] scenarios = new Object[scenarioNodes.getLength()];
+			final String[] scenarioNames = new String[scenarios.length];
+			final List<String> missing = new ArrayList<String>();
+			for(int j = 0; j < scenarios.length; ++j) {
+				final Element scenario = (Element)scenarioNodes.item(j);
+				scenarioNames[j] = scenario.getAttribute("name");
+				scenarios[j] = ScenarioListItem.findClosestScenario(scenariosInDb, scenarioNames[j], scenario.getAttribute("date"));
+				if(scenarios[j] == null) {
+					missing.add(scenarioNames[j]);
+				}
+			}
+			final List<BatchQueryRecord> records;
+			if(!missing.isEmpty()) {
+				records = Collections.singletonList(new BatchQueryRecord(getQueryTitle(res.item(0)), scenarioNames, false,
+						System.currentTimeMillis(), 0, 0, "Could not find scenarios "+missing));
+			} else {
+				final Vector<Object[]> toRunScns = new Vector<Object[]>(1);
+				toRunScns.add(scenarios);
+				final BatchWindow runner = new BatchWindow(getUnitFile(workDir, index, extension), toRunScns, allRegions,
+						false, includeCharts, res.getLength(), res, true, coresToUse);
+				runner.waitForFinish();
+				records = runner.getQueryRecords();
+			}
+			writeRecords(getRecordsFile(workDir, index), records);
+		}
+	}
+
+	/**
+	 * Get the database location from a shard command.
+	 * @param command The shard command from the worker batch file.
+	 * @return The location of the database.
+	 */
+	public static String getDbLocation(Element command) {
+		return getChildText(command, "xmldbLocation");
+	}
+
+	/**
+	 * Write the batch file for a worker which lists every numWorkers-th combination
+	 * of scenario set and query starting at worker.
+	 */
+	private void writeWorkerBatch(File batchFile, File workDir, int worker, int numWorkers) throws Exception {
+		final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		final Element root = doc.createElement("ModelInterfaceBatch");
+		doc.appendChild(root);
+		final Element classElem = doc.createElement("class");
+		classElem.setAttribute("name", DbViewer.class.getName());
+		root.appendChild(classElem);
+		final Element command = doc.createElement("command");
+		command.setAttribute("name", SHARD_COMMAND);
+		classElem.appendChild(command);
+		addChildText(command, "xmldbLocation", dbLocation);
+		addChildText(command, "workDir", workDir.getAbsolutePath());
+		addChildText(command, "outExtension", getUnitExtension());
+		addChildText(command, "batchQueryIncludeCharts", Boolean.toString(includeCharts));
+		addChildText(command, "coresToUse", Integer.toString(coresPerWorker));
+		final int numUnits = toRunScns.size() * queries.size();
+		for(int unit = worker; unit < numUnits; unit += numWorkers) {
+			final Element unitElem = doc.createElement("unit");
+			unitElem.setAttribute("index", Integer.toString(unit));
+			for(Object scn : toRunScns.get(unit / queries.size())) {
+				final Element scnElem = doc.createElement("scenario");
+				scnElem.setAttribute("name", ((ScenarioListItem)scn).getScnName());
+				scnElem.setAttribute("date", ((ScenarioListItem)scn).getScnDate());
+				unitElem.appendChild(scnElem);
+			}
+			unitElem.appendChild(doc.importNode(queries.get(unit % queries.size()), true));
+			command.appendChild(unitElem);
+		}
+
+		final DOMImplementationLS implls = (DOMImplementationLS)doc.getImplementation().getFeature("LS", "3.0");
+		try(OutputStream out = new FileOutputStream(batchFile)) {
+			final LSOutput lsOut = implls.createLSOutput();
+			lsOut.setByteStream(out);
+			implls.createLSSerializer().write(doc, lsOut);
+		}
+	}
+
+	/**
+	 * Start a worker process with the same JVM options and class path as this one.
+	 */
+	private Process launchWorker(File batchFile, File logFile) throws IOException {
+		final List<String> cmd = new ArrayList<String>();
+		cmd.add(new File(System.getProperty("java.home"), "bin"+File.separator+"java").getPath());
+		for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			// debugging agents can not be shared between processes
+			if(!arg.startsWith("-agentlib") && !arg.startsWith("-javaagent") && !arg.startsWith("-Xrunjdwp")
+					&& !arg.startsWith("-D"+XMLDB.READ_ONLY_PROPERTY)) {
+				cmd.add(arg);
+			}
+		}
+		cmd.add("-D"+XMLDB.READ_ONLY_PROPERTY+"=true");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(InterfaceMain.class.getName());
+		cmd.add("-b");
+		cmd.add(batchFile.getAbsolutePath());
+		return new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(logFile).start();
+	}
+
+	private void mergeCsv(File workDir, String[] missingErrors) throws IOException {
+		final File tempFile = File.createTempFile(outFile.getName(), ".tmp", workDir);
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+			for(int unit = 0; unit < missingErrors.length; ++unit) {
+				if(missingErrors[unit] == null) {
+					Files.copy(getUnitFile(workDir, unit, "csv").toPath(), out);
+				} else {
+					out.write((getQueryTitle(queries.get(unit % queries.size()))+" had error: "+missingErrors[unit]
+								+System.getProperty("line.separator")).getBytes(Charset.defaultCharset()));
+				}
+			}
+		}
+		Files.move(tempFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void mergeExcel(File workDir, String[] missingErrors) throws IOException {
+		try(StreamingExcelWriter out = new StreamingExcelWriter(outFile, !replaceResults)) {
+			for(int unit = 0; unit < missingErrors.length; ++unit) {
+				// sheets are created just as the BatchWindow would
+				if(singleSheet || unit % queries.size() == 0) {
+					out.createSheet();
+				}
+				if(missingErrors[unit] == null) {
+					copySheets(getUnitFile(workDir, unit, "xlsx"), out);
+				} else {
+					out.createRow().createCell(0).setCellValue(
+							getQueryTitle(queries.get(unit % queries.size()))+" had error: "+missingErrors[unit]);
+				}
+			}
+			out.write(outFile);
+		}
+	}
+
+	/**
+	 * Copy the rows and charts from every sheet of the given workbook to the end of
+	 * the current sheet of the writer.
+	 */
+	private static void copySheets(File file, StreamingExcelWriter out) throws IOException {
+		try(InputStream in = new BufferedInputStream(new FileInputStream(file));
+				XSSFWorkbook src = new XSSFWorkbook(in)) {
+			for(Sheet sheet : src) {
+				// pictures are moved along with the row they start in
+				final Map<Integer, List<XSSFPicture>> pictures = new HashMap<Integer, List<XSSFPicture>>();
+				final XSSFDrawing drawing = ((XSSFSheet)sheet).getDrawingPatriarch();
+				if(drawing != null) {
+					for(XSSFShape shape : drawing.getShapes()) {
+						if(shape instanceof XSSFPicture) {
+							final int row1 = ((XSSFPicture)shape).getClientAnchor().getRow1();
+							if(!pictures.containsKey(row1)) {
+								pictures.put(row1, new ArrayList<XSSFPicture>());
+							}
+							pictures.get(row1).add((XSSFPicture)shape);
+						}
+					}
+				}
+				for(Row row : sheet) {
+					final Row destRow = out.createRow();
+					for(Cell cell : row) {
+						switch(cell.getCellType()) {
+						case NUMERIC:
+							destRow.createCell(cell.getColumnIndex()).setCellValue(cell.getNumericCellValue());
+							break;
+						case STRING:
+							destRow.createCell(cell.getColumnIndex()).setCellValue(cell.getStringCellValue());
+							break;
+						case BOOLEAN:
+							destRow.createCell(cell.getColumnIndex()).setCellValue(cell.getBooleanCellValue());
+							break;
+						default:
+							// the batch does not write any other types
+						}
+					}
+					final List<XSSFPicture> rowPictures = pictures.get(row.getRowNum());
+					if(rowPictures != null) {
+						for(XSSFPicture picture : rowPictures) {
+							final ClientAnchor anchor = picture.getClientAnchor();
+							out.addPicture(destRow.getSheet(), picture.getPictureData().getData(), anchor.getCol1(),
+									destRow.getRowNum(), anchor.getCol2(), destRow.getRowNum() + anchor.getRow2() - anchor.getRow1());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private BatchQueryRecord createFailedRecord(int unit, String error) {
+		final Object[] scenarios = toRunScns.get(unit / queries.size());
+		final String[] scenarioNames = new String[scenarios.length];
+		for(int i = 0; i < scenarios.length; ++i) {
+			scenarioNames[i] = ((ScenarioListItem)scenarios[i]).getScnName();
+		}
+		return new BatchQueryRecord(getQueryTitle(queries.get(unit % queries.size())), scenarioNames, false,
+				System.currentTimeMillis(), 0, 0, error);
+	}
+
+	private String getUnitExtension() {
+		return isExcelOutput ? "xlsx" : "csv";
+	}
+
+	private static File getUnitFile(File workDir, int unit, String extension) {
+		return new File(workDir, "unit-"+unit+"."+extension);
+	}
+
+	private static File getRecordsFile(File workDir, int unit) {
+		return new File(workDir, "unit-"+unit+".records");
+	}
+
+	private static void writeRecords(File file, List<BatchQueryRecord> records) throws IOException {
+		try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeObject(new ArrayList<BatchQueryRecord>(records));
+		}
+	}
+
+	/**
+	 * Read the query records written by a worker.
+	 * @return The records or null if they could not be read.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<BatchQueryRecord> readRecords(File file) {
+		if(!file.exists()) {
+			return null;
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return (List<BatchQueryRecord>)in.readObject();
+		} catch(IOException | ClassNotFoundException | ClassCastException e) {
+			System.out.println("Could not read batch records "+file+": "+e);
+			return null;
+		}
+	}
+
+	/**
+	 * Get the title of the query in an aQuery element.
+	 */
+	private static String getQueryTitle(Node aQuery) {
+		for(Node child = aQuery != null ? aQuery.getFirstChild() : null; child != null; child = child.getNextSibling()) {
+			if(child.getNodeType() == Node.ELEMENT_NODE) {
+				return ((Element)child).getAttribute("title");
+			}
+		}
+		return "";
+	}
+
+	private static String getChildText(Element parent, String name) {
+		final NodeList children = parent.getElementsByTagName(name);
+		return children.getLength() > 0 ? children.item(0).getTextContent() : "";
+	}
+
+	private static void addChildText(Element parent, String name, String text) {
+		final Element child = parent.getOwnerDocument().createElement(name);
+		child.setTextContent(text);
+		parent.appendChild(child);
+	}
+
+	private static void deleteWorkDir(File workDir) {
+		final File[] files = workDir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		workDir.delete();
+	}
+}
@@ -0,0 +1,548 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * A pull scanner over a byte range of an XML file which reports StAX style
+ * events along with the exact byte offsets at which they start and end.  The
+ * StAX readers in the JDK only report locations which depend on how much of
+ * the input they have buffered, so they can not be used to seek back to an
+ * element later.  This scanner only handles encodings in which markup is
+ * plain ASCII (UTF-8, ASCII, ISO-8859-x) which covers the GCAM inputs.
+ * Comments, processing instructions and the DOCTYPE are skipped.
+ */
+public class XMLOffsetScanner implements XMLStreamConstants {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final long rangeEnd;
+	private final Charset charset;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private long bufStart;
+	private int pos;
+	private int limit;
+
+	private boolean parseAttributes = true;
+	private boolean collectText = true;
+
+	private int eventType;
+	private long eventStart;
+	private long eventEnd;
+	private String name;
+	private final List<String> attributes = new ArrayList<String>();
+	private String text;
+	private boolean emptyElement;
+	private boolean pendingEnd;
+
+	private byte[] scratch = new byte[256];
+	private int scratchLen;
+
+	/**
+	 * Creates a scanner for part of a file.
+	 * @param channel The open file.
+	 * @param start Byte offset to start scanning at.
+	 * @param end Byte offset to stop scanning at.
+	 * @param charset The encoding of the file.
+	 */
+	public XMLOffsetScanner(FileChannel channel, long start, long end, Charset charset) {
+		this.channel = channel;
+		this.rangeEnd = end;
+		this.charset = charset;
+		bufStart = start;
+	}
+
+	/**
+	 * Reads the encoding from the start of an XML file.
+	 * @param channel The open file.
+	 * @return The encoding of the file, UTF-8 if none is declared.
+	 * @throws IOException If the file could not be read or is in an encoding
+	 *         this scanner does not support such as UTF-16.
+	 */
+	public static Charset detectCharset(FileChannel channel) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(256);
+		channel.read(head, 0);
+		byte[] b = head.array();
+		int n = head.position();
+		if(n >= 2 && ((b[0] == (byte)0xFE && b[1] == (byte)0xFF) || (b[0] == (byte)0xFF && b[1] == (byte)0xFE)
+				|| b[0] == 0 || b[1] == 0)) {
+			throw new IOException("UTF-16 and UTF-32 encoded files are not supported");
+		}
+		String decl = new String(b, 0, n, StandardCharsets.ISO_8859_1);
+		if(decl.startsWith("<?xml")) {
+			int declEnd = decl.indexOf("?>");
+			int encIdx = decl.indexOf("encoding");
+			if(encIdx != -1 && (declEnd == -1 || encIdx < declEnd)) {
+				int q = encIdx + "encoding".length();
+				while(q < n && decl.charAt(q) != '"' && decl.charAt(q) != '\'') {
+					++q;
+				}
+				int qEnd = q < n ? decl.indexOf(decl.charAt(q), q + 1) : -1;
+				if(qEnd != -1) {
+					String enc = decl.substring(q + 1, qEnd).trim();
+					if(enc.toUpperCase().startsWith("UTF-16") || enc.toUpperCase().startsWith("UTF-32")) {
+						throw new IOException("UTF-16 and UTF-32 encoded files are not supported");
+					}
+					return Charset.forName(enc);
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Sets whether attributes of start elements should be read.  When they are
+	 * not the tag is only scanned for its end which is much quicker.
+	 * @param parseAttributes True to read attributes.
+	 */
+	public void setParseAttributes(boolean parseAttributes) {
+		this.parseAttributes = parseAttributes;
+	}
+
+	/**
+	 * Sets whether character data should be reported.  When it is not, text
+	 * is skipped without being decoded.
+	 * @param collectText True to report CHARACTERS events.
+	 */
+	public void setCollectText(boolean collectText) {
+		this.collectText = collectText;
+	}
+
+	private int peek() throws IOException {
+		if(pos == limit) {
+			bufStart += limit;
+			pos = 0;
+			limit = 0;
+			long remaining = rangeEnd - bufStart;
+			if(remaining <= 0) {
+				return -1;
+			}
+			ByteBuffer bb = ByteBuffer.wrap(buf, 0, (int)Math.min(buf.length, remaining));
+			while(bb.hasRemaining()) {
+				int read = channel.read(bb, bufStart + bb.position());
+				if(read < 0) {
+					break;
+				}
+			}
+			limit = bb.position();
+			if(limit == 0) {
+				return -1;
+			}
+		}
+		return buf[pos] & 0xFF;
+	}
+
+	private int read() throws IOException {
+		int c = peek();
+		if(c != -1) {
+			++pos;
+		}
+		return c;
+	}
+
+	private long position() {
+		return bufStart + pos;
+	}
+
+	private void append(int c) {
+		if(scratchLen == scratch.length) {
+			byte[] bigger = new byte[scratch.length * 2];
+			System.arraycopy(scratch, 0, bigger, 0, scratchLen);
+			scratch = bigger;
+		}
+		scratch[scratchLen++] = (byte)c;
+	}
+
+	private String takeScratch() {
+		String ret = new String(scratch, 0, scratchLen, charset);
+		scratchLen = 0;
+		return ret;
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	private void expect(String s) throws IOException {
+		for(int i = 0; i < s.length(); ++i) {
+			if(read() != s.charAt(i)) {
+				throw new IOException("Malformed XML near byte " + position());
+			}
+		}
+	}
+
+	/**
+	 * Skips up to and including a terminator.
+	 * @param collect Whether to keep the skipped bytes in the scratch buffer.
+	 */
+	private void skipPast(String terminator, boolean collect) throws IOException {
+		int matched = 0;
+		int c;
+		while((c = read()) != -1) {
+			if(collect) {
+				append(c);
+			}
+			if(c == terminator.charAt(matched)) {
+				if(++matched == terminator.length()) {
+					if(collect) {
+						scratchLen -= terminator.length();
+					}
+					return;
+				}
+			} else {
+				matched = fallback(terminator, matched, c);
+			}
+		}
+		throw new IOException("Unexpected end of XML looking for " + terminator);
+	}
+
+	/**
+	 * Finds how much of a terminator is still matched after a mismatch, which is
+	 * the longest prefix of the terminator that ends the bytes read so far.  For
+	 * instance reading "]]]" still leaves "]]" of "]]>" matched.
+	 * @param terminator The terminator being looked for.
+	 * @param matched The number of bytes which were matched before c.
+	 * @param c The byte which did not match.
+	 * @return The number of bytes of the terminator now matched.
+	 */
+	private static int fallback(String terminator, int matched, int c) {
+		for(int k = matched; k > 0; --k) {
+			if(terminator.charAt(k - 1) == c && terminator.regionMatches(0, terminator, matched - k + 1, k - 1)) {
+				return k;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Advances to the next event.
+	 * @return START_ELEMENT, END_ELEMENT, CHARACTERS or END_DOCUMENT once the
+	 *         end of the range is reached.
+	 * @throws IOException If the file could not be read or is malformed.
+	 */
+	public int next() throws IOException {
+		if(pendingEnd) {
+			pendingEnd = false;
+			eventType = END_ELEMENT;
+			eventStart = eventEnd;
+			return eventType;
+		}
+		while(true) {
+			eventStart = position();
+			int c = peek();
+			if(c == -1) {
+				eventType = END_DOCUMENT;
+				eventEnd = eventStart;
+				return eventType;
+			}
+			if(c != '<') {
+				boolean blank = true;
+				while((c = peek()) != -1 && c != '<') {
+					++pos;
+					if(collectText) {
+						append(c);
+					}
+					blank &= isSpace(c);
+				}
+				eventEnd = position();
+				if(collectText) {
+					String raw = takeScratch();
+					if(!blank) {
+						text = unescape(raw);
+						eventType = CHARACTERS;
+						return eventType;
+					}
+				}
+				continue;
+			}
+			++pos;
+			c = read();
+			if(c == '/') {
+				if(scanName(read()) != '>') {
+					skipPast(">", false);
+				}
+				eventEnd = position();
+				eventType = END_ELEMENT;
+				return eventType;
+			} else if(c == '?') {
+				skipPast("?>", false);
+			} else if(c == '!') {
+				if(peek() == '-') {
+					expect("--");
+					skipPast("-->", false);
+				} else if(peek() == '[') {
+					expect("[CDATA[");
+					skipPast("]]>", collectText);
+					eventEnd = position();
+					if(collectText) {
+						text = takeScratch();
+						eventType = CHARACTERS;
+						return eventType;
+					}
+				} else {
+					skipDoctype();
+				}
+			} else {
+				scanStartElement(c);
+				eventEnd = position();
+				eventType = START_ELEMENT;
+				pendingEnd = emptyElement;
+				return eventType;
+			}
+		}
+	}
+
+	private void skipDoctype() throws IOException {
+		int depth = 0;
+		int quote = 0;
+		int c;
+		while((c = read()) != -1) {
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if(c == '"' || c == '\'') {
+				quote = c;
+			} else if(c == '[') {
+				++depth;
+			} else if(c == ']') {
+				--depth;
+			} else if(c == '>' && depth == 0) {
+				return;
+			}
+		}
+	}
+
+	private int scanName(int c) throws IOException {
+		while(c != -1 && !isSpace(c) && c != '/' && c != '>' && c != '=') {
+			append(c);
+			c = read();
+		}
+		name = takeScratch();
+		return c;
+	}
+
+	private void scanStartElement(int first) throws IOException {
+		attributes.clear();
+		emptyElement = false;
+		int c = scanName(first);
+		if(!parseAttributes) {
+			int quote = 0;
+			int prev = 0;
+			while(c != -1) {
+				if(quote != 0) {
+					if(c == quote) {
+						quote = 0;
+					}
+				} else if(c == '"' || c == '\'') {
+					quote = c;
+				} else if(c == '>') {
+					emptyElement = prev == '/';
+					return;
+				}
+				prev = c;
+				c = read();
+			}
+			throw new IOException("Unexpected end of XML in tag " + name);
+		}
+		String elementName = name;
+		while(true) {
+			while(isSpace(c)) {
+				c = read();
+			}
+			if(c == '>') {
+				break;
+			} else if(c == '/') {
+				expect(">");
+				emptyElement = true;
+				break;
+			} else if(c == -1) {
+				throw new IOException("Unexpected end of XML in tag " + elementName);
+			}
+			c = scanName(c);
+			String attrName = name;
+			while(isSpace(c)) {
+				c = read();
+			}
+			if(c != '=') {
+				throw new IOException("Malformed attribute " + attrName + " near byte " + position());
+			}
+			int quote = read();
+			while(isSpace(quote)) {
+				quote = read();
+			}
+			if(quote != '"' && quote != '\'') {
+				throw new IOException("Malformed attribute " + attrName + " near byte " + position());
+			}
+			while((c = read()) != quote && c != -1) {
+				append(c);
+			}
+			attributes.add(attrName);
+			attributes.add(unescape(takeScratch()));
+			c = read();
+		}
+		name = elementName;
+	}
+
+	/**
+	 * Replaces the predefined entities and character references in a string.
+	 */
+	static String unescape(String s) {
+		int amp = s.indexOf('&');
+		if(amp == -1) {
+			return s;
+		}
+		StringBuilder ret = new StringBuilder(s.length());
+		int last = 0;
+		while(amp != -1) {
+			int semi = s.indexOf(';', amp);
+			if(semi == -1) {
+				break;
+			}
+			String ent = s.substring(amp + 1, semi);
+			String rep = null;
+			if(ent.equals("lt")) {
+				rep = "<";
+			} else if(ent.equals("gt")) {
+				rep = ">";
+			} else if(ent.equals("amp")) {
+				rep = "&";
+			} else if(ent.equals("quot")) {
+				rep = "\"";
+			} else if(ent.equals("apos")) {
+				rep = "'";
+			} else if(ent.startsWith("#")) {
+				try {
+					int code = ent.startsWith("#x") ? Integer.parseInt(ent.substring(2), 16)
+						: Integer.parseInt(ent.substring(1));
+					rep = new String(Character.toChars(code));
+				} catch(IllegalArgumentException e) {
+					rep = null;
+				}
+			}
+			if(rep != null) {
+				ret.append(s, last, amp).append(rep);
+				last = semi + 1;
+			}
+			amp = s.indexOf('&', semi);
+		}
+		ret.append(s, last, s.length());
+		return ret.toString();
+	}
+
+	/**
+	 * @return The type of the current event.
+	 */
+	public int getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * @return Byte offset at which the current event starts, for elements the
+	 *         offset of the &lt; of the start or end tag.
+	 */
+	public long getEventStart() {
+		return eventStart;
+	}
+
+	/**
+	 * @return Byte offset just past the current event.
+	 */
+	public long getEventEnd() {
+		return eventEnd;
+	}
+
+	/**
+	 * @return The name of the current start or end element.
+	 */
+	public String getLocalName() {
+		return name;
+	}
+
+	/**
+	 * @return Attribute names and values of the current start element as
+	 *         alternating entries, empty if attributes are not being parsed.
+	 */
+	public String[] getAttributes() {
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/**
+	 * @return The text of the current CHARACTERS event.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return Whether the current start element was written as &lt;name/&gt;.
+	 */
+	public boolean isEmptyElement() {
+		return emptyElement;
+	}
+
+	/**
+	 * Skips the rest of the current start element's content.
+	 * @return Byte offset just past the element's end tag.
+	 * @throws IOException If the file could not be read or is malformed.
+	 */
+	public long skipElement() throws IOException {
+		boolean oldAttributes = parseAttributes;
+		boolean oldText = collectText;
+		parseAttributes = false;
+		collectText = false;
+		try {
+			int depth = 1;
+			while(depth > 0) {
+				int ev = next();
+				if(ev == START_ELEMENT) {
+					++depth;
+				} else if(ev == END_ELEMENT) {
+					--depth;
+				} else if(ev == END_DOCUMENT) {
+					throw new IOException("Unexpected end of XML in element");
+				}
+			}
+			return eventEnd;
+		} finally {
+			parseAttributes = oldAttributes;
+			collectText = oldText;
+		}
+	}
+}
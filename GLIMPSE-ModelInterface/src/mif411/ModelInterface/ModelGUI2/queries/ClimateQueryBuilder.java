@@ -157,6 +157,10 @@ public class ClimateQueryBuilder extends QueryBuilder {
 		// ignoring selected regions
 		return qg.xPath;
 	}
+	public String getParameterizedXPath(boolean isGlobal) {
+		// ignoring selected regions
+		return qg.xPath;
+	}
 	public String getXMLName() {
 		return xmlName;
 	}
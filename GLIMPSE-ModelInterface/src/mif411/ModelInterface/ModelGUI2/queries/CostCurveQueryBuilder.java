@@ -253,6 +253,10 @@ public class CostCurveQueryBuilder extends QueryBuilder {
 			}
 		}
 	}
+	public String getParameterizedXPath(boolean isGlobal) {
+		// the cost curves are not filtered by the region nodes which is not supported
+		return null;
+	}
 	public String getXMLName() {
 		return xmlName;
 	}
@@ -43,6 +43,7 @@ import javax.swing.event.ListSelectionListener;
 import org.basex.api.dom.BXNode;
 import org.basex.query.value.node.ANode;
 
+import ModelInterface.ModelGUI2.xmldb.PreparableQueryBinding;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
 import ModelInterface.common.DataPair;
 
@@ -422,6 +423,13 @@ public class DemandComponentsQueryBuilder extends QueryBuilder {
 			.append(retStr).append(part2).toString();
 			*/
 	}
+	public String getParameterizedXPath(boolean isGlobal) {
+		if(isGlobal) {
+			return regionQueryPortion+"/"+qg.getXPath();
+		}
+		return regionQueryPortion.substring(0, regionQueryPortion.length()-1)+" and @name = $"+
+			PreparableQueryBinding.REGIONS_VARIABLE+"]/"+qg.getXPath();
+	}
 	public String getXMLName() {
 		return xmlName;
 	}
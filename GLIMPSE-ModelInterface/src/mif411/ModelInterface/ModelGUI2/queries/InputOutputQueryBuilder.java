@@ -420,6 +420,10 @@ public class InputOutputQueryBuilder extends QueryBuilder {
 			.append(retStr).append(part2).toString();
 			*/
 	}
+	public String getParameterizedXPath(boolean isGlobal) {
+		// the market regions are filtered as well which is not supported
+		return null;
+	}
 	public String getXMLName() {
 		return xmlName;
 	}
@@ -290,6 +290,10 @@ public class MarketQueryBuilder extends QueryBuilder {
 			return qg.xPath;
 		}
 	}
+	public String getParameterizedXPath(boolean isGlobal) {
+		// the market regions are filtered as well which is not supported
+		return null;
+	}
 	public String getXMLName() {
 		return xmlName;
 	}
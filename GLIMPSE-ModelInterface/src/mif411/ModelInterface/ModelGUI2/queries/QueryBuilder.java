@@ -76,6 +76,16 @@ public abstract class QueryBuilder implements java.io.Serializable {
 	public String getCompleteXPath(Object[] regions) {
         return qg.defaultCompleteXPath(regions);
     }
+	/**
+	 * Gets the complete XPath with regions filtered by the regions external variable.
+	 * Builders which override getCompleteXPath must also override this method and
+	 * may return null if they can not be parameterized.
+	 * @param isGlobal If the query is being run for the Global region.
+	 * @return The parameterized XPath or null if not supported.
+	 */
+	public String getParameterizedXPath(boolean isGlobal) {
+		return qg.defaultParameterizedXPath(isGlobal);
+	}
 	public abstract String getXMLName();
 
 	public String getNodeLevelPath() {
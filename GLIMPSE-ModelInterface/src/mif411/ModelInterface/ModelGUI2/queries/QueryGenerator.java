@@ -37,8 +37,10 @@ import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
 import java.util.EventListener;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -72,7 +74,9 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.text.JTextComponent;
 
 import org.basex.api.dom.BXNode;
+import org.basex.data.Data;
 import org.basex.query.value.node.ANode;
+import org.basex.query.value.node.DBNode;
 import org.basex.query.value.type.NodeType;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -82,6 +86,7 @@ import org.w3c.dom.NodeList;
 import ModelInterface.InterfaceMain;
 import ModelInterface.ModelGUI2.undo.EditQueryUndoableEdit;
 import ModelInterface.ModelGUI2.undo.MiUndoableEditListener;
+import ModelInterface.ModelGUI2.xmldb.PreparableQueryBinding;
 import ModelInterface.ModelGUI2.xmldb.QueryRow;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
 import ModelInterface.common.DataPair;
@@ -132,6 +137,11 @@ public class QueryGenerator implements java.io.Serializable{
 	String labelColumnName;
 	String comments;
 	private transient SingleQueryExtension singleExtension;
+	/**
+	 * The resolved data tree paths for nodes seen while building the current data tree,
+	 * kept per thread since the same query may be run for several scenario sets at once.
+	 */
+	private transient ThreadLocal<DataTreePathCache> dataTreePathCache = new ThreadLocal<DataTreePathCache>();
 
 	public QueryGenerator() {
 		qb = null;
@@ -833,6 +843,20 @@ public class QueryGenerator implements java.io.Serializable{
 			return defaultCompleteXPath(regions);
 		}
 	}
+	/**
+	 * Gets the complete XPath in the same way as getCompleteXPath however the
+	 * regions are filtered using the regions external variable.
+	 * @param isGlobal If the query is being run for the Global region.
+	 * @return The parameterized XPath or null if this query does not support it.
+	 * @see ModelInterface.ModelGUI2.xmldb.PreparableQueryBinding
+	 */
+	public String getParameterizedXPath(boolean isGlobal) {
+		if(qb != null) {
+			return qb.getParameterizedXPath(isGlobal);
+		} else {
+			return defaultParameterizedXPath(isGlobal);
+		}
+	}
 	public Map addToDataTree(ANode currNode, Map dataTree, DataPair<String, String> axisValue, boolean isGlobal) throws Exception {
 		if(qb != null) {
 			return qb.addToDataTree(currNode, dataTree, axisValue, isGlobal);
@@ -841,12 +865,44 @@ public class QueryGenerator implements java.io.Serializable{
 		}
 	}
 	Map defaultAddToDataTree(ANode currNode, Map dataTree, DataPair<String, String> axisValue, boolean isGlobal) throws Exception {
-        BXNode currDOM = BXNode.get(currNode);
-		if (currDOM.getNodeType() == BXNode.DOCUMENT_NODE) {
-			return dataTree;
+		final DataTreePathCache cache = getDataTreePathCache(dataTree, isGlobal);
+		// walk up the parents until we find one which has already been resolved
+		final List<ANode> unresolved = new ArrayList<ANode>();
+		DataTreePath path = null;
+		for(ANode curr = currNode; path == null; curr = curr.parent()) {
+			if(curr == null || curr.nodeType() == NodeType.DOCUMENT_NODE) {
+				path = cache.root;
+			} else if((path = cache.get(curr)) == null) {
+				unresolved.add(curr);
+			}
+		}
+		// then resolve the rest top down, the node itself is not remembered since it
+		// is typically unique to each result
+		for(int i = unresolved.size() - 1; i >= 0; --i) {
+			path = resolveDataTreePath(unresolved.get(i), path, isGlobal);
+			if(i > 0) {
+				cache.put(unresolved.get(i), path);
+			}
 		}
-		// recursively process parents first
-		Map tempMap = defaultAddToDataTree(currNode.parent(), dataTree, axisValue, isGlobal);
+		if(path.setNodeLevel) {
+			axisValue.setValue(path.nodeLevelValue);
+		}
+		if(path.setYearLevel) {
+			axisValue.setKey(path.yearLevelValue);
+		}
+		return path.map;
+	}
+
+	/**
+	 * Determine where in the data tree values under the given node belong.
+	 * @param currNode The node to resolve.
+	 * @param parentPath The resolved path of the parent node.
+	 * @param isGlobal If the query is being run for the Global region.
+	 * @return The resolved path of currNode.
+	 */
+	private DataTreePath resolveDataTreePath(ANode currNode, DataTreePath parentPath, boolean isGlobal) throws Exception {
+        BXNode currDOM = BXNode.get(currNode);
+		final DataTreePath ret = new DataTreePath(parentPath);
 
 		// cache node properties since these may need to go back to the database which could
 		// be expensive
@@ -866,15 +922,17 @@ public class QueryGenerator implements java.io.Serializable{
 		boolean setYearLevel = false;
 		if(nodeLevel.getKey().equals(type) || nodeLevel.getKey().equals(nodeName)) {
 			setNodeLevel = true;
+			ret.setNodeLevel = true;
             if(!showAttrMap.containsKey(type)) {
-                axisValue.setValue(attrMap.get(nodeLevel.getValue() != null ? nodeLevel.getValue() : "name"));
+                ret.nodeLevelValue = attrMap.get(nodeLevel.getValue() != null ? nodeLevel.getValue() : "name");
             } else {
-                axisValue.setValue(XMLDB.getAllAttr(attrMap, showAttrMap.get(type)));
+                ret.nodeLevelValue = XMLDB.getAllAttr(attrMap, showAttrMap.get(type));
             }
 		} 
 		if(yearLevel.getKey().equals(type) || yearLevel.getKey().equals(nodeName)) {
 			setYearLevel = true;
-			axisValue.setKey(attrMap.get(yearLevel.getValue() != null ? yearLevel.getValue() : "year"));
+			ret.setYearLevel = true;
+			ret.yearLevelValue = attrMap.get(yearLevel.getValue() != null ? yearLevel.getValue() : "year");
 		}
 		// if we should not collapse this node then pick out the attributes which
 		// define how to differentiate this node path
@@ -895,13 +953,105 @@ public class QueryGenerator implements java.io.Serializable{
 					attr = currRewriteMap.get(attr);
 				}
 			}
-			attr = type+"@"+attr;
-			if(!tempMap.containsKey(attr)) {
-				tempMap.put(attr, new TreeMap());
+			// the same keys show up under many parents so only keep one copy
+			attr = (type+"@"+attr).intern();
+			Map tempMap = (Map)ret.map.get(attr);
+			if(tempMap == null) {
+				tempMap = new TreeMap();
+				ret.map.put(attr, tempMap);
 			}
-			tempMap = (Map)tempMap.get(attr);
+			ret.map = tempMap;
         }
-		return tempMap;
+		return ret;
+	}
+
+	/**
+	 * Get the current thread's cache of resolved paths for the given data tree.  A
+	 * new cache is started whenever a different data tree is being built.
+	 */
+	private DataTreePathCache getDataTreePathCache(Map dataTree, boolean isGlobal) {
+		DataTreePathCache ret = dataTreePathCache.get();
+		if(ret == null || ret.dataTree != dataTree || ret.isGlobal != isGlobal) {
+			ret = new DataTreePathCache(dataTree, isGlobal);
+			dataTreePathCache.set(ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Release the resolved paths remembered by the current thread while building a
+	 * data tree.  Should be called once all results have been added to a data tree.
+	 */
+	public void clearDataTreePathCache() {
+		dataTreePathCache.remove();
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		dataTreePathCache = new ThreadLocal<DataTreePathCache>();
+	}
+
+	/**
+	 * Where values under a node belong in the data tree along with any axis values
+	 * set at or above that node.
+	 */
+	private static class DataTreePath {
+		Map map;
+		boolean setNodeLevel;
+		String nodeLevelValue;
+		boolean setYearLevel;
+		String yearLevelValue;
+
+		DataTreePath(Map map) {
+			this.map = map;
+		}
+		DataTreePath(DataTreePath parent) {
+			map = parent.map;
+			setNodeLevel = parent.setNodeLevel;
+			nodeLevelValue = parent.nodeLevelValue;
+			setYearLevel = parent.setYearLevel;
+			yearLevelValue = parent.yearLevelValue;
+		}
+	}
+
+	/**
+	 * The resolved paths for the nodes seen while building a single data tree.
+	 * Database nodes are looked up by their pre value since a new DBNode is
+	 * created each time a parent is requested, other nodes by identity.
+	 */
+	private static class DataTreePathCache {
+		final Map dataTree;
+		final boolean isGlobal;
+		final DataTreePath root;
+		private Data data;
+		private final Map<Integer, DataTreePath> dbNodes = new HashMap<Integer, DataTreePath>();
+		private final Map<ANode, DataTreePath> otherNodes = new IdentityHashMap<ANode, DataTreePath>();
+
+		DataTreePathCache(Map dataTree, boolean isGlobal) {
+			this.dataTree = dataTree;
+			this.isGlobal = isGlobal;
+			root = new DataTreePath(dataTree);
+		}
+		DataTreePath get(ANode node) {
+			if(node instanceof DBNode) {
+				final DBNode dbNode = (DBNode)node;
+				return dbNode.data() == data ? dbNodes.get(dbNode.pre()) : null;
+			}
+			return otherNodes.get(node);
+		}
+		void put(ANode node, DataTreePath path) {
+			if(node instanceof DBNode) {
+				final DBNode dbNode = (DBNode)node;
+				if(data == null) {
+					data = dbNode.data();
+				}
+				if(dbNode.data() == data) {
+					dbNodes.put(dbNode.pre(), path);
+				}
+			} else {
+				otherNodes.put(node, path);
+			}
+		}
 	}
 	public void defaultAddToDataTree(ANode currNode, ListIterator<QueryRow> parentPath, boolean isGlobal) throws Exception {
         QueryRow currRow = null;
@@ -1032,6 +1182,13 @@ public class QueryGenerator implements java.io.Serializable{
 		return ret.append(xPath).toString();
 	}
 	
+	protected String defaultParameterizedXPath(boolean isGlobal) {
+		if(isGlobal) {
+			return "region/"+xPath;
+		}
+		return "region[ @name = $"+PreparableQueryBinding.REGIONS_VARIABLE+" ]/"+xPath;
+	}
+	
 	public boolean editDialog(final MiUndoableEditListener listener) {
 		final Object lock = new Object();
 		String oldTitle = title;
@@ -1480,6 +1637,18 @@ public class QueryGenerator implements java.io.Serializable{
 		return xPath.hashCode() ^ nodeLevel.hashCode();
 	}
 
+	/**
+	 * Create a key which identifies everything that influences how the results of
+	 * this query are processed into a table.  Unlike getStorageHashCode this includes
+	 * the axis levels, label rewrites, and query builder so that it may be used to
+	 * identify cached results.  The title and comments are not included.
+	 * @return A string describing how the results of this query are processed.
+	 */
+	public String getResultCacheKey() {
+		return (qb == null ? "" : qb.getClass().getName())+"|"+xPath+
+			"|"+nodeLevel+"|"+yearLevel+"|"+sumAll+"|"+group+"|"+labelRewriteMap+"|"+showAttrMap+"|"+collapseOnList;
+	}
+
 	/**
 	 * Gets a map that maps a nodel level value to what it should
 	 * be rewritten as.  If no rewriting needs to occur this will 
@@ -424,6 +424,10 @@ public class SAMQueryBuilder extends QueryBuilder {
 			.append(retStr).append(part2).toString();
 			*/
 	}
+	public String getParameterizedXPath(boolean isGlobal) {
+		// the market regions are filtered as well which is not supported
+		return null;
+	}
 	public String getXMLName() {
 		return xmlName;
 	}
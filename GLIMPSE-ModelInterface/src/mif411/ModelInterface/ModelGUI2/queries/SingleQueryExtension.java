@@ -47,7 +47,6 @@ import javax.swing.event.UndoableEditEvent;
 import javax.swing.tree.TreePath;
 
 import org.basex.query.QueryException;
-import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.ANode;
@@ -59,6 +58,7 @@ import ModelInterface.ModelGUI2.undo.MiUndoableEditListener;
 import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
 import ModelInterface.ModelGUI2.xmldb.QueryBinding;
 import ModelInterface.ModelGUI2.xmldb.QueryBindingFactory;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
 import ModelInterface.ModelGUI2.xmldb.SingleQueryListQueryBinding;
 import ModelInterface.ModelGUI2.xmldb.SingleQueryQueryBinding;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
@@ -634,10 +634,9 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 			       Object[] regions = currSelection.getValue().toArray();
 			       List<SingleQueryValue> tempValues;
 			       final long startTime = System.currentTimeMillis();
-			       QueryProcessor queryProc = XMLDB.getInstance().createQuery(new SingleQueryListQueryBinding(qg, 
-						       XMLDB.getInstance().getContainer(), qg.getCollapseOnList()), scenarios, regions, gatherContext);
-			       try {
-                       Iter res = queryProc.iter();
+			       try(QueryLease query = XMLDB.getInstance().createQuery(new SingleQueryListQueryBinding(qg, 
+						       XMLDB.getInstance().getContainer(), qg.getCollapseOnList()), scenarios, regions, gatherContext)) {
+                       Iter res = query.getQuery().iter();
 				       if(res.size() == 0) {
 					       tempValues = noResultsList;
 				       } else {
@@ -661,8 +660,6 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 			       } catch(QueryException e) {
 				       e.printStackTrace();
 				       tempValues = noResultsList;
-			       } finally {
-                       queryProc.close();
 			       }
 			       //System.out.println("Time : "+(System.currentTimeMillis()-startTime));
 			       singleLevelCache.put(currSelection, tempValues);
@@ -702,11 +699,10 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 		       public void run() {
 			       List<SingleQueryValue> tempValues = null;
 			       final long startTime = System.currentTimeMillis();
-                   QueryProcessor queryProc = XMLDB.getInstance().createQuery("/singleQueryListCache/cache[@id="
-					       +qg.getStorageHashCode()+"]/text()", null, null, null);
-			       try {
+			       try(QueryLease query = XMLDB.getInstance().createQuery("/singleQueryListCache/cache[@id="
+					       +qg.getStorageHashCode()+"]/text()", null, null, null)) {
 				       boolean hasResults = false;
-                       Iter res = queryProc.iter();
+                       Iter res = query.getQuery().iter();
                        ANode curr = (ANode)res.next();
 				       if(curr != null) {
 					       String[] values = curr.toJava().getNodeValue().split(";");
@@ -735,8 +731,6 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 			       } catch(QueryException e) {
 				       e.printStackTrace();
 				       tempValues = noResultsList;
-			       } finally {
-                       queryProc.close();
 			       }
 			       //System.out.println("Time : "+(System.currentTimeMillis()-startTime));
 			       singleLevelCache.put(currSelection, tempValues);
@@ -72,9 +72,7 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 //import java.sql.Statement;
-import org.apache.poi.hssf.usermodel.HSSFPatriarch;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
 import org.basex.util.Prop;
 import org.jfree.chart.JFreeChart;
 import org.w3c.dom.Document;
@@ -85,6 +83,7 @@ import org.w3c.dom.NodeList;
 import ModelInterface.InterfaceMain;
 import ModelInterface.ModelGUI2.DOMmodel;
 import ModelInterface.ModelGUI2.Documentation;
+import ModelInterface.ModelGUI2.xmldb.QueryMetrics;
 
 public abstract class BaseTableModel extends AbstractTableModel {
 	protected Vector activeRows;
@@ -96,6 +95,7 @@ public abstract class BaseTableModel extends AbstractTableModel {
 	protected String units;
 	protected boolean remove1975;
 	protected TableSorter sortedTable;
+	protected QueryMetrics queryMetrics;
 	//private java.util.List<String> defaultYearList;
 
 	// stuff for filtering
@@ -623,7 +623,65 @@ public abstract class BaseTableModel extends AbstractTableModel {
 	 */
 	protected abstract void doFilter(Vector possibleFilters);
 
-	public abstract void exportToExcel(HSSFSheet sheet, HSSFWorkbook wb, HSSFPatriarch dp);
+	/**
+	 * Get the number of rows of data in the table as opposed to labels or other
+	 * tables.
+	 * @return The number of data rows.
+	 */
+	public int getDataRowCount() {
+		return getRowCount();
+	}
+
+	/**
+	 * @return The metrics of the query this table was built from or null if it was
+	 *         not built from a query.
+	 */
+	public QueryMetrics getQueryMetrics() {
+		return queryMetrics;
+	}
+
+	/**
+	 * Write this table into an excel workbook after the rows already written.
+	 * @param out The workbook writer.
+	 * @param drawPics Whether to add an image of the chart for the table.
+	 */
+	public abstract void exportToExcel(StreamingExcelWriter out, boolean drawPics);
+
+	/**
+	 * Add an image of the chart for the table next to it in the workbook.
+	 * @param out The workbook writer.
+	 * @param headerRow The first row that the table was written in.
+	 */
+	protected void exportChartToExcel(StreamingExcelWriter out, Row headerRow) {
+		try {
+			//for a good chart, the number of rows labeling the cart is added the the 350*350 square
+			//at 10 pixels per line and 3 labels per line
+			double add = getRowCount()/6*10;
+
+			//adjusts the standard size of 350*350+rows to be as large or small as desired
+			//TODO: make this controlled by the user
+			double sizeMult = 1.4;
+
+			int imgWidth = (int)(350*sizeMult);
+			int imgHeight =(int)(sizeMult*(350+add));
+			java.awt.image.BufferedImage chartImage = createChart(0,0).createBufferedImage(imgWidth,imgHeight);
+
+			//TODO: figure out how many pixels are in a char dependent on system
+			int pixelWidthPerChar = 8;
+			int firstRow = headerRow.getRowNum();
+			int firstCol = headerRow.getLastCellNum()+2;
+			int colSpan = (int)(imgWidth/(pixelWidthPerChar*(headerRow.getSheet().getColumnWidth(getColumnCount()+1)))) + firstCol;
+			int rowSpan = (int)((imgHeight/(headerRow.getSheet().getDefaultRowHeightInPoints()*5/3)) + firstRow);
+
+			// WARNING: This is a hack because of java some how looking to load some class that did
+			// not exist.  Instead of using the utilities which uses the Factory which uses the
+			// reflextion which causes that mess I will use this encoder directly.
+			out.addPicture(headerRow.getSheet(), new org.jfree.chart.encoders.SunJPEGEncoderAdapter().encode(chartImage),
+					firstCol, firstRow, colSpan, rowSpan);
+		} catch(java.io.IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
 
 	protected TableCellRenderer getDocumentationRenderer() {
 		final TableCellRenderer defaultRenderer = new DefaultTableCellRenderer();
@@ -835,7 +893,8 @@ public abstract class BaseTableModel extends AbstractTableModel {
 						       yearArrayList.add(year);
 					       
 				       }
-			       }			       
+			       }
+			}
 			       		       		       
 			       if((yearArrayList==null)||(yearArrayList.size()==0)) {
 			    	   yearArrayList.clear();
@@ -866,7 +925,6 @@ public abstract class BaseTableModel extends AbstractTableModel {
 			    		   InterfaceMain.getInstance().getProperties().setProperty("allYearList", yearList);
 			    	   }	
 			       }
-		       }
 		       
 	       return yearArrayList;
        }
@@ -0,0 +1,637 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.tables;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Column oriented storage for the results of a Model Interface query.  Results are
+ * organized into blocks, one for each distinct path through the data tree built by
+ * the QueryGenerator, and within each block by node level (rows) and year level
+ * (columns).  Values are kept in a double array per year level column with NaN
+ * marking a missing value, and the axis labels are stored once and referred to by
+ * index rather than building a "year;nodeLevel" key for every value.  Each block
+ * only has rows for the node levels it has values or units for, which keeps sparse
+ * results such as technology level queries small.
+ * <p>
+ * The data is built with a Builder while processing query results and is immutable
+ * in shape afterwards, although individual values may be set.  The row and column
+ * axes are kept in the order they were first seen; table models are responsible
+ * for sorting and filtering them for display.
+ */
+public class ColumnarTableData implements Serializable {
+	private static final long serialVersionUID = 2L;
+
+	/**
+	 * The value returned by getYear for year level labels which are not a number.
+	 */
+	public static final int NOT_A_YEAR = Integer.MIN_VALUE;
+
+	/**
+	 * The data tree keys leading to each block.
+	 */
+	private final String[][] blockPaths;
+
+	private final String[] yearLabels;
+	private final int[] years;
+	private final String[] nodeLabels;
+
+	/**
+	 * The rows of block b are blockOffsets[b] up to blockOffsets[b + 1].
+	 */
+	private final int[] blockOffsets;
+
+	/**
+	 * The node level of each row, ascending within a block.
+	 */
+	private final int[] rowNodes;
+
+	/**
+	 * The values for each year level indexed by row.
+	 */
+	private final double[][] columns;
+
+	/**
+	 * The units of each row.
+	 */
+	private final String[] units;
+
+	/**
+	 * The units of the last value which was processed.
+	 */
+	private final String lastUnits;
+
+	private transient Map<String, Integer> yearIndex;
+	private transient Map<String, Integer> nodeIndex;
+
+	private ColumnarTableData(String[][] blockPaths, String[] yearLabels, String[] nodeLabels, int[] blockOffsets,
+			int[] rowNodes, double[][] columns, String[] units, String lastUnits) {
+		this.blockPaths = blockPaths;
+		this.yearLabels = yearLabels;
+		this.nodeLabels = nodeLabels;
+		this.blockOffsets = blockOffsets;
+		this.rowNodes = rowNodes;
+		this.columns = columns;
+		this.units = units;
+		this.lastUnits = lastUnits;
+		years = new int[yearLabels.length];
+		for (int i = 0; i < yearLabels.length; ++i) {
+			years[i] = parseYear(yearLabels[i]);
+		}
+		createIndices();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		createIndices();
+	}
+
+	private void createIndices() {
+		yearIndex = createIndex(yearLabels);
+		nodeIndex = createIndex(nodeLabels);
+	}
+
+	private static Map<String, Integer> createIndex(String[] labels) {
+		final Map<String, Integer> ret = new HashMap<String, Integer>(labels.length * 2);
+		for (int i = 0; i < labels.length; ++i) {
+			ret.put(labels[i], i);
+		}
+		return ret;
+	}
+
+	private static int parseYear(String label) {
+		try {
+			return Integer.parseInt(label);
+		} catch (NumberFormatException e) {
+			return NOT_A_YEAR;
+		}
+	}
+
+	public int getBlockCount() {
+		return blockPaths.length;
+	}
+
+	/**
+	 * @param block The block index.
+	 * @return The data tree keys, such as region@name=USA, leading to the block.
+	 */
+	public String[] getBlockPath(int block) {
+		return blockPaths[block];
+	}
+
+	public int getYearCount() {
+		return yearLabels.length;
+	}
+
+	public String getYearLabel(int year) {
+		return yearLabels[year];
+	}
+
+	/**
+	 * @param year The year level index.
+	 * @return The year level label as an int or NOT_A_YEAR if it is not a number.
+	 */
+	public int getYear(int year) {
+		return years[year];
+	}
+
+	public int getNodeCount() {
+		return nodeLabels.length;
+	}
+
+	public String getNodeLabel(int node) {
+		return nodeLabels[node];
+	}
+
+	/**
+	 * @param label A year level label.
+	 * @return The index of the label or -1 if there is no such year level.
+	 */
+	public int yearIndexOf(String label) {
+		final Integer ret = yearIndex.get(label);
+		return ret == null ? -1 : ret;
+	}
+
+	/**
+	 * @param label A node level label.
+	 * @return The index of the label or -1 if there is no such node level.
+	 */
+	public int nodeIndexOf(String label) {
+		final Integer ret = nodeIndex.get(label);
+		return ret == null ? -1 : ret;
+	}
+
+	/**
+	 * @return The row of the node level in the block or -1 if the block does not
+	 *         have it.
+	 */
+	private int rowOf(int block, int node) {
+		final int ret = Arrays.binarySearch(rowNodes, blockOffsets[block], blockOffsets[block + 1], node);
+		return ret < 0 ? -1 : ret;
+	}
+
+	/**
+	 * @return The value at the given position or NaN if there is no value.
+	 */
+	public double getValue(int block, int node, int year) {
+		final int row = rowOf(block, node);
+		return row == -1 ? Double.NaN : columns[year][row];
+	}
+
+	public boolean hasValue(int block, int node, int year) {
+		return !Double.isNaN(getValue(block, node, year));
+	}
+
+	/**
+	 * Set a value, NaN clears it.  Values can only be stored for node levels the
+	 * block already has a row for.
+	 * 
+	 * @return True if the value was set, false if the block has no row for the
+	 *         node level.
+	 */
+	public boolean setValue(int block, int node, int year, double value) {
+		final int row = rowOf(block, node);
+		if (row == -1) {
+			return false;
+		}
+		columns[year][row] = value;
+		return true;
+	}
+
+	/**
+	 * @return The units for the given row or null if the row has no values.
+	 */
+	public String getUnits(int block, int node) {
+		final int row = rowOf(block, node);
+		return row == -1 ? null : units[row];
+	}
+
+	/**
+	 * @return The units of the last value processed.
+	 */
+	public String getLastUnits() {
+		return lastUnits;
+	}
+
+	/**
+	 * Get a view of a single block as a map keyed by "year;nodeLevel" as was used
+	 * for data maps before.  Units are available under "Units;nodeLevel".  Numbers,
+	 * or strings which parse as one, put into the view are written through to the
+	 * columns when the block has a row for them.  Any other values, such as the
+	 * Nodes created when a table is edited, are kept by the view itself.
+	 * 
+	 * @param block The block index.
+	 * @return A map backed by this data.
+	 */
+	public Map<String, Object> blockAsMap(final int block) {
+		return new BlockMap(block);
+	}
+
+	/**
+	 * A map view of a single block.
+	 */
+	private class BlockMap extends AbstractMap<String, Object> {
+		private final int block;
+
+		/**
+		 * Values put into the view which could not be stored in the columns.
+		 */
+		private Map<String, Object> overrides;
+
+		BlockMap(int block) {
+			this.block = block;
+		}
+
+		@Override
+		public Object get(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			if (overrides != null && overrides.containsKey(key)) {
+				return overrides.get(key);
+			}
+			final String keyStr = (String) key;
+			final int split = keyStr.indexOf(';');
+			if (split == -1) {
+				return null;
+			}
+			final int node = nodeIndexOf(keyStr.substring(split + 1));
+			if (node == -1) {
+				return null;
+			}
+			final String yearLabel = keyStr.substring(0, split);
+			if ("Units".equals(yearLabel) && yearIndexOf(yearLabel) == -1) {
+				return getUnits(block, node);
+			}
+			final int year = yearIndexOf(yearLabel);
+			if (year == -1) {
+				return null;
+			}
+			final double ret = getValue(block, node, year);
+			return Double.isNaN(ret) ? null : Double.valueOf(ret);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			final Object ret = get(key);
+			if (putColumnar(key, value)) {
+				if (overrides != null) {
+					overrides.remove(key);
+				}
+			} else {
+				if (overrides == null) {
+					overrides = new HashMap<String, Object>();
+				}
+				overrides.put(key, value);
+				// do not leave the old value behind in the columns
+				putColumnar(key, null);
+			}
+			return ret;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return key instanceof String ? put((String) key, null) : null;
+		}
+
+		/**
+		 * Try to store the value in the columns, a null value clears it.
+		 * 
+		 * @return True if the value was stored or cleared, false if it needs to be
+		 *         kept in the overrides.
+		 */
+		private boolean putColumnar(String key, Object value) {
+			final int split = key.indexOf(';');
+			final int node = split == -1 ? -1 : nodeIndexOf(key.substring(split + 1));
+			final int year = split == -1 ? -1 : yearIndexOf(key.substring(0, split));
+			if (node == -1 || year == -1) {
+				return value == null;
+			}
+			double number;
+			if (value == null) {
+				number = Double.NaN;
+			} else if (value instanceof Number) {
+				number = ((Number) value).doubleValue();
+			} else if (value instanceof String) {
+				try {
+					number = Double.parseDouble((String) value);
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			} else {
+				return false;
+			}
+			return setValue(block, node, year, number) || value == null;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					if (overrides == null || overrides.isEmpty()) {
+						return new BlockIterator(block);
+					}
+					// the columns first, skipping anything which was overridden
+					final List<Map.Entry<String, Object>> ret = new ArrayList<Map.Entry<String, Object>>();
+					for (Iterator<Map.Entry<String, Object>> it = new BlockIterator(block); it.hasNext();) {
+						final Map.Entry<String, Object> entry = it.next();
+						if (!overrides.containsKey(entry.getKey())) {
+							ret.add(entry);
+						}
+					}
+					for (Map.Entry<String, Object> entry : overrides.entrySet()) {
+						ret.add(new AbstractMap.SimpleImmutableEntry<String, Object>(entry));
+					}
+					return ret.iterator();
+				}
+
+				@Override
+				public int size() {
+					int ret = 0;
+					for (Iterator<?> it = iterator(); it.hasNext(); it.next()) {
+						++ret;
+					}
+					return ret;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Iterates over the values and then units which are present in a block.
+	 */
+	private class BlockIterator implements Iterator<Map.Entry<String, Object>> {
+		private final int endRow;
+		private int row;
+		// the year level index, or the year count when on the units
+		private int year = 0;
+		private Map.Entry<String, Object> next;
+
+		BlockIterator(int block) {
+			row = blockOffsets[block];
+			endRow = blockOffsets[block + 1];
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && row < endRow) {
+				final String nodeLabel = nodeLabels[rowNodes[row]];
+				if (year < yearLabels.length) {
+					final double value = columns[year][row];
+					if (!Double.isNaN(value)) {
+						next = new AbstractMap.SimpleImmutableEntry<String, Object>(yearLabels[year] + ";" + nodeLabel,
+								value);
+					}
+					++year;
+				} else {
+					if (units[row] != null) {
+						next = new AbstractMap.SimpleImmutableEntry<String, Object>("Units;" + nodeLabel, units[row]);
+					}
+					year = 0;
+					++row;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final Map.Entry<String, Object> ret = next;
+			advance();
+			return ret;
+		}
+	}
+
+	/**
+	 * Accumulates values while query results are processed.  The data tree maps
+	 * returned by QueryGenerator.addToDataTree identify the block a value belongs to
+	 * and are only used for their identity and position in the tree, no values are
+	 * stored in them.
+	 */
+	public static class Builder {
+		private final Map<Map<?, ?>, Integer> blockIndex = new IdentityHashMap<Map<?, ?>, Integer>();
+		private final List<BlockRows> blocks = new ArrayList<BlockRows>();
+		private final Map<String, Integer> yearIndex = new HashMap<String, Integer>();
+		private final Map<String, Integer> nodeIndex = new HashMap<String, Integer>();
+		private final List<String> yearLabels = new ArrayList<String>();
+		private final List<String> nodeLabels = new ArrayList<String>();
+
+		/**
+		 * The rows of a block in the order they were first seen.
+		 */
+		private static class BlockRows {
+			final Map<Integer, Integer> rowOf = new HashMap<Integer, Integer>();
+			final List<Integer> nodes = new ArrayList<Integer>();
+			final List<double[]> values = new ArrayList<double[]>();
+			final List<String> units = new ArrayList<String>();
+
+			int row(int node) {
+				Integer ret = rowOf.get(node);
+				if (ret == null) {
+					ret = nodes.size();
+					rowOf.put(node, ret);
+					nodes.add(node);
+					values.add(null);
+					units.add(null);
+				}
+				return ret;
+			}
+		}
+
+		/**
+		 * @param leaf The data map returned from addToDataTree.
+		 * @return The index of the block for the data map.
+		 */
+		public int block(Map<?, ?> leaf) {
+			Integer ret = blockIndex.get(leaf);
+			if (ret == null) {
+				ret = blocks.size();
+				blockIndex.put(leaf, ret);
+				blocks.add(new BlockRows());
+			}
+			return ret;
+		}
+
+		/**
+		 * @param label A year level value.
+		 * @return The index for the year level value.
+		 */
+		public int year(String label) {
+			return indexOf(label, yearIndex, yearLabels);
+		}
+
+		/**
+		 * @param label A node level value.
+		 * @return The index for the node level value.
+		 */
+		public int node(String label) {
+			return indexOf(label, nodeIndex, nodeLabels);
+		}
+
+		private static int indexOf(String label, Map<String, Integer> index, List<String> labels) {
+			Integer ret = index.get(label);
+			if (ret == null) {
+				ret = labels.size();
+				// labels are repeated in every result so only keep one copy
+				final String interned = label.intern();
+				index.put(interned, ret);
+				labels.add(interned);
+			}
+			return ret;
+		}
+
+		/**
+		 * Add a value to the given position summing it with any value already there.
+		 */
+		public void add(int block, int node, int year, double value) {
+			final BlockRows rows = blocks.get(block);
+			final int rowIdx = rows.row(node);
+			double[] row = rows.values.get(rowIdx);
+			if (row == null || year >= row.length) {
+				final int oldLength = row == null ? 0 : row.length;
+				row = row == null ? new double[Math.max(year + 1, yearLabels.size())]
+						: Arrays.copyOf(row, Math.max(year + 1, yearLabels.size()));
+				Arrays.fill(row, oldLength, row.length, Double.NaN);
+				rows.values.set(rowIdx, row);
+			}
+			row[year] = Double.isNaN(row[year]) ? value : row[year] + value;
+		}
+
+		/**
+		 * @return The units set for the given row or null if not set yet.
+		 */
+		public String getUnits(int block, int node) {
+			final BlockRows rows = blocks.get(block);
+			final Integer rowIdx = rows.rowOf.get(node);
+			return rowIdx == null ? null : rows.units.get(rowIdx);
+		}
+
+		public void setUnits(int block, int node, String units) {
+			final BlockRows rows = blocks.get(block);
+			rows.units.set(rows.row(node), units.intern());
+		}
+
+		public boolean isEmpty() {
+			return blockIndex.isEmpty();
+		}
+
+		/**
+		 * Create the columnar data.  Blocks are ordered by walking the data tree in
+		 * the order of its maps.
+		 * 
+		 * @param dataTree  The root of the data tree filled in by addToDataTree.
+		 * @param lastUnits The units of the last value processed.
+		 * @return The data.
+		 */
+		public ColumnarTableData build(Map<?, ?> dataTree, String lastUnits) {
+			final List<String[]> paths = new ArrayList<String[]>(blockIndex.size());
+			final List<Integer> order = new ArrayList<Integer>(blockIndex.size());
+			orderBlocks(dataTree, new ArrayList<String>(), paths, order);
+
+			final int numNodes = nodeLabels.size();
+			final int numYears = yearLabels.size();
+			final int[] blockOffsets = new int[order.size() + 1];
+			for (int block = 0; block < order.size(); ++block) {
+				blockOffsets[block + 1] = blockOffsets[block] + blocks.get(order.get(block)).nodes.size();
+			}
+			final int numRows = blockOffsets[order.size()];
+			final int[] rowNodes = new int[numRows];
+			final double[][] columns = new double[numYears][numRows];
+			final String[] units = new String[numRows];
+			for (double[] column : columns) {
+				Arrays.fill(column, Double.NaN);
+			}
+			for (int block = 0; block < order.size(); ++block) {
+				final BlockRows rows = blocks.get(order.get(block));
+				// rows are sorted by node level so they can be found with a binary search
+				final Integer[] sorted = new Integer[rows.nodes.size()];
+				for (int i = 0; i < sorted.length; ++i) {
+					sorted[i] = i;
+				}
+				Arrays.sort(sorted, (r1, r2) -> Integer.compare(rows.nodes.get(r1), rows.nodes.get(r2)));
+				for (int i = 0; i < sorted.length; ++i) {
+					final int row = blockOffsets[block] + i;
+					final double[] cells = rows.values.get(sorted[i]);
+					rowNodes[row] = rows.nodes.get(sorted[i]);
+					units[row] = rows.units.get(sorted[i]);
+					for (int year = 0; cells != null && year < cells.length; ++year) {
+						columns[year][row] = cells[year];
+					}
+				}
+			}
+			return new ColumnarTableData(paths.toArray(new String[paths.size()][]),
+					yearLabels.toArray(new String[numYears]), nodeLabels.toArray(new String[numNodes]), blockOffsets,
+					rowNodes, columns, units, lastUnits);
+		}
+
+		private void orderBlocks(Map<?, ?> currMap, List<String> currPath, List<String[]> paths, List<Integer> order) {
+			final Integer block = blockIndex.get(currMap);
+			if (block != null) {
+				paths.add(currPath.toArray(new String[currPath.size()]));
+				order.add(block);
+				return;
+			}
+			for (Map.Entry<?, ?> me : currMap.entrySet()) {
+				if (me.getValue() instanceof Map) {
+					currPath.add((String) me.getKey());
+					orderBlocks((Map<?, ?>) me.getValue(), currPath, paths, order);
+					currPath.remove(currPath.size() - 1);
+				}
+			}
+		}
+	}
+}
@@ -53,16 +53,12 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 
-import org.apache.poi.hssf.usermodel.HSSFClientAnchor;
-import org.apache.poi.hssf.usermodel.HSSFPatriarch;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.Row;
 import org.basex.api.dom.BXNode;
 import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.node.ANode;
+import org.basex.util.Token;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.XYPlot;
@@ -84,6 +80,9 @@ import ModelInterface.ModelGUI2.undo.FlipUndoableEdit;
 import ModelInterface.ModelGUI2.undo.TableUndoableEdit;
 import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
 import ModelInterface.ModelGUI2.xmldb.QueryBinding;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
+import ModelInterface.ModelGUI2.xmldb.QueryMetrics;
+import ModelInterface.ModelGUI2.xmldb.QueryResultCache;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
 import ModelInterface.common.DataPair;
 import javafx.application.Platform;
@@ -107,6 +106,21 @@ public class ComboTableModel extends BaseTableModel {
 	TableCellRenderer documentationRenderer;
 	int chartLabelCol = -1;
 
+	/**
+	 * The query results when this table was built from the database, the data maps
+	 * in TreeMapVector are then views of its blocks.
+	 */
+	ColumnarTableData columnarData;
+	/**
+	 * The columnar node or year index for each position in indRow and indCol.
+	 */
+	int[] rowAxisIndex;
+	int[] colAxisIndex;
+	/**
+	 * The axis index used for the Units column.
+	 */
+	private static final int UNITS_INDEX = -2;
+
 	// Vector tables;
 
 	/**
@@ -152,6 +166,7 @@ public class ComboTableModel extends BaseTableModel {
 		ind2Name = tempStr;
 		indCol.add(0, ind1Name);
 		flipped = !flipped;
+		updateAxisIndices();
 		// to set active rows appropriatly
 		doFilter(new Vector(tableFilterMaps.keySet()));
 		fireTableStructureChanged();
@@ -354,6 +369,39 @@ public class ComboTableModel extends BaseTableModel {
 		}
 	}
 
+	/**
+	 * Sets up the data maps and path vectors for each block of columnar data in the
+	 * same way as recAddTables does for a data tree.
+	 * 
+	 * @param data the query results
+	 */
+	private void addColumnarTables(ColumnarTableData data) {
+		for (int block = 0; block < data.getBlockCount(); ++block) {
+			TreeMapVector.add(data.blockAsMap(block));
+			final String[] path = data.getBlockPath(block);
+			Vector<String> onerow = new Vector<String>(path.length);
+			Vector<String> tempVector = new Vector<String>();
+			for (String allNodeInfo : path) {
+				StringTokenizer innerSt = new StringTokenizer(allNodeInfo, "@", false);
+				if (innerSt.countTokens() != 2) {
+					System.out.println("BIG PROBLEM, COUNT TOKENS ISN'T 2!!!!!!!!!!: " + allNodeInfo);
+				} else {
+					String firstHalf = innerSt.nextToken();
+					if (leftHeaderVector == null) {
+						tempVector.add(firstHalf);
+					}
+					onerow.add(innerSt.nextToken());
+				}
+			}
+			if (leftHeaderVector == null) {
+				leftHeaderVector = tempVector;
+			}
+			if (!onerow.isEmpty()) {
+				leftSideVector.add(onerow);
+			}
+		}
+	}
+
 	/**
 	 * Gets the Key needed to reference into the data map, given a row and col
 	 * position in the table
@@ -414,6 +462,9 @@ public class ComboTableModel extends BaseTableModel {
 			} else if (col == leftHeaderVector.size()) {
 				return indRow.get(((Integer) activeRows.get(row)).intValue() % (indRow.size()));
 				// these columns represent data
+			} else if (columnarData != null) {
+				Object temp = getColumnarValue(((Integer) activeRows.get(row)).intValue(), col);
+				return temp == null ? Double.valueOf(0.0) : temp;
 			} else {
 				Object temp = ((Map) TreeMapVector.get(((Integer) activeRows.get(row)).intValue() / (indRow.size())))
 						.get(getKey((Integer) activeRows.get(row), col));
@@ -455,11 +506,95 @@ public class ComboTableModel extends BaseTableModel {
 	 * @return True if there is a real value, false otherwise.
 	 */
 	protected boolean hasValueAt(int row, int col) {
+		if (columnarData != null) {
+			return col > leftHeaderVector.size()
+					&& getColumnarValue(((Integer) activeRows.get(row)).intValue(), col) != null;
+		}
 		return col > leftHeaderVector.size()
 				&& ((Map) TreeMapVector.get(((Integer) activeRows.get(row)).intValue() / (indRow.size())))
 						.containsKey(getKey((Integer) activeRows.get(row), col));
 	}
 
+	/**
+	 * Look up the value at a position directly in the columnar data.
+	 * 
+	 * @param row the row position before filtering
+	 * @param col the col position in the table
+	 * @return the Double value, the units for the Units column, or null if there is
+	 *         no value
+	 */
+	private Object getColumnarValue(int row, int col) {
+		final int block = row / indRow.size();
+		final int rowIndex = rowAxisIndex[row % indRow.size()];
+		final int colIndex = colAxisIndex[col - leftHeaderVector.size()];
+		final int node = flipped ? colIndex : rowIndex;
+		final int year = flipped ? rowIndex : colIndex;
+		if (node < 0) {
+			return null;
+		} else if (year == UNITS_INDEX) {
+			return columnarData.getUnits(block, node);
+		} else if (year < 0) {
+			return null;
+		}
+		final double ret = columnarData.getValue(block, node, year);
+		return Double.isNaN(ret) ? null : Double.valueOf(ret);
+	}
+
+	/**
+	 * Set a value directly in the columnar data. Only values the query produced a
+	 * row for may be changed.
+	 * 
+	 * @param val the new value which must be a number
+	 * @param row the row position before filtering
+	 * @param col the col position in the table
+	 */
+	private void setColumnarValue(Object val, int row, int col) {
+		final int block = row / indRow.size();
+		final int rowIndex = rowAxisIndex[row % indRow.size()];
+		final int colIndex = colAxisIndex[col - leftHeaderVector.size()];
+		final int node = flipped ? colIndex : rowIndex;
+		final int year = flipped ? rowIndex : colIndex;
+		if (node < 0 || year < 0) {
+			// the units can not be edited
+			return;
+		}
+		final double value;
+		try {
+			value = val instanceof Number ? ((Number) val).doubleValue() : Double.parseDouble(val.toString());
+		} catch (NumberFormatException e) {
+			InterfaceMain.getInstance().showMessageDialog("The new value must be a number", "Set Value Error",
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		if (columnarData.setValue(block, node, year, value)) {
+			fireTableCellUpdated(row, col);
+		}
+	}
+
+	/**
+	 * Map the labels in indRow and indCol to their columnar node and year indices.
+	 * Needs to be called whenever those axis change.
+	 */
+	private void updateAxisIndices() {
+		if (columnarData == null) {
+			return;
+		}
+		rowAxisIndex = createAxisIndex(indRow, flipped);
+		colAxisIndex = createAxisIndex(indCol, !flipped);
+	}
+
+	private int[] createAxisIndex(Vector<?> axis, boolean isYear) {
+		final int[] ret = new int[axis.size()];
+		for (int i = 0; i < ret.length; ++i) {
+			final String label = (String) axis.get(i);
+			ret[i] = isYear ? columnarData.yearIndexOf(label) : columnarData.nodeIndexOf(label);
+			if (isYear && ret[i] == -1 && label.equals("Units")) {
+				ret[i] = UNITS_INDEX;
+			}
+		}
+		return ret;
+	}
+
 	/**
 	 * returns the actual Node that is contained at the position row, col in the
 	 * table
@@ -605,6 +740,10 @@ public class ComboTableModel extends BaseTableModel {
 	 */
 	@Override
 	public void setValueAt(Object val, int row, int col) {
+		if (columnarData != null) {
+			setColumnarValue(val, row, col);
+			return;
+		}
 
 		Map data = ((Map) TreeMapVector.get(row / (indRow.size())));
 		CompoundEdit setEdit = new CompoundEdit();
@@ -885,18 +1024,39 @@ public class ComboTableModel extends BaseTableModel {
 		title = qgIn.toString();
 		boolean isTotal = false;
 		boolean isGlobal = regions.length == 1 && regions[0].equals("Global");
+		queryMetrics = new QueryMetrics(title, scenarios, regions);
 		// System.out.println("Before Function: "+System.currentTimeMillis());
+		ColumnarTableData result;
 		if (singleBinding == null) {
-			buildTable(XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt), qgIn.isSumAll(), isTotal,
-					isGlobal);
+			// only full queries are cached, single queries are built from a list of
+			// values which is stored in the database already
+			final QueryResultCache resultCache = XMLDB.getInstance().getResultCache();
+			final String cacheKey = resultCache == null ? null
+					: QueryResultCache.createKey(qgIn, scenarios, regions);
+			result = cacheKey == null ? null : resultCache.get(cacheKey);
+			if (result == null) {
+				try (QueryLease query = XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt)) {
+					result = runQuery(query.getQuery(), qgIn.isSumAll(), isTotal, isGlobal);
+				}
+				if (cacheKey != null) {
+					resultCache.put(cacheKey, scenarios, result);
+				}
+			} else {
+				System.out.println("Using cached results for " + title);
+				queryMetrics.setCached(true);
+			}
 		} else {
 			// TODO: figure out a better way of telling if this is a Total
 			isTotal = !(singleBinding instanceof ModelInterface.ModelGUI2.xmldb.SingleQueryQueryBinding);
-			buildTable(XMLDB.getInstance().createQuery(singleBinding, scenarios, regions, interrupt), qgIn.isSumAll(),
-					isTotal, isGlobal);
+			try (QueryLease query = XMLDB.getInstance().createQuery(singleBinding, scenarios, regions, interrupt)) {
+				result = runQuery(query.getQuery(), qgIn.isSumAll(), isTotal, isGlobal);
+			}
 		}
+		final long buildStart = System.nanoTime();
+		buildTable(result);
 		ind2Name = qgIn.getVariable();
 		indCol.add(0, ind1Name);
+		updateAxisIndices();
 		// adjust active rows to remove any rows that are all blank
 		// we should make sure we don't remove any rows which were added
 		// because of the shouldAppendRewriteValues flag unless this is
@@ -908,7 +1068,7 @@ public class ComboTableModel extends BaseTableModel {
 		for (int i = 0; i < (leftSideVector.size() * indRow.size()); i++) {
 			boolean allNulls = true;
 			for (int col = leftHeaderVector.size() + 1; col < getColumnCount() && allNulls; ++col) {
-				if (((Map) TreeMapVector.get(i / (indRow.size()))).get(getKey(i, col)) != null) {
+				if (getColumnarValue(i, col) != null) {
 					allNulls = false;
 				}
 			}
@@ -917,34 +1077,52 @@ public class ComboTableModel extends BaseTableModel {
 			}
 		}
 		setColNameIndex(qg.getChartLabelColumnName());
+		queryMetrics.addBuildNanos(System.nanoTime() - buildStart);
 	}
 
-	private void buildTable(QueryProcessor queryProc, boolean sumAll, boolean isTotal, boolean isGlobal)
-			throws Exception {
+	/**
+	 * Runs the query and sorts the results into columnar data.  The data tree is
+	 * only used to determine which block each result belongs to.
+	 * 
+	 * @param queryProc the query to run which will be closed when done
+	 * @param sumAll    if all node level values should be summed together
+	 * @param isTotal   if this is the total single query
+	 * @param isGlobal  if the query was run for the Global region
+	 * @return the processed results
+	 * @throws Exception if the query failed or returned no results
+	 */
+	private ColumnarTableData runQuery(QueryProcessor queryProc, boolean sumAll, boolean isTotal,
+			boolean isGlobal) throws Exception {
 		// System.out.println("In Function: "+System.currentTimeMillis());
 
 		// sumAll=true; //Dan: Test
 		// isTotal=true; //Dan: Test
 
-		Iter res = queryProc.iter();
+		long phaseStart = System.nanoTime();
+		long dataTreeNanos = 0;
+		long numNodes = 0;
 		ANode tempNode;
-		final Set<String> yearLevelAxis = new TreeSet<String>();
-		final Set<String> nodeLevelAxis = new TreeSet/* LinkedHashSet */<String>();
-		//List<String> years=getSelectedYearList();
-		//yearLevelAxis.addAll(years);
+		final ColumnarTableData.Builder builder = new ColumnarTableData.Builder();
 		final Map dataTree = new TreeMap();
 		final Map<String, String> rewriteMap = qg.getNodeLevelRewriteMap();
 		// axisValues will be passed to the query generator which will set the
 		// year level value as the key and the node level value as the value
 		final DataPair<String, String> axisValues = new DataPair<String, String>();
 		try {
+			queryProc.compile();
+			queryMetrics.setQueryText(queryProc.query());
+			queryMetrics.addCompileNanos(System.nanoTime() - phaseStart);
+			phaseStart = System.nanoTime();
+			Iter res = queryProc.iter();
 			while ((tempNode = (ANode) res.next()) != null) {
+				++numNodes;
 
-				BXNode domNode = BXNode.get(tempNode);
 				// Categorize this result
 				axisValues.setKey(null);
 				axisValues.setValue(null);
+				final long dataTreeStart = System.nanoTime();
 				Map retMap = qg.addToDataTree(tempNode.parent(), dataTree, axisValues, isGlobal);
+				dataTreeNanos += System.nanoTime() - dataTreeStart;
 				if (axisValues.getKey() == null || axisValues.getValue() == null) {
 					System.out.println("Key: " + axisValues.getKey());
 					System.out.println("Value: " + axisValues.getValue());
@@ -970,42 +1148,68 @@ public class ComboTableModel extends BaseTableModel {
 					}
 				}
 
+				final int block = builder.block(retMap);
+				final int node = builder.node(axisValues.getValue());
+				final int year = builder.year(axisValues.getKey());
+
 				// check if the row has already set it's units, we will only overwrite
 				// it the very first time around for performance reasons, this means
 				// there will be no checking for mismatched units
-				if ((units = (String) retMap.get("Units;" + axisValues.getValue())) == null) {
+				if ((units = builder.getUnits(block, node)) == null) {
 					units = XMLDB.getAttrMap(BXNode.get(tempNode.parent())).get("unit");
 					if (units == null) {
 						units = "None Specified";
 					}
+					// This will use the unit seen from the first value in the row
+					builder.setUnits(block, node, units);
 				}
 
-				// add the node level and year level (into a set so we only have unique values)
-				yearLevelAxis.add(axisValues.getKey());
-				nodeLevelAxis.add(axisValues.getValue());
-
 				// add number into the lowest level table
 				// if there was already an entry in it's spot sum the values
-				double currNumber = Double.parseDouble(domNode.getNodeValue());
-				String currKey = axisValues.getKey() + ";" + axisValues.getValue();
-				Double ret = (Double) retMap.get(currKey);
-				retMap.put(currKey, ret == null ? currNumber : ret + currNumber);
-
-				// add the units for the current row under the Units column
-				// This will use the unit seen from the first value in the
-				retMap.put("Units;" + axisValues.getValue(), units);
+				final byte[] value = tempNode.string();
+				double currNumber = Token.toDouble(value);
+				if (Double.isNaN(currNumber)) {
+					// let the usual parser report the problem
+					currNumber = Double.parseDouble(Token.string(value));
+				}
+				builder.add(block, node, year, currNumber);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw e;
 		} finally {
-			queryProc.close();
+			qg.clearDataTreePathCache();
+			// the rest of the loop is counted as evaluation since the results are
+			// evaluated lazily while iterating
+			queryMetrics.addEvalNanos(System.nanoTime() - phaseStart - dataTreeNanos);
+			queryMetrics.addDataTreeNanos(dataTreeNanos);
+			queryMetrics.addNodes(numNodes);
 		}
 
 		// check if we had no results
 		if (dataTree.isEmpty()) {
 			throw new Exception("The query returned no results.");
 		}
+		return builder.build(dataTree, units);
+	}
+
+	/**
+	 * Builds the table from processed query results.
+	 * 
+	 * @param result the results as returned by runQuery or the result cache
+	 */
+	private void buildTable(ColumnarTableData result) {
+		final Set<String> yearLevelAxis = new TreeSet<String>();
+		final Set<String> nodeLevelAxis = new TreeSet<String>();
+		final Map<String, String> rewriteMap = qg.getNodeLevelRewriteMap();
+		columnarData = result;
+		units = result.getLastUnits();
+		for (int i = 0; i < result.getYearCount(); ++i) {
+			yearLevelAxis.add(result.getYearLabel(i));
+		}
+		for (int i = 0; i < result.getNodeCount(); ++i) {
+			nodeLevelAxis.add(result.getNodeLabel(i));
+		}
 
 		if (remove1975) {
 			yearLevelAxis.remove("1975");
@@ -1037,7 +1241,7 @@ public class ComboTableModel extends BaseTableModel {
 			}
 		}
 		// System.out.println("After build Tree: "+System.currentTimeMillis());
-		recAddTables(dataTree, null, yearLevelAxis, nodeLevelAxis, "");
+		addColumnarTables(result);
 		// System.out.println("After Add table: "+System.currentTimeMillis());
 		indRow = new Vector(nodeLevelAxis);
 		indCol = new Vector(yearLevelAxis);
@@ -1153,75 +1357,38 @@ public class ComboTableModel extends BaseTableModel {
 //	}
 
 	@Override
-	public void exportToExcel(HSSFSheet sheet, HSSFWorkbook wb, HSSFPatriarch dp) {
-		HSSFRow row = sheet.createRow(sheet.getLastRowNum() + 1);
-		row.createCell((short) 0).setCellValue("title");
+	public void exportToExcel(StreamingExcelWriter out, boolean drawPics) {
+		Row headerRow = out.createRow();
+		headerRow.createCell(0).setCellValue("title");
 		int isGlobal = 0;
-		// row = sheet.createRow(sheet.getLastRowNum()+1);
 		for (int i = 0; i < getColumnCount(); ++i) {
 			// hack to get globals to show up in output
 			// assumes region will always be in 1
 			String colName = getColumnName(i);
 			if (i == 1 && !colName.equals("region")) {
 				isGlobal = 1;
-				row.createCell((short) (i + 1)).setCellValue("region");
+				headerRow.createCell(i + 1).setCellValue("region");
 			}
-			row.createCell((short) (i + 1 + isGlobal)).setCellValue(colName);
+			headerRow.createCell(i + 1 + isGlobal).setCellValue(colName);
 		}
 		for (int rowN = 0; rowN < getRowCount(); ++rowN) {
-			row = sheet.createRow(sheet.getLastRowNum() + 1);
-			row.createCell((short) 0).setCellValue(title);
+			Row row = out.createRow();
+			row.createCell(0).setCellValue(title);
 			if (isGlobal == 1) {
-				row.createCell((short) 1).setCellValue(getValueAt(rowN, 0).toString());
-				row.createCell((short) 2).setCellValue("Global");
+				row.createCell(1).setCellValue(getValueAt(rowN, 0).toString());
+				row.createCell(2).setCellValue("Global");
 			}
 			for (int col = isGlobal; col < getColumnCount(); ++col) {
 				Object obj = sortedTable.getValueAt(rowN, col);
 				if (obj instanceof Double) {
-					row.createCell((short) (col + 1 + isGlobal)).setCellValue(((Double) obj).doubleValue());
+					row.createCell(col + 1 + isGlobal).setCellValue(((Double) obj).doubleValue());
 				} else {
-					row.createCell((short) (col + 1 + isGlobal)).setCellValue(getValueAt(rowN, col).toString());
+					row.createCell(col + 1 + isGlobal).setCellValue(getValueAt(rowN, col).toString());
 				}
 			}
 		}
-		if (dp == null) {
-			// did not want images so just return now we are done
-			return;
-		}
-		try {
-			// for a good chart, the number of rows labeling the cart is added the the
-			// 350*350 square
-			// at 10 pixels per line and 3 labels per line
-			double add = getRowCount() / 6 * 10;
-
-			// adjusts the standard size of 350*350+rows to be as large or small as desired
-			// TODO: make this controlled by the user
-			double sizeMult = 1.4;
-
-			int imgWidth = (int) (350 * sizeMult);
-			int imgHeight = (int) (sizeMult * (350 + add));
-			java.awt.image.BufferedImage chartImage = createChart(0, 0).createBufferedImage(imgWidth, imgHeight);
-
-			// TODO: figure out how many pixels are in a char dependent on system
-			int pixelWidthPerChar = 8;
-			short firstRow = (short) (sheet.getLastRowNum() - getRowCount());
-			short firstCol = (short) (sheet.getRow(firstRow).getLastCellNum() + 2);
-			short colSpan = (short) (imgWidth
-					/ (pixelWidthPerChar * (sheet.getColumnWidth((short) (getColumnCount() + 1)))) + firstCol);
-			short rowSpan = (short) ((imgHeight / (sheet.getDefaultRowHeightInPoints() * 5 / 3)) + firstRow);
-
-			// WARNING: This is a hack because of java some how looking to load some class
-			// that did
-			// not exist. Instead of using the utilities which uses the Factory which uses
-			// the
-			// reflextion which causes that mess I will use this encoder directly.
-
-			int where = wb.addPicture(new org.jfree.chart.encoders.SunJPEGEncoderAdapter().encode(chartImage),
-					Workbook.PICTURE_TYPE_JPEG);
-			dp.createPicture(new HSSFClientAnchor(0, 0, 255, 255, firstCol, firstRow, colSpan, rowSpan), where);
-
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
+		if (drawPics) {
+			exportChartToExcel(out, headerRow);
 		}
 	}
 
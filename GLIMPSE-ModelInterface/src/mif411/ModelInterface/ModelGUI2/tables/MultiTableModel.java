@@ -66,14 +66,11 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 
-import org.apache.poi.hssf.usermodel.HSSFPatriarch;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.basex.api.dom.BXNode;
 import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.node.ANode;
+import org.basex.util.Token;
 import org.jfree.chart.JFreeChart;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -85,6 +82,8 @@ import ModelInterface.ModelGUI2.DOMmodel;
 import ModelInterface.ModelGUI2.Documentation;
 import ModelInterface.ModelGUI2.queries.QueryGenerator;
 import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
+import ModelInterface.ModelGUI2.xmldb.QueryMetrics;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
 import ModelInterface.common.DataPair;
 
@@ -329,79 +328,109 @@ public class MultiTableModel extends BaseTableModel{
 						(String)wild.get(1), title, (Map)parent.getValue(), doc,
 						documentation, null); 
 			}
-			tM.units = units;
-	  		if(tables == null) {
-		  		tables = new Vector();
-	  		}
-			String labelStr = titleStr.replace("/", ",   ").replace("@", ": ");
-			labelStr = labelStr.substring(2, labelStr.length());
-			tables.add(labelStr);
-            final JFrame parentFrame = InterfaceMain.getInstance().getFrame();
-            if(parentFrame == null) {
-                tables.add(tM);
-            } else {
-                JTable jTable = tM.getAsSortedTable();
-
-                jTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-
-                jTable.setCellSelectionEnabled(true);
-
-                javax.swing.table.TableColumn col;
-                Iterator i = regions.iterator();
-                int j = 1;
-                while(i.hasNext()) {
-                    col = jTable.getColumnModel().getColumn(j);
-                    col.setPreferredWidth(((String)i.next()).length()*5+30);
-                    if(qg == null) { // only want to do this when values might have documentation
-                        col.setCellRenderer(tM.getCellRenderer(0, j));
-                    }
-                    j++;
-                }
-                CopyPaste copyPaste = new CopyPaste( jTable );
-                JScrollPane tV = new JScrollPane(jTable, ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER,
-                        ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-                JComponent tableView = tV;
-                if(me.getValue() instanceof Double || me.getValue() instanceof String) {
-                    final JSplitPane sp = new JSplitPane();
-
-                    final JLabel labelChart = new JLabel();
-                    try {
-                        JFreeChart chart = tM.createChart(0,0);
-                        Dimension chartDim = tM.getChartDimensions(chart);
-                        BufferedImage chartImage = chart.createBufferedImage( (int)chartDim.getWidth(), 
-                                (int)chartDim.getHeight());
-                        labelChart.setIcon(new ImageIcon(chartImage));
-                    } catch(Exception e) {
-                        labelChart.setText("Cannot Create Chart");
-                    }
-
-                    sp.setLeftComponent(tV);
-                    JPanel lcPanel = new JPanel();
-                    lcPanel.setLayout(new BoxLayout(lcPanel, BoxLayout.Y_AXIS));
-                    lcPanel.add(labelChart);
-                    lcPanel.add(Box.createVerticalGlue());
-                    sp.setRightComponent(lcPanel);
-                    tV.setPreferredSize(jTable.getPreferredSize());
-                    tableView = sp;
-                    Dimension tableViewSize = tableView.getPreferredSize();
-                    tableViewSize.setSize(tableViewSize.getWidth(), Math.max(labelChart.getMinimumSize().getHeight(), jTable.getMinimumSize().getHeight()));
-                    tableView.setPreferredSize(tableViewSize);
-
-                    // This is not the corrent location however we may want to go ahead and do it
-                    // since the split pane will be showing before we can set the corrent divider location
-                    // and it is pretty evedent that the resize is going on.  So if we do the following
-                    // maybe it won't be as evident.
-                    sp.setDividerLocation(parentFrame.getWidth()-(int)labelChart.getMinimumSize().getWidth()-30);
-                }
-                tables.add(tableView);
-            }
-
+			addTable(tM, regions, titleStr, !(me.getValue() instanceof Node));
 			return;
 		} else {
 			recAddTables((Map)me.getValue(), me, regions, years, titleStr+'/'+(String)me.getKey());
 		}
 	}
   }
+
+  /**
+   * Add a table along with its label to the list of tables.
+   * @param tM the table model for the data
+   * @param regions column axis attrubutes
+   * @param titleStr a string describing the path in which the data in the table is coming from
+   * @param hasChart if a chart of the values should be shown next to the table
+   */
+  private void addTable(NewDataTableModel tM, Set<?> regions, String titleStr, boolean hasChart) {
+	tM.units = units;
+	if(tables == null) {
+		tables = new Vector();
+	}
+	String labelStr = titleStr.replace("/", ",   ").replace("@", ": ");
+	labelStr = labelStr.substring(2, labelStr.length());
+	tables.add(labelStr);
+    final JFrame parentFrame = InterfaceMain.getInstance().getFrame();
+    if(parentFrame == null) {
+        tables.add(tM);
+    } else {
+        JTable jTable = tM.getAsSortedTable();
+
+        jTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+
+        jTable.setCellSelectionEnabled(true);
+
+        javax.swing.table.TableColumn col;
+        Iterator i = regions.iterator();
+        int j = 1;
+        while(i.hasNext()) {
+            col = jTable.getColumnModel().getColumn(j);
+            col.setPreferredWidth(((String)i.next()).length()*5+30);
+            if(qg == null) { // only want to do this when values might have documentation
+                col.setCellRenderer(tM.getCellRenderer(0, j));
+            }
+            j++;
+        }
+        CopyPaste copyPaste = new CopyPaste( jTable );
+        JScrollPane tV = new JScrollPane(jTable, ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER,
+                ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        JComponent tableView = tV;
+        if(hasChart) {
+            final JSplitPane sp = new JSplitPane();
+
+            final JLabel labelChart = new JLabel();
+            try {
+                JFreeChart chart = tM.createChart(0,0);
+                Dimension chartDim = tM.getChartDimensions(chart);
+                BufferedImage chartImage = chart.createBufferedImage( (int)chartDim.getWidth(), 
+                        (int)chartDim.getHeight());
+                labelChart.setIcon(new ImageIcon(chartImage));
+            } catch(Exception e) {
+                labelChart.setText("Cannot Create Chart");
+            }
+
+            sp.setLeftComponent(tV);
+            JPanel lcPanel = new JPanel();
+            lcPanel.setLayout(new BoxLayout(lcPanel, BoxLayout.Y_AXIS));
+            lcPanel.add(labelChart);
+            lcPanel.add(Box.createVerticalGlue());
+            sp.setRightComponent(lcPanel);
+            tV.setPreferredSize(jTable.getPreferredSize());
+            tableView = sp;
+            Dimension tableViewSize = tableView.getPreferredSize();
+            tableViewSize.setSize(tableViewSize.getWidth(), Math.max(labelChart.getMinimumSize().getHeight(), jTable.getMinimumSize().getHeight()));
+            tableView.setPreferredSize(tableViewSize);
+
+            // This is not the corrent location however we may want to go ahead and do it
+            // since the split pane will be showing before we can set the corrent divider location
+            // and it is pretty evedent that the resize is going on.  So if we do the following
+            // maybe it won't be as evident.
+            sp.setDividerLocation(parentFrame.getWidth()-(int)labelChart.getMinimumSize().getWidth()-30);
+        }
+        tables.add(tableView);
+    }
+  }
+
+  /**
+   * Create a table for each block of the query results.
+   * @param data the query results
+   * @param regions column axis attrubutes
+   * @param years row axis attributes
+   */
+  private void addColumnarTables(ColumnarTableData data, Set<String> regions, Set<String> years) {
+	for(int block = 0; block < data.getBlockCount(); ++block) {
+		StringBuilder titleStr = new StringBuilder();
+		for(String key : data.getBlockPath(block)) {
+			titleStr.append('/').append(key);
+		}
+		NewDataTableModel tM = new NewDataTableModel(regions, qg.getAxis1Name(), years, 
+				qg.getVariable(), title, data.blockAsMap(block), doc,
+				null, qg.shouldAppendRewriteValues() ? qg.getNodeLevelRewriteMap().values() : null);
+		tM.setColNameIndex(qg.getChartLabelColumnName());
+		addTable(tM, regions, titleStr.toString(), true);
+	}
+  }
         /**
 	 * gets the instance of table editor used to be able to edit a table within a table cell
 	 * @return tableEditor
@@ -435,6 +464,15 @@ public class MultiTableModel extends BaseTableModel{
 		return activeRows.size();
 	}
 
+	@Override
+	public int getDataRowCount() {
+		int ret = 0;
+		for(int rowN = 1; rowN < getRowCount(); rowN += 2) {
+			ret += getModelAt(rowN).getDataRowCount();
+		}
+		return ret;
+	}
+
 	/**
 	 * returns the table at the requested cell
 	 * @param row the row position of the cell
@@ -529,7 +567,10 @@ public class MultiTableModel extends BaseTableModel{
         wild.add(qgIn.getYearLevel());
         //System.out.println("Before Function: "+System.currentTimeMillis());
         boolean isGlobal = regions.length == 1 && regions[0].equals("Global");
-        buildTable(XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt), qgIn.isSumAll(), isGlobal);
+        queryMetrics = new QueryMetrics(title, scenarios, regions);
+        try(QueryLease query = XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt)) {
+            buildTable(query.getQuery(), qgIn.isSumAll(), isGlobal);
+        }
         tableEditor = new TableEditor();
         tableRenderer = new TableRenderer();
         activeRows = new Vector(tables.size());
@@ -548,24 +589,34 @@ public class MultiTableModel extends BaseTableModel{
     }
     private void buildTable(QueryProcessor queryProc, boolean sumAll, boolean isGlobal) throws Exception {
         //System.out.println("In Function: "+System.currentTimeMillis());
-        Iter res = queryProc.iter();
+        long phaseStart = System.nanoTime();
+        long dataTreeNanos = 0;
+        long numNodes = 0;
         ANode tempNode;
         final Set<String> yearLevelAxis = new TreeSet<String>();
         final Set<String> nodeLevelAxis = new TreeSet<String>();
         //yearLevelAxis.addAll(getSelectedYearList());
         yearLevelAxis.addAll(getAllYearList());
+        final ColumnarTableData.Builder builder = new ColumnarTableData.Builder();
         final Map dataTree = new LinkedHashMap();
         final Map<String, String> rewriteMap = qg.getNodeLevelRewriteMap();
         // axisValues will be passed to the query generator which will set the
         // year level value as the key and the node level value as the value
         final DataPair<String, String> axisValues = new DataPair<String, String>();
         try {
+            queryProc.compile();
+            queryMetrics.setQueryText(queryProc.query());
+            queryMetrics.addCompileNanos(System.nanoTime() - phaseStart);
+            phaseStart = System.nanoTime();
+            Iter res = queryProc.iter();
             while((tempNode = (ANode)res.next()) != null) {
+                ++numNodes;
                 // catgorize this result
-                BXNode domNode = BXNode.get(tempNode);
                 axisValues.setKey(null);
                 axisValues.setValue(null);
+                final long dataTreeStart = System.nanoTime();
                 Map retMap = qg.addToDataTree(tempNode.parent(), dataTree, axisValues, isGlobal);
+                dataTreeNanos += System.nanoTime() - dataTreeStart;
                 if(axisValues.getKey() == null || axisValues.getValue() == null) {
                     throw new Exception("<html><body>Could not determine how to categorize the results.<br> Please check your axis node values.</body></html>");
                 }
@@ -583,14 +634,19 @@ public class MultiTableModel extends BaseTableModel{
                     }
                 }
 
+                final int block = builder.block(retMap);
+                final int node = builder.node(axisValues.getValue());
+                final int year = builder.year(axisValues.getKey());
+
                 // check if the row has already set it's units, we will only overwrite
                 // it the very first time around for performance reasons, this means
                 // there will be no checking for mismatched units
-                if((units = (String)retMap.get("Units;"+axisValues.getValue())) == null) {
+                if((units = builder.getUnits(block, node)) == null) {
                     units = XMLDB.getAttrMap(BXNode.get(tempNode.parent())).get("unit");
                     if(units == null) {
                         units = "None Specified";
                     }
+                    builder.setUnits(block, node, units);
                 }
 
                 // add the node level and year level (into a set so we only have unique values)
@@ -599,28 +655,33 @@ public class MultiTableModel extends BaseTableModel{
 
                 // add number into the lowest level table
                 // if there was already an entry in it's spot sum the values
-                double currNumber = Double.parseDouble(domNode.getNodeValue());
-                String currKey = axisValues.getKey()+";"+axisValues.getValue();
-                Double ret = (Double)retMap.get(currKey);
-                retMap.put(currKey, ret == null ? currNumber : ret + currNumber);
+                final byte[] value = tempNode.string();
+                double currNumber = Token.toDouble(value);
+                if(Double.isNaN(currNumber)) {
+                    // let the usual parser report the problem
+                    currNumber = Double.parseDouble(Token.string(value));
+                }
+                builder.add(block, node, year, currNumber);
 
                 // also add the value to the total sum
-                currKey = axisValues.getKey()+";Total";
-                ret = (Double)retMap.get(currKey);
-                retMap.put(currKey, ret == null ? currNumber : ret + currNumber);
-
-                // add the units for the current row under the Units column
+                final int totalNode = builder.node("Total");
+                builder.add(block, totalNode, year, currNumber);
                 // This will use the unit seen from the first value in the
                 // row, see comment above regarding units
-                retMap.put("Units;"+axisValues.getValue(), units);
-                retMap.put("Units;Total", units);
+                if(builder.getUnits(block, totalNode) == null) {
+                    builder.setUnits(block, totalNode, units);
+                }
             }
         } catch(Exception e) {
             e.printStackTrace();
             throw e;
         } finally {
-            queryProc.close();
+            qg.clearDataTreePathCache();
+            queryMetrics.addEvalNanos(System.nanoTime() - phaseStart - dataTreeNanos);
+            queryMetrics.addDataTreeNanos(dataTreeNanos);
+            queryMetrics.addNodes(numNodes);
         }
+        final long buildStart = System.nanoTime();
         // check if we had no results
         if(dataTree.isEmpty()) {
             throw new Exception("The query returned no results.");
@@ -647,17 +708,16 @@ public class MultiTableModel extends BaseTableModel{
         }
         //System.out.println("After build Tree: "+System.currentTimeMillis());
         // now that results are sorted into maps we can create the actual tables
-        recAddTables(dataTree, null, yearLevelAxis, nodeLevelAxisOrdered, "");
+        addColumnarTables(builder.build(dataTree, units), yearLevelAxis, nodeLevelAxisOrdered);
         //System.out.println("After Add table: "+System.currentTimeMillis());
+        queryMetrics.addBuildNanos(System.nanoTime() - buildStart);
     }
 
-  public void exportToExcel(HSSFSheet sheet, HSSFWorkbook wb, HSSFPatriarch dp) {
-	  HSSFRow row = sheet.createRow(sheet.getLastRowNum()+1);
-	  row.createCell((short)0).setCellValue(getColumnName(0));
+  public void exportToExcel(StreamingExcelWriter out, boolean drawPics) {
+	  out.createRow().createCell(0).setCellValue(getColumnName(0));
 	  for(int rowN = 0; rowN < getRowCount(); rowN +=2) {
-		  row = sheet.createRow(sheet.getLastRowNum()+1);
-		  row.createCell((short)0).setCellValue(getValueAt(rowN,0).toString());
-		  getModelAt(rowN+1).exportToExcel(sheet, wb, dp);
+		  out.createRow().createCell(0).setCellValue(getValueAt(rowN,0).toString());
+		  getModelAt(rowN+1).exportToExcel(out, drawPics);
 	  }
   }
 	public boolean equals(Object other) {
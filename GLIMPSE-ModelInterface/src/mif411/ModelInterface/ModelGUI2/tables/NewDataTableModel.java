@@ -46,11 +46,7 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 
-import org.apache.poi.hssf.usermodel.HSSFClientAnchor;
-import org.apache.poi.hssf.usermodel.HSSFPatriarch;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.XYPlot;
@@ -640,60 +636,25 @@ public class NewDataTableModel extends BaseTableModel{
 		return icon;
 	}
 	 */
-	public void exportToExcel(HSSFSheet sheet, HSSFWorkbook wb, HSSFPatriarch dp) {
-		HSSFRow row = sheet.createRow(sheet.getLastRowNum()+1);
+	public void exportToExcel(StreamingExcelWriter out, boolean drawPics) {
+		Row headerRow = out.createRow();
 		for(int i = 0; i < getColumnCount(); ++i) {
-			row.createCell((short)i).setCellValue(getColumnName(i));
+			headerRow.createCell(i).setCellValue(getColumnName(i));
 		}
 		for(int rowN = 0; rowN < getRowCount(); ++rowN) {
-			row = sheet.createRow(sheet.getLastRowNum()+1);
+			Row row = out.createRow();
 			for(int col = 0; col < getColumnCount(); ++col) {
 				Object obj = sortedTable.getValueAt(rowN, col);
 				if(obj instanceof Double) {
-					row.createCell((short)col).setCellValue(((Double)obj).doubleValue());
+					row.createCell(col).setCellValue(((Double)obj).doubleValue());
 				} else {
-					row.createCell((short)col).setCellValue(getValueAt(rowN,col).toString());
+					row.createCell(col).setCellValue(getValueAt(rowN,col).toString());
 				}
 			}
 		}
-		if(dp == null) {
-			// did not want images so just return now we are done
-			return;
+		if(drawPics) {
+			exportChartToExcel(out, headerRow);
 		}
-		try {
-			//for a good chart, the number of rows labeling the cart is added the the 350*350 square
-			//at 10 pixels per line and 3 labels per line
-			double add = getRowCount()/6*10;
-			
-			//adjusts the standard size of 350*350+rows to be as large or small as desired
-			//TODO: make this controlled by the user
-			double sizeMult = 1.4;
-			
-			int imgWidth = (int)(350*sizeMult);
-			int imgHeight =(int)(sizeMult*(350+add));
-			java.awt.image.BufferedImage chartImage = createChart(0,0).createBufferedImage(imgWidth,imgHeight);
-
-
-
-			//TODO: figure out how many pixels are in a char dependent on system
-			int pixelWidthPerChar = 8;
-			short firstRow = (short) (sheet.getLastRowNum()-getRowCount());
-			short firstCol = (short)(sheet.getRow(firstRow).getLastCellNum()+2);
-			short colSpan = (short) (imgWidth/(pixelWidthPerChar*(sheet.getColumnWidth((short)(getColumnCount()+1)))) + firstCol);
-			short rowSpan = (short)((imgHeight/(sheet.getDefaultRowHeightInPoints()*5/3))  +firstRow);
-
-
-			// WARNING: This is a hack because of java some how looking to load some class that did
-			// not exist.  Instead of using the utilities which uses the Factory which uses the 
-			// reflextion which causes that mess I will use this encoder directly.
-
-
-			int where = wb.addPicture(new org.jfree.chart.encoders.SunJPEGEncoderAdapter().encode(chartImage), HSSFWorkbook.PICTURE_TYPE_JPEG);
-			dp.createPicture(new HSSFClientAnchor(0,0,255,255,firstCol,firstRow,colSpan,rowSpan), where);
-		} catch(java.io.IOException ioe) {
-			ioe.printStackTrace();
-		}
-
 	}
 	public boolean equals(Object other) {
 		if(other == this) {
@@ -0,0 +1,536 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.tables;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Writes rows into an .xlsx workbook using the streaming SXSSF API of POI so that
+ * only a window of the most recently written rows is kept in memory, the rest are
+ * flushed to temporary files until the workbook is written.  Workbooks for a file
+ * ending in .xls are kept in the old excel format instead which has no streaming
+ * API and so is held in memory.  Rows are always added
+ * to the end of the current sheet and when a sheet reaches the row limit of the
+ * format the rows continue onto a new sheet named after the original.  Several
+ * sheets may be filled at once by switching between their SheetPositions.
+ * <p>
+ * The number of rows kept in memory may be set with -DModelInterface.XLSX_ROW_WINDOW.
+ * Writers hold temporary files and must be closed once done.
+ */
+public class StreamingExcelWriter implements Closeable {
+	/**
+	 * The system property which may be used to set the row window.
+	 */
+	public static final String ROW_WINDOW_PROPERTY = "ModelInterface.XLSX_ROW_WINDOW";
+
+	/**
+	 * The maximum number of rows an .xlsx sheet may have.
+	 */
+	public static final int MAX_ROWS_PER_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+	private final Workbook wb;
+
+	private final int maxRowsPerSheet;
+
+	/**
+	 * Where rows are currently being added.
+	 */
+	private SheetPosition position;
+
+	/**
+	 * Pictures added to a spool which are added to the real workbook along with
+	 * the rows, null if this is not a spool's writer.
+	 */
+	private List<SpooledPicture> spooledPictures;
+
+	/**
+	 * Where rows will be added for a sheet including any continuation sheets.
+	 */
+	public static class SheetPosition {
+		/**
+		 * The sheet rows are added to.
+		 */
+		private Sheet sheet;
+
+		/**
+		 * The name of the sheet before any continuation sheets were added.
+		 */
+		private final String sheetName;
+
+		/**
+		 * The number of sheets used for this sheet name.
+		 */
+		private int numParts = 1;
+
+		/**
+		 * The index of the next row to create in the sheet.
+		 */
+		private int nextRow;
+
+		private SheetPosition(Sheet sheet, String sheetName, int nextRow) {
+			this.sheet = sheet;
+			this.sheetName = sheetName;
+			this.nextRow = nextRow;
+		}
+	}
+
+	/**
+	 * Create a writer for a new workbook.
+	 */
+	public StreamingExcelWriter() {
+		this(new SXSSFWorkbook(getDefaultRowWindow()), MAX_ROWS_PER_SHEET);
+	}
+
+	/**
+	 * Create a writer which appends sheets to an existing workbook.
+	 * @param existingFile The .xlsx or .xls file to add to, a new workbook is created
+	 *        if it does not exist.
+	 * @throws IOException If the existing file could not be read.
+	 */
+	public StreamingExcelWriter(File existingFile) throws IOException {
+		this(existingFile, true);
+	}
+
+	/**
+	 * Create a writer for a workbook which will be written to the given file, the
+	 * format of the workbook is determined by the file name extension.
+	 * @param file The .xlsx or .xls file the workbook will be written to.
+	 * @param append Add to the existing workbook in the file if there is one rather
+	 *        than creating a new workbook.
+	 * @throws IOException If the existing file could not be read.
+	 */
+	public StreamingExcelWriter(File file, boolean append) throws IOException {
+		this(file, append, getDefaultRowWindow(), MAX_ROWS_PER_SHEET);
+	}
+
+	/**
+	 * Create a writer.
+	 * @param existingFile The .xlsx or .xls file to add to or null to create a new
+	 *        .xlsx workbook.
+	 * @param rowWindow The number of rows to keep in memory.
+	 * @param maxRowsPerSheet The number of rows after which a sheet is continued
+	 *        on a new sheet.
+	 * @throws IOException If the existing file could not be read.
+	 */
+	public StreamingExcelWriter(File existingFile, int rowWindow, int maxRowsPerSheet) throws IOException {
+		this(existingFile, existingFile != null, rowWindow, maxRowsPerSheet);
+	}
+
+	private StreamingExcelWriter(File file, boolean append, int rowWindow, int maxRowsPerSheet) throws IOException {
+		this(openWorkbook(file, append, rowWindow), maxRowsPerSheet);
+	}
+
+	private StreamingExcelWriter(Workbook wb, int maxRowsPerSheet) {
+		this.wb = wb;
+		if(wb instanceof SXSSFWorkbook) {
+			((SXSSFWorkbook)wb).setCompressTempFiles(true);
+		}
+		this.maxRowsPerSheet = Math.min(Math.max(maxRowsPerSheet, 1), wb.getSpreadsheetVersion().getMaxRows());
+	}
+
+	private static Workbook openWorkbook(File file, boolean append, int rowWindow) throws IOException {
+		final boolean isXLS = file != null && file.getName().endsWith(".xls");
+		if(append && file != null && file.exists()) {
+			// read from a stream so that the file is not held open and may be
+			// replaced when the results are written
+			try(InputStream in = new FileInputStream(file)) {
+				return isXLS ? new HSSFWorkbook(in) : new SXSSFWorkbook(new XSSFWorkbook(in), rowWindow);
+			}
+		}
+		return isXLS ? new HSSFWorkbook() : new SXSSFWorkbook(rowWindow);
+	}
+
+	/**
+	 * Checks the system properties for the number of rows to keep in memory.
+	 * @return The row window size.
+	 */
+	public static int getDefaultRowWindow() {
+		return Integer.getInteger(ROW_WINDOW_PROPERTY, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Start adding rows to a new sheet named SheetN where N is the number of sheets
+	 * in the workbook including the new one.
+	 * @return The new sheet.
+	 */
+	public Sheet createSheet() {
+		return createSheet("Sheet"+(wb.getNumberOfSheets()+1));
+	}
+
+	/**
+	 * Start adding rows to a new sheet.
+	 * @param name The name of the sheet.
+	 * @return The new sheet.
+	 */
+	public Sheet createSheet(String name) {
+		final Sheet sheet = wb.createSheet(getUniqueSheetName(name));
+		position = new SheetPosition(sheet, name, 0);
+		return sheet;
+	}
+
+	/**
+	 * Continue adding rows after the existing rows of a sheet such as a sheet from a
+	 * workbook that was opened to append to.
+	 * @param index The index of the sheet.
+	 * @return The sheet.
+	 */
+	public Sheet continueSheet(int index) {
+		// the rows read in from the file are only visible from the XSSF sheet
+		final Sheet existing = wb instanceof SXSSFWorkbook ?
+				((SXSSFWorkbook)wb).getXSSFWorkbook().getSheetAt(index) : wb.getSheetAt(index);
+		position = new SheetPosition(wb.getSheetAt(index), existing.getSheetName(),
+				existing.getPhysicalNumberOfRows() == 0 ? 0 : existing.getLastRowNum()+1);
+		return position.sheet;
+	}
+
+	/**
+	 * @return Where rows are currently being added so that it can be switched back
+	 *         to with setPosition.
+	 */
+	public SheetPosition getPosition() {
+		return position;
+	}
+
+	/**
+	 * Continue adding rows at a position previously returned by getPosition.
+	 * @param position The position to add rows at.
+	 */
+	public void setPosition(SheetPosition position) {
+		this.position = position;
+	}
+
+	/**
+	 * Create the next row in the current sheet, moving on to a continuation sheet
+	 * when the current one is full.
+	 * @return The new row.
+	 */
+	public Row createRow() {
+		if(position == null) {
+			createSheet();
+		} else if(position.nextRow >= maxRowsPerSheet) {
+			final String continuedName = getUniqueSheetName(position.sheetName+" ("+(++position.numParts)+")");
+			final int continuedIndex = wb.getSheetIndex(position.sheet)+1;
+			position.sheet = wb.createSheet(continuedName);
+			position.nextRow = 0;
+			// keep the continuation next to the sheet it continues
+			wb.setSheetOrder(continuedName, continuedIndex);
+		}
+		return position.sheet.createRow(position.nextRow++);
+	}
+
+	/**
+	 * @return The sheet rows are currently being added to.
+	 */
+	public Sheet getSheet() {
+		return position != null ? position.sheet : null;
+	}
+
+	/**
+	 * Add a picture to a sheet.  The anchor is given in cells.
+	 * @param pictureSheet The sheet to add the picture to.
+	 * @param jpeg The JPEG image data.
+	 * @param col1 The first column the picture covers.
+	 * @param row1 The first row the picture covers.
+	 * @param col2 The last column the picture covers.
+	 * @param row2 The last row the picture covers.
+	 */
+	public void addPicture(Sheet pictureSheet, byte[] jpeg, int col1, int row1, int col2, int row2) {
+		if(spooledPictures != null) {
+			spooledPictures.add(new SpooledPicture(wb.getSheetIndex(pictureSheet), jpeg, col1, row1, col2, row2));
+			return;
+		}
+		final int pictureIndex = wb.addPicture(jpeg, Workbook.PICTURE_TYPE_JPEG);
+		final ClientAnchor anchor = wb.getCreationHelper().createClientAnchor();
+		anchor.setCol1(col1);
+		anchor.setRow1(row1);
+		anchor.setCol2(col2);
+		anchor.setRow2(row2);
+		// the old excel format replaces the existing drawing when creating one
+		Drawing<?> drawing = pictureSheet.getDrawingPatriarch();
+		if(drawing == null) {
+			drawing = pictureSheet.createDrawingPatriarch();
+		}
+		drawing.createPicture(anchor, pictureIndex);
+	}
+
+	/**
+	 * Write the workbook to a file.  The file is written to a temporary file first
+	 * so that the output is not left partially written if there is an error.
+	 * @param file The file to write to.
+	 * @throws IOException If an error occurred while writing.
+	 */
+	public void write(File file) throws IOException {
+		final File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try(OutputStream out = new FileOutputStream(tempFile)) {
+				write(out);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Write the workbook to a stream.
+	 * @param out The stream to write to which is not closed.
+	 * @throws IOException If an error occurred while writing.
+	 */
+	public void write(OutputStream out) throws IOException {
+		wb.write(out);
+	}
+
+	/**
+	 * Removes the temporary files used to hold flushed rows.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(wb instanceof SXSSFWorkbook) {
+			((SXSSFWorkbook)wb).dispose();
+		}
+		wb.close();
+	}
+
+	private static class SpooledPicture {
+		final int sheetIndex;
+		final byte[] jpeg;
+		final int col1;
+		final int row1;
+		final int col2;
+		final int row2;
+
+		SpooledPicture(int sheetIndex, byte[] jpeg, int col1, int row1, int col2, int row2) {
+			this.sheetIndex = sheetIndex;
+			this.jpeg = jpeg;
+			this.col1 = col1;
+			this.row1 = row1;
+			this.col2 = col2;
+			this.row2 = row2;
+		}
+	}
+
+	/**
+	 * Rows which are written to a temporary file now so that they can be added to
+	 * another writer later without being kept in memory, such as a batch result
+	 * which finished before the results ahead of it on its sheet.  Only cell values
+	 * and pictures are kept.  Spools hold a temporary file and must be closed.
+	 */
+	public static class Spool implements Closeable {
+		private final StreamingExcelWriter writer = new StreamingExcelWriter();
+		private File file;
+
+		public Spool() {
+			writer.spooledPictures = new ArrayList<SpooledPicture>();
+		}
+
+		/**
+		 * @return The writer to add the rows to.
+		 */
+		public StreamingExcelWriter getWriter() {
+			return writer;
+		}
+
+		/**
+		 * Write the rows added so far to the temporary file.  No more rows may be
+		 * added after this.
+		 * @throws IOException If the rows could not be written.
+		 */
+		public void finish() throws IOException {
+			file = File.createTempFile("spool", ".xlsx");
+			try(OutputStream out = new FileOutputStream(file)) {
+				writer.write(out);
+			} finally {
+				writer.close();
+			}
+		}
+
+		/**
+		 * Add the spooled rows after the current position of another writer.
+		 * @param out The writer to add the rows to.
+		 * @throws IOException If the temporary file could not be read.
+		 */
+		public void copyTo(final StreamingExcelWriter out) throws IOException {
+			// the target rows the pictures start on
+			final Map<Long, Row> pictureRows = new HashMap<Long, Row>();
+			for(SpooledPicture picture : writer.spooledPictures) {
+				pictureRows.put(rowKey(picture.sheetIndex, picture.row1), null);
+			}
+			try(OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+				final XMLReader xmlReader = XMLHelper.newXMLReader();
+				final Iterator<InputStream> sheets = new XSSFReader(pkg).getSheetsData();
+				for(int sheetIndex = 0; sheets.hasNext(); ++sheetIndex) {
+					try(InputStream in = sheets.next()) {
+						xmlReader.setContentHandler(new RowCopier(out, sheetIndex, pictureRows));
+						xmlReader.parse(new InputSource(in));
+					}
+				}
+			} catch(OpenXML4JException | SAXException | ParserConfigurationException e) {
+				throw new IOException("Could not read spooled rows from "+file, e);
+			}
+			for(SpooledPicture picture : writer.spooledPictures) {
+				final Row start = pictureRows.get(rowKey(picture.sheetIndex, picture.row1));
+				if(start != null) {
+					final int offset = start.getRowNum() - picture.row1;
+					out.addPicture(start.getSheet(), picture.jpeg, picture.col1, picture.row1 + offset,
+							picture.col2, picture.row2 + offset);
+				}
+			}
+		}
+
+		/**
+		 * Removes the temporary file.
+		 */
+		@Override
+		public void close() throws IOException {
+			if(file == null) {
+				writer.close();
+			} else {
+				file.delete();
+			}
+		}
+
+		private static long rowKey(int sheetIndex, int rowNum) {
+			return ((long)sheetIndex << 32) | rowNum;
+		}
+
+		/**
+		 * Adds the rows of a sheet written by SXSSF, which stores strings inline, to a
+		 * writer.
+		 */
+		private static class RowCopier extends DefaultHandler {
+			private final StreamingExcelWriter out;
+			private final int sheetIndex;
+			private final Map<Long, Row> pictureRows;
+			private final StringBuilder text = new StringBuilder();
+			private boolean inText;
+			private boolean hasValue;
+			private Row row;
+			private int col;
+			private String type;
+
+			RowCopier(StreamingExcelWriter out, int sheetIndex, Map<Long, Row> pictureRows) {
+				this.out = out;
+				this.sheetIndex = sheetIndex;
+				this.pictureRows = pictureRows;
+			}
+
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes attrs) {
+				if("row".equals(localName)) {
+					row = out.createRow();
+					final long key = rowKey(sheetIndex, Integer.parseInt(attrs.getValue("r")) - 1);
+					if(pictureRows.containsKey(key)) {
+						pictureRows.put(key, row);
+					}
+				} else if("c".equals(localName)) {
+					col = new CellReference(attrs.getValue("r")).getCol();
+					type = attrs.getValue("t");
+					text.setLength(0);
+					hasValue = false;
+				} else if("v".equals(localName) || "t".equals(localName)) {
+					inText = true;
+					hasValue = true;
+				}
+			}
+
+			@Override
+			public void characters(char[] ch, int start, int length) {
+				if(inText) {
+					text.append(ch, start, length);
+				}
+			}
+
+			@Override
+			public void endElement(String uri, String localName, String qName) {
+				if("v".equals(localName) || "t".equals(localName)) {
+					inText = false;
+				} else if("c".equals(localName)) {
+					if(!hasValue) {
+						row.createCell(col);
+					} else if(type == null || "n".equals(type)) {
+						row.createCell(col).setCellValue(Double.parseDouble(text.toString()));
+					} else if("b".equals(type)) {
+						row.createCell(col).setCellValue("1".equals(text.toString()));
+					} else {
+						row.createCell(col).setCellValue(text.toString());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sheet names must be unique within a workbook so add a number to the name if
+	 * it is already used.
+	 */
+	private String getUniqueSheetName(String name) {
+		String ret = name;
+		for(int i = 2; wb.getSheetIndex(ret) != -1; ++i) {
+			ret = name+" "+i;
+		}
+		return ret;
+	}
+}
@@ -33,12 +33,12 @@ import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 
 import org.basex.query.QueryException;
-import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.node.ANode;
 
 import ModelInterface.ModelGUI2.DbViewer;
 import ModelInterface.ModelGUI2.ScenarioListItem;
+import ModelInterface.ModelGUI2.xmldb.QueryLease;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
 
 public class RenameScenarioUndoableEdit extends MiAbstractUndoableEdit {
@@ -96,10 +96,9 @@ public class RenameScenarioUndoableEdit extends MiAbstractUndoableEdit {
 	 * @param toName The scenario will be named after this method.
 	 */
 	private void doRename(String fromName, String toName) {
-        QueryProcessor queryProc = XMLDB.getInstance().createQuery(
-                "/scenario[@date='"+oldName.getScnDate()+"' and @name='"+fromName+"']/@name", null, null, null);
-		try { 
-            Iter res = queryProc.iter();
+		try(QueryLease query = XMLDB.getInstance().createQuery(
+                "/scenario[@date='"+oldName.getScnDate()+"' and @name='"+fromName+"']/@name", null, null, null)) { 
+            Iter res = query.getQuery().iter();
 			// if it has no results that is bad.. I'll just go with the null pointer exception
 			ANode context = (ANode)res.next();
 			XMLDB.getInstance().setValue(context, toName);
@@ -107,8 +106,6 @@ public class RenameScenarioUndoableEdit extends MiAbstractUndoableEdit {
 		} catch(QueryException e) {
 			// TODO: put an error up on the screen
 			e.printStackTrace();
-		} finally {
-            queryProc.close();
 		}
 	}
 }
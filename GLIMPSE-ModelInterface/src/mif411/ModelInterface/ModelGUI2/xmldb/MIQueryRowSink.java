@@ -0,0 +1,48 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+/**
+ * Receives the rows of a Model Interface query as they are produced by
+ * RunMIQuery so that results do not need to be collected in memory.
+ */
+public interface MIQueryRowSink {
+	/**
+	 * Accept a single result row.  The column arrays are only valid for the
+	 * duration of the call and may be reused for the next row.
+	 * @param columns The names of the label columns in this row.
+	 * @param labels The label values in the same order as the columns.
+	 * @param numColumns The number of valid entries in columns and labels.
+	 * @param value The value of this row exactly as it is in the database.
+	 * @return True to keep receiving rows, false to stop the query early.
+	 * @throws Exception If the row could not be handled, which will stop the query.
+	 */
+	boolean acceptRow(String[] columns, String[] labels, int numColumns, String value) throws Exception;
+}
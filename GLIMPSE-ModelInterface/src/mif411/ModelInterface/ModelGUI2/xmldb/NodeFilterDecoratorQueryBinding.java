@@ -32,6 +32,8 @@ package ModelInterface.ModelGUI2.xmldb;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+
 /**
  * Newer versions of the xml database don't like node level filtered queries and have
  * terrible performance.  The SingleQueries have been updated to avoid using that syntax
@@ -40,13 +42,31 @@ import java.util.regex.Pattern;
  * binding and switch it around to get the expected performance and behavoir.
  * @author Pralit Patel
  */
-public class NodeFilterDecoratorQueryBinding implements QueryBinding {
+public class NodeFilterDecoratorQueryBinding implements PreparableQueryBinding {
 	private final QueryBinding wrappedBinding;
 	public NodeFilterDecoratorQueryBinding(QueryBinding toWrap) {
 		wrappedBinding = toWrap;
 	}
 	public String bindToQuery(Object[] scenarios, Object[] regions) {
-		String ret = wrappedBinding.bindToQuery(scenarios, regions);
+		return switchNodeFilter(wrappedBinding.bindToQuery(scenarios, regions));
+	}
+	public QueryGenerator getQueryGenerator() {
+		return wrappedBinding instanceof PreparableQueryBinding ?
+			((PreparableQueryBinding)wrappedBinding).getQueryGenerator() : null;
+	}
+	public String bindToParameterizedQuery(boolean isGlobal) {
+		if(!(wrappedBinding instanceof PreparableQueryBinding)) {
+			return null;
+		}
+		String ret = ((PreparableQueryBinding)wrappedBinding).bindToParameterizedQuery(isGlobal);
+		return ret == null ? null : switchNodeFilter(ret);
+	}
+	/**
+	 * Move the node level filter from the end of the query into a FLWR expression.
+	 * @param ret The complete query with the node level filter at the end.
+	 * @return The query rewritten with getNodeLevelFilteredQuery.
+	 */
+	private String switchNodeFilter(String ret) {
 		Pattern p = Pattern.compile("^(.*(?:text|node)\\(\\))(\\[.*\\])$");
 		Matcher m = p.matcher(ret);
 		if(m.matches()) {
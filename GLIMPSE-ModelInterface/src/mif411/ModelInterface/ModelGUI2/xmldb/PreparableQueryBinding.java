@@ -0,0 +1,70 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+
+/**
+ * A QueryBinding which is able to generate its query such that the scenarios
+ * and regions are not spliced into the query text but are instead referenced
+ * through external variables.  The resulting query text only depends on the
+ * QueryGenerator and so may be cached and reused for any scenarios and regions.
+ * The external variable declarations will be added to the query by the XMLDB
+ * when it binds the values.
+ */
+public interface PreparableQueryBinding extends QueryBinding {
+	/**
+	 * The external variable which will be bound to the selected scenarios as a
+	 * sequence of strings with the scenario name and date separated by a space.
+	 */
+	public static final String SCENARIOS_VARIABLE = "mi-scenarios";
+
+	/**
+	 * The external variable which will be bound to the selected region names.
+	 */
+	public static final String REGIONS_VARIABLE = "mi-regions";
+
+	/**
+	 * Gets the query generator the query is created from which will be used
+	 * to identify the prepared query.
+	 * @return The query generator or null if this binding can not be prepared.
+	 */
+	public QueryGenerator getQueryGenerator();
+
+	/**
+	 * Generate the query body which references the scenarios and regions
+	 * variables.
+	 * @param isGlobal If the query is to be run for the Global region in which
+	 *                 case regions may not need to be filtered at all.
+	 * @return The query without any variable declarations or null if this query
+	 *         can not be parameterized.
+	 */
+	public String bindToParameterizedQuery(boolean isGlobal);
+}
@@ -0,0 +1,127 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+import ModelInterface.common.LRUCacheMap;
+
+/**
+ * A cache of parameterized query text generated by PreparableQueryBindings.
+ * Entries are keyed by the binding type and the QueryGenerator result cache key,
+ * which includes the query builder that generates the region path as well as the
+ * XPath and axis levels, so that the same query run for different scenarios and
+ * regions, as is typical in a batch, will only need to be generated once.
+ * <p>
+ * Note that BaseX query processors can only be evaluated once so it is the query
+ * text and not a compiled plan which is cached.  However since the text no longer
+ * changes with the scenarios and regions only the variable bindings differ from
+ * one run to the next.
+ */
+public class PreparedQueryCache {
+	/**
+	 * The maximum number of prepared queries to keep.
+	 */
+	private static final int CACHE_SIZE = 512;
+
+	/**
+	 * A prepared query, the query is null if the binding could not be
+	 * parameterized.
+	 */
+	private static class PreparedQuery {
+		final String query;
+		PreparedQuery(String query) {
+			this.query = query;
+		}
+	}
+
+	private final Map<String, PreparedQuery> cache = new LRUCacheMap<String, PreparedQuery>(CACHE_SIZE);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Get the complete parameterized query for the given binding, generating it if
+	 * it has not been cached yet.
+	 * @param binding The binding to get the query for.
+	 * @param isGlobal If the query will be run for the Global region.
+	 * @return The query text including the external variable declarations, or null
+	 *         if the binding could not be parameterized.
+	 */
+	public String getQuery(PreparableQueryBinding binding, boolean isGlobal) {
+		final QueryGenerator qg = binding.getQueryGenerator();
+		if(qg == null) {
+			return null;
+		}
+		final String key = binding.getClass().getName()+":"+qg.getResultCacheKey()+":"+isGlobal;
+		PreparedQuery ret;
+		synchronized(cache) {
+			ret = cache.get(key);
+		}
+		if(ret != null) {
+			hits.increment();
+			return ret.query;
+		}
+		misses.increment();
+		final String body = binding.bindToParameterizedQuery(isGlobal);
+		// we will cache failures as well so that we do not keep trying
+		ret = new PreparedQuery(body == null ? null : getVariableDeclarations() + body);
+		synchronized(cache) {
+			cache.put(key, ret);
+		}
+		return ret.query;
+	}
+
+	/**
+	 * @return The number of queries which were found in the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of queries which had to be generated.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the declarations of the external variables the query body will use.
+	 * These are placed on a single line so that error line numbers still line up
+	 * with the original query.
+	 * @return The variable declarations.
+	 */
+	private static String getVariableDeclarations() {
+		return "declare variable $"+PreparableQueryBinding.SCENARIOS_VARIABLE+" as xs:string* external; "+
+			"declare variable $"+PreparableQueryBinding.REGIONS_VARIABLE+" as xs:string* external; ";
+	}
+}
@@ -31,7 +31,7 @@ package ModelInterface.ModelGUI2.xmldb;
 
 import ModelInterface.ModelGUI2.queries.QueryGenerator;
 
-public class QueryGeneratorQueryBinding implements QueryBinding {
+public class QueryGeneratorQueryBinding implements PreparableQueryBinding {
 	private QueryGenerator qg;
 	private String collection;
 	public QueryGeneratorQueryBinding(QueryGenerator qg, String collection) {
@@ -42,4 +42,14 @@ public class QueryGeneratorQueryBinding implements QueryBinding {
 		return QueryBindingFactory.getQueryBinding(qg.getCompleteXPath(regions), null, collection)
 			.bindToQuery(scenarios, regions);
 	}
+	public QueryGenerator getQueryGenerator() {
+		return qg;
+	}
+	public String bindToParameterizedQuery(boolean isGlobal) {
+		String xPath = qg.getParameterizedXPath(isGlobal);
+		if(xPath == null) {
+			return null;
+		}
+		return new StandardQueryBinding(xPath, null, collection).bindToParameterizedQuery();
+	}
 }
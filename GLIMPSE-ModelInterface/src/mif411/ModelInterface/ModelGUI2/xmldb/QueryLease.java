@@ -0,0 +1,84 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import org.basex.query.QueryProcessor;
+
+/**
+ * A query created by XMLDB along with the lease on the pooled session it was
+ * created with.  Closing the lease closes the query and returns the session to
+ * the pool so that it may be reused by another thread, so queries should be
+ * created in a try-with-resources block.
+ */
+public class QueryLease implements AutoCloseable {
+    /**
+     * The query to run.
+     */
+    private final QueryProcessor queryProc;
+
+    /**
+     * The pool the session of the query was leased from or null if the query
+     * did not lease a session.
+     */
+    private final XMLDBSessionPool sessionPool;
+
+    /**
+     * Set once the lease has been closed so that the session is only released once.
+     */
+    private boolean closed = false;
+
+    QueryLease(QueryProcessor queryProc, XMLDBSessionPool sessionPool) {
+        this.queryProc = queryProc;
+        this.sessionPool = sessionPool;
+    }
+
+    /**
+     * @return The query to run, it should not be closed directly.
+     */
+    public QueryProcessor getQuery() {
+        return queryProc;
+    }
+
+    /**
+     * Close the query and release the session it was created with.  Closing
+     * again has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        queryProc.close();
+        if(sessionPool != null) {
+            sessionPool.release(queryProc.qc.context);
+        }
+    }
+}
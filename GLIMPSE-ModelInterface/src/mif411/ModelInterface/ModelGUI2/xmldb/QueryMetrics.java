@@ -0,0 +1,191 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import ModelInterface.ModelGUI2.ScenarioListItem;
+
+/**
+ * The time spent in each phase of running a query and turning its results into
+ * a table.  The phases are compiling the XQuery, evaluating it, sorting the
+ * result nodes into the data tree, building the table and exporting it.  Note
+ * that evaluation is lazy so the evaluation time is all of the time spent
+ * iterating over the result nodes apart from categorizing them.
+ * <p>
+ * A table model creates the metrics for its query and whoever is finished with the
+ * table passes them to the QueryMetricsLog.  The phases are filled in one after
+ * the other so the metrics do not need to be thread safe.
+ */
+public class QueryMetrics implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String queryName;
+	private final String scenarios;
+	private final int numRegions;
+	private final long startTime = System.currentTimeMillis();
+	private String queryText;
+	private boolean cached;
+	private long compileNanos;
+	private long evalNanos;
+	private long numNodes;
+	private long dataTreeNanos;
+	private long buildNanos;
+	private long exportNanos;
+
+	/**
+	 * @param queryName The name of the query.
+	 * @param scenarios The ScenarioListItems the query is run for.
+	 * @param regions The regions the query is run for.
+	 */
+	public QueryMetrics(String queryName, Object[] scenarios, Object[] regions) {
+		this.queryName = queryName;
+		final StringBuilder scnNames = new StringBuilder();
+		for(Object scn : scenarios) {
+			if(scnNames.length() > 0) {
+				scnNames.append(';');
+			}
+			scnNames.append(scn instanceof ScenarioListItem ? ((ScenarioListItem)scn).getScnName() : String.valueOf(scn));
+		}
+		this.scenarios = scnNames.toString();
+		this.numRegions = regions.length;
+	}
+
+	public String getQueryName() {
+		return queryName;
+	}
+
+	/**
+	 * @return The scenario names separated by semicolons.
+	 */
+	public String getScenarios() {
+		return scenarios;
+	}
+
+	public int getNumRegions() {
+		return numRegions;
+	}
+
+	/**
+	 * @return When the query started in milliseconds since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The XQuery that was run or null if the results were cached.
+	 */
+	public String getQueryText() {
+		return queryText;
+	}
+
+	public void setQueryText(String queryText) {
+		this.queryText = queryText;
+	}
+
+	/**
+	 * @return True if the results were read from the result cache rather than
+	 *  running the query.
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	public void setCached(boolean cached) {
+		this.cached = cached;
+	}
+
+	public void addCompileNanos(long nanos) {
+		compileNanos += nanos;
+	}
+
+	public void addEvalNanos(long nanos) {
+		evalNanos += nanos;
+	}
+
+	public void addNodes(long count) {
+		numNodes += count;
+	}
+
+	public void addDataTreeNanos(long nanos) {
+		dataTreeNanos += nanos;
+	}
+
+	public void addBuildNanos(long nanos) {
+		buildNanos += nanos;
+	}
+
+	public void addExportNanos(long nanos) {
+		exportNanos += nanos;
+	}
+
+	public long getCompileMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(compileNanos);
+	}
+
+	public long getEvalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(evalNanos);
+	}
+
+	/**
+	 * @return The number of result nodes the query returned.
+	 */
+	public long getNumNodes() {
+		return numNodes;
+	}
+
+	public long getDataTreeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(dataTreeNanos);
+	}
+
+	public long getBuildMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(buildNanos);
+	}
+
+	public long getExportMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(exportNanos);
+	}
+
+	/**
+	 * @return The time spent in all of the phases.
+	 */
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(compileNanos + evalNanos + dataTreeNanos + buildNanos + exportNanos);
+	}
+
+	@Override
+	public String toString() {
+		return queryName+" total "+getTotalMillis()+" ms (compile "+getCompileMillis()+" ms, eval "+getEvalMillis()
+			+" ms, "+numNodes+" nodes, data tree "+getDataTreeMillis()+" ms, build "+getBuildMillis()
+			+" ms, export "+getExportMillis()+" ms"+(cached ? ", cached" : "")+")";
+	}
+}
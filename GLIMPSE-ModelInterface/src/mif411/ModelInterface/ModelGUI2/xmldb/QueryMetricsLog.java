@@ -0,0 +1,181 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Writes the QueryMetrics of every query to a CSV metrics file and the metrics of
+ * slow queries, along with the query text, to a slow query log.  Both files are
+ * stored alongside the database and are rolled over once they get too large so
+ * only the most recent entries are kept.
+ * <p>
+ * The logs may be configured with the system properties:
+ * <ul>
+ * <li>ModelInterface.QUERY_METRICS: set to false to disable the logs.</li>
+ * <li>ModelInterface.SLOW_QUERY_MILLIS: the total time at which a query is
+ * considered slow, defaults to 10000.</li>
+ * <li>ModelInterface.SLOW_QUERY_NODES: the number of result nodes at which a query
+ * is considered slow, defaults to 1000000.</li>
+ * <li>ModelInterface.QUERY_METRICS_MAX_BYTES: the size at which a log file is
+ * rolled over, defaults to 10 MB.</li>
+ * </ul>
+ */
+public class QueryMetricsLog {
+	public static final String ENABLED_PROPERTY = "ModelInterface.QUERY_METRICS";
+	public static final String SLOW_QUERY_MILLIS_PROPERTY = "ModelInterface.SLOW_QUERY_MILLIS";
+	public static final String SLOW_QUERY_NODES_PROPERTY = "ModelInterface.SLOW_QUERY_NODES";
+	public static final String MAX_BYTES_PROPERTY = "ModelInterface.QUERY_METRICS_MAX_BYTES";
+
+	/**
+	 * The number of rolled over files to keep for each log.
+	 */
+	private static final int NUM_BACKUPS = 3;
+
+	private static final String CSV_HEADER = "start time,query,scenarios,regions,cached,compile ms,eval ms,"
+		+"nodes,data tree ms,build ms,export ms,total ms";
+
+	private final File metricsFile;
+	private final File slowQueryFile;
+	private final long slowQueryMillis;
+	private final long slowQueryNodes;
+	private final long maxBytes;
+
+	/**
+	 * Create the logs in the given directory.
+	 * @param dir The directory to keep the logs in.
+	 * @param name The name the log files start with.
+	 */
+	public QueryMetricsLog(File dir, String name) {
+		metricsFile = new File(dir, name+"-query-metrics.csv");
+		slowQueryFile = new File(dir, name+"-slow-queries.log");
+		slowQueryMillis = Long.getLong(SLOW_QUERY_MILLIS_PROPERTY, 10000);
+		slowQueryNodes = Long.getLong(SLOW_QUERY_NODES_PROPERTY, 1000000);
+		maxBytes = Long.getLong(MAX_BYTES_PROPERTY, 10 * 1024 * 1024);
+	}
+
+	/**
+	 * Checks the system properties to see if the query metrics should be logged.
+	 * @return True if the logs are enabled which is the default.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+	}
+
+	/**
+	 * Record metrics in the log of the open database if there is one.
+	 * @param metrics The metrics of a query which may be null.
+	 */
+	public static void recordMetrics(QueryMetrics metrics) {
+		final XMLDB xmldb = XMLDB.getInstance();
+		if(metrics != null && xmldb != null && xmldb.getQueryMetricsLog() != null) {
+			xmldb.getQueryMetricsLog().record(metrics);
+		}
+	}
+
+	/**
+	 * @param metrics The metrics of a query.
+	 * @return True if the query passed one of the slow query thresholds.
+	 */
+	public boolean isSlow(QueryMetrics metrics) {
+		return metrics.getTotalMillis() >= slowQueryMillis || metrics.getNumNodes() >= slowQueryNodes;
+	}
+
+	/**
+	 * Record the metrics of a query.  Failures to write are reported but otherwise
+	 * ignored.
+	 * @param metrics The metrics of a query that is done.
+	 */
+	public synchronized void record(QueryMetrics metrics) {
+		final String startTime = formatTime(metrics.getStartTime());
+		final StringBuilder line = new StringBuilder();
+		line.append(startTime).append(',').append(quote(metrics.getQueryName())).append(',')
+			.append(quote(metrics.getScenarios())).append(',').append(metrics.getNumRegions()).append(',')
+			.append(metrics.isCached()).append(',').append(metrics.getCompileMillis()).append(',')
+			.append(metrics.getEvalMillis()).append(',').append(metrics.getNumNodes()).append(',')
+			.append(metrics.getDataTreeMillis()).append(',').append(metrics.getBuildMillis()).append(',')
+			.append(metrics.getExportMillis()).append(',').append(metrics.getTotalMillis()).append('\n');
+		append(metricsFile, CSV_HEADER+"\n", line.toString());
+		if(isSlow(metrics)) {
+			final StringBuilder entry = new StringBuilder();
+			entry.append(startTime).append(" slow query ").append(metrics).append('\n');
+			entry.append("  scenarios: ").append(metrics.getScenarios()).append(" regions: ")
+				.append(metrics.getNumRegions()).append('\n');
+			if(metrics.getQueryText() != null) {
+				entry.append("  ").append(metrics.getQueryText().replace("\n", "\n  ")).append('\n');
+			}
+			append(slowQueryFile, null, entry.toString());
+			System.out.println("Slow query: "+metrics);
+		}
+	}
+
+	/**
+	 * Append text to a log file, rolling it over first if it has gotten too large.
+	 * Each entry is written with a single write so that entries from several
+	 * processes sharing the database do not get mixed up.
+	 * @param file The log file.
+	 * @param header Text to start a new file with or null.
+	 * @param text The entry to append.
+	 */
+	private void append(File file, String header, String text) {
+		try {
+			if(file.length() >= maxBytes) {
+				new File(file.getPath()+"."+NUM_BACKUPS).delete();
+				for(int i = NUM_BACKUPS - 1; i > 0; --i) {
+					new File(file.getPath()+"."+i).renameTo(new File(file.getPath()+"."+(i + 1)));
+				}
+				file.renameTo(new File(file.getPath()+".1"));
+			}
+			final boolean isNew = !file.exists();
+			try(OutputStream out = new FileOutputStream(file, true)) {
+				out.write(((isNew && header != null ? header : "")+text).getBytes(StandardCharsets.UTF_8));
+			}
+		} catch(IOException e) {
+			System.out.println("Could not write query metrics to "+file+": "+e);
+		}
+	}
+
+	private static String formatTime(long time) {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(time));
+	}
+
+	private static String quote(String str) {
+		return "\""+str.replace("\"", "\"\"")+"\"";
+	}
+}
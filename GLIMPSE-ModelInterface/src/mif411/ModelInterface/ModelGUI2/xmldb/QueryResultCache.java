@@ -0,0 +1,348 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import ModelInterface.ModelGUI2.ScenarioListItem;
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+import ModelInterface.ModelGUI2.tables.ColumnarTableData;
+
+/**
+ * A persistent cache of processed query results which is stored on disk alongside
+ * the database.  Each entry is keyed by the query, the scenarios and the regions it
+ * was run for and holds the columnar table data that was built from the query
+ * results so that a repeated query only needs to read the entry back rather
+ * than re-evaluate the XQuery.
+ * <p>
+ * Entries remember the scenarios they were built from so that they can be removed
+ * when one of those scenarios is added, replaced or removed from the database.
+ * The cache may be disabled by setting -DModelInterface.RESULT_CACHE=false.
+ * It holds at most -DModelInterface.RESULT_CACHE_MB megabytes (512 by default)
+ * of entries and removes the least recently used ones beyond that.  Nothing is
+ * stored when the database was opened read only.
+ */
+public class QueryResultCache {
+	/**
+	 * The system property which may be used to disable the cache.
+	 */
+	public static final String ENABLED_PROPERTY = "ModelInterface.RESULT_CACHE";
+
+	/**
+	 * The system property which sets the size bound of the cache in megabytes.
+	 */
+	public static final String MAX_MEGABYTES_PROPERTY = "ModelInterface.RESULT_CACHE_MB";
+
+	/**
+	 * The extension used for cache entry files.
+	 */
+	private static final String ENTRY_EXTENSION = ".res";
+
+	/**
+	 * The directory the cache entries are stored in.
+	 */
+	private final File cacheDir;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Create a result cache stored in the given directory.  The directory will be
+	 * created when the first entry is stored.
+	 * @param cacheDir The directory to store entries in.
+	 */
+	public QueryResultCache(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Checks the system properties to see if the result cache should be used.
+	 * @return True if the cache is enabled which is the default.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+	}
+
+	/**
+	 * Get the name used to identify a scenario in cache entries.
+	 * @param scenario The scenario.
+	 * @return The scenario name and date.
+	 */
+	public static String getScenarioKey(ScenarioListItem scenario) {
+		return getScenarioKey(scenario.getScnName(), scenario.getScnDate());
+	}
+
+	/**
+	 * Get the name used to identify a scenario in cache entries.
+	 * @param name The scenario name.
+	 * @param date The scenario date.
+	 * @return The scenario name and date.
+	 */
+	public static String getScenarioKey(String name, String date) {
+		return name+" "+date;
+	}
+
+	/**
+	 * Create the key that uniquely identifies the results of running the given query
+	 * for the given scenarios and regions.
+	 * @param qg The query.
+	 * @param scenarios The ScenarioListItems the query is run for.
+	 * @param regions The regions the query is run for.
+	 * @return The cache key.
+	 */
+	public static String createKey(QueryGenerator qg, Object[] scenarios, Object[] regions) {
+		final StringBuilder key = new StringBuilder();
+		key.append(qg.getStorageHashCode()).append('\n');
+		key.append(qg.getResultCacheKey()).append('\n');
+		for(Object scn : scenarios) {
+			key.append(getScenarioKey((ScenarioListItem)scn)).append('\n');
+		}
+		key.append(Arrays.toString(regions));
+		return key.toString();
+	}
+
+	/**
+	 * Get the cached results for the given key.
+	 * @param key A key created with createKey.
+	 * @return The results or null if they have not been cached.
+	 */
+	public ColumnarTableData get(String key) {
+		final File entryFile = getEntryFile(key);
+		if(entryFile.exists()) {
+			try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(entryFile)))) {
+				// the key is kept to guard against file name collisions
+				if(key.equals(in.readObject())) {
+					in.readObject();
+					final ColumnarTableData ret = (ColumnarTableData)in.readObject();
+					// the modified time is used to find the least recently used entries
+					entryFile.setLastModified(System.currentTimeMillis());
+					hits.increment();
+					return ret;
+				}
+			} catch(IOException | ClassNotFoundException | ClassCastException e) {
+				// a corrupt or out of date entry is simply treated as a miss
+				System.out.println("Discarding result cache entry "+entryFile+": "+e);
+				entryFile.delete();
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Store results into the cache.  Failures to write are reported but otherwise
+	 * ignored since the results can always be recomputed.
+	 * @param key A key created with createKey.
+	 * @param scenarios The ScenarioListItems the results were generated from.
+	 * @param result The results to store.
+	 */
+	public void put(String key, Object[] scenarios, ColumnarTableData result) {
+		if(XMLDB.isReadOnly()) {
+			return;
+		}
+		final String[] scenarioKeys = new String[scenarios.length];
+		for(int i = 0; i < scenarios.length; ++i) {
+			scenarioKeys[i] = getScenarioKey((ScenarioListItem)scenarios[i]);
+		}
+		final File entryFile = getEntryFile(key);
+		File tempFile = null;
+		try {
+			if(!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+				throw new IOException("Could not create "+cacheDir);
+			}
+			// write to a temporary file first so that concurrent readers never see a
+			// partially written entry
+			tempFile = File.createTempFile(entryFile.getName(), ".tmp", cacheDir);
+			try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeObject(key);
+				out.writeObject(scenarioKeys);
+				out.writeObject(result);
+			}
+			Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException e) {
+			System.out.println("Could not store result cache entry: "+e);
+			if(tempFile != null) {
+				tempFile.delete();
+			}
+			return;
+		}
+		evict(entryFile);
+	}
+
+	/**
+	 * Remove the least recently used entries until the cache is within its size
+	 * bound.  The entry just stored is always kept even if it is larger than the
+	 * bound on its own.
+	 * @param keep The entry just stored.
+	 */
+	private synchronized void evict(File keep) {
+		final File[] entries = cacheDir.listFiles();
+		if(entries == null) {
+			return;
+		}
+		final long maxBytes = Long.getLong(MAX_MEGABYTES_PROPERTY, 512) * 1024 * 1024;
+		long totalBytes = 0;
+		final long[] lastModified = new long[entries.length];
+		for(int i = 0; i < entries.length; ++i) {
+			if(entries[i].getName().endsWith(ENTRY_EXTENSION)) {
+				totalBytes += entries[i].length();
+			}
+			lastModified[i] = entries[i].lastModified();
+		}
+		if(totalBytes <= maxBytes) {
+			return;
+		}
+		final Integer[] order = new Integer[entries.length];
+		for(int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> lastModified[i]));
+		int removed = 0;
+		for(int i = 0; i < order.length && totalBytes > maxBytes; ++i) {
+			final File entryFile = entries[order[i]];
+			if(!entryFile.getName().endsWith(ENTRY_EXTENSION) || entryFile.equals(keep)) {
+				continue;
+			}
+			final long length = entryFile.length();
+			if(entryFile.delete()) {
+				totalBytes -= length;
+				++removed;
+			}
+		}
+		if(removed > 0) {
+			System.out.println("Removed "+removed+" least recently used result cache entries");
+		}
+	}
+
+	/**
+	 * Remove all entries which were generated from any of the given scenarios.
+	 * @param scenarioKeys The scenario name and dates as from getScenarioKey.
+	 */
+	public void invalidate(Collection<String> scenarioKeys) {
+		final File[] entries = cacheDir.listFiles();
+		if(entries == null || scenarioKeys.isEmpty()) {
+			return;
+		}
+		final Set<String> toRemove = new HashSet<String>(scenarioKeys);
+		int removed = 0;
+		for(File entryFile : entries) {
+			if(!entryFile.getName().endsWith(ENTRY_EXTENSION)) {
+				continue;
+			}
+			boolean remove = true;
+			try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(entryFile)))) {
+				// only the header needs to be read to know which scenarios it uses
+				in.readObject();
+				remove = false;
+				for(String scn : (String[])in.readObject()) {
+					if(toRemove.contains(scn)) {
+						remove = true;
+						break;
+					}
+				}
+			} catch(IOException | ClassNotFoundException | ClassCastException e) {
+				// unreadable entries are removed as well
+			}
+			if(remove && entryFile.delete()) {
+				++removed;
+			}
+		}
+		if(removed > 0) {
+			System.out.println("Removed "+removed+" result cache entries for "+scenarioKeys);
+		}
+	}
+
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public void clear() {
+		final File[] entries = cacheDir.listFiles();
+		if(entries != null) {
+			for(File entryFile : entries) {
+				if(entryFile.getName().endsWith(ENTRY_EXTENSION)) {
+					entryFile.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of results which were read from the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of results which were not in the cache.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the file an entry is stored in.  The name is a digest of the key since the
+	 * key itself is much too long and contains characters that are not valid in a
+	 * file name.
+	 * @param key The cache key.
+	 * @return The entry file.
+	 */
+	private File getEntryFile(String key) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder name = new StringBuilder(digest.length * 2 + ENTRY_EXTENSION.length());
+			for(byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return new File(cacheDir, name.append(ENTRY_EXTENSION).toString());
+		} catch(NoSuchAlgorithmException e) {
+			// every java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+}
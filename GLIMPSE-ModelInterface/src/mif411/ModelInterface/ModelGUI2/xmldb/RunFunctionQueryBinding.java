@@ -38,7 +38,7 @@ import ModelInterface.ModelGUI2.queries.QueryGenerator;
  * It will the replace the comment paramaters with real lists.
  * @author Pralit Patel.
  */ 
-public class RunFunctionQueryBinding implements QueryBinding {
+public class RunFunctionQueryBinding implements PreparableQueryBinding {
 	QueryGenerator qg;
 	String collection;
 	public RunFunctionQueryBinding(QueryGenerator qg, String collection) {
@@ -63,8 +63,30 @@ public class RunFunctionQueryBinding implements QueryBinding {
             }
             regionListBuilder.delete(regionListBuilder.length()-2, regionListBuilder.length()).append(")");
         }
-		String ret = qg.getXPath().replace("(:scenarios:)", scenarioListBuilder.toString());
-		ret = ret.replace("(:regions:)", regionListBuilder.toString());
+		return replaceParameters(scenarioListBuilder.toString(), regionListBuilder.toString());
+	}
+	public QueryGenerator getQueryGenerator() {
+		return qg;
+	}
+	public String bindToParameterizedQuery(boolean isGlobal) {
+		// the variables have to be declared before anything else in the query
+		// so we can not handle queries which import modules etc
+		if(qg.getXPath().matches("(?s).*(?:xquery\\s+version|import\\s+(?:module|schema)|declare\\s+(?:namespace|default|boundary-space|base-uri|construction|ordering|copy-namespaces|decimal-format)).*")) {
+			return null;
+		}
+		// the run functions already expect the scenario names and dates to be
+		// separated by a space which is exactly how the variable is bound
+		return replaceParameters("$"+SCENARIOS_VARIABLE, "$"+REGIONS_VARIABLE);
+	}
+	/**
+	 * Replace the comment parameters in the run function call.
+	 * @param scenarioList The XQuery expression for the list of scenarios.
+	 * @param regionList The XQuery expression for the list of regions.
+	 * @return The query with the parameters replaced.
+	 */
+	private String replaceParameters(String scenarioList, String regionList) {
+		String ret = qg.getXPath().replace("(:scenarios:)", scenarioList);
+		ret = ret.replace("(:regions:)", regionList);
 		//ret = ret.replace("(:collection:)", "'"+collection+"'");
 		ret = ret.replace("(:collection:)", "()");
         // TODO: total hack
@@ -29,10 +29,25 @@
 */
 package ModelInterface.ModelGUI2.xmldb;
 
-import java.io.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.basex.api.dom.BXNode;
@@ -42,6 +57,7 @@ import org.basex.query.QueryProcessor;
 import org.basex.query.iter.Iter;
 import org.basex.query.value.Value;
 import org.basex.query.value.ValueBuilder;
+import org.basex.query.value.item.Int;
 import org.basex.query.value.item.Str;
 import org.basex.query.value.node.ANode;
 import org.basex.query.value.node.FElem;
@@ -51,9 +67,17 @@ import org.basex.query.value.seq.StrSeq;
 import ModelInterface.ModelGUI2.DbViewer;
 import ModelInterface.ModelGUI2.ScenarioListItem;
 import ModelInterface.ModelGUI2.queries.QueryGenerator;
+import ModelInterface.common.ThreadRoutedPrintStream;
 
 /**
  * A BaseX Java bound QueryModule to run a Model Interface query.
+ * <p>
+ * Rows are produced one at a time to a MIQueryRowSink.  The XQuery functions
+ * either collect them into a csv element or spool them to disk and write a CSV
+ * file for results which are too large to hold in memory.  Any logging done while the
+ * query runs is routed to STDERR, or discarded if ModelInterface.SUPPRESS_OUTPUT
+ * is set, for the calling thread only so that concurrent callers do not interfere
+ * with each other.
  * @author Pralit Patel.
  */ 
 public class RunMIQuery extends QueryModule {
@@ -61,82 +85,139 @@ public class RunMIQuery extends QueryModule {
     @Deterministic
     @ContextDependent
     public Value runMIQuery(ANode aMIQury, Value aScnNames, Value aRegionNames) throws QueryException {
-        // We need to put any logging on STDERR so we can assume anything on STDOUT is results
-        PrintStream stdout = System.out;
-        PrintStream stderr = System.err;
-        // If a user wants to suppress all output we must redirect STDERR as well
-        if(Boolean.parseBoolean(System.getProperty("ModelInterface.SUPPRESS_OUTPUT", "false"))) {
-            System.setErr(new PrintStream(new OutputStream() {
-                @Override
-                public void write(int b) {
-                    // ignore all
-                }
-            }));
-        }
-        System.setOut(System.err);
-        XMLDB xmldb = null;
-        try {
-            String[] scenarioNames = null;
-            String[] regions = null;
-            if(aScnNames instanceof Empty) {
-                scenarioNames = new String[0];
-            } else if(aScnNames instanceof Str) {
-                scenarioNames = new String[] { ((Str)aScnNames).toJava() };
-            } else if(aScnNames instanceof StrSeq) {
-                scenarioNames = ((StrSeq)aScnNames).toJava();
-            } else {
-                throw new Exception("Scenario argument of unexpected type: "+aScnNames.toString());
-            }
-            if(aRegionNames instanceof Empty) {
-                regions = new String[0];
-            } else if(aRegionNames instanceof Str) {
-                regions = new String[] { ((Str)aRegionNames).toJava() };
-            } else if(aRegionNames instanceof StrSeq) {
-                regions = ((StrSeq)aRegionNames).toJava();
-            } else {
-                throw new Exception("Regions argument of unexpected type: "+aRegionNames.toString());
-            }
-            QueryGenerator qg = new QueryGenerator(aMIQury.toJava());
-            xmldb = new XMLDB(queryContext.context);
-            Vector<ScenarioListItem> scenariosInDb = DbViewer.getScenarios(xmldb);
-            Vector<ScenarioListItem> scenariosToRun = new Vector<ScenarioListItem>();
-            if(scenarioNames.length == 0 && !scenariosInDb.isEmpty()) {
-                scenariosToRun.add(scenariosInDb.lastElement());
-            } else {
-                for(String currScn : scenarioNames) {
-                    String[] scnSplit = currScn.split(" (?=[^ ]+$)");
-                    String scnName = scnSplit.length > 0 ? scnSplit[0] : null;
-                    String scnDate = scnSplit.length > 1 ? scnSplit[1] : null;
-                    ScenarioListItem found = ScenarioListItem.findClosestScenario(scenariosInDb, scnName, scnDate);
-                    if(found != null) {
-                        scenariosToRun.add(found);
-                    }
-                }
+        final ValueBuilder vb = new ValueBuilder(queryContext); //Dan: added argument, was blank
+        final FElem elem = new FElem("csv");
+        vb.add(elem);
+        runWithRoutedOutput(aMIQury, aScnNames, aRegionNames, qg -> (columns, labels, numColumns, value) -> {
+            FElem row = new FElem("record");
+            for(int i = 0; i < numColumns; ++i) {
+                FElem col = new FElem(columns[i]);
+                col.add(labels[i]);
+                row.add(col);
             }
-            if(scenariosToRun.isEmpty()) {
-                throw new Exception("Could not find scenarios to run.");
+            FElem valueCol = new FElem("value");
+            valueCol.add(value);
+            row.add(valueCol);
+            elem.add(row);
+            return true;
+        });
+        return vb.value();
+    }
+
+    /**
+     * Runs the query and writes the results to a CSV file rather than building
+     * them in memory.  Rows may not all have the same columns so they are first
+     * spooled to a temporary file and the header lists every column seen, rows
+     * without a value for a column leave it empty.
+     * @return The number of rows written.
+     */
+    @Requires(Permission.CREATE)
+    @ContextDependent
+    public Value runMIQueryToCSV(ANode aMIQury, Value aScnNames, Value aRegionNames, Str aFileName) throws QueryException {
+        final CSVSpool[] spool = { null };
+        try {
+            final long rows = runWithRoutedOutput(aMIQury, aScnNames, aRegionNames, qg -> {
+                spool[0] = new CSVSpool(qg);
+                return spool[0];
+            });
+            try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(aFileName.toJava()),
+                    StandardCharsets.UTF_8))) {
+                spool[0].writeTo(out);
             }
-            QueryProcessor queryProc = xmldb.createQuery(qg, scenariosToRun.toArray(), regions);
-            ValueBuilder vb = new ValueBuilder(queryContext); //Dan: added argument, was blank
-            FElem elem = new FElem("csv");
-            vb.add(elem);
-            buildTable(queryProc, qg, elem);
-            return vb.value();
-            //return res.value();
+            return Int.get(rows);
+        } catch(QueryException e) {
+            throw e;
         } catch(Exception e) {
-            e.printStackTrace();
             throw new QueryException(e);
         } finally {
+            if(spool[0] != null) {
+                spool[0].close();
+            }
+        }
+    }
+
+    /**
+     * Run the query from one of the XQuery functions with any logging routed away
+     * from STDOUT for the current thread only.
+     * @return The number of rows produced.
+     */
+    private long runWithRoutedOutput(ANode aMIQury, Value aScnNames, Value aRegionNames,
+            SinkFactory sinkFactory) throws QueryException {
+        // We need to put any logging on STDERR so we can assume anything on STDOUT is results
+        final ThreadRoutedPrintStream stdout = ThreadRoutedPrintStream.out();
+        final ThreadRoutedPrintStream stderr = ThreadRoutedPrintStream.err();
+        // If a user wants to suppress all output we must redirect STDERR as well
+        final PrintStream prevErr = Boolean.parseBoolean(System.getProperty("ModelInterface.SUPPRESS_OUTPUT", "false")) ?
+            stderr.route(ThreadRoutedPrintStream.NULL_STREAM) : stderr.route(stderr.getDefaultStream());
+        final PrintStream prevOut = stdout.route(stderr);
+        try {
             // note no need to close xmldb since we adopted the context
         	// from the already running BaseX instance
-        	
-            // reset output streams
-            System.setOut(stdout);
-            System.setErr(stderr);
+            final QueryGenerator qg = new QueryGenerator(aMIQury.toJava());
+            return run(new XMLDB(queryContext.context), qg,
+                    toStrings(aScnNames, "Scenario"), toStrings(aRegionNames, "Regions"), sinkFactory.create(qg));
+        } catch(Exception e) {
+            e.printStackTrace();
+            throw new QueryException(e);
+        } finally {
+            // reset output routes
+            stdout.route(prevOut);
+            stderr.route(prevErr);
+        }
+    }
+
+    /**
+     * Convert a sequence of strings from XQuery.
+     */
+    private static String[] toStrings(Value aValue, String aArgName) throws Exception {
+        if(aValue instanceof Empty) {
+            return new String[0];
+        } else if(aValue instanceof Str) {
+            return new String[] { ((Str)aValue).toJava() };
+        } else if(aValue instanceof StrSeq) {
+            return ((StrSeq)aValue).toJava();
+        } else {
+            throw new Exception(aArgName+" argument of unexpected type: "+aValue.toString());
         }
     }
-    private void buildTable(QueryProcessor queryProc, QueryGenerator qg, FElem outputDoc) throws Exception {
-        //System.out.println("In Function: "+System.currentTimeMillis());
+
+    /**
+     * Run a Model Interface query and send each result row to the given sink.
+     * @param xmldb The database to run the query against.
+     * @param qg The query to run.
+     * @param scenarioNames The names, optionally followed by a space and the date, of
+     *                      the scenarios to run.  If empty the last scenario is used.
+     * @param regions The regions to run.
+     * @param sink Receives the rows as they are produced.
+     * @return The number of rows produced.
+     * @throws Exception If the scenarios could not be found or the query failed.
+     */
+    public static long run(XMLDB xmldb, QueryGenerator qg, String[] scenarioNames, String[] regions,
+            MIQueryRowSink sink) throws Exception {
+        Vector<ScenarioListItem> scenariosInDb = DbViewer.getScenarios(xmldb);
+        Vector<ScenarioListItem> scenariosToRun = new Vector<ScenarioListItem>();
+        if(scenarioNames.length == 0 && !scenariosInDb.isEmpty()) {
+            scenariosToRun.add(scenariosInDb.lastElement());
+        } else {
+            for(String currScn : scenarioNames) {
+                String[] scnSplit = currScn.split(" (?=[^ ]+$)");
+                String scnName = scnSplit.length > 0 ? scnSplit[0] : null;
+                String scnDate = scnSplit.length > 1 ? scnSplit[1] : null;
+                ScenarioListItem found = ScenarioListItem.findClosestScenario(scenariosInDb, scnName, scnDate);
+                if(found != null) {
+                    scenariosToRun.add(found);
+                }
+            }
+        }
+        if(scenariosToRun.isEmpty()) {
+            throw new Exception("Could not find scenarios to run.");
+        }
+        try(QueryLease query = xmldb.createQuery(qg, scenariosToRun.toArray(), regions)) {
+            return streamRows(query.getQuery(), qg, sink);
+        }
+    }
+
+    private static long streamRows(QueryProcessor queryProc, QueryGenerator qg, MIQueryRowSink sink) throws Exception {
         // TODO: replicate these checks, currently just assuming they are all false
         boolean sumAll = false;
         boolean isTotal = false;
@@ -145,6 +226,9 @@ public class RunMIQuery extends QueryModule {
         Iter res = queryProc.iter();
         ANode tempNode;
         final LinkedList<QueryRow>parentPath = new LinkedList<QueryRow>();
+        String[] columns = new String[16];
+        String[] labels = new String[16];
+        long numRows = 0;
         while((tempNode = (ANode)res.next()) != null) {
             BXNode domNode = BXNode.get(tempNode);
             qg.defaultAddToDataTree(tempNode.parent(), parentPath.listIterator(0), isGlobal);
@@ -157,14 +241,18 @@ public class RunMIQuery extends QueryModule {
             String currUnits = XMLDB.getAttrMap(BXNode.get(tempNode.parent())).get("unit");
             parentPath.peekLast().value = currUnits == null ? "None Specified" : currUnits;
 
-            FElem row = new FElem("record");
+            if(parentPath.size() > columns.length) {
+                columns = new String[parentPath.size() * 2];
+                labels = new String[columns.length];
+            }
+            int numColumns = 0;
             boolean skip = false;
             for(Iterator<QueryRow> it = parentPath.descendingIterator(); it.hasNext(); ) {
                 QueryRow currRow = it.next();
                 if(!(currRow.key == null && currRow.value == null )) {
-                    FElem col = new FElem(currRow.key);
-                    col.add(currRow.value);
-                    row.add(col);
+                    columns[numColumns] = currRow.key;
+                    labels[numColumns] = currRow.value;
+                    ++numColumns;
                     // skip this data since a rewrite list set the value
                     // to an empty string indicating the user wanted to
                     // delete it
@@ -172,12 +260,125 @@ public class RunMIQuery extends QueryModule {
                 }
             }
             if(!skip) {
-                FElem valueCol = new FElem("value");
-                valueCol.add(domNode.getNodeValue());
-                row.add(valueCol);
-                outputDoc.add(row);
+                ++numRows;
+                if(!sink.acceptRow(columns, labels, numColumns, domNode.getNodeValue())) {
+                    break;
+                }
+            }
+        }
+        return numRows;
+    }
+
+    /**
+     * Creates the sink for a query once it has been read.
+     */
+    private interface SinkFactory {
+        MIQueryRowSink create(QueryGenerator qg) throws Exception;
+    }
+
+    /**
+     * Collects the rows of a query in a temporary file so that a CSV header with
+     * every column can be written once all rows are known.  The columns start out
+     * as those every query has so that even an empty result gets a header, other
+     * columns are placed after the column which preceded them in the first row
+     * they appear in.
+     */
+    private static class CSVSpool implements MIQueryRowSink {
+        /**
+         * Separates a column name from its occurrence within a row for columns such
+         * as nested types which can appear more than once.
+         */
+        private static final char OCCURRENCE_SEPARATOR = '\u0000';
+
+        private final List<String> columnKeys = new ArrayList<String>();
+        private final Map<String, Integer> rowOccurrences = new HashMap<String, Integer>();
+        private final File spoolFile;
+        private final DataOutputStream spool;
+
+        CSVSpool(QueryGenerator qg) throws IOException {
+            columnKeys.add("scenario");
+            if(!qg.getCollapseOnList().contains("region")) {
+                columnKeys.add("region");
+            }
+            columnKeys.add(qg.getAxis1Name());
+            columnKeys.add(qg.getAxis2Name());
+            columnKeys.add("Units");
+            spoolFile = File.createTempFile("mi-query", ".spool");
+            spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile)));
+        }
+
+        public boolean acceptRow(String[] columns, String[] labels, int numColumns, String value) throws IOException {
+            spool.writeInt(numColumns);
+            rowOccurrences.clear();
+            String prevKey = null;
+            for(int i = 0; i < numColumns; ++i) {
+                Integer occurrence = rowOccurrences.get(columns[i]);
+                occurrence = occurrence == null ? 1 : occurrence + 1;
+                rowOccurrences.put(columns[i], occurrence);
+                final String key = occurrence == 1 ? columns[i] : columns[i]+OCCURRENCE_SEPARATOR+occurrence;
+                if(!columnKeys.contains(key)) {
+                    columnKeys.add(prevKey == null ? 0 : columnKeys.indexOf(prevKey) + 1, key);
+                }
+                prevKey = key;
+                spool.writeUTF(key);
+                spool.writeUTF(labels[i]);
+            }
+            spool.writeUTF(value);
+            return true;
+        }
+
+        /**
+         * Write the header and all of the spooled rows.
+         */
+        void writeTo(Writer out) throws IOException {
+            spool.close();
+            for(String key : columnKeys) {
+                final int split = key.indexOf(OCCURRENCE_SEPARATOR);
+                out.write(csvEscape(split == -1 ? key : key.substring(0, split)));
+                out.write(',');
+            }
+            out.write("value\n");
+            final Map<String, String> row = new HashMap<String, String>();
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile)))) {
+                while(in.available() > 0) {
+                    row.clear();
+                    for(int i = in.readInt(); i > 0; --i) {
+                        final String key = in.readUTF();
+                        row.put(key, in.readUTF());
+                    }
+                    for(String key : columnKeys) {
+                        final String label = row.get(key);
+                        if(label != null) {
+                            out.write(csvEscape(label));
+                        }
+                        out.write(',');
+                    }
+                    out.write(csvEscape(in.readUTF()));
+                    out.write('\n');
+                }
+            }
+        }
+
+        /**
+         * Remove the temporary file.
+         */
+        void close() {
+            try {
+                spool.close();
+            } catch(IOException e) {
+                e.printStackTrace();
             }
+            spoolFile.delete();
+        }
+    }
+
+    /**
+     * Quote a CSV field if it contains any special characters.
+     */
+    private static String csvEscape(String aField) {
+        if(aField.indexOf(',') == -1 && aField.indexOf('"') == -1 && aField.indexOf('\n') == -1) {
+            return aField;
         }
-        System.out.println("After Function: "+System.currentTimeMillis());
+        return '"'+aField.replace("\"", "\"\"")+'"';
     }
 }
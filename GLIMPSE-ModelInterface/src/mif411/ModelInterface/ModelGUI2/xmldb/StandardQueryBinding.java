@@ -46,6 +46,17 @@ public class StandardQueryBinding implements QueryBinding {
 	public String bindToQuery(Object[] scenarios, Object[] regions) {
 		return createQuery(createScenarioFilter(scenarios));
 	}
+	/**
+	 * Completes the base query in the same way as bindToQuery however the
+	 * scenarios are filtered by the scenarios external variable rather than
+	 * writing out each scenario.
+	 * @return The query which references the scenarios variable.
+	 * @see PreparableQueryBinding
+	 */
+	public String bindToParameterizedQuery() {
+		return createQuery("/scenario[ fn:concat(@name, ' ', @date) = $"+
+				PreparableQueryBinding.SCENARIOS_VARIABLE+" ]/world/");
+	}
 	private String createQuery(String scnFilter) {
 		StringBuilder queryBuff = new StringBuilder();
 		String[] queries = baseQuery.split("\\s*\\|\\s*");
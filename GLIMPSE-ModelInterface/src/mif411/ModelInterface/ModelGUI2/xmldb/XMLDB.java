@@ -32,16 +32,22 @@ package ModelInterface.ModelGUI2.xmldb;
 import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -54,33 +60,53 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
 
+import org.basex.api.dom.BXNode;
 import org.basex.core.BaseXException;
 import org.basex.core.Context;
 import org.basex.core.MainOptions;
 import org.basex.core.cmd.Add;
 import org.basex.core.cmd.Close;
 import org.basex.core.cmd.CreateDB;
+import org.basex.core.cmd.CreateIndex;
 import org.basex.core.cmd.Delete;
+import org.basex.core.cmd.DropIndex;
 import org.basex.core.cmd.Open;
+import org.basex.core.cmd.Optimize;
+import org.basex.core.cmd.OptimizeAll;
+import org.basex.core.parse.Commands.CmdIndex;
+import org.basex.data.Data;
+import org.basex.data.MetaData;
 import org.basex.io.IO;
 import org.basex.io.IOFile;
 import org.basex.io.out.PrintOutput;
 import org.basex.io.serial.Serializer;
 import org.basex.query.QueryException;
 import org.basex.query.QueryProcessor;
+import org.basex.query.iter.Iter;
+import org.basex.query.value.item.Item;
 import org.basex.query.value.node.ANode;
 import org.basex.query.value.node.DBNode;
+import org.basex.query.value.type.NodeType;
+import org.basex.util.Token;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import ModelInterface.InterfaceMain;
+import ModelInterface.ModelGUI2.ScenarioListItem;
+import ModelInterface.common.LRUCacheMap;
 import ModelInterface.ModelGUI2.queries.QueryGenerator;
 
 public class XMLDB {
+    /**
+     * The system property which may be set to open databases without making any
+     * changes to them, such as in batch worker processes which share a database.
+     */
+    public static final String READ_ONLY_PROPERTY = "ModelInterface.XMLDB_READ_ONLY";
+
     /**
      * The static instance of the XMLDB.
      */
-	private static XMLDB xmldbInstance = null;
+	private static volatile XMLDB xmldbInstance = null;
 
     /**
      * The database context need to run commands on the DB.
@@ -98,6 +124,36 @@ public class XMLDB {
      */
     private boolean wasContextAdopted;
 
+    /**
+     * The pool of sessions used to evaluate read queries concurrently.  This will
+     * be null if the context was adopted in which case all queries use the context.
+     */
+    private XMLDBSessionPool sessionPool = null;
+
+    /**
+     * Parameterized queries which have already been generated.
+     */
+    private final PreparedQueryCache preparedQueryCache = new PreparedQueryCache();
+
+    /**
+     * The persistent cache of processed query results.  This will be null if the
+     * cache is disabled or the context was adopted.
+     */
+    private QueryResultCache resultCache = null;
+
+    /**
+     * The log of query metrics and slow queries.  This will be null if the metrics
+     * are disabled or the context was adopted.
+     */
+    private QueryMetricsLog queryMetricsLog = null;
+
+    /**
+     * The catalog of scenarios in the database.  This will be null if the context
+     * was adopted or the catalog is missing or out of date, until the next import
+     * rebuilds it.
+     */
+    private XMLDBCatalog catalog = null;
+
 	/**
 	 * Gets the instance of the xml database.
 	 * @warning If the database is not open it will return null, ideally it
@@ -150,6 +206,9 @@ public class XMLDB {
 		// WARNING: not thread safe
 		if(xmldbInstance != null) {
 			try {
+                if(xmldbInstance.sessionPool != null) {
+                    xmldbInstance.sessionPool.close();
+                }
                 if(!xmldbInstance.wasContextAdopted) {
                     new Close().execute(xmldbInstance.context);
                 }
@@ -157,6 +216,10 @@ public class XMLDB {
                 e.printStackTrace();
 			} finally {
                 xmldbInstance.context = null;
+                xmldbInstance.sessionPool = null;
+                xmldbInstance.resultCache = null;
+                xmldbInstance.queryMetricsLog = null;
+                xmldbInstance.catalog = null;
                 xmldbInstance.contName = null;
 				xmldbInstance = null;
 			}
@@ -173,8 +236,37 @@ public class XMLDB {
 		if(!openDB(db)) {
 			throw new Exception ("Could not open DB");
 		}
+        sessionPool = new XMLDBSessionPool(context, contName);
+        if(QueryResultCache.isEnabled()) {
+            // keep the results next to, but not in, the database directory
+            File dbDir = context.soptions.dbPath(contName).file();
+            resultCache = new QueryResultCache(new File(dbDir.getParentFile(), contName+"-results"));
+        }
+        if(QueryMetricsLog.isEnabled()) {
+            queryMetricsLog = new QueryMetricsLog(context.soptions.dbPath(contName).file().getParentFile(), contName);
+        }
+        catalog = new XMLDBCatalog(context, contName);
+        try {
+            // opening a database should not write to it so fall back to searching the
+            // scenarios until the catalog is rebuilt by the next import
+            if(!catalog.isValid()) {
+                System.out.println("The scenario catalog is missing or out of date and will not be used");
+                catalog = null;
+            }
+        } catch(QueryException e) {
+            System.out.println("Could not load the scenario catalog: "+e);
+            catalog = null;
+        }
     }
 	
+	/**
+	 * Checks the system properties to see if databases should be opened read only.
+	 * @return True if the database may not be created or modified.
+	 */
+	public static boolean isReadOnly() {
+		return Boolean.getBoolean(READ_ONLY_PROPERTY);
+	}
+
 	/**
 	 * Public constructor using a context to initialize.
 	 * @param contextIn The built context.
@@ -219,11 +311,12 @@ public class XMLDB {
         System.setProperty("org.basex.DBPATH", path);
 
         context = new Context();
-        // Set some default behaviors such as no indexing etc
-        // TODO: experiment with these
-        context.options.set(MainOptions.ATTRINDEX, false);
+        // Set some default behaviors such as no full text indexing etc
+        // The attribute indices are set by the index profile which will only be
+        // used if we end up creating a new database, existing databases keep
+        // the profile they were created or last optimized with.
+        XMLDBIndexProfile.getDefault().applyTo(context.options);
         context.options.set(MainOptions.FTINDEX, false);
-        context.options.set(MainOptions.UPDINDEX, false);
         context.options.set(MainOptions.CHOP, true);
         context.options.set(MainOptions.ADDCACHE, true);
         context.options.set(MainOptions.INTPARSE, true);
@@ -256,6 +349,9 @@ public class XMLDB {
         if (DbDirectoryExists && oneFileHasBasexExt) {
         	try {
                new Open(contName).execute(context);
+               // keep the options in sync with the profile stored in the database
+               getIndexProfile().applyTo(context.options);
+               System.out.println("Index profile="+getIndexProfile());
         	} catch (Exception e) {
         		//show a message
         		System.out.println("Cannot open database: "+contName);
@@ -263,6 +359,10 @@ public class XMLDB {
         		return false;
         		
         	}
+        } else if(isReadOnly()) {
+        	System.out.println("Cannot open database: "+contName);
+        	System.out.println("  error: the database does not exist and may not be created when read only");
+        	return false;
         } else {
         	try {
         		int ans = InterfaceMain.getInstance().showConfirmDialog(
@@ -376,6 +476,13 @@ public class XMLDB {
 			//	public void run() {
 					try{ 
 						myAdd.execute(context);
+						databaseModified();
+						updateCatalog(docName, new File(fileName).length());
+						invalidateResults(getScenarioKeys(docName));
+						if(needsOptimize()) {
+							StepOneLabel.setText("Rebuilding indices . . . ");
+							optimize();
+						}
 					}catch(Exception e) {
 						System.out.println("Problem running import: "+e.toString());
 						System.out.println("For file "+fileName);
@@ -396,15 +503,193 @@ public class XMLDB {
 		    e.printStackTrace();
 	    }
 	}
+	/**
+	 * Adds several files to the DB at once.  The files are parsed concurrently and
+	 * the database is only optimized once all of them have been added.  Progress
+	 * and throughput are shown in a dialog when running with a GUI.
+	 * @param files The scenario files to import.
+	 * @return The summary of the import.
+	 */
+	public XMLDBBulkImport.Result addFiles(File[] files) {
+		// try to generate a unique name for each file to be added
+		SimpleDateFormat format = new SimpleDateFormat("ddMMyy-hhmmss");
+		final String prefix = "run_"+format.format(new Date());
+		final String[] docNames = new String[files.length];
+		for(int i = 0; i < files.length; ++i) {
+			docNames[i] = files.length == 1 ? prefix+".xml" : prefix+"-"+i+".xml";
+		}
+
+		final boolean showProgress = !GraphicsEnvironment.isHeadless() && InterfaceMain.getInstance() != null;
+		final JProgressBar progBarOverall = new JProgressBar(0, files.length);
+		final JLabel overallLabel = new JLabel("Importing "+files.length+" files");
+		final JProgressBar StepOneProgBar = new JProgressBar(0, 100);
+		final JLabel StepOneLabel = new JLabel("Parsing and copying to Database . . .");
+		StepOneProgBar.setIndeterminate(true);
+		final JDialog jd = showProgress ? XMLDB.createProgressBarGUIAddScenario("Importing Scenarios into Database",
+				overallLabel, progBarOverall, StepOneLabel, StepOneProgBar) : null;
+		if(jd != null) {
+			jd.setSize(400, 250);
+			jd.setModal(false);
+			SwingUtilities.invokeLater(() -> jd.setVisible(true));
+		}
+
+		final XMLDBBulkImport.Result result = new XMLDBBulkImport(context, contName).importFiles(files, docNames,
+				(file, completed, total, bytesPerSecond) -> SwingUtilities.invokeLater(() -> {
+					progBarOverall.setValue(completed);
+					overallLabel.setText("Imported "+completed+" of "+total+" ("+
+						String.format("%.1f", bytesPerSecond / (1024.0 * 1024.0))+" MB/s)");
+				}));
+		if(!result.getImportedDocs().isEmpty()) {
+			databaseModified();
+			final List<String> scenarioKeys = new ArrayList<String>();
+			for(int i = 0; i < files.length; ++i) {
+				if(result.getImportedDocs().contains(docNames[i])) {
+					updateCatalog(docNames[i], files[i].length());
+					scenarioKeys.addAll(getScenarioKeys(docNames[i]));
+				}
+			}
+			invalidateResults(scenarioKeys);
+			if(needsOptimize()) {
+				if(jd != null) {
+					SwingUtilities.invokeLater(() -> StepOneLabel.setText("Rebuilding indices . . . "));
+				}
+				optimize();
+			}
+		}
+		if(jd != null) {
+			SwingUtilities.invokeLater(() -> jd.dispose());
+			if(!result.getFailedFiles().isEmpty()) {
+				JOptionPane.showMessageDialog(InterfaceMain.getInstance().getFrame(), "The import for "+
+						String.join(", ", result.getFailedFiles())+
+						" failed.  Note that this may leave your database in a broken state.");
+			}
+		}
+		return result;
+	}
+
 	public void removeDoc(String docName) {
 		try {
 			System.out.println("Removing :"+docName);
+            final List<String> scenarioKeys = getScenarioKeys(docName);
             new Delete(docName).execute(context);
+            databaseModified();
+            if(catalog != null) {
+                try {
+                    catalog.remove(docName);
+                    databaseModified();
+                } catch(QueryException e) {
+                    e.printStackTrace();
+                }
+            }
+            invalidateResults(scenarioKeys);
+            if(needsOptimize()) {
+                optimize();
+            }
 		} catch(BaseXException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * @return The cache of processed query results or null if results are not
+	 *         being cached.
+	 */
+	public QueryResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * @return The log to record query metrics in or null if they are not being
+	 *         logged.
+	 */
+	public QueryMetricsLog getQueryMetricsLog() {
+		return queryMetricsLog;
+	}
+
+	/**
+	 * @return The catalog of scenarios in the database or null if there is no catalog.
+	 */
+	public XMLDBCatalog getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Add the scenarios in a document to the catalog.  If there is no catalog yet
+	 * or it was out of date it is rebuilt first.
+	 * @param docName The document which was added.
+	 * @param size The size of the file the document was added from.
+	 */
+	private void updateCatalog(String docName, long size) {
+		if(wasContextAdopted || isReadOnly()) {
+			return;
+		}
+		try {
+			if(catalog == null) {
+				final XMLDBCatalog newCatalog = new XMLDBCatalog(context, contName);
+				newCatalog.rebuild();
+				catalog = newCatalog;
+			}
+			catalog.update(docName, size, true);
+			databaseModified();
+		} catch(QueryException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Remove any cached query results which were built from the given scenarios.
+	 * @param scenarioKeys The scenarios which have been modified.
+	 */
+	private void invalidateResults(List<String> scenarioKeys) {
+		if(resultCache != null) {
+			resultCache.invalidate(scenarioKeys);
+		}
+	}
+
+	/**
+	 * Get the keys of the scenarios contained in the given document.
+	 * @param docName The name of the document in the database.
+	 * @return The scenario keys as used by the result cache.
+	 */
+	private List<String> getScenarioKeys(String docName) {
+		final List<String> ret = new ArrayList<String>();
+		if(resultCache == null) {
+			return ret;
+		}
+		final String scenarioQuery = "declare variable $db as xs:string external; declare variable $doc as xs:string external; "+
+			"for $scn in db:open($db, $doc)/scenario return fn:concat($scn/@name, ' ', $scn/@date)";
+		final QueryProcessor queryProc = new QueryProcessor(scenarioQuery, context);
+		try {
+			queryProc.bind("db", contName, "xs:string");
+			queryProc.bind("doc", docName, "xs:string");
+			final Iter res = queryProc.iter();
+			for(Item curr; (curr = res.next()) != null; ) {
+				ret.add(curr.toJava().toString());
+			}
+		} catch(QueryException e) {
+			e.printStackTrace();
+		} finally {
+			queryProc.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the key of the scenario which contains the given node.
+	 * @param node A node within a scenario.
+	 * @return A list containing the scenario key as used by the result cache or an
+	 *         empty list if the node is not within a scenario.
+	 */
+	private List<String> getScenarioKeys(ANode node) {
+		for(ANode curr = node; curr != null; curr = curr.parent()) {
+			if(curr.nodeType() == NodeType.ELEMENT && "scenario".equals(Token.string(curr.name()))) {
+				final Map<String, String> attrMap = getAttrMap(BXNode.get(curr));
+				return Collections.singletonList(QueryResultCache.getScenarioKey(attrMap.get("name"), attrMap.get("date")));
+			}
+		}
+		return Collections.emptyList();
+	}
+
 	/**
 	 * Export a document to a text file.
 	 * @param aDocName Name of the document to export.
@@ -434,45 +719,233 @@ public class XMLDB {
 		return false;
 	}
 
+	/**
+	 * Get the index profile the open database is configured with.
+	 * @return The index profile of the database.
+	 */
+	public XMLDBIndexProfile getIndexProfile() {
+		return XMLDBIndexProfile.fromMetaData(context.data().meta);
+	}
+
+	/**
+	 * Change the index profile of the open database.  The index settings are
+	 * stored with the database so it will keep using this profile when it is
+	 * opened again.  Note that this may need to rebuild the entire database
+	 * which could take a while for a large database.
+	 * @param profile The index profile to switch to.
+	 * @throws BaseXException If the indices could not be built or other threads
+	 * are still running queries.
+	 */
+	public void setIndexProfile(XMLDBIndexProfile profile) throws BaseXException {
+		// sessions pin the database which would prevent it from being rebuilt, they
+		// will be recreated as needed the next time a query is created
+		if(sessionPool != null && !sessionPool.suspend()) {
+			throw new BaseXException("Queries are still running, the index profile can be changed once they finish.");
+		}
+		try {
+			profile.applyTo(context.options);
+			if(context.data().meta.updindex != profile.hasUpdIndex()) {
+				// whether indices are maintained incrementally can only be changed by
+				// rebuilding the database
+				new OptimizeAll().execute(context);
+			}
+			// note the database may have been rebuilt so get the meta data again
+			final MetaData meta = context.data().meta;
+			setIndex(CmdIndex.ATTRIBUTE, profile.hasAttrIndex(), meta.attrindex, meta.createattr);
+			setIndex(CmdIndex.TOKEN, profile.hasTokenIndex(), meta.tokenindex, meta.createtoken);
+			databaseModified();
+		} finally {
+			if(sessionPool != null) {
+				sessionPool.resume();
+			}
+		}
+	}
+
+	/**
+	 * Create or drop a single index as necessary.
+	 * @param index The index type to modify.
+	 * @param wanted If the index should exist.
+	 * @param exists If the index currently exists and is up to date.
+	 * @param create If the database is currently configured to create the index.
+	 * @throws BaseXException If the index could not be created or dropped.
+	 */
+	private void setIndex(CmdIndex index, boolean wanted, boolean exists, boolean create) throws BaseXException {
+		if(wanted && !exists) {
+			new CreateIndex(index).execute(context);
+		} else if(!wanted && (exists || create)) {
+			new DropIndex(index).execute(context);
+		}
+	}
+
+	/**
+	 * Checks if there are indices which have been configured for the database but
+	 * are no longer up to date after the database was modified.
+	 * @return True if the indices need to be rebuilt by calling optimize.
+	 */
+	public boolean needsOptimize() {
+		final MetaData meta = context.data().meta;
+		return !meta.updindex && ((meta.createattr && !meta.attrindex) ||
+				(meta.createtoken && !meta.tokenindex));
+	}
+
+	/**
+	 * Rebuild any indices which are out of date.
+	 */
+	public void optimize() {
+		try {
+			new Optimize().execute(context);
+			databaseModified();
+		} catch(BaseXException e) {
+			e.printStackTrace();
+		}
+	}
+
 	public String getContainer() {
 		return contName;
 	}
 
-	public QueryProcessor createQuery(String query, Vector<String> queryFunctions, 
+	public QueryLease createQuery(String query, Vector<String> queryFunctions, 
 			Object[] scenarios, Object[] regions) {
 		return createQuery(QueryBindingFactory.getQueryBinding(query, queryFunctions, contName),
 				scenarios, regions);
 	}
-	public QueryProcessor createQuery(QueryGenerator qg, Object[] scenarios, Object[] regions) {
+	public QueryLease createQuery(QueryGenerator qg, Object[] scenarios, Object[] regions) {
         return createQuery(qg, scenarios, regions, null);
     }
-	public QueryProcessor createQuery(QueryGenerator qg, Object[] scenarios, Object[] regions, DbProcInterrupt interrupt) {
+	public QueryLease createQuery(QueryGenerator qg, Object[] scenarios, Object[] regions, DbProcInterrupt interrupt) {
 		return createQuery(QueryBindingFactory.getQueryBinding(qg, contName), scenarios,
 				regions, interrupt);
 	}
-	public QueryProcessor createQuery(QueryBinding queryBinding, Object[] scenarios, Object[] regions) {
+	public QueryLease createQuery(QueryBinding queryBinding, Object[] scenarios, Object[] regions) {
         return createQuery(queryBinding, scenarios, regions, null);
     }
-	public QueryProcessor createQuery(QueryBinding queryBinding, Object[] scenarios, Object[] regions, DbProcInterrupt interrupt) {
-		String queryComplete = queryBinding.bindToQuery(scenarios, regions);
-		System.out.println("About to perform query: "+queryComplete);
-        QueryProcessor ret = new QueryProcessor(queryComplete, context);
+	/**
+	 * Create a query on a session leased for the current thread.
+	 * @param queryBinding The binding to generate the query text.
+	 * @param scenarios The selected scenarios.
+	 * @param regions The selected regions.
+	 * @param interrupt Will be set to interrupt the query if not null.
+	 * @return The query, which should be closed once done to release its session.
+	 */
+	public QueryLease createQuery(QueryBinding queryBinding, Object[] scenarios, Object[] regions, DbProcInterrupt interrupt) {
+        QueryLease ret = null;
+        if(queryBinding instanceof PreparableQueryBinding && scenarios != null) {
+            ret = createPreparedQuery((PreparableQueryBinding)queryBinding, scenarios, regions);
+        }
+        if(ret == null) {
+            String queryComplete = queryBinding.bindToQuery(scenarios, regions);
+            System.out.println("About to perform query: "+queryComplete);
+            ret = new QueryLease(new QueryProcessor(queryComplete, getSessionContext()), sessionPool);
+        }
         if(interrupt != null) {
-            interrupt.setProc(ret);
+            interrupt.setProc(ret.getQuery());
         }
         return ret;
 	}
 
-    /*
-	private static ThreadLocal<Map<Integer, Map<String, String>>> attrCache = 
-        new ThreadLocal<Map<Integer, Map<String, String>>>() {
-            protected Map<Integer, Map<String, String>> initialValue() {
-                final int cacheSize = 500;
-                return new LRUCacheMap<Integer, Map<String, String>>(cacheSize);
-            }
-        };
-        */
-	//private static Map<String, Map<String, String>> attrCache = new TreeMap<String, Map<String, String>>();
+	/**
+	 * Create a query using the parameterized version of the query text and bind
+	 * the scenarios and regions as external variables.  The query text will be
+	 * reused from the prepared query cache if the same query has been run before.
+	 * @param binding The binding to generate the query text.
+	 * @param scenarios The selected scenarios.
+	 * @param regions The selected regions.
+	 * @return The query ready to be run or null if the binding could not be
+	 *         parameterized in which case the query should be bound as usual.
+	 */
+	private QueryLease createPreparedQuery(PreparableQueryBinding binding, Object[] scenarios, Object[] regions) {
+		final boolean isGlobal = regions == null || regions.length == 0 || "Global".equals(regions[0]);
+		final String query = preparedQueryCache.getQuery(binding, isGlobal);
+		if(query == null) {
+			return null;
+		}
+		final String[] scenarioKeys = new String[scenarios.length];
+		for(int i = 0; i < scenarios.length; ++i) {
+			ScenarioListItem currScn = (ScenarioListItem)scenarios[i];
+			scenarioKeys[i] = currScn.getScnName()+" "+currScn.getScnDate();
+		}
+		final String[] regionNames;
+		if(regions == null || regions.length == 0) {
+			regionNames = new String[] { "Global" };
+		} else {
+			regionNames = new String[regions.length];
+			for(int i = 0; i < regions.length; ++i) {
+				regionNames[i] = regions[i].toString();
+			}
+		}
+		System.out.println("About to perform query: "+query);
+		System.out.println("  with scenarios: "+Arrays.toString(scenarioKeys)+" regions: "+Arrays.toString(regionNames));
+		final QueryLease ret = new QueryLease(new QueryProcessor(query, getSessionContext()), sessionPool);
+		try {
+			ret.getQuery().bind(PreparableQueryBinding.SCENARIOS_VARIABLE, scenarioKeys);
+			ret.getQuery().bind(PreparableQueryBinding.REGIONS_VARIABLE, regionNames);
+		} catch(QueryException e) {
+			e.printStackTrace();
+			ret.close();
+			return null;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The cache of parameterized queries.
+	 */
+	public PreparedQueryCache getPreparedQueryCache() {
+		return preparedQueryCache;
+	}
+
+	/**
+	 * Get the context the current thread should use to run a read only query.
+	 * Each querying thread is given its own session from the pool when one is
+	 * available so that queries may run concurrently.  The session is leased
+	 * until the QueryLease of the query is closed.
+	 * @return The context to create a query with.
+	 */
+	private Context getSessionContext() {
+		return sessionPool != null ? sessionPool.acquire() : context;
+	}
+
+	/**
+	 * The maximum number of nodes each thread will keep attributes cached for.
+	 * Results are generally processed in document order so this only needs to be
+	 * large enough to hold the ancestors of the nodes recently processed.
+	 */
+	private static final int ATTR_CACHE_SIZE = 4096;
+
+	/**
+	 * Counts the number of times the database has been modified.  Attribute caches
+	 * check this to know when the node ids they were keyed by are no longer valid.
+	 */
+	private static final AtomicLong modificationCount = new AtomicLong();
+
+	/**
+	 * Total attribute cache hits and misses across all threads.
+	 */
+	private static final LongAdder attrCacheHits = new LongAdder();
+	private static final LongAdder attrCacheMisses = new LongAdder();
+
+	/**
+	 * A per thread attribute cache.  Entries are keyed by the node's pre value which
+	 * is only unique within a single Data and only until the database is modified so
+	 * the data and modification count it was filled from are tracked as well.
+	 */
+	private static class AttrCache {
+		Data data = null;
+		long modification = -1;
+		final Map<Integer, Map<String, String>> cache =
+			new LRUCacheMap<Integer, Map<String, String>>(ATTR_CACHE_SIZE);
+	}
+
+	/**
+	 * Attribute caches are confined to a thread so that they may be used without
+	 * synchronization by concurrently running queries.
+	 */
+	private static final ThreadLocal<AttrCache> attrCache = new ThreadLocal<AttrCache>() {
+		protected AttrCache initialValue() {
+			return new AttrCache();
+		}
+	};
+
 	public static Map<String, String> getAttrMap(Node node) {
 		final NamedNodeMap attrs = node.getAttributes();
         final Map<String, String> ret = new TreeMap<String, String>();
@@ -482,19 +955,57 @@ public class XMLDB {
         }
         return ret;
 	}
+	/**
+	 * Get the attributes of a node, reusing the map from a previous call for the
+	 * same database node if it is still cached by this thread.  The returned map
+	 * is shared and so can not be modified.  Nodes which are not backed by the
+	 * database, such as those created by run functions, are never cached.
+	 * @param node The node to get the attributes of.
+	 * @return A map of attribute name to value.
+	 */
 	public static Map<String, String> getAttrMapWithCache(Node node) {
-        /*
-		int nodeId = node.getNode().id;
-		Map<String, String> ret = attrCache.get().get(nodeId);
-		// null means a cahce miss so we will need to go back to the database
+		if(!(node instanceof BXNode) || !(((BXNode)node).getNode() instanceof DBNode)) {
+			return getAttrMap(node);
+		}
+		final DBNode dbNode = (DBNode)((BXNode)node).getNode();
+		final AttrCache currCache = attrCache.get();
+		final long currModification = modificationCount.get();
+		if(currCache.data != dbNode.data() || currCache.modification != currModification) {
+			currCache.cache.clear();
+			currCache.data = dbNode.data();
+			currCache.modification = currModification;
+		}
+		final Integer nodeId = dbNode.pre();
+		Map<String, String> ret = currCache.cache.get(nodeId);
+		// null means a cache miss so we will need to go back to the database
 		if(ret == null) {
-			ret = getAttrMap(node);
+			attrCacheMisses.increment();
+			ret = Collections.unmodifiableMap(getAttrMap(node));
 			// put the result in the cache for the next time
-			attrCache.get().put(nodeId, ret);
+			currCache.cache.put(nodeId, ret);
+		} else {
+			attrCacheHits.increment();
 		}
 		return ret;
-        */
-        return getAttrMap(node);
+	}
+	/**
+	 * @return The number of attribute lookups which were found in a cache.
+	 */
+	public static long getAttrCacheHits() {
+		return attrCacheHits.sum();
+	}
+	/**
+	 * @return The number of attribute lookups which had to go to the database.
+	 */
+	public static long getAttrCacheMisses() {
+		return attrCacheMisses.sum();
+	}
+	/**
+	 * Let any cached information which relies on node ids know that the database
+	 * has been modified.
+	 */
+	private static void databaseModified() {
+		modificationCount.incrementAndGet();
 	}
 	public static String getAllAttr(Map<String, String> attrMap, List<String> showAttrList) {
 		String ret;
@@ -526,6 +1037,8 @@ public class XMLDB {
 	public void setValue(ANode val, String content) {
 		// simple XQuery update query to replace the value of the given val
 		final String setValueXQuery = "declare variable $newValue as xs:string external; replace value of node self::node() with $newValue";
+        // the scenario key may be the value being changed so get it before the update
+        final List<String> scenarioKeys = new ArrayList<String>(getScenarioKeys(val));
         QueryProcessor queryProc = new QueryProcessor(setValueXQuery, context);
 		try {
             // set val as the context so that it knows which node to update
@@ -535,6 +1048,20 @@ public class XMLDB {
 			queryProc.bind("newValue", content, "xs:string");
 			// not expecting anything to be in the results
 			queryProc.iter();
+			databaseModified();
+			if(catalog != null && val.nodeType() == NodeType.ATTRIBUTE && val.parent() != null
+					&& val.parent().parent() != null && val.parent().parent().nodeType() == NodeType.DOCUMENT_NODE) {
+				// a scenario was renamed
+				catalog.refreshNames(val);
+				databaseModified();
+			}
+			// also drop anything left under the new key, such as when a rename is undone
+			for(String newKey : getScenarioKeys(val)) {
+				if(!scenarioKeys.contains(newKey)) {
+					scenarioKeys.add(newKey);
+				}
+			}
+			invalidateResults(scenarioKeys);
 		} catch(QueryException e) {
 			e.printStackTrace();
 		} finally {
@@ -560,6 +1087,7 @@ public class XMLDB {
 			queryProc.bind("newCacheValue", content, "xs:string");
 			// not expecting anything to be in the results
 			queryProc.iter();
+			databaseModified();
 		} catch(QueryException e) {
 			e.printStackTrace();
 		} finally {
@@ -0,0 +1,320 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.basex.build.MemBuilder;
+import org.basex.build.Parser;
+import org.basex.core.Context;
+import org.basex.data.MemData;
+import org.basex.io.IOFile;
+import org.basex.query.QueryException;
+import org.basex.query.QueryProcessor;
+import org.basex.query.value.node.DBNode;
+
+/**
+ * Imports many scenario documents into the database at once.  Parsing a document
+ * is CPU bound and can be done independently for each file so several files are
+ * parsed concurrently into in memory documents.  Adding the parsed documents to
+ * the database must be serialized, however copying an already parsed document is
+ * much cheaper than parsing it, so the calling thread commits each document as
+ * soon as it is ready while the remaining files continue to be parsed.
+ * <p>
+ * The parsed documents waiting to be committed are bounded both in number and in
+ * their estimated size, which is kept within half of the maximum heap, so large
+ * scenario files are parsed one or two at a time.  Optimizing the database is
+ * left to the caller so that it may be done once after all files have been
+ * added.
+ */
+public class XMLDBBulkImport {
+    /**
+     * The system property which may be used to override the number of parsing
+     * threads, by default we use one per available processor.
+     */
+    public static final String IMPORT_THREADS_PROPERTY = "ModelInterface.IMPORT_THREADS";
+
+    /**
+     * Rough size of a parsed document in memory relative to the size of its file.
+     */
+    private static final long PARSED_BYTES_PER_FILE_BYTE = 2;
+
+    /**
+     * Gets notified as each file has been imported or failed to import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called from the importing thread once a file has been handled.
+         * @param file The file which was handled.
+         * @param completed The number of files handled so far.
+         * @param total The total number of files being imported.
+         * @param bytesPerSecond The overall throughput so far.
+         */
+        void fileImported(File file, int completed, int total, double bytesPerSecond);
+    }
+
+    /**
+     * The summary of an import.
+     */
+    public static class Result {
+        private final List<String> importedDocs = new ArrayList<String>();
+        private final List<String> failedFiles = new ArrayList<String>();
+        private long totalBytes = 0;
+        private long elapsedNanos = 0;
+
+        /**
+         * @return The document names which were added to the database.
+         */
+        public List<String> getImportedDocs() {
+            return importedDocs;
+        }
+        /**
+         * @return The files which could not be imported.
+         */
+        public List<String> getFailedFiles() {
+            return failedFiles;
+        }
+        /**
+         * @return The total size of the files imported in bytes.
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+        /**
+         * @return The wall clock time the import took in seconds.
+         */
+        public double getElapsedSeconds() {
+            return elapsedNanos / 1e9;
+        }
+        /**
+         * @return The import throughput in MB/s.
+         */
+        public double getMBPerSecond() {
+            return elapsedNanos == 0 ? 0 : (totalBytes / (1024.0 * 1024.0)) / getElapsedSeconds();
+        }
+    }
+
+    /**
+     * A file which has been parsed and is ready to commit.
+     */
+    private static class StagedDoc {
+        final int index;
+        final MemData data;
+        final Throwable error;
+        StagedDoc(int index, MemData data, Throwable error) {
+            this.index = index;
+            this.data = data;
+            this.error = error;
+        }
+    }
+
+    /**
+     * The context which has the database open for writing.
+     */
+    private final Context context;
+
+    /**
+     * The name of the database to add documents to.
+     */
+    private final String dbName;
+
+    /**
+     * Create an importer which adds documents to the database opened in the given
+     * context.
+     * @param context The context which has opened the database.
+     * @param dbName The name of the opened database.
+     */
+    public XMLDBBulkImport(Context context, String dbName) {
+        this.context = context;
+        this.dbName = dbName;
+    }
+
+    /**
+     * Gets the number of threads to parse with.
+     * @param numFiles The number of files to be imported.
+     * @return The number of parsing threads.
+     */
+    private static int getNumThreads(int numFiles) {
+        int defaultSize = Runtime.getRuntime().availableProcessors();
+        int size;
+        try {
+            size = Integer.parseInt(System.getProperty(IMPORT_THREADS_PROPERTY, Integer.toString(defaultSize)));
+        } catch(NumberFormatException e) {
+            System.out.println("Invalid value for "+IMPORT_THREADS_PROPERTY+", using "+defaultSize);
+            size = defaultSize;
+        }
+        return Math.max(1, Math.min(size, numFiles));
+    }
+
+    /**
+     * Import the given files.  Files which fail to parse or be added are reported in
+     * the result and do not stop the rest of the files from being imported.
+     * @param files The scenario files to import.
+     * @param docNames The document name to use for each file.
+     * @param listener Notified as each file is handled, may be null.
+     * @return A summary of the import.
+     */
+    public Result importFiles(final File[] files, final String[] docNames, final ProgressListener listener) {
+        final Result result = new Result();
+        final long startTime = System.nanoTime();
+        final int numThreads = getNumThreads(files.length);
+        final ExecutorService parsePool = Executors.newFixedThreadPool(numThreads);
+        final CompletionService<StagedDoc> staged = new ExecutorCompletionService<StagedDoc>(parsePool);
+        // allow one document to be committed while each thread parses the next
+        final int maxInFlight = numThreads + 1;
+        final long maxInFlightBytes = Runtime.getRuntime().maxMemory() / 2;
+        final boolean[] handled = new boolean[files.length];
+        System.out.println("Importing "+files.length+" files using "+numThreads+" parsing threads");
+        try {
+            int submitted = 0;
+            int completed = 0;
+            int inFlight = 0;
+            long inFlightBytes = 0;
+            while(completed < files.length) {
+                // always allow one file in flight even if it is larger than the bound
+                while(submitted < files.length && inFlight < maxInFlight && (inFlight == 0 ||
+                        inFlightBytes + estimateParsedBytes(files[submitted]) <= maxInFlightBytes)) {
+                    final int index = submitted++;
+                    staged.submit(() -> parse(index, files[index]));
+                    ++inFlight;
+                    inFlightBytes += estimateParsedBytes(files[index]);
+                }
+                StagedDoc doc = staged.take().get();
+                --inFlight;
+                final int docIndex = doc.index;
+                final File file = files[docIndex];
+                final long commitStart = System.nanoTime();
+                Throwable error = doc.error;
+                if(error == null) {
+                    try {
+                        commit(docNames[docIndex], doc.data);
+                    } catch(QueryException | RuntimeException e) {
+                        error = e;
+                    }
+                }
+                handled[docIndex] = true;
+                // let the parsed document be collected before parsing more
+                doc = null;
+                inFlightBytes -= estimateParsedBytes(file);
+                if(error == null) {
+                    result.importedDocs.add(docNames[docIndex]);
+                    result.totalBytes += file.length();
+                    System.out.println("Imported "+file.getName()+" as "+docNames[docIndex]+" ("+
+                            String.format("%.1f", file.length() / (1024.0 * 1024.0))+" MB, commit "+
+                            String.format("%.2f", (System.nanoTime() - commitStart) / 1e9)+" s)");
+                } else {
+                    result.failedFiles.add(file.getPath());
+                    System.out.println("Problem running import: "+error.toString());
+                    System.out.println("For file "+file.getPath());
+                }
+                ++completed;
+                result.elapsedNanos = System.nanoTime() - startTime;
+                if(listener != null) {
+                    listener.fileImported(file, completed, files.length,
+                            result.elapsedNanos == 0 ? 0 : result.totalBytes / result.getElapsedSeconds());
+                }
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            if(e instanceof InterruptedException) {
+                // let the caller see that it was interrupted
+                Thread.currentThread().interrupt();
+            }
+            e.printStackTrace();
+            for(int i = 0; i < files.length; ++i) {
+                if(!handled[i]) {
+                    result.failedFiles.add(files[i].getPath());
+                }
+            }
+        } finally {
+            parsePool.shutdownNow();
+        }
+        result.elapsedNanos = System.nanoTime() - startTime;
+        System.out.println("Imported "+result.importedDocs.size()+" of "+files.length+" files, "+
+                String.format("%.1f", result.getTotalBytes() / (1024.0 * 1024.0))+" MB in "+
+                String.format("%.1f", result.getElapsedSeconds())+" s ("+
+                String.format("%.2f", result.getMBPerSecond())+" MB/s)");
+        return result;
+    }
+
+    /**
+     * Estimate the memory a file will take once parsed.
+     * @param file The file to be parsed.
+     * @return The estimated size in bytes.
+     */
+    private static long estimateParsedBytes(File file) {
+        return file.length() * PARSED_BYTES_PER_FILE_BYTE;
+    }
+
+    /**
+     * Parse a file into an in memory document using the same parsing options as the
+     * database such as whitespace chopping.
+     * @param index The index of the file being parsed.
+     * @param file The file to parse.
+     * @return The staged document, or the error if it could not be parsed.
+     */
+    private StagedDoc parse(int index, File file) {
+        try {
+            final IOFile input = new IOFile(file);
+            final MemData data = MemBuilder.build(input.name(), Parser.singleParser(input, context.options, ""));
+            return new StagedDoc(index, data, null);
+        } catch(Throwable e) {
+            // includes running out of memory which should only fail this file, the
+            // partially parsed document can be collected once we return
+            return new StagedDoc(index, null, e);
+        }
+    }
+
+    /**
+     * Add a parsed document to the database.
+     * @param docName The name to give the document.
+     * @param data The parsed document.
+     * @throws QueryException If the document could not be added.
+     */
+    private void commit(String docName, MemData data) throws QueryException {
+        final String addQuery = "declare variable $db as xs:string external; declare variable $doc external; "+
+            "declare variable $path as xs:string external; db:add($db, $doc, $path)";
+        final QueryProcessor queryProc = new QueryProcessor(addQuery, context);
+        try {
+            queryProc.bind("db", dbName, "xs:string");
+            queryProc.bind("doc", new DBNode(data));
+            queryProc.bind("path", docName, "xs:string");
+            queryProc.value();
+        } finally {
+            queryProc.close();
+        }
+    }
+}
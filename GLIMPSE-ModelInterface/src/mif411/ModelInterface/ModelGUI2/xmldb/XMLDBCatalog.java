@@ -0,0 +1,245 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.util.Vector;
+
+import org.basex.core.Context;
+import org.basex.query.QueryException;
+import org.basex.query.QueryProcessor;
+import org.basex.query.iter.Iter;
+import org.basex.query.value.item.Item;
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.seq.Empty;
+
+import ModelInterface.ModelGUI2.ScenarioListItem;
+import ModelInterface.ModelGUI2.queries.QueryBuilder;
+
+/**
+ * A catalog of the scenarios in the database which is kept as a small document
+ * within the database itself.  Each entry records the scenario name and date, the
+ * path and file name of the document it is stored in, the regions it contains,
+ * and when known the size of the file it was imported from and when.  The scenario
+ * and region lists can then be read from the catalog rather than searching every
+ * scenario document.
+ * <p>
+ * The catalog is updated as documents are added, removed, or scenarios renamed
+ * through the XMLDB.  It is only created or rebuilt when documents are imported
+ * so simply opening a database never writes to it.  If it is missing or does not
+ * match the scenarios in the database, for instance if the database was modified
+ * by some other tool, it is not used until the next import rebuilds it.
+ */
+public class XMLDBCatalog {
+	/**
+	 * The name of the document the catalog is stored in.
+	 */
+	public static final String CATALOG_DOC = "scenario-catalog.xml";
+
+	/**
+	 * Query prolog shared by the catalog queries.
+	 */
+	private static final String PROLOG = "declare variable $db as xs:string external; "+
+		"declare function local:entry($scn as element(), $doc as xs:string, $size as xs:string?, $imported as xs:boolean) as element() { "+
+		"<scn path='{$doc}' doc='{replace($doc, \"^.*/\", \"\")}' name='{$scn/@name}' date='{$scn/@date}'>{ "+
+		"if(exists($size)) then attribute size { $size } else (), "+
+		"if($imported) then attribute imported { current-dateTime() } else (), "+
+		"for $rgn in distinct-values($scn/world/"+QueryBuilder.regionQueryPortion+"/@name) return <rgn>{ $rgn }</rgn> "+
+		"}</scn> }; ";
+
+	/**
+	 * The context which has the database open for writing.
+	 */
+	private final Context context;
+
+	/**
+	 * The name of the database.
+	 */
+	private final String dbName;
+
+	/**
+	 * Create the catalog for the database which is open in the given context.
+	 * @param context The context which has opened the database.
+	 * @param dbName The name of the opened database.
+	 */
+	public XMLDBCatalog(Context context, String dbName) {
+		this.context = context;
+		this.dbName = dbName;
+	}
+
+	/**
+	 * Check the catalog matches the scenarios in the database without changing it.
+	 * The document, name, date, and regions of every entry are compared so that
+	 * a scenario which was replaced by another is also noticed.
+	 * @return True if the catalog exists and has a matching entry for every scenario.
+	 * @throws QueryException If the catalog could not be checked.
+	 */
+	public boolean isValid() throws QueryException {
+		final String checkQuery = "declare variable $db as xs:string external; "+
+			"if(db:exists($db, '"+CATALOG_DOC+"')) then "+
+			"let $entries := for $entry in db:open($db, '"+CATALOG_DOC+"')/scenarioCatalog/scn "+
+			"return string-join(($entry/@path, $entry/@name, $entry/@date, $entry/rgn), '|') "+
+			"let $scenarios := for $scn in collection($db)/scenario "+
+			"return string-join((db:path($scn), $scn/@name, $scn/@date, "+
+			"distinct-values($scn/world/"+QueryBuilder.regionQueryPortion+"/@name)), '|') "+
+			"return deep-equal(sort($entries), sort($scenarios)) "+
+			"else false()";
+		return Boolean.TRUE.equals(evaluate(checkQuery, null, null).toJava());
+	}
+
+	/**
+	 * Rebuild the catalog from all of the scenarios in the database.
+	 * @throws QueryException If the catalog could not be rebuilt.
+	 */
+	public void rebuild() throws QueryException {
+		System.out.println("Rebuilding the scenario catalog");
+		evaluate(PROLOG+"db:replace($db, '"+CATALOG_DOC+"', <scenarioCatalog>{ "+
+			"for $scn in collection($db)/scenario return local:entry($scn, db:path($scn), (), false()) "+
+			"}</scenarioCatalog>)", null, null);
+	}
+
+	/**
+	 * Add or replace the entries for the scenarios in the given document.
+	 * @param docName The path of the document which was added or changed.
+	 * @param size The size of the file the document was imported from or a
+	 *             negative value if not known.
+	 * @param imported If the document has just been imported.
+	 * @throws QueryException If the catalog could not be updated.
+	 */
+	public void update(String docName, long size, boolean imported) throws QueryException {
+		evaluate(PROLOG+"declare variable $doc as xs:string external; declare variable $size external; "+
+			"let $catalog := db:open($db, '"+CATALOG_DOC+"')/scenarioCatalog "+
+			"return (delete node $catalog/scn[@path = $doc], "+
+			"for $scn in db:open($db, $doc)/scenario "+
+			"return insert node local:entry($scn, $doc, $size, "+imported+"()) into $catalog)",
+			docName, size < 0 ? "" : Long.toString(size));
+	}
+
+	/**
+	 * Remove the entries for the scenarios in the given document.
+	 * @param docName The path of the document which is being removed.
+	 * @throws QueryException If the catalog could not be updated.
+	 */
+	public void remove(String docName) throws QueryException {
+		evaluate("declare variable $db as xs:string external; declare variable $doc as xs:string external; "+
+			"delete node db:open($db, '"+CATALOG_DOC+"')/scenarioCatalog/scn[@path = $doc]", docName, null);
+	}
+
+	/**
+	 * Update the name and date of a catalog entry after the scenario has been
+	 * renamed.
+	 * @param scenarioAttr The name or date attribute of the scenario which changed.
+	 * @throws QueryException If the catalog could not be updated.
+	 */
+	public void refreshNames(ANode scenarioAttr) throws QueryException {
+		final QueryProcessor queryProc = new QueryProcessor("declare variable $db as xs:string external; "+
+			"for $scn in ../self::scenario, $entry in db:open($db, '"+CATALOG_DOC+"')/scenarioCatalog/scn[@path = db:path($scn)] "+
+			"return (replace value of node $entry/@name with $scn/@name, replace value of node $entry/@date with $scn/@date)", context);
+		try {
+			queryProc.context(scenarioAttr);
+			queryProc.bind("db", dbName, "xs:string");
+			queryProc.iter();
+		} finally {
+			queryProc.close();
+		}
+	}
+
+	/**
+	 * Get the scenarios in the order they were added to the database.
+	 * @return The scenarios.
+	 * @throws QueryException If the catalog could not be read.
+	 */
+	public Vector<ScenarioListItem> getScenarios() throws QueryException {
+		final Vector<ScenarioListItem> ret = new Vector<ScenarioListItem>();
+		final QueryProcessor queryProc = new QueryProcessor("declare variable $db as xs:string external; "+
+			"for $scn in db:open($db, '"+CATALOG_DOC+"')/scenarioCatalog/scn "+
+			"return ($scn/@doc/string(), $scn/@name/string(), $scn/@date/string())", context);
+		try {
+			queryProc.bind("db", dbName, "xs:string");
+			final Iter res = queryProc.iter();
+			for(Item doc; (doc = res.next()) != null; ) {
+				ret.add(new ScenarioListItem(doc.toJava().toString(), res.next().toJava().toString(),
+					res.next().toJava().toString()));
+			}
+		} finally {
+			queryProc.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the distinct names of regions across all scenarios.
+	 * @return The region names.
+	 * @throws QueryException If the catalog could not be read.
+	 */
+	public Vector<String> getRegions() throws QueryException {
+		final Vector<String> ret = new Vector<String>();
+		final QueryProcessor queryProc = new QueryProcessor("declare variable $db as xs:string external; "+
+			"distinct-values(db:open($db, '"+CATALOG_DOC+"')/scenarioCatalog/scn/rgn)", context);
+		try {
+			queryProc.bind("db", dbName, "xs:string");
+			final Iter res = queryProc.iter();
+			for(Item rgn; (rgn = res.next()) != null; ) {
+				ret.add(rgn.toJava().toString());
+			}
+		} finally {
+			queryProc.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Evaluate a catalog query.
+	 * @param query The query to run.
+	 * @param docName The value for $doc if used by the query.
+	 * @param size The value for $size if used by the query, an empty string means
+	 *             the size is not known.
+	 * @return The result of the query.
+	 * @throws QueryException If the query failed.
+	 */
+	private Item evaluate(String query, String docName, String size) throws QueryException {
+		final QueryProcessor queryProc = new QueryProcessor(query, context);
+		try {
+			queryProc.bind("db", dbName, "xs:string");
+			if(docName != null) {
+				queryProc.bind("doc", docName, "xs:string");
+			}
+			if(size != null) {
+				if(size.isEmpty()) {
+					queryProc.bind("size", Empty.VALUE);
+				} else {
+					queryProc.bind("size", size, "xs:string");
+				}
+			}
+			return queryProc.iter().next();
+		} finally {
+			queryProc.close();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import org.basex.core.MainOptions;
+import org.basex.data.MetaData;
+
+/**
+ * The sets of BaseX index settings which may be used for a database.  The
+ * index structures and whether they are maintained incrementally are stored in
+ * the database meta data by BaseX so a profile, once applied, persists with
+ * the database.  Most queries filter on the name, date, and type attributes so
+ * it is the attribute and token indices which are of interest.
+ */
+public enum XMLDBIndexProfile {
+    /**
+     * No attribute indices, this is how databases have traditionally been created.
+     */
+    NONE("none", false, false, false),
+
+    /**
+     * Attribute and token indices which get rebuilt by optimizing the database
+     * after scenarios have been added.
+     */
+    ATTRIBUTE("attribute", true, true, false),
+
+    /**
+     * Attribute and token indices which BaseX will maintain as scenarios are
+     * added or removed so that they never need to be rebuilt.
+     */
+    INCREMENTAL("incremental", true, true, true);
+
+    /**
+     * The system property which may be used to set the profile used when creating
+     * a new database.
+     */
+    public static final String PROFILE_PROPERTY = "ModelInterface.INDEX_PROFILE";
+
+    private final String name;
+    private final boolean attrIndex;
+    private final boolean tokenIndex;
+    private final boolean updIndex;
+
+    private XMLDBIndexProfile(String name, boolean attrIndex, boolean tokenIndex, boolean updIndex) {
+        this.name = name;
+        this.attrIndex = attrIndex;
+        this.tokenIndex = tokenIndex;
+        this.updIndex = updIndex;
+    }
+
+    public boolean hasAttrIndex() {
+        return attrIndex;
+    }
+
+    public boolean hasTokenIndex() {
+        return tokenIndex;
+    }
+
+    public boolean hasUpdIndex() {
+        return updIndex;
+    }
+
+    /**
+     * Set the index options so that databases created or optimized with them
+     * will use this profile.
+     * @param options The options to set.
+     */
+    public void applyTo(MainOptions options) {
+        options.set(MainOptions.ATTRINDEX, attrIndex);
+        options.set(MainOptions.TOKENINDEX, tokenIndex);
+        options.set(MainOptions.UPDINDEX, updIndex);
+    }
+
+    /**
+     * Determine which profile an open database was created with.  Note that this
+     * checks which indices the database is configured to build, not whether they
+     * are currently up to date.
+     * @param meta The meta data of the database.
+     * @return The matching profile, databases with unusual combinations of options
+     *         will be mapped to the closest profile.
+     */
+    public static XMLDBIndexProfile fromMetaData(MetaData meta) {
+        if(!meta.createattr && !meta.attrindex) {
+            return NONE;
+        }
+        return meta.updindex ? INCREMENTAL : ATTRIBUTE;
+    }
+
+    /**
+     * Find a profile by name ignoring case.
+     * @param name The name of the profile.
+     * @return The profile or null if there is not one with the given name.
+     */
+    public static XMLDBIndexProfile fromName(String name) {
+        if(name == null) {
+            return null;
+        }
+        for(XMLDBIndexProfile profile : values()) {
+            if(profile.name.equalsIgnoreCase(name.trim())) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the profile to use for newly created databases.
+     * @return The profile set by the system property or NONE if not set.
+     */
+    public static XMLDBIndexProfile getDefault() {
+        final String propValue = System.getProperty(PROFILE_PROPERTY);
+        final XMLDBIndexProfile ret = fromName(propValue);
+        if(propValue != null && ret == null) {
+            System.out.println("Unknown index profile "+propValue+", using "+NONE);
+        }
+        return ret != null ? ret : NONE;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
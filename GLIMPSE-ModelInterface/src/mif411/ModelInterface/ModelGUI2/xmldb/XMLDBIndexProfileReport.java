@@ -0,0 +1,219 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.basex.query.iter.Iter;
+import org.w3c.dom.Node;
+
+import ModelInterface.ModelGUI2.queries.QueryGenerator;
+
+/**
+ * Times a set of queries against the open database under each of several index
+ * profiles so that we can determine which profile works best for the kinds of
+ * queries and data we typically use.  Only the XQuery evaluation is timed, the
+ * results are simply counted and not built into tables.  The report is written
+ * as a CSV with a row per query and a column per profile.  The database will be
+ * returned to its original profile when the report is finished.
+ */
+public class XMLDBIndexProfileReport {
+    private final XMLDB xmldb;
+    private final List<QueryGenerator> queries = new ArrayList<QueryGenerator>();
+    private final Object[] scenarios;
+    private final Object[] regions;
+
+    /**
+     * Create a report for all queries found in a query document.
+     * @param xmldb The open database to run the queries against.
+     * @param queriesRoot The root of a queries document, query groups will be
+     *                    searched recursively.
+     * @param scenarios The scenarios to run the queries for.
+     * @param regions The regions to run the queries for.
+     */
+    public XMLDBIndexProfileReport(XMLDB xmldb, Node queriesRoot, Object[] scenarios, Object[] regions) {
+        this.xmldb = xmldb;
+        this.scenarios = scenarios;
+        this.regions = regions;
+        collectQueries(queriesRoot);
+    }
+
+    /**
+     * Recursively find all of the queries in the query tree.
+     * @param parent The node to search under.
+     */
+    private void collectQueries(Node parent) {
+        for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if(child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if(child.getNodeName().equals("queryGroup")) {
+                collectQueries(child);
+            } else {
+                try {
+                    final QueryGenerator qg = new QueryGenerator(child);
+                    if(qg.isValid()) {
+                        queries.add(qg);
+                    }
+                } catch(Exception e) {
+                    System.out.println("Skipping "+child.getNodeName()+" in index report: "+e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of queries which will be timed.
+     */
+    public int getNumQueries() {
+        return queries.size();
+    }
+
+    /**
+     * Run all of the queries under each profile and write the report.
+     * @param profiles The profiles to compare.
+     * @param repeats How many times to run each query, the fastest time is reported.
+     * @param outFile The CSV file to write the report to.
+     * @throws Exception If the database could not be switched between profiles or
+     *                   the report could not be written.
+     */
+    public void run(List<XMLDBIndexProfile> profiles, int repeats, File outFile) throws Exception {
+        final XMLDBIndexProfile originalProfile = xmldb.getIndexProfile();
+        final long[][] times = new long[queries.size()][profiles.size()];
+        final long[] switchTimes = new long[profiles.size()];
+        try {
+            for(int p = 0; p < profiles.size(); ++p) {
+                final XMLDBIndexProfile currProfile = profiles.get(p);
+                System.out.println("Switching to index profile "+currProfile);
+                long start = System.nanoTime();
+                xmldb.setIndexProfile(currProfile);
+                switchTimes[p] = System.nanoTime() - start;
+                for(int q = 0; q < queries.size(); ++q) {
+                    times[q][p] = timeQuery(queries.get(q), Math.max(repeats, 1));
+                }
+            }
+        } finally {
+            if(xmldb.getIndexProfile() != originalProfile) {
+                System.out.println("Restoring index profile "+originalProfile);
+                xmldb.setIndexProfile(originalProfile);
+            }
+        }
+        writeReport(profiles, times, switchTimes, outFile);
+    }
+
+    /**
+     * Run a single query and count its results.
+     * @param qg The query to run.
+     * @param repeats The number of times to run the query.
+     * @return The fastest run in nanoseconds or -1 if the query failed.
+     */
+    private long timeQuery(QueryGenerator qg, int repeats) {
+        long best = Long.MAX_VALUE;
+        for(int i = 0; i < repeats; ++i) {
+            final long start = System.nanoTime();
+            // do not keep a session pinned between queries
+            try(QueryLease query = xmldb.createQuery(qg, scenarios, regions)) {
+                final Iter res = query.getQuery().iter();
+                while(res.next() != null) {
+                    // only interested in the time to evaluate
+                }
+            } catch(Exception e) {
+                System.out.println("Query "+qg+" failed: "+e);
+                return -1;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Write the timing results as a CSV.  Times are in milliseconds and failed
+     * queries are left blank.
+     */
+    private void writeReport(List<XMLDBIndexProfile> profiles, long[][] times, long[] switchTimes, File outFile)
+            throws IOException {
+        final long[] totals = new long[profiles.size()];
+        final int[] wins = new int[profiles.size()];
+        final PrintStream out = new PrintStream(outFile);
+        try {
+            out.print("Query");
+            for(XMLDBIndexProfile profile : profiles) {
+                out.print(",\""+profile+" (ms)\"");
+            }
+            out.println(",Fastest");
+            for(int q = 0; q < times.length; ++q) {
+                out.print("\""+queries.get(q).toString().replace("\"", "\"\"")+"\"");
+                int fastest = -1;
+                for(int p = 0; p < profiles.size(); ++p) {
+                    out.print(',');
+                    if(times[q][p] >= 0) {
+                        out.print(times[q][p] / 1000000.0);
+                        totals[p] += times[q][p];
+                        if(fastest == -1 || times[q][p] < times[q][fastest]) {
+                            fastest = p;
+                        }
+                    }
+                }
+                out.print(',');
+                if(fastest != -1) {
+                    out.print(profiles.get(fastest));
+                    ++wins[fastest];
+                }
+                out.println();
+            }
+            int bestTotal = 0;
+            out.print("Total");
+            for(int p = 0; p < profiles.size(); ++p) {
+                out.print(","+totals[p] / 1000000.0);
+                if(totals[p] < totals[bestTotal]) {
+                    bestTotal = p;
+                }
+            }
+            out.println(","+profiles.get(bestTotal));
+            out.print("Queries fastest");
+            for(int p = 0; p < profiles.size(); ++p) {
+                out.print(","+wins[p]);
+            }
+            out.println(",");
+            out.print("Index build");
+            for(int p = 0; p < profiles.size(); ++p) {
+                out.print(","+switchTimes[p] / 1000000.0);
+            }
+            out.println(",");
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote index profile report to "+outFile);
+    }
+}
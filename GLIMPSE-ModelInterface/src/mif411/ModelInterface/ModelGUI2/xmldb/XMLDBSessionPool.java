@@ -0,0 +1,260 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.basex.core.BaseXException;
+import org.basex.core.Context;
+import org.basex.core.cmd.Close;
+import org.basex.core.cmd.Open;
+
+/**
+ * A pool of BaseX client contexts which all share the database already opened by
+ * the main XMLDB context.  BaseX keeps opened databases in a registry shared by
+ * a context and its children so each session simply pins the same underlying data
+ * and sees any documents added or removed through the main context.
+ * <p>
+ * Sessions are leased for the lifetime of a query: creating a query leases a
+ * session for the current thread and closing it releases that lease again.  A
+ * thread which has several queries open at once keeps reusing the same session
+ * until all of them have been released.  This allows the batch query pool and
+ * the query result panels to evaluate their queries concurrently rather than
+ * all contending on the single main context.  If every session is leased we
+ * fall back to sharing the main context, which is what used to happen in all
+ * cases.
+ */
+public class XMLDBSessionPool {
+    /**
+     * The system property which may be used to override the maximum number of
+     * sessions, by default we allow one per available processor.
+     */
+    public static final String MAX_SESSIONS_PROPERTY = "ModelInterface.XMLDB_SESSIONS";
+
+    /**
+     * The main context which opened the database and is the parent of all sessions.
+     */
+    private final Context mainContext;
+
+    /**
+     * The name of the database each session will open.
+     */
+    private final String dbName;
+
+    /**
+     * The maximum number of sessions this pool will create.
+     */
+    private final int maxSessions;
+
+    /**
+     * All of the sessions created by this pool so that they can be closed.
+     */
+    private final List<Context> allSessions = new ArrayList<Context>();
+
+    /**
+     * Sessions which are not currently leased to any thread.
+     */
+    private final Deque<Context> idleSessions = new ArrayDeque<Context>();
+
+    /**
+     * The session currently leased by each thread.
+     */
+    private final Map<Thread, Context> leasedSessions = new HashMap<Thread, Context>();
+
+    /**
+     * The number of queries which have not yet released each leased session.
+     */
+    private final Map<Context, Integer> leaseCounts = new HashMap<Context, Integer>();
+
+    /**
+     * Set while the database is being rebuilt, no sessions are leased until resumed.
+     */
+    private boolean suspended = false;
+
+    /**
+     * Create a session pool for the database which has been opened in the given
+     * context.
+     * @param mainContext The context which has opened the database.
+     * @param dbName The name of the opened database.
+     */
+    public XMLDBSessionPool(Context mainContext, String dbName) {
+        this.mainContext = mainContext;
+        this.dbName = dbName;
+        int defaultSize = Runtime.getRuntime().availableProcessors();
+        int size;
+        try {
+            size = Integer.parseInt(System.getProperty(MAX_SESSIONS_PROPERTY, Integer.toString(defaultSize)));
+        } catch(NumberFormatException e) {
+            System.out.println("Invalid value for "+MAX_SESSIONS_PROPERTY+", using "+defaultSize);
+            size = defaultSize;
+        }
+        maxSessions = Math.max(size, 1);
+    }
+
+    /**
+     * Lease the session to be used for a query on the current thread.  A thread
+     * will always get the same session back while it has queries which have not
+     * yet been released.  Each call must be matched by a call to release once the
+     * query has been closed.
+     * @return The context the current thread should use to create the query.
+     */
+    public synchronized Context acquire() {
+        final Thread currThread = Thread.currentThread();
+        Context session = leasedSessions.get(currThread);
+        if(session != null) {
+            leaseCounts.put(session, leaseCounts.get(session) + 1);
+            return session;
+        }
+        if(suspended) {
+            return mainContext;
+        }
+        if(idleSessions.isEmpty()) {
+            reclaimFinishedThreads();
+        }
+        if(idleSessions.isEmpty() && allSessions.size() < maxSessions) {
+            session = createSession();
+            if(session != null) {
+                allSessions.add(session);
+                idleSessions.push(session);
+            }
+        }
+        if(idleSessions.isEmpty()) {
+            // all sessions are busy, share the main context
+            return mainContext;
+        }
+        session = idleSessions.pop();
+        leasedSessions.put(currThread, session);
+        leaseCounts.put(session, 1);
+        return session;
+    }
+
+    /**
+     * Release one lease of the given session, once all of the queries created from
+     * it have been released it is returned to the pool.  Queries which were given
+     * the shared main context are ignored.  Note the query may be released from a
+     * different thread than the one which created it.
+     * @param session The context the closed query was created with.
+     */
+    public synchronized void release(Context session) {
+        final Integer count = leaseCounts.get(session);
+        if(count == null) {
+            return;
+        }
+        if(count > 1) {
+            leaseCounts.put(session, count - 1);
+            return;
+        }
+        leaseCounts.remove(session);
+        leasedSessions.values().remove(session);
+        idleSessions.push(session);
+    }
+
+    /**
+     * Close all of the sessions.  Their queries should have all been closed by now.
+     * The main context is left open as it is not owned by this pool.
+     */
+    public synchronized void close() {
+        for(Iterator<Context> it = allSessions.iterator(); it.hasNext(); ) {
+            final Context session = it.next();
+            // only close the database in the session, closing the session context
+            // itself would close the databases shared with the main context
+            try {
+                new Close().execute(session);
+            } catch(BaseXException e) {
+                e.printStackTrace();
+            }
+        }
+        allSessions.clear();
+        idleSessions.clear();
+        leasedSessions.clear();
+        leaseCounts.clear();
+    }
+
+    /**
+     * Close all of the sessions so that the database may be rebuilt, unless some are
+     * still leased by queries which have not been closed.  Until resume is called
+     * threads share the main context rather than leasing new sessions.
+     * @return True if the sessions were closed, false if some are still in use.
+     */
+    public synchronized boolean suspend() {
+        reclaimFinishedThreads();
+        if(!leasedSessions.isEmpty()) {
+            return false;
+        }
+        close();
+        suspended = true;
+        return true;
+    }
+
+    /**
+     * Allow sessions to be leased again after suspend.
+     */
+    public synchronized void resume() {
+        suspended = false;
+    }
+
+    /**
+     * Return sessions leased by threads which have since finished back to the pool
+     * in case a query was never released.
+     */
+    private void reclaimFinishedThreads() {
+        for(Iterator<Map.Entry<Thread, Context>> it = leasedSessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Thread, Context> currEntry = it.next();
+            if(!currEntry.getKey().isAlive()) {
+                idleSessions.push(currEntry.getValue());
+                leaseCounts.remove(currEntry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Create a new client context and open the database in it.
+     * @return The new session or null if the database could not be opened.
+     */
+    private Context createSession() {
+        final Context session = new Context(mainContext);
+        // client contexts do not inherit the user from the parent
+        session.user(mainContext.user());
+        try {
+            new Open(dbName).execute(session);
+            return session;
+        } catch(BaseXException e) {
+            System.out.println("Could not open a new session on "+dbName+": "+e);
+            return null;
+        }
+    }
+}
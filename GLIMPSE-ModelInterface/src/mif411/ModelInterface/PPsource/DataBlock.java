@@ -48,6 +48,8 @@
  */
 package ModelInterface.PPsource;
 
+import java.util.Arrays;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -62,7 +64,12 @@ import java.util.TreeMap;
 public class DataBlock extends Block
 {
   //string, object pairs describing what the data is, and then the corresponding value - ("CO2", 1452)
-  public TreeMap<String, TreeMap<java.lang.Double, java.lang.Double>> data;
+  //null once the block has been compacted, the values are then held in values instead,
+  //so it is only reached through the value methods and getDataMap
+  private TreeMap<String, TreeMap<java.lang.Double, java.lang.Double>> data;
+  //compact storage: values indexed by the dictionary's slots, NaN where there is no value
+  private double[] values;
+  private DataDictionary dictionary;
   //x - the longitude of the block in degrees (degrees W are negative)
   //y - the latitude of the block in degrees (degrees S are negative)
   //height - from y going N
@@ -107,4 +114,173 @@ public class DataBlock extends Block
     width = W;
     data = new TreeMap<String, TreeMap<java.lang.Double, java.lang.Double>>();
   }
+  /**
+   * Receives each value held by a block.
+   */
+  public interface ValueVisitor
+  {
+    public void visit(String var, java.lang.Double time, double value);
+  }
+  /**
+   * Moves any data in this block into a double array indexed by the slots of the
+   * passed dictionary.  The TreeMap data is discarded and all further access must
+   * go through the value methods of this class.
+   * 
+   * @param dict Dictionary shared by all blocks of a tree.
+   */
+  public void compact(DataDictionary dict)
+  {
+    if(dictionary != null)
+    {
+      return;
+    }
+    dictionary = dict;
+    values = new double[0];
+    for(Map.Entry<String, TreeMap<java.lang.Double, java.lang.Double>> var : data.entrySet())
+    {
+      for(Map.Entry<java.lang.Double, java.lang.Double> time : var.getValue().entrySet())
+      {
+        putValue(var.getKey(), time.getKey(), time.getValue().doubleValue());
+      }
+    }
+    data = null;
+  }
+  /**
+   * @return Whether the data of this block is held in compact form.
+   */
+  public boolean isCompact()
+  {
+    return dictionary != null;
+  }
+  /**
+   * @return Whether this block holds no values.
+   */
+  public boolean isEmptyData()
+  {
+    if(dictionary == null)
+    {
+      return data.isEmpty();
+    }
+    for(int i = 0; i < values.length; i++)
+    {
+      if(!java.lang.Double.isNaN(values[i]))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  /**
+   * Gets a single value from this block.
+   * 
+   * @param var Name of the variable.
+   * @param time Time of the value.
+   * @return The value or NaN if there is none.
+   */
+  public double getValue(String var, java.lang.Double time)
+  {
+    if(dictionary == null)
+    {
+      TreeMap<java.lang.Double, java.lang.Double> times = data.get(var);
+      java.lang.Double value = times == null ? null : times.get(time);
+      return value == null ? java.lang.Double.NaN : value.doubleValue();
+    }
+    int slot = dictionary.getSlot(var, time);
+    return (slot < 0 || slot >= values.length) ? java.lang.Double.NaN : values[slot];
+  }
+  /**
+   * Sets a single value in this block, replacing any old value.
+   * 
+   * @param var Name of the variable.
+   * @param time Time of the value.
+   * @param value The new value.
+   */
+  public void putValue(String var, java.lang.Double time, double value)
+  {
+    if(dictionary == null)
+    {
+      TreeMap<java.lang.Double, java.lang.Double> times = data.get(var);
+      if(times == null)
+      {
+        times = new TreeMap<java.lang.Double, java.lang.Double>();
+        data.put(var, times);
+      }
+      times.put(time, value);
+      return;
+    }
+    int slot = dictionary.addSlot(var, time);
+    if(slot >= values.length)
+    {
+      int oldLength = values.length;
+      values = Arrays.copyOf(values, Math.max(slot+1, dictionary.getSlotCount()));
+      Arrays.fill(values, oldLength, values.length, java.lang.Double.NaN);
+    }
+    values[slot] = value;
+  }
+  /**
+   * Adds to a single value in this block, a missing value is treated as 0.
+   * 
+   * @param var Name of the variable.
+   * @param time Time of the value.
+   * @param amount Amount to add.
+   */
+  public void addValue(String var, java.lang.Double time, double amount)
+  {
+    double oldValue = getValue(var, time);
+    putValue(var, time, java.lang.Double.isNaN(oldValue) ? amount : oldValue+amount);
+  }
+  /**
+   * Passes every value in this block to the visitor.  Compact blocks visit values
+   * in slot order rather than sorted by variable and time.
+   * 
+   * @param visitor Receives the values.
+   */
+  public void visitValues(ValueVisitor visitor)
+  {
+    if(dictionary == null)
+    {
+      for(Map.Entry<String, TreeMap<java.lang.Double, java.lang.Double>> var : data.entrySet())
+      {
+        for(Map.Entry<java.lang.Double, java.lang.Double> time : var.getValue().entrySet())
+        {
+          visitor.visit(var.getKey(), time.getKey(), time.getValue().doubleValue());
+        }
+      }
+      return;
+    }
+    for(int i = 0; i < values.length; i++)
+    {
+      if(!java.lang.Double.isNaN(values[i]))
+      {
+        visitor.visit(dictionary.getVariable(i), dictionary.getTime(i), values[i]);
+      }
+    }
+  }
+  /**
+   * Gets the data of this block as variable to time to value maps regardless of
+   * how it is stored.  For compact blocks this is a new copy.
+   * 
+   * @return The data of this block.
+   */
+  public TreeMap<String, TreeMap<java.lang.Double, java.lang.Double>> getDataMap()
+  {
+    if(dictionary == null)
+    {
+      return data;
+    }
+    final TreeMap<String, TreeMap<java.lang.Double, java.lang.Double>> ret = new TreeMap<String, TreeMap<java.lang.Double, java.lang.Double>>();
+    visitValues(new ValueVisitor() {
+      public void visit(String var, java.lang.Double time, double value)
+      {
+        TreeMap<java.lang.Double, java.lang.Double> times = ret.get(var);
+        if(times == null)
+        {
+          times = new TreeMap<java.lang.Double, java.lang.Double>();
+          ret.put(var, times);
+        }
+        times.put(time, value);
+      }
+    });
+    return ret;
+  }
 }
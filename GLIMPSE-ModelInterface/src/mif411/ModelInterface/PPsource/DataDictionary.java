@@ -0,0 +1,149 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+/*!
+ * \file DataDictionary.java
+ * \ingroup Preprocess
+ * \brief Shared variable and time dictionaries for compactly stored DataBlocks.
+ *
+ *  Every distinct variable and time pair which is stored in a tree is given a slot
+ * number so that each block only needs to hold a double array of its values.
+ */
+package ModelInterface.PPsource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Shared variable and time dictionaries for compactly stored DataBlocks.
+ * Every distinct variable and time pair which is stored in a tree is given a slot
+ * number and blocks then hold a double array indexed by slot in which NaN marks
+ * a value that is not present.  Slots are only ever added so that a block's array
+ * never needs to be rearranged, only grown.
+ * <p>
+ * Adding slots is synchronized; looking slots up is safe from many threads as long
+ * as no slots are being added at the same time which is the case while a tree is
+ * being searched.
+ */
+public class DataDictionary
+{
+  private final HashMap<String, Integer> varIndex = new HashMap<String, Integer>();
+  private final ArrayList<String> vars = new ArrayList<String>();
+  private final HashMap<Double, Integer> timeIndex = new HashMap<Double, Integer>();
+  private final ArrayList<Double> times = new ArrayList<Double>();
+  //slot lookup keyed by the variable index in the high and the time index in the low bits
+  private final HashMap<Long, Integer> slotIndex = new HashMap<Long, Integer>();
+  private int[] slotVar = new int[16];
+  private int[] slotTime = new int[16];
+  private int slotCount;
+
+  /**
+   * Gets the slot for a variable and time, adding it if it has not been seen yet.
+   * @param var Name of the variable.
+   * @param time The time of the value.
+   * @return The slot the value is stored in.
+   */
+  public synchronized int addSlot(String var, Double time)
+  {
+    Integer v = varIndex.get(var);
+    if(v == null)
+    {
+      v = vars.size();
+      vars.add(var);
+      varIndex.put(var, v);
+    }
+    Integer t = timeIndex.get(time);
+    if(t == null)
+    {
+      t = times.size();
+      times.add(time);
+      timeIndex.put(time, t);
+    }
+    Long key = makeKey(v, t);
+    Integer slot = slotIndex.get(key);
+    if(slot == null)
+    {
+      if(slotCount == slotVar.length)
+      {
+        slotVar = Arrays.copyOf(slotVar, slotCount*2);
+        slotTime = Arrays.copyOf(slotTime, slotCount*2);
+      }
+      slotVar[slotCount] = v;
+      slotTime[slotCount] = t;
+      slot = slotCount++;
+      slotIndex.put(key, slot);
+    }
+    return slot;
+  }
+  /**
+   * Gets the slot for a variable and time without adding it.
+   * @param var Name of the variable.
+   * @param time The time of the value.
+   * @return The slot or -1 if no value has been stored for this pair.
+   */
+  public int getSlot(String var, Double time)
+  {
+    Integer v = varIndex.get(var);
+    Integer t = timeIndex.get(time);
+    if(v == null || t == null)
+    {
+      return -1;
+    }
+    Integer slot = slotIndex.get(makeKey(v, t));
+    return slot == null ? -1 : slot;
+  }
+  /**
+   * @return The number of slots which have been handed out.
+   */
+  public int getSlotCount()
+  {
+    return slotCount;
+  }
+  /**
+   * @param slot A slot number.
+   * @return The variable name stored in the slot.
+   */
+  public String getVariable(int slot)
+  {
+    return vars.get(slotVar[slot]);
+  }
+  /**
+   * @param slot A slot number.
+   * @return The time stored in the slot.
+   */
+  public Double getTime(int slot)
+  {
+    return times.get(slotTime[slot]);
+  }
+  private static Long makeKey(int v, int t)
+  {
+    return Long.valueOf(((long)v << 32) | (t & 0xFFFFFFFFL));
+  }
+}
@@ -30,21 +30,51 @@
 package ModelInterface.PPsource;
 
 import java.awt.geom.Point2D;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
+import ModelInterface.common.LRUCacheMap;
+
+/**
+ * A DataRepository which keeps each layer in its own file on disk.  A bounded
+ * number of recently used layers are kept in memory and changes to them are only
+ * written back to disk once they are evicted.
+ * <p>
+ * Layer files have a fixed layout of xSize * ySize big endian doubles, x major,
+ * which is read and written through a memory mapping of the file.  The number of
+ * layers kept in memory may be set with -DModelInterface.RESIDENT_LAYERS and
+ * defaults to 16.
+ */
 public class DiskLayerRepository implements DataRepository {
+	/**
+	 * The system property which may be used to set the number of layers kept in
+	 * memory.
+	 */
+	public static final String RESIDENT_LAYERS_PROPERTY = "ModelInterface.RESIDENT_LAYERS";
+
+	/**
+	 * A layer held in memory.
+	 */
+	private static class Layer {
+		final double[][] data;
+		/**
+		 * If the data has changed since it was last written to disk.
+		 */
+		boolean dirty;
+		Layer(double[][] data, boolean dirty) {
+			this.data = data;
+			this.dirty = dirty;
+		}
+	}
+
 	/*
 	 * implements as a treemap of vars -> treemap of times -> location on disk
 	 */
@@ -53,26 +83,47 @@ public class DiskLayerRepository implements DataRepository {
 	String currName;
 	int xSize;
 	int ySize;
-	boolean dirty;
+	/**
+	 * The layer currLayer belongs to.
+	 */
+	private Layer current;
+	/**
+	 * The layers kept in memory by name.
+	 */
+	private final Map<String, Layer> resident;
 
 	// *********************************************************
 	// *****************Class Constructors**********************
 	// *********************************************************
 
 	public DiskLayerRepository() {
-		root = new TreeMap<String, TreeMap<Double, String>>();
-		xSize = 360;
-		ySize = 180;
-		currName = "";
-		dirty = false;
+		this(360, 180);
 	}
 
 	public DiskLayerRepository(int x, int y) {
+		this(x, y, Integer.getInteger(RESIDENT_LAYERS_PROPERTY, 16));
+	}
+
+	/**
+	 * @param x The number of cells in the x direction.
+	 * @param y The number of cells in the y direction.
+	 * @param maxResident The maximum number of layers to keep in memory.
+	 */
+	public DiskLayerRepository(int x, int y, int maxResident) {
 		root = new TreeMap<String, TreeMap<Double, String>>();
 		xSize = x;
 		ySize = y;
 		currName = "";
-		dirty = false;
+		resident = new LRUCacheMap<String, Layer>(Math.max(1, maxResident)) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Layer> eldest) {
+				if(super.removeEldestEntry(eldest)) {
+					evictLayer(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
 	}
 
 	// *********************************************************
@@ -81,16 +132,12 @@ public class DiskLayerRepository implements DataRepository {
 
 	public void changeLayer(String varName, double time) {
 		if (!currName.equals((varName + time))) {
-			if (dirty) {
-				writeLayer(currName, currLayer);
-			}
-
-			double[][] thisLayer = createLayer(varName, time);
+			// the previous layer stays in memory until it is evicted
+			createLayer(varName, time);
 
-			currLayer = thisLayer;
 			currName = (varName + time);
-			dirty = false; // just changed layer after reading from disk (or
-							// writing to disk)
+			current = resident.get(currName);
+			currLayer = current.data;
 		}
 	}
 
@@ -109,14 +156,15 @@ public class DiskLayerRepository implements DataRepository {
 				}
 			}
 
-			// storing new matrix identifier
+			// storing new matrix identifier, it will be written to disk once it
+			// is evicted
 			inVar.put(time, varName + time);
-			writeLayer(varName + time, newb);
+			resident.put(varName + time, new Layer(newb, true));
 
 			return newb;
 		}
 
-		return readLayer(varName + time);
+		return loadLayer(varName + time).data;
 	}
 
 	public double[][] getLayer(String varName, double time) {
@@ -127,7 +175,7 @@ public class DiskLayerRepository implements DataRepository {
 
 	public void setValue(int X, int Y, double value) {
 		currLayer[X][Y] = value;
-		dirty = true;
+		markDirty();
 	}
 
 	public void setValue(String varName, double time, int X, int Y, double value) {
@@ -143,7 +191,7 @@ public class DiskLayerRepository implements DataRepository {
 			} else {
 				currLayer[X][Y] += value;
 			}
-			dirty = true;
+			markDirty();
 		} catch (ArrayIndexOutOfBoundsException e) {
 			System.out.println("SEVERE: (" + X + "," + Y + ") out of bounds - PROGRAM TERMINATING");
 			System.exit(1);
@@ -197,13 +245,15 @@ public class DiskLayerRepository implements DataRepository {
 				// them
 				return -1;
 			}
-			holdTime = readLayer(holdEntry.getValue());
-			overwriteTime = readLayer(overwrite.get(thisTime));
+			holdTime = loadLayer(holdEntry.getValue()).data;
+			final Layer overwriteLayer = loadLayer(overwrite.get(thisTime));
+			overwriteTime = overwriteLayer.data;
 
-			// actually putting them together
-			overwriteTime = overMerge(overwriteTime, holdTime);
+			// actually putting them together, this is done in place
+			overMerge(overwriteTime, holdTime);
 			// replaciung the old info with this new info
-			writeLayer(holdName + thisTime, overwriteTime);
+			overwriteLayer.dirty = true;
+			resident.put(overwrite.get(thisTime), overwriteLayer);
 		}
 
 		// we have completely put hold's data in the passed var
@@ -343,44 +393,100 @@ public class DiskLayerRepository implements DataRepository {
 		return toReturn;
 	}
 
+	/**
+	 * Mark the current layer as changed.  The current layer could have been evicted
+	 * if other layers were used since it was changed to in which case it is put
+	 * back so the changes are not lost.
+	 */
+	private void markDirty() {
+		if (!current.dirty) {
+			current.dirty = true;
+			if (resident.get(currName) != current) {
+				resident.put(currName, current);
+			}
+		}
+	}
+
+	/**
+	 * Get a layer from memory or read it from disk if it is not resident.  The
+	 * current layer is reused even if it has been evicted so that there is only
+	 * ever one copy of a layer which may be changed.
+	 * 
+	 * @param Lname The name of the layer.
+	 * @return The layer which is now resident.
+	 */
+	private Layer loadLayer(String Lname) {
+		Layer ret = resident.get(Lname);
+		if (ret == null) {
+			// an evicted current layer was written to disk so it is up to date
+			ret = current != null && Lname.equals(currName) ? current : new Layer(readLayer(Lname), false);
+			resident.put(Lname, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Called when a layer is removed from memory to write back any changes.
+	 */
+	private void evictLayer(String Lname, Layer layer) {
+		if (layer.dirty) {
+			writeLayer(Lname, layer.data);
+			layer.dirty = false;
+		}
+	}
+
+	private long getLayerBytes() {
+		return (long) xSize * ySize * Double.BYTES;
+	}
+
 	private double[][] readLayer(String Lname) {
-		String fileName = Lname + ".lay";
+		File myFile = new File(Lname + ".lay");
 		double[][] toReturn = new double[xSize][ySize];
 
-		InputStream fin;
-		try {
-			fin = new FileInputStream(fileName);
-			DataInputStream in = new DataInputStream(fin);
-
+		try (FileChannel channel = FileChannel.open(myFile.toPath(), StandardOpenOption.READ)) {
+			DoubleBuffer in = channel.map(MapMode.READ_ONLY, 0, getLayerBytes()).asDoubleBuffer();
 			for (int i = 0; i < xSize; i++) {
-				for (int k = 0; k < ySize; k++) {
-					toReturn[i][k] = in.readDouble();
-				}
+				in.get(toReturn[i]);
 			}
-		} catch (FileNotFoundException e) {
 		} catch (IOException e) {
+			System.out.println("Could not read layer " + myFile + ": " + e);
 		}
 
 		return toReturn;
 	}
 
 	private void writeLayer(String Lname, double[][] lay) {
-		String fileName = Lname + ".lay";
-		File myFile = new File(fileName);
-		OutputStream fout;
-		try {
-			fout = new FileOutputStream(myFile);
-			DataOutputStream out = new DataOutputStream(fout);
-
+		File myFile = new File(Lname + ".lay");
+		boolean isNew = !myFile.exists();
+		try (FileChannel channel = FileChannel.open(myFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			DoubleBuffer out = channel.map(MapMode.READ_WRITE, 0, getLayerBytes()).asDoubleBuffer();
 			for (int i = 0; i < xSize; i++) {
-				for (int k = 0; k < ySize; k++) {
-					out.writeDouble(lay[i][k]);
-				}
+				out.put(lay[i]);
+			}
+			if (isNew) {
+				myFile.deleteOnExit();
 			}
-
-			myFile.deleteOnExit();
-		} catch (FileNotFoundException e) {
 		} catch (IOException e) {
+			System.out.println("Could not write layer " + myFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Drop a layer from memory without writing it and delete its file.
+	 */
+	private void deleteLayer(String Lname) {
+		resident.remove(Lname);
+		if (Lname.equals(currName)) {
+			currName = "";
+			current = null;
+			currLayer = null;
+		}
+		File toDelete = new File(Lname + ".lay");
+		// a file which is still mapped can not be deleted on some platforms until
+		// the mapping is garbage collected so leave it for exit
+		if (toDelete.exists() && !toDelete.delete()) {
+			toDelete.deleteOnExit();
 		}
 	}
 
@@ -388,12 +494,10 @@ public class DiskLayerRepository implements DataRepository {
 		TreeMap<Double, String> hold = root.get(varName);
 		hold.remove(time);
 
-		File toDelete = new File(varName + time + ".lay");
-		toDelete.delete();
+		deleteLayer(varName + time);
 	}
 
 	private void removeLayer(String varName) {
-		File toDelete;
 		Double timeName;
 		Map.Entry<Double, String> timeEntry;
 		TreeMap<Double, String> hold = root.get(varName);
@@ -403,8 +507,7 @@ public class DiskLayerRepository implements DataRepository {
 			timeEntry = iT.next();
 			timeName = timeEntry.getKey();
 
-			toDelete = new File(varName + timeName + ".lay");
-			toDelete.delete();
+			deleteLayer(varName + timeName);
 		}
 
 		root.remove(varName);
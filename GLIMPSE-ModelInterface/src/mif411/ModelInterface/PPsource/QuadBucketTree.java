@@ -73,11 +73,15 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.RecursiveTask;
 
 
 
@@ -88,12 +92,25 @@ import java.util.TreeSet;
  * corners will be in a different node. This allows any resolution without
  * infinite splitting of leafs. This structure implements rotation as well as splitting
  * so as to remain as packed as possible.
+ * <p>
+ * By default the values of the blocks in the tree are kept in a compact form of
+ * double arrays which share a {@link DataDictionary} for the variable and time names
+ * rather than as TreeMaps of boxed values. This may be turned off with
+ * -DModelInterface.COMPACT_TREE_STORAGE=false. Mask extraction and range searches
+ * walk the quadrants of the tree in parallel using the common fork/join pool.
  * 
  * @author Vincent Nibali
  * @version 1.0
  */
 public class QuadBucketTree implements DataIndex
 {
+  /**
+   * The system property which may be used to keep block data in TreeMaps.
+   */
+  public static final String COMPACT_STORAGE_PROPERTY = "ModelInterface.COMPACT_TREE_STORAGE";
+  //searches only fork tasks for nodes above this depth, deeper nodes are walked by the task itself
+  private static final int FORK_DEPTH = 6;
+  
   private QBNode root; //root node, might wanna hold on to this one
   public int size; //the number of DB's in the tree
   public double resolution; //resolution of the DataBlocks stored in teh tree
@@ -104,10 +121,9 @@ public class QuadBucketTree implements DataIndex
   private double minY;
   private double maxY;
   private double centerY;
-  //used as globals for some recursive functions
-  private TreeSet rangePrint; //stores a list of data which was found in rangeSearch function
-  private TreeMap makeRegion; //stores the data hierarchy to be returned in extractRegion
+  private DataDictionary dictionary; //shared by all blocks when stored compactly, otherwise null
   
+  //used as globals for some recursive functions
   private int occured; //a counter for the number of times something (ususally a datablock) has occured
   
 //*********************************************************
@@ -121,6 +137,7 @@ public class QuadBucketTree implements DataIndex
   {
     //um, never use this one
     size = 0;
+    dictionary = isCompactStorageEnabled() ? new DataDictionary() : null;
     root = new QBNode();
     root.leaf = false;
     QBNode toAdd;
@@ -145,6 +162,7 @@ public class QuadBucketTree implements DataIndex
     //setting up basic information
     size = 0;
     avg = true;
+    dictionary = isCompactStorageEnabled() ? new DataDictionary() : null;
     minX = x1;
     maxX = x2;
     centerX = (x1+x2)/2;
@@ -172,6 +190,15 @@ public class QuadBucketTree implements DataIndex
 //*************Begin Functions Proper**********************
 //*********************************************************
 
+  /**
+   * Checks the system properties to see if block data should be stored compactly.
+   * @return True if compact storage is enabled which is the default.
+   */
+  public static boolean isCompactStorageEnabled()
+  {
+    return Boolean.parseBoolean(System.getProperty(COMPACT_STORAGE_PROPERTY, "true"));
+  }
+
   public void setTrackSums(boolean trackSums) {
 	  // TODO: resolve this.
 	  throw new UnsupportedOperationException();
@@ -239,6 +266,10 @@ public class QuadBucketTree implements DataIndex
   {
     QBNode nextNode;
     size++;
+    if(dictionary != null)
+    { //the block now belongs to this tree so its data is moved into the tree's dictionary
+      val.compact(dictionary);
+    }
     //starting the recursive add function, will propagate through all blocks, adding where appropriate
     for(int i = 0; i < 4; i++)
     {
@@ -360,8 +391,11 @@ public class QuadBucketTree implements DataIndex
      * this shouldnt matter because for the application this function will never get used except in testing
      */
     Comparator comp = new coordCompare();
-    rangePrint = new TreeSet(comp);
-    rangeHelp(root, x, y, rad);
+    TreeSet rangePrint = new TreeSet(comp);
+    for(BlockHit hit : new RangeSearch(root, 0, x, y, rad).invoke())
+    {
+      rangePrint.add(hit.block);
+    }
     if(rangePrint.isEmpty())
     {
       printDeep("<error command=\"rangeSearch\" message=\"No DataBlocks exist in the given range\">", 1);
@@ -404,9 +438,47 @@ public class QuadBucketTree implements DataIndex
      * print out in this approx. form
      * WHAT ABOUT OFF RESOLUTIONS- apparently dont worry about it
      */
-    makeRegion = new TreeMap();
-    
-    extractMaskHelp(root, m);
+    final TreeMap makeRegion = new TreeMap();
+    //finding the blocks and their weights is split across quadrants, the region is then built from the hits
+    ArrayList<BlockHit> hits = new MaskSearch(root, 0, m).invoke();
+    //a block will be found once for each leaf it lies in
+    Set<DataBlock> seen = Collections.newSetFromMap(new IdentityHashMap<DataBlock, Boolean>());
+    for(BlockHit hit : hits)
+    {
+      if(!seen.add(hit.block))
+      {
+        continue;
+      }
+      if(!makeRegion.containsKey("weight"))
+      {
+        //setting up the var and time for weight of blocks if not done yet
+        TreeMap wTime = new TreeMap();
+        wTime.put("0", new TreeMap(new coordComparePoint()));
+        makeRegion.put("weight", wTime);
+      }
+      //adding a data point for the weight of this DB
+      final Point2D.Double addPoint = new Point2D.Double(hit.block.x, hit.block.y);
+      ((TreeMap)((TreeMap)makeRegion.get("weight")).get("0")).put(addPoint, new Double(hit.weight));
+      //add the data to the correct TreeMap (based on data name) then time
+      hit.block.visitValues(new DataBlock.ValueVisitor() {
+        public void visit(String var, Double time, double value)
+        {
+          TreeMap times = (TreeMap)makeRegion.get(var);
+          if(times == null)
+          {//if makeRegion does not yet have a mapping for this variable, add it now
+            times = new TreeMap();
+            makeRegion.put(var, times);
+          }
+          TreeMap points = (TreeMap)times.get(time);
+          if(points == null)
+          {//if makeRegion's mapping for the variable does not contain this time yet, add it now
+            points = new TreeMap(new coordComparePoint());
+            times.put(time, points);
+          }
+          points.put(addPoint, new Double(value));
+        }
+      });
+    }
     return makeRegion;
   }
   /**
@@ -488,13 +560,13 @@ public class QuadBucketTree implements DataIndex
         {
           entry = (DataBlock)currNode.data.get(i);
           printDeep("<block location=\"("+entry.x+","+entry.y+")\" resolution=\""+entry.height+"\">", currH+1);
-          if(entry.data.isEmpty())
+          if(entry.isEmptyData())
           {
             printDeep("<entry key=\"EMPTY\"/>", currH+2);
           } else
           {
             Map.Entry var, time;
-            Iterator iV = entry.data.entrySet().iterator();
+            Iterator iV = entry.getDataMap().entrySet().iterator();
             //instead of just printing data, need to go one level lower to get time
             while(iV.hasNext())
             {
@@ -539,13 +611,13 @@ public class QuadBucketTree implements DataIndex
         {
           entry = (DataBlock)currNode.data.get(i);
           printDeepXML("<block location=\"("+entry.x+","+entry.y+")\" resolution=\""+entry.height+"\">", currH+1, output);
-          if(entry.data.isEmpty())
+          if(entry.isEmptyData())
           {
             printDeepXML("<entry key=\"EMPTY\"/>", currH+2, output);
           } else
           {
             Map.Entry var, time;
-            Iterator iV = entry.data.entrySet().iterator();
+            Iterator iV = entry.getDataMap().entrySet().iterator();
             //instead of just printing data, need to go one level lower to get time
             while(iV.hasNext())
             {
@@ -608,36 +680,6 @@ public class QuadBucketTree implements DataIndex
       addBlockHelp(currNode, (DataBlock)hold.get(i));
     }
   }
-  private void rangeHelp(QBNode currNode, double x, double y, double rad)
-  {
-    if(currNode.leaf)
-    {
-      //hey its a leaf node! yay! if its not empty add DBs to the print list!
-      if(currNode.data.size()>0)
-      {
-        DataBlock hold;
-        for(int i = 0; i < currNode.data.size(); i++)
-        {
-          hold = (DataBlock)currNode.data.get(i);
-          if(hold.intersects(x-rad, y+rad, (rad*2), (rad*2)))
-          {
-            rangePrint.add(hold);
-          }
-        }
-      }
-    }else
-    {//this is a guide node, call rangehelp for all subnodes which overlap square in some way
-      QBNode nextNode;
-      for(int i = 0; i < 4; i++)
-      {
-        nextNode = ((QBNode)currNode.data.get(i));
-        if(nextNode.intersects(x-rad, y+rad, (rad*2), (rad*2)))
-        { //DB overlaps quad, so enter it and add or look at children
-          rangeHelp(nextNode, x, y, rad);
-        }
-      }
-    }
-  }
   private void addDataHelp(QBNode currNode, DataBlock val, boolean avg)
   {
     if(currNode.leaf)
@@ -678,43 +720,23 @@ public class QuadBucketTree implements DataIndex
         if(weight > 0)
         { //then there is some overlap, add data in some way
           String varName;
-          TreeMap var, builder;
-          Double newValue, addValue, oldValue, timeName;
+          TreeMap var;
+          Double addValue, timeName;
+          double oldValue;
           
           System.out.println("\tN: "+currNode.minX+" "+currNode.maxX+" - "+currNode.minY+" "+currNode.maxY);
           System.out.println("\tE: "+entry.x+" "+(entry.x+entry.width)+" - "+entry.y+" "+(entry.y+entry.height));
           System.out.println("\tD: "+val.x+" "+(val.x+val.width)+" - "+val.y+" "+(val.y+val.height)+" -> "+weight);
           
-          varName = (String)val.data.firstKey();
-          var = (TreeMap)val.data.get(varName);
+          varName = (String)val.getDataMap().firstKey();
+          var = (TreeMap)val.getDataMap().get(varName);
           timeName = (Double)var.firstKey();
           addValue = (Double)var.get(timeName);
           
-          if(entry.data.containsKey(varName))
-          { //already an entry for this variable
-            if(((TreeMap)entry.data.get(varName)).containsKey(timeName))
-            { //time already exists, add together values, replace old value
-              oldValue = (Double)((TreeMap)entry.data.get(varName)).get(timeName);
-              newValue = new Double(oldValue.doubleValue()+(addValue.doubleValue()*weight));
-              ((TreeMap)entry.data.get(varName)).put(timeName, newValue);
-              
-              System.out.println("D"+oldValue+"->"+newValue+" ");
-              
-            } else
-            { //must add time
-              newValue = new Double(addValue.doubleValue()*weight);
-              ((TreeMap)entry.data.get(varName)).put(timeName, newValue);
-              
-              System.out.println("T"+newValue+" ");
-            }
-          } else
-          { //must add variable
-            builder = new TreeMap();
-            newValue = new Double(addValue.doubleValue()*weight);
-            builder.put(timeName, newValue);
-            entry.data.put(varName, builder);
-            System.out.println("V"+newValue+" ");
-          }
+          //a missing variable or time starts from 0, otherwise the values are added together
+          oldValue = entry.getValue(varName, timeName);
+          entry.addValue(varName, timeName, addValue.doubleValue()*weight);
+          System.out.println((Double.isNaN(oldValue) ? "N" : "D"+oldValue+"->")+entry.getValue(varName, timeName)+" ");
         }
       }
     } else
@@ -764,7 +786,7 @@ public class QuadBucketTree implements DataIndex
       }
     }
   }
-  private void getDataHelp(QBNode currNode, DataBlock val)
+  private void getDataHelp(QBNode currNode, final DataBlock val)
   {
     /*
      * recurses through structure returning the valuewhere nodes overlap, weighted by how much they overlap
@@ -772,8 +794,6 @@ public class QuadBucketTree implements DataIndex
     if(currNode.leaf)
     {
       DataBlock entry;
-      Double iHateObjects;
-      TreeMap builder;
       double weight = 0;
       for(int i = 0; i < currNode.data.size(); i++)
       {
@@ -796,48 +816,14 @@ public class QuadBucketTree implements DataIndex
         if(weight > 0)
         { //then entry's information should be used in some way (add or average is the same here)
           occured++; //found somewhere to return data from
-          if(val.data.isEmpty())
-          { //this will fill val with all of this trees variable names
-            Map.Entry var, time;
-            Iterator iV = entry.data.entrySet().iterator();
-            while(iV.hasNext())
-            {
-              //iterating through variables, create new empty treemap everytime
-              var = (Map.Entry)iV.next();
-              Iterator iT = ((TreeMap)var.getValue()).entrySet().iterator();
-              builder = new TreeMap();
-              while(iT.hasNext())
-              {
-                //filling treemap with weighted values for each occured time
-                time = (Map.Entry)iT.next();
-                iHateObjects = new Double((((Double)time.getValue()).doubleValue()*weight));
-                builder.put(time.getKey(), iHateObjects);
-              }
-              //adding the treemap of time for each seperate variable after it is built
-              val.data.put((String)var.getKey(), builder);
-            }
-          }
-          else
-          { //same as above but adding together with old data in val
-            Map.Entry var, time;
-            Iterator iV = entry.data.entrySet().iterator();
-            while(iV.hasNext())
+          //weighted values of entry are added to val, adding variables and times as needed
+          final double entryWeight = weight;
+          entry.visitValues(new DataBlock.ValueVisitor() {
+            public void visit(String var, Double time, double value)
             {
-              //iterating through variables, create new empty treemap everytime
-              var = (Map.Entry)iV.next();
-              Iterator iT = ((TreeMap)var.getValue()).entrySet().iterator();
-              builder = new TreeMap();
-              while(iT.hasNext())
-              {
-                //filling treemap with weighted values for each occured time
-                time = (Map.Entry)iT.next();
-                iHateObjects = new Double((((Double)((TreeMap)val.data.get(var.getKey())).get(time.getKey())).doubleValue()+(((Double)time.getValue()).doubleValue()*weight)));
-                builder.put(time.getKey(), iHateObjects);
-              }
-              //adding the treemap of time for each seperate variable after it is built
-              val.data.put((String)var.getKey(), builder);
+              val.addValue(var, time, value*entryWeight);
             }
-          }
+          });
         }
       }
     } else
@@ -869,24 +855,13 @@ public class QuadBucketTree implements DataIndex
           //need to iterate through TreeSet to add all data
           //needless to say, iterating through treesets isnt sweet
           //*removed the basecase entirely (only 1 variable to merge) its the same code... so yeah
-          Map.Entry var, time;
-          Iterator iV = sourceDB.data.entrySet().iterator();
-          while(iV.hasNext())
-          {
-            var = (Map.Entry)iV.next();
-            if(entry.data.containsKey(var.getKey()))
-            { //then add whatever time value was present
-              Iterator iT = ((TreeMap)var.getValue()).entrySet().iterator();
-              while(iT.hasNext())
-              {
-                time = (Map.Entry)iT.next();
-                ((TreeMap)entry.data.get(var.getKey())).put(time.getKey(), time.getValue());
-              }
-            } else
-            { //add the variable itself
-              entry.data.put((String)var.getKey(), (TreeMap)var.getValue());
+          final DataBlock target = entry;
+          sourceDB.visitValues(new DataBlock.ValueVisitor() {
+            public void visit(String var, Double time, double value)
+            {
+              target.putValue(var, time, value);
             }
-          }
+          });
         }
       }
     } else
@@ -898,72 +873,137 @@ public class QuadBucketTree implements DataIndex
       }
     }
   }
-  private void extractMaskHelp(QBNode currNode, RegionMask m)
+  
+  /**
+   * A block found by a search along with how much of it was matched.
+   */
+  private static class BlockHit
   {
-    if(currNode.leaf)
-    { //remember data in makeRegion is stored in TreeMap->TreeMap->TreeMap
-      DataBlock entry;
-      Point2D.Double addPoint;
-      double weight;
-      for(int i = 0; i < currNode.data.size(); i++)
+    final DataBlock block;
+    final double weight;
+    BlockHit(DataBlock block, double weight)
+    {
+      this.block = block;
+      this.weight = weight;
+    }
+  }
+  /**
+   * Walks a node of the tree collecting the blocks which are matched.  The child
+   * quadrants near the top of the tree are searched as separate fork/join tasks.
+   */
+  private static abstract class BlockSearch extends RecursiveTask<ArrayList<BlockHit>>
+  {
+    private static final long serialVersionUID = 1L;
+    final QBNode node;
+    final int depth;
+    BlockSearch(QBNode node, int depth)
+    {
+      this.node = node;
+      this.depth = depth;
+    }
+    //whether the search needs to enter the node
+    abstract boolean enter(QBNode nextNode);
+    //how much of the block is matched, blocks with a weight of 0 are skipped
+    abstract double weigh(DataBlock entry);
+    abstract BlockSearch createChild(QBNode nextNode);
+    protected ArrayList<BlockHit> compute()
+    {
+      ArrayList<BlockHit> hits = new ArrayList<BlockHit>();
+      if(node.leaf)
       {
-        entry = (DataBlock)currNode.data.get(i);
-        //making sure this block of data is not just within the regions bounding box, but also
-        //lies over a region which is marked(1) as in the region
-        weight = m.inRegion(entry.x, entry.y, entry.width, entry.height);
-        if(weight > 0)
+        DataBlock entry;
+        double weight;
+        for(int i = 0; i < node.data.size(); i++)
         {
-          if(!makeRegion.containsKey("weight"))
+          entry = (DataBlock)node.data.get(i);
+          weight = weigh(entry);
+          if(weight > 0)
           {
-            //setting up the var and time for weight of blocks if not done yet
-            TreeMap wTime = new TreeMap();
-          	wTime.put("0", new TreeMap(new coordComparePoint()));
-          	makeRegion.put("weight", wTime);
-          }
-          //adding a data point for the weight of this DB
-          addPoint = new Point2D.Double(entry.x, entry.y);
-          ((TreeMap)((TreeMap)makeRegion.get("weight")).get("0")).put(addPoint, new Double(weight));
-          //add the data to the correct TreeMap (based on data name)
-          //iterate through the data in this Node, by Var, then Time, adding to makeRegion
-          Map.Entry var, time;
-          Iterator iV = entry.data.entrySet().iterator();
-          while(iV.hasNext())
-          {
-            //iterating through variables
-            var = (Map.Entry)iV.next();
-            if(!makeRegion.containsKey(var.getKey()))
-            {//if makeRegion does not yet have a mapping for this variable, add it now
-              makeRegion.put(var.getKey(), new TreeMap());
-            }
-            Iterator iT = ((TreeMap)var.getValue()).entrySet().iterator();
-            while(iT.hasNext())
-            {
-              time = (Map.Entry)iT.next();
-              if(!((TreeMap)makeRegion.get(var.getKey())).containsKey(time.getKey()))
-              {//if makeRegion's mapping for the variable does not contain this time yet, add it now
-                ((TreeMap)makeRegion.get(var.getKey())).put(time.getKey(), new TreeMap(new coordComparePoint()));
-              }
-              //ok we can finally add the actual data as a (point, value) pair to lowest level treeMap
-              addPoint = new Point2D.Double(entry.x, entry.y);
-              ((TreeMap)((TreeMap)makeRegion.get(var.getKey())).get(time.getKey())).put(addPoint, time.getValue());
-            }
+            hits.add(new BlockHit(entry, weight));
           }
         }
+        return hits;
       }
-    } else
-    {
+      ArrayList<BlockSearch> children = new ArrayList<BlockSearch>(4);
       QBNode nextNode;
-      //need to keep going down levels to find where the data resides
       for(int i = 0; i < 4; i++)
       {
-        nextNode = ((QBNode)currNode.data.get(i));
-        if(nextNode.intersects(m.x, m.y, (m.width+m.resolution), (m.height+m.resolution)))
-        { //Node overlaps boundingbox of mask in some way, so enter it and check children
-          extractMaskHelp((QBNode)currNode.data.get(i), m);
+        nextNode = (QBNode)node.data.get(i);
+        if(enter(nextNode))
+        {
+          children.add(createChild(nextNode));
+        }
+      }
+      if(depth < FORK_DEPTH)
+      {
+        invokeAll(children);
+        for(BlockSearch child : children)
+        {
+          hits.addAll(child.join());
+        }
+      } else
+      {
+        for(BlockSearch child : children)
+        {
+          hits.addAll(child.compute());
         }
       }
+      return hits;
+    }
+  }
+  /**
+   * Finds the blocks which lie over a marked part of a region mask, weighted by
+   * the portion of the block in the region.
+   */
+  private static class MaskSearch extends BlockSearch
+  {
+    private static final long serialVersionUID = 1L;
+    final RegionMask m;
+    MaskSearch(QBNode node, int depth, RegionMask m)
+    {
+      super(node, depth);
+      this.m = m;
+    }
+    boolean enter(QBNode nextNode)
+    { //Node overlaps boundingbox of mask in some way, so enter it and check children
+      return nextNode.intersects(m.x, m.y, (m.width+m.resolution), (m.height+m.resolution));
+    }
+    double weigh(DataBlock entry)
+    {
+      //making sure this block of data is not just within the regions bounding box, but also
+      //lies over a region which is marked(1) as in the region
+      return m.inRegion(entry.x, entry.y, entry.width, entry.height);
+    }
+    BlockSearch createChild(QBNode nextNode)
+    {
+      return new MaskSearch(nextNode, depth+1, m);
+    }
+  }
+  /**
+   * Finds the blocks which overlap a square around a point.
+   */
+  private static class RangeSearch extends BlockSearch
+  {
+    private static final long serialVersionUID = 1L;
+    final double x, y, rad;
+    RangeSearch(QBNode node, int depth, double x, double y, double rad)
+    {
+      super(node, depth);
+      this.x = x;
+      this.y = y;
+      this.rad = rad;
+    }
+    boolean enter(QBNode nextNode)
+    {
+      return nextNode.intersects(x-rad, y+rad, (rad*2), (rad*2));
+    }
+    double weigh(DataBlock entry)
+    {
+      return entry.intersects(x-rad, y+rad, (rad*2), (rad*2)) ? 1 : 0;
+    }
+    BlockSearch createChild(QBNode nextNode)
+    {
+      return new RangeSearch(nextNode, depth+1, x, y, rad);
     }
   }
-  
-  
 }
@@ -0,0 +1,340 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by US EPA.
+* THE GOVERNMENT MAKES NO WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+*
+* SUPPORT
+* For the GLIMPSE project, GCAM development, data processing, and support for 
+* policy implementations has been led by Dr. Steven J. Smith of PNNL, via Interagency 
+* Agreements 89-92423101 and 89-92549601. Contributors * from PNNL include 
+* Maridee Weber, Catherine Ledna, Gokul Iyer, Page Kyle, Marshall Wise, Matthew 
+* Binsted, and Pralit Patel. Coding contributions have also been made by Aaron 
+* Parks and Yadong Xu of ARA through the EPAs Environmental Modeling and 
+* Visualization Laboratory contract. 
+* 
+*/
+package ModelInterface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.swing.table.TableModel;
+
+/**
+ * The unit conversion rules read from the units file.  The file is parsed once
+ * and the rules are indexed by the unit they convert from with the patterns they
+ * use already compiled.  Rules are only read again if the file changes.
+ */
+public class UnitConversionRules {
+	private static UnitConversionRules cached;
+
+	private final String location;
+	private final long lastModified;
+	private final long length;
+
+	/**
+	 * Rules by lower case from unit, most specific first.
+	 */
+	private final Map<String, List<Rule>> rulesByUnit = new HashMap<String, List<Rule>>();
+
+	/**
+	 * A conversion along with its precompiled patterns.
+	 */
+	private static class Rule {
+		final UnitConversionInstance uci;
+		final int rank;
+		final boolean anyQuery;
+		final Pattern[] headings;
+		final Pattern[] values;
+
+		Rule(UnitConversionInstance uci) {
+			this.uci = uci;
+			final String query = uci.getQuery();
+			final boolean hasQuery = query != null && query.trim().length() > 0;
+			// queries have elevated importance so give them two points
+			int rank = hasQuery ? 2 : 0;
+			// not all conversions have a query specified and wildcards can not be
+			// ruled out
+			anyQuery = !hasQuery || query.contains("*");
+			final String[][] conditions = { { uci.getHeadingOne(), uci.getValueOne() },
+					{ uci.getHeadingTwo(), uci.getValueTwo() }, { uci.getHeadingThree(), uci.getValueThree() },
+					{ uci.getHeadingFour(), uci.getValueFour() } };
+			final List<Pattern> headingList = new ArrayList<Pattern>();
+			final List<Pattern> valueList = new ArrayList<Pattern>();
+			for (String[] condition : conditions) {
+				if (condition[0] != null && condition[0].trim().length() > 0) {
+					++rank;
+					headingList.add(Pattern.compile(condition[0]));
+					// values are matched case insensitive with * as a wildcard
+					valueList.add(Pattern
+							.compile("\\Q" + condition[1].toLowerCase().replace("*", "\\E.*?\\Q") + "\\E"));
+				}
+			}
+			this.rank = rank;
+			headings = headingList.toArray(new Pattern[headingList.size()]);
+			values = valueList.toArray(new Pattern[valueList.size()]);
+		}
+
+		boolean appliesTo(String queryName) {
+			return anyQuery || uci.getQuery().compareToIgnoreCase(queryName) == 0;
+		}
+	}
+
+	private UnitConversionRules(String location, long lastModified, long length) {
+		this.location = location;
+		this.lastModified = lastModified;
+		this.length = length;
+	}
+
+	/**
+	 * Get the rules from the units file set in InterfaceMain.
+	 * 
+	 * @return The rules or null if there is no units file.
+	 */
+	public static UnitConversionRules getInstance() {
+		return getInstance(InterfaceMain.unitFileLocation);
+	}
+
+	/**
+	 * Get the rules from the given units file, which will only be read if it was not
+	 * read before or has changed since.
+	 * 
+	 * @param location The units file which may also be a resource on the class path.
+	 * @return The rules or null if no file was given.
+	 */
+	public static synchronized UnitConversionRules getInstance(String location) {
+		if (location == null || location.length() == 0) {
+			return null;
+		}
+		final File unitsFile = new File(location);
+		final long lastModified = unitsFile.lastModified();
+		final long length = unitsFile.length();
+		if (cached == null || !cached.location.equals(location) || cached.lastModified != lastModified
+				|| cached.length != length) {
+			cached = new UnitConversionRules(location, lastModified, length);
+			try {
+				cached.read(unitsFile);
+			} catch (Exception e) {
+				System.out.println("Could not read units file: " + e.toString());
+			}
+		}
+		return cached;
+	}
+
+	private void read(File unitsFile) throws IOException {
+		final InputStream unitsStream = unitsFile.exists() ? Files.newInputStream(unitsFile.toPath())
+				: getClass().getClassLoader().getResourceAsStream(location);
+		if (unitsStream == null) {
+			throw new FileNotFoundException("Units file not found: " + location);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(unitsStream, StandardCharsets.UTF_8))) {
+			// first line is header
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith("#")) {
+					addRule(splitLine(line));
+				}
+			}
+		} finally {
+			final Comparator<Rule> mostSpecificFirst = new Comparator<Rule>() {
+				public int compare(Rule lhs, Rule rhs) {
+					return Integer.compare(rhs.rank, lhs.rank);
+				}
+			};
+			for (List<Rule> rules : rulesByUnit.values()) {
+				Collections.sort(rules, mostSpecificFirst);
+			}
+		}
+	}
+
+	/**
+	 * Split a line on commas which are not within quotes, then remove the quotes
+	 * and trim each field.  Trailing empty fields are dropped.
+	 */
+	static String[] splitLine(String line) {
+		final List<String> ret = new ArrayList<String>();
+		boolean inQuotes = false;
+		int start = 0;
+		for (int i = 0; i < line.length(); ++i) {
+			final char c = line.charAt(i);
+			if (c == '"') {
+				inQuotes = !inQuotes;
+			} else if (c == ',' && !inQuotes) {
+				ret.add(line.substring(start, i));
+				start = i + 1;
+			}
+		}
+		ret.add(line.substring(start));
+		int size = ret.size();
+		while (size > 1 && ret.get(size - 1).isEmpty()) {
+			--size;
+		}
+		final String[] fields = new String[size];
+		for (int i = 0; i < size; ++i) {
+			fields[i] = ret.get(i).replace("\"", "").trim();
+		}
+		return fields;
+	}
+
+	private void addRule(String[] parsedLine) {
+		// assume each line has a toUnit and Conversion
+		if (parsedLine.length < 3) {
+			return;
+		}
+		final String fromUnit = parsedLine[0];
+		final String toUnit = parsedLine[1];
+		final Double conversionFactor = Double.parseDouble(parsedLine[2]);
+		// check for entry in query field, set it null if blank
+		final String query = parsedLine.length >= 4 && parsedLine[3].length() > 0 ? parsedLine[3] : null;
+		// check for each heading and value, setting them both to null if there is no
+		// value for either
+		final String[] conditions = new String[8];
+		for (int i = 0; i < conditions.length; i += 2) {
+			if (parsedLine.length >= i + 6 && parsedLine[i + 4].length() > 0 && parsedLine[i + 5].length() > 0) {
+				conditions[i] = parsedLine[i + 4];
+				conditions[i + 1] = parsedLine[i + 5];
+			}
+		}
+		// units are matched ignoring case
+		List<Rule> rules = rulesByUnit.get(fromUnit.toLowerCase());
+		if (rules == null) {
+			rules = new ArrayList<Rule>();
+			rulesByUnit.put(fromUnit.toLowerCase(), rules);
+		}
+		rules.add(new Rule(new UnitConversionInstance(fromUnit, toUnit, conversionFactor, query, conditions[0],
+				conditions[1], conditions[2], conditions[3], conditions[4], conditions[5], conditions[6],
+				conditions[7])));
+	}
+
+	/**
+	 * @return If there are no rules at all.
+	 */
+	public boolean isEmpty() {
+		return rulesByUnit.isEmpty();
+	}
+
+	/**
+	 * Convert the rows of a query result table using the most specific rule which
+	 * matches each row.  The units are expected in the last column and the new
+	 * units are set there.  Each conversion factor is then applied to all of the
+	 * numeric values of the rows it matched one column at a time.
+	 * 
+	 * @param queryName The name of the query the table is for.
+	 * @param tm        The table to convert.
+	 */
+	public void convert(String queryName, TableModel tm) {
+		final int numRows = tm.getRowCount();
+		final int numCols = tm.getColumnCount();
+		if (numRows == 0 || rulesByUnit.isEmpty()) {
+			return;
+		}
+		queryName = queryName.trim();
+		final String[] headers = new String[numCols];
+		for (int col = 0; col < numCols; ++col) {
+			headers[col] = tm.getColumnName(col);
+		}
+		// the table column each rule heading refers to
+		final Map<Pattern, Integer> headingColumns = new HashMap<Pattern, Integer>();
+
+		// find the factor for each row, using NaN for rows which are not converted
+		final double[] factors = new double[numRows];
+		boolean hasFactor = false;
+		for (int row = 0; row < numRows; ++row) {
+			factors[row] = Double.NaN;
+			final Object units = tm.getValueAt(row, numCols - 1);
+			final List<Rule> rules = units == null ? null : rulesByUnit.get(units.toString().toLowerCase());
+			if (rules == null) {
+				continue;
+			}
+			for (Rule rule : rules) {
+				if (rule.appliesTo(queryName) && matches(rule, row, tm, headers, headingColumns)) {
+					tm.setValueAt(rule.uci.getToUnit() + "", row, numCols - 1);
+					if (rule.uci.getConversionFactor() != null) {
+						factors[row] = rule.uci.getConversionFactor();
+						hasFactor = true;
+					}
+					break;
+				}
+			}
+		}
+		if (!hasFactor) {
+			return;
+		}
+		for (int col = 0; col < numCols; ++col) {
+			for (int row = 0; row < numRows; ++row) {
+				if (!Double.isNaN(factors[row])) {
+					final Object value = tm.getValueAt(row, col);
+					final Double tableVal = toDouble(value);
+					if (tableVal != null) {
+						tm.setValueAt(tableVal * factors[row], row, col);
+					}
+				}
+			}
+		}
+	}
+
+	private static Double toDouble(Object value) {
+		if (value instanceof Double) {
+			return (Double) value;
+		} else if (value == null) {
+			return null;
+		}
+		try {
+			return Double.parseDouble(value.toString());
+		} catch (NumberFormatException e) {
+			// only care it's not a number
+			return null;
+		}
+	}
+
+	private static boolean matches(Rule rule, int row, TableModel tm, String[] headers,
+			Map<Pattern, Integer> headingColumns) {
+		for (int i = 0; i < rule.headings.length; ++i) {
+			Integer col = headingColumns.get(rule.headings[i]);
+			if (col == null) {
+				col = -1;
+				for (int j = 0; j < headers.length && col == -1; ++j) {
+					if (rule.headings[i].matcher(headers[j]).matches()) {
+						col = j;
+					}
+				}
+				headingColumns.put(rule.headings[i], col);
+			}
+			// a heading which is not in the table is not used to rule out a match
+			if (col >= 0 && !rule.values[i].matcher(tm.getValueAt(row, col).toString().toLowerCase()).matches()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
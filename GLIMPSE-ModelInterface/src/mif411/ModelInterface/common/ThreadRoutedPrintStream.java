@@ -0,0 +1,141 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * A PrintStream which may be routed to a different destination for just the
+ * current thread.  This allows code which writes to System.out or System.err to
+ * have its output redirected while it runs without swapping the process wide
+ * streams, which would also redirect any other threads running at the same time.
+ * <p>
+ * The process wide streams are replaced once, the first time they are requested,
+ * and any thread which has not set a route writes to the original stream.
+ */
+public class ThreadRoutedPrintStream extends PrintStream {
+	/**
+	 * An output stream which writes to the destination of the current thread.
+	 */
+	private static class Dispatcher extends OutputStream {
+		final PrintStream defaultStream;
+		final ThreadLocal<PrintStream> route = new ThreadLocal<PrintStream>();
+
+		Dispatcher(PrintStream defaultStream) {
+			this.defaultStream = defaultStream;
+		}
+		PrintStream target() {
+			final PrintStream ret = route.get();
+			return ret != null ? ret : defaultStream;
+		}
+		@Override
+		public void write(int b) throws IOException {
+			target().write(b);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target().write(b, off, len);
+		}
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+	}
+
+	/**
+	 * A stream which discards everything written to it.
+	 */
+	public static final PrintStream NULL_STREAM = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+			// ignore all
+		}
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// ignore all
+		}
+	});
+
+	private final Dispatcher dispatcher;
+
+	private ThreadRoutedPrintStream(Dispatcher dispatcher) {
+		super(dispatcher, true);
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Get System.out as a routable stream, replacing it if necessary.
+	 * @return The routable System.out.
+	 */
+	public static synchronized ThreadRoutedPrintStream out() {
+		if(!(System.out instanceof ThreadRoutedPrintStream)) {
+			System.setOut(new ThreadRoutedPrintStream(new Dispatcher(System.out)));
+		}
+		return (ThreadRoutedPrintStream)System.out;
+	}
+
+	/**
+	 * Get System.err as a routable stream, replacing it if necessary.
+	 * @return The routable System.err.
+	 */
+	public static synchronized ThreadRoutedPrintStream err() {
+		if(!(System.err instanceof ThreadRoutedPrintStream)) {
+			System.setErr(new ThreadRoutedPrintStream(new Dispatcher(System.err)));
+		}
+		return (ThreadRoutedPrintStream)System.err;
+	}
+
+	/**
+	 * Route anything the current thread writes to this stream to the given
+	 * destination.
+	 * @param destination Where to write to, or null to write to the original stream.
+	 * @return The previous destination for the current thread so that it may be
+	 *         restored, null if the thread was using the original stream.
+	 */
+	public PrintStream route(PrintStream destination) {
+		flush();
+		final PrintStream previous = dispatcher.route.get();
+		if(destination == null) {
+			dispatcher.route.remove();
+		} else {
+			dispatcher.route.set(destination);
+		}
+		return previous;
+	}
+
+	/**
+	 * @return The stream which was replaced and that threads write to by default.
+	 */
+	public PrintStream getDefaultStream() {
+		return dispatcher.defaultStream;
+	}
+}